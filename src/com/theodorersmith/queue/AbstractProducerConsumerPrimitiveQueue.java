@@ -0,0 +1,263 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+// Shared logic for the primitive queues (ProducerConsumerIntQueue, ProducerConsumerLongQueue, ProducerConsumerDoubleQueue
+// and the byte record ProducerConsumerRecordQueue), and for ProducerConsumerPersistentQueue. They work just like ProducerConsumerConcurrentQueue - a read lock and
+// a write lock around a circular array, head/tail sequences on their own cache lines, and one WaiterQueue per side so each
+// item (or slot) wakes exactly one parked thread - except that the items live in a primitive array (or a ByteBuffer), so
+// nothing is boxed and nothing is allocated per item.
+//
+// This class owns the sequences and the waiting. Subclasses own the array, and do their own store/load between a claim
+// and a publish (under the matching lock), since there is no way to hand a primitive through here without boxing it:
+//
+//     synchronized (writeLockObj) {
+//         int idx = claimTail();          // -1 if the queue is full
+//         if (idx < 0) return false;
+//         queueArray[idx] = item;
+//         publishTail();
+//     }
+//     itemAdded();                        // wakes one parked dequeue thread (outside of the lock)
+//
+// The backing arrays are always a power of two long, so indexes wrap with a mask. The queue still only holds capacity items.
+//
+// Closing works the same way too (see ProducerConsumerConcurrentQueue) - claimTail throws QueueClosedException once the
+// queue is closed for producers, and claimHead once it is closed (or closed and drained), both only from their slow paths.
+abstract class AbstractProducerConsumerPrimitiveQueue {
+
+    /////
+    ///// Member Variables
+    /////
+
+    protected final int capacity; // The most items the queue can hold
+    protected final int arrayLength; // The length subclasses must give their array (capacity rounded up to a power of two)
+    private final int indexMask;
+
+    // Subclasses store under the write lock, and load under the read lock. (Padded, so the two headers can't share a line)
+    protected final Object writeLockObj = new long[PADDED_LINE_LONGS];
+    protected final Object readLockObj = new long[PADDED_LINE_LONGS];
+
+    // The tail (producer) and head (consumer) sequences, each with a cached copy of the other side's sequence. Laid out
+    // the same way as the padded ProducerConsumerConcurrentQueue.
+    private static final int SEQUENCE = 0;
+    private static final int OPPOSITE_CACHE = 1;
+    private static final int PADDED_LINE_LONGS = 16;
+    private static final int PRODUCER_BASE = PADDED_LINE_LONGS;
+    private static final int CONSUMER_BASE = 2 * PADDED_LINE_LONGS;
+    private final AtomicLongArray cursors = new AtomicLongArray(3 * PADDED_LINE_LONGS);
+
+    // Whether the queue has been closed. Only changed under the locks (the write lock for CLOSED_FOR_PRODUCERS, both for
+    // CLOSED), and only read on the slow paths.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1;
+    private static final int CLOSED = 2;
+    private volatile int closeState = OPEN;
+
+    // Parked enqueue threads (waiting for a free slot) and parked dequeue threads (waiting for an item)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+    private final BooleanSupplier hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+    private final WaitStrategy waitStrategy; // What a thread does before it parks
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    protected AbstractProducerConsumerPrimitiveQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Queue capacity is too large to round up to a power of two");
+        }
+
+        this.capacity = capacity;
+        this.arrayLength = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.indexMask = arrayLength - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Gets the maximum capacity of the queue
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    // Gets the current length of the queue
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = cursors.get(CONSUMER_BASE + SEQUENCE);
+        long tail = cursors.get(PRODUCER_BASE + SEQUENCE);
+        return (int)(tail - head);
+    }
+
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                for (int i = 0; i < cursors.length(); i++) {
+                    cursors.set(i, 0);
+                }
+                closeState = OPEN;
+            }
+        }
+    }
+
+    // Closes the queue to enqueues. Consumers can still take whatever is left. (See ProducerConsumerQueue)
+    public void closeForProducers() {
+        synchronized (writeLockObj) {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+            // Make the queue look full to the enqueue threads, so they all take the slow path (where the check is)
+            cursors.setPlain(PRODUCER_BASE + OPPOSITE_CACHE, cursors.getPlain(PRODUCER_BASE + SEQUENCE) - capacity);
+        }
+
+        // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left (or find
+        // out there isn't anything)
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there. (See ProducerConsumerQueue)
+    public void close() {
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                closeState = CLOSED;
+                // Make the queue look full to the enqueue threads and empty to the dequeue threads, so they all take the slow path
+                cursors.setPlain(PRODUCER_BASE + OPPOSITE_CACHE, cursors.getPlain(PRODUCER_BASE + SEQUENCE) - capacity);
+                cursors.setPlain(CONSUMER_BASE + OPPOSITE_CACHE, cursors.getPlain(CONSUMER_BASE + SEQUENCE));
+            }
+        }
+
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Subclass Helpers
+    /////
+
+    // Must hold the write lock. Returns the array index of the next free slot, or -1 if the queue is full. The slot is
+    // only handed to the dequeue threads once publishTail is called. Throws QueueClosedException once the queue is closed
+    // for producers.
+    protected final int claimTail() {
+        long tail = cursors.getPlain(PRODUCER_BASE + SEQUENCE);
+        if (tail - cursors.getPlain(PRODUCER_BASE + OPPOSITE_CACHE) == capacity) {
+            // Full according to our cached head - see how far the dequeue threads have really got (unless the queue is
+            // closed, which is why it looks full)
+            if (closeState != OPEN) {
+                throw new QueueClosedException("The queue is closed for producers");
+            }
+            long head = cursors.get(CONSUMER_BASE + SEQUENCE);
+            cursors.setPlain(PRODUCER_BASE + OPPOSITE_CACHE, head);
+            if (tail - head == capacity) {
+                return -1;
+            }
+        }
+        return (int)tail & indexMask;
+    }
+
+    // Must hold the write lock. Publishes the slot from claimTail, and returns the new tail sequence. (This volatile write
+    // is what a parked dequeue thread re-checks after registering, so it has to come before itemAdded's check for waiters)
+    protected final long publishTail() {
+        long tail = cursors.getPlain(PRODUCER_BASE + SEQUENCE) + 1;
+        cursors.set(PRODUCER_BASE + SEQUENCE, tail);
+        return tail;
+    }
+
+    // Must hold the read lock. Returns the array index of the item at the head, or -1 if the queue is empty. The slot is
+    // only handed back to the enqueue threads once publishHead is called. Throws QueueClosedException once the queue is
+    // closed, or closed for producers and drained.
+    protected final int claimHead() {
+        return claimHead(true);
+    }
+
+    // Must hold the read lock. Same as claimHead, but returns -1 instead of throwing on a closed queue (For drainTo, which
+    // never throws)
+    protected final int claimHeadForDrain() {
+        return claimHead(false);
+    }
+
+    // Must hold the read lock. Frees the slot from claimHead, and returns the new head sequence.
+    protected final long publishHead() {
+        long head = cursors.getPlain(CONSUMER_BASE + SEQUENCE) + 1;
+        cursors.set(CONSUMER_BASE + SEQUENCE, head);
+        return head;
+    }
+
+    // Must hold both locks. Puts the queue back at the given head and tail sequences (For queues whose items outlive the
+    // queue object, like a memory mapped file)
+    protected final void restoreSequences(long head, long tail) {
+        cursors.set(CONSUMER_BASE + SEQUENCE, head);
+        cursors.set(CONSUMER_BASE + OPPOSITE_CACHE, tail);
+        cursors.set(PRODUCER_BASE + SEQUENCE, tail);
+        cursors.set(PRODUCER_BASE + OPPOSITE_CACHE, head);
+    }
+
+    // Call outside of the write lock after publishTail - wakes a single dequeue thread for the new item
+    protected final void itemAdded() {
+        notEmptyWaiters.wakeOne();
+    }
+
+    // Call outside of the read lock after publishHead - wakes a single enqueue thread for the freed slot
+    protected final void slotFreed() {
+        notFullWaiters.wakeOne();
+    }
+
+    // Same as slotFreed, for a batch of freed slots (wakes up to slotCount enqueue threads)
+    protected final void slotsFreed(int slotCount) {
+        notFullWaiters.wake(slotCount);
+    }
+
+    // Waits until there is a free slot (or, if timed, until remainingNanos have passed). Returns the time left.
+    protected final long awaitFreeSlot(boolean timed, long remainingNanos) throws InterruptedException {
+        return notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+    }
+
+    // Waits until there is an item (or, if timed, until remainingNanos have passed). Returns the time left.
+    protected final long awaitItem(boolean timed, long remainingNanos) throws InterruptedException {
+        return notEmptyWaiters.await(waitStrategy, hasItem, timed, remainingNanos);
+    }
+
+    private int claimHead(boolean throwIfClosed) {
+        long head = cursors.getPlain(CONSUMER_BASE + SEQUENCE);
+        if (head == cursors.getPlain(CONSUMER_BASE + OPPOSITE_CACHE)) {
+            // Empty according to our cached tail - see how far the enqueue threads have really got. Read closeState first:
+            // nothing is enqueued once it says closed, so if the tail still shows empty after that, it always will.
+            int state = closeState;
+            if (state == CLOSED) {
+                if (throwIfClosed) {
+                    throw new QueueClosedException("The queue is closed");
+                }
+                return -1;
+            }
+            long tail = cursors.get(PRODUCER_BASE + SEQUENCE);
+            cursors.setPlain(CONSUMER_BASE + OPPOSITE_CACHE, tail);
+            if (head == tail) {
+                if (state == CLOSED_FOR_PRODUCERS && throwIfClosed) {
+                    throw new QueueClosedException("The queue is closed and drained");
+                }
+                return -1;
+            }
+        }
+        return (int)head & indexMask;
+    }
+}
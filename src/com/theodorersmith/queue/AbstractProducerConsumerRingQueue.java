@@ -0,0 +1,578 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// Shared blocking logic for the lock-free ring queues. Subclasses provide a non-blocking offer/poll pair that never
+// takes a lock, and this class only falls back to a lock and two conditions once a thread actually has to wait.
+// A thread that is about to wait registers itself in a waiting counter BEFORE its final re-check of the ring, and the
+// opposite side reads that counter AFTER it publishes. That way the enqueue/dequeue fast path never touches the lock
+// unless somebody is (or is about to be) blocked. Rings that publish with lazySet put a full fence between the publish and
+// that read (an ordered store can still be sitting in the store buffer when the read runs), so a blocked thread never
+// misses its signal and can park until it is woken.
+//
+// Before a thread takes the lock to wait, it first waits however the queue's WaitStrategy says (by default it doesn't -
+// it goes straight to the lock). Spinning threads aren't counted as waiting, so they never cost the other side a signal.
+//
+// Closing the queue (closeForProducers / close) adds a volatile read of the close state to each dequeue, and two to each
+// enqueue (one before it offers, and one after signalNotEmpty). The rings with many producers claim their slot with a
+// CAS and only then check whether the queue was closed for producers in the meantime - if it was, they fill the slot
+// with CLOSED_SLOT instead of the item, and throw. poll skips CLOSED_SLOTs. The single-producer rings fill their slot
+// before they publish it with lazySet, so there is never a claimed slot to refuse. Instead, the first consumer to find
+// the queue closed for producers and empty says so with a CAS (DRAINED), and then looks once more. The producer re-reads
+// the close state after the fence it already pays for its waiting check, and if it finds DRAINED it takes back whatever
+// it published that nobody has taken yet (takeBack), and throws. Either that consumer sees the item or the producer
+// sees DRAINED, so an item is never left behind once the consumers think the queue is drained.
+//
+// Since poll() uses null to mean "nothing to take", lock-free ring queues can't hold null items.
+public abstract class AbstractProducerConsumerRingQueue<T> implements TestableQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    // Fills the slot of a producer that claimed it and then found the queue closed for producers (or that took its item
+    // back). poll skips it.
+    protected static final Object CLOSED_SLOT = new Object();
+
+    protected final int capacity; // The maximum number of items in the ring
+
+    // Whether the queue has been closed. Only changed under waitLock (or, for DRAINED, followed by a signalAll under it),
+    // so a thread that is about to park can't miss it.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int DRAINED = 2; // Closed for producers, and a consumer has found it empty
+    private static final int CLOSED = 3; // Enqueues and dequeues throw
+    private final AtomicInteger closeState = new AtomicInteger(OPEN);
+
+    // Only used by threads that have to block (and by the threads that need to wake them up)
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notFullCondition = waitLock.newCondition();
+    private final Condition notEmptyCondition = waitLock.newCondition();
+    private final AtomicInteger waitingProducers = new AtomicInteger(0);
+    private final AtomicInteger waitingConsumers = new AtomicInteger(0);
+    private final boolean lazyPublication; // Whether the ring publishes with lazySet (and so needs a fence before the waiting check)
+    private final WaitStrategy waitStrategy; // What a thread does before it blocks
+    private final BooleanSupplier hasFreeSlot; // What a spinning producer watches for
+    private final BooleanSupplier hasItem; // What a spinning consumer watches for
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    protected AbstractProducerConsumerRingQueue(int capacity, boolean lazyPublication, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+
+        this.capacity = capacity;
+        this.lazyPublication = lazyPublication;
+        this.waitStrategy = waitStrategy;
+        this.hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+        this.hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+    }
+
+    /////
+    ///// Non-blocking ring operations (implemented by each ring)
+    /////
+
+    // Adds the item to the ring if there is space. Returns false (without blocking) if the ring is full. Once it has
+    // claimed a slot, it checks isClaimRefused - and if it is, fills the slot with closedSlot() instead of the item and
+    // throws closedAfterClaim().
+    protected abstract boolean offer(T item);
+
+    // Removes the item at the front of the ring, skipping any CLOSED_SLOTs. Returns null (without blocking) if the ring
+    // is empty.
+    protected abstract T poll();
+
+    // poll, once a consumer has found the queue drained. Rings that override takeBack have to take each item here so
+    // that it can't also be taken back (e.g. with a getAndSet of the slot).
+    protected T pollDrained() {
+        return poll();
+    }
+
+    // Only for rings with a single producer, which publish before they check the close state. Called by that producer
+    // when it finds the queue DRAINED after publishing its last itemCount items: takes back (fills with CLOSED_SLOT) each
+    // of them that no consumer has taken yet, and returns how many it took back.
+    protected int takeBack(int itemCount) {
+        return 0;
+    }
+
+    // Whether a consumer has found the queue drained (or it has been closed since), so takeBack may be in play
+    protected final boolean isDrained() {
+        int state = closeState.get();
+        return state == DRAINED || state == CLOSED;
+    }
+
+    // Whether offer has to give up the slot it just claimed: true once the queue is closed for producers. (But not once it
+    // is closed for consumers too - nothing can be dequeued then, so the item may as well stay in the queue with the rest)
+    protected final boolean isClaimRefused() {
+        int state = closeState.get();
+        return state == CLOSED_FOR_PRODUCERS || state == DRAINED;
+    }
+
+    // What offer fills a claimed slot with when the queue turns out to be closed
+    @SuppressWarnings("unchecked")
+    protected final T closedSlot() {
+        return (T)CLOSED_SLOT;
+    }
+
+    // Called by offer once it has filled its claimed slot with closedSlot(). Wakes a consumer to skip the slot (it may be
+    // the last thing between the consumers and "closed and drained"), and returns the exception for offer to throw.
+    protected final QueueClosedException closedAfterClaim() {
+        signalNotEmpty();
+        return new QueueClosedException("The queue is closed for producers");
+    }
+
+    // Called by each ring's resetQueue, which opens the queue again
+    protected final void reopen() {
+        closeState.set(OPEN);
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    @Override
+    // Gets the maximum capacity of the queue
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Blocks if queue is full.
+    public void enqueue(T item) {
+        requireItem(item);
+
+        // Fast path - no locks at all. Only fall back to waiting if the ring is full.
+        if (!offerOpen(item) && !awaitOffer(item, false, 0)) {
+            // We were interrupted while waiting. The item was NOT enqueued.
+            return;
+        }
+
+        signalNotEmpty();
+        takeBackIfDrained(1);
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks if queue is empty
+    public T dequeue() {
+        // Fast path - no locks at all. Only fall back to waiting if the ring is empty.
+        T item = pollOpen();
+        if (item == null) {
+            item = awaitPoll(false, 0);
+            if (item == null) {
+                // We were interrupted while waiting.
+                return null;
+            }
+        }
+
+        signalNotFull();
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        requireItem(item);
+
+        if (!offerOpen(item) && !awaitOffer(item, true, unit.toNanos(timeout))) {
+            // We timed out (or were interrupted) while waiting. The item was NOT enqueued.
+            return false;
+        }
+
+        signalNotEmpty();
+        takeBackIfDrained(1);
+        return true;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty.
+    public T dequeue(long timeout, TimeUnit unit) {
+        T item = pollOpen();
+        if (item == null) {
+            item = awaitPoll(true, unit.toNanos(timeout));
+            if (item == null) {
+                // We timed out (or were interrupted) while waiting.
+                return null;
+            }
+        }
+
+        signalNotFull();
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Adds the item only if there is space right now. Never blocks, and never touches the wait lock unless somebody is waiting.
+    public boolean tryEnqueue(T item) {
+        if (!offerOpen(requireItem(item))) {
+            return false;
+        }
+
+        signalNotEmpty();
+        takeBackIfDrained(1);
+        return true;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Pops an item off the front of the queue only if there is one right now. Never blocks.
+    public T tryDequeue() {
+        T item = pollOpen();
+        if (item != null) {
+            signalNotFull();
+        }
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add a batch of items to the end of the queue. Blocks whenever the queue is full. Items are offered one
+    // at a time (each ring slot has its own handoff), but waiting consumers are only signalled once per run of items.
+    public void enqueueAll(T[] items) {
+        int itemIdx = 0;
+        while (itemIdx < items.length) {
+            // Offer as many items as we can without blocking (and tell consumers about them even if the queue gets closed)
+            int runStart = itemIdx;
+            try {
+                while (itemIdx < items.length && offerOpen(requireItem(items[itemIdx]))) {
+                    itemIdx++;
+                }
+            } finally {
+                signalNotEmpty(itemIdx - runStart);
+                takeBackIfDrained(itemIdx - runStart);
+            }
+
+            // If the ring filled up, block for the next item (Consumers have already been told about the run above)
+            if (itemIdx < items.length) {
+                if (!awaitOffer(items[itemIdx], false, 0)) {
+                    // We were interrupted while waiting. The rest of the batch was NOT enqueued.
+                    return;
+                }
+                itemIdx++;
+                signalNotEmpty();
+                takeBackIfDrained(1);
+            }
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Collection version of enqueueAll
+    @SuppressWarnings("unchecked")
+    public void enqueueAll(Collection<? extends T> items) {
+        enqueueAll((T[])items.toArray());
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. Waiting producers are
+    // signalled once for the whole batch. Never throws QueueClosedException - a closed queue just has nothing to move.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int state = closeState.get();
+        if (state == CLOSED) {
+            return 0;
+        }
+
+        int count = 0;
+        try {
+            T item;
+            while (count < maxItems && (item = (state == DRAINED ? pollDrained() : poll())) != null) {
+                target.add(item);
+                count++;
+            }
+        } finally {
+            signalNotFull(count);
+            if (state != OPEN && getLength() == 0) {
+                // Nothing more is coming - wake the consumers to find that out
+                signalAllConsumers();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues. Consumers can still take whatever is left.
+    public void closeForProducers() {
+        waitLock.lock();
+        try {
+            closeState.compareAndSet(OPEN, CLOSED_FOR_PRODUCERS);
+            // Wake everybody - producers to find out they're closed, and consumers to take what's left (or find out there
+            // isn't anything)
+            notFullCondition.signalAll();
+            notEmptyCondition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there.
+    public void close() {
+        waitLock.lock();
+        try {
+            closeState.set(CLOSED);
+            notFullCondition.signalAll();
+            notEmptyCondition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState.get() != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState.get() == CLOSED;
+    }
+
+    /////
+    ///// Blocking Helpers
+    /////
+
+    private static <T> T requireItem(T item) {
+        if (item == null) {
+            throw new NullPointerException("Lock-free ring queues can't hold null items");
+        }
+        return item;
+    }
+
+    // offer, except that it throws once the queue is closed for producers
+    private boolean offerOpen(T item) {
+        if (closeState.get() != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+        return offer(item);
+    }
+
+    // poll, except that it throws once the queue is closed, or closed for producers and drained
+    private T pollOpen() {
+        // Read the close state first: once it says closed for producers, a ring that is empty after this read stays that
+        // way (see the class comment)
+        int state = closeState.get();
+        if (state == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+        if (state == DRAINED) {
+            return pollDrainedOpen();
+        }
+
+        T item = poll();
+        if (item != null || state == OPEN || getLength() != 0) {
+            return item;
+        }
+
+        // Closed for producers and empty. Say so (unless somebody else just did, or closed the queue), wake every waiting
+        // consumer to find that out too, and look once more for anything a producer published while we were checking.
+        if (!closeState.compareAndSet(CLOSED_FOR_PRODUCERS, DRAINED)) {
+            return pollOpen();
+        }
+        signalAllConsumers();
+        return pollDrainedOpen();
+    }
+
+    // pollDrained, except that it throws once there is nothing left (including claimed slots that are still being filled)
+    private T pollDrainedOpen() {
+        T item = pollDrained();
+        if (item == null && getLength() == 0) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+        return item;
+    }
+
+    // Called after an enqueue has published itemCount items and told the consumers about them (signalNotEmpty fences
+    // first, so the publish is ordered before this read). If a consumer found the queue drained in the meantime, it may
+    // never look at those items - so take back the ones nobody has taken, and throw.
+    private void takeBackIfDrained(int itemCount) {
+        if (itemCount > 0 && closeState.get() == DRAINED && takeBack(itemCount) > 0) {
+            // Wake any consumer still waiting on the taken back slots to skip them
+            signalAllConsumers();
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    private void signalAllConsumers() {
+        waitLock.lock();
+        try {
+            notEmptyCondition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // Blocks until the item can be offered (or, if timed, until timeoutNanos have passed). Returns false if we timed out
+    // or were interrupted before that happened.
+    private boolean awaitOffer(T item, boolean timed, long timeoutNanos) {
+        long startNanos = System.nanoTime();
+        try {
+            // Give the wait strategy one go at catching a free slot before we take the lock
+            try {
+                if (waitStrategy.spin(hasFreeSlot, timed, startNanos + timeoutNanos) && offerOpen(item)) {
+                    return true;
+                }
+            } catch (InterruptedException iEx) {
+                System.out.println(getClass().getName() + "->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return blockOffer(item, timed, timeoutNanos - (System.nanoTime() - startNanos));
+        } finally {
+            waitStrategy.waitComplete(System.nanoTime() - startNanos);
+        }
+    }
+
+    // Blocks until an item can be polled (or, if timed, until timeoutNanos have passed). Returns null if we timed out or
+    // were interrupted before that happened.
+    private T awaitPoll(boolean timed, long timeoutNanos) {
+        long startNanos = System.nanoTime();
+        try {
+            // Give the wait strategy one go at catching an item before we take the lock
+            try {
+                if (waitStrategy.spin(hasItem, timed, startNanos + timeoutNanos)) {
+                    T item = pollOpen();
+                    if (item != null) {
+                        return item;
+                    }
+                }
+            } catch (InterruptedException iEx) {
+                System.out.println(getClass().getName() + "->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return blockPoll(timed, timeoutNanos - (System.nanoTime() - startNanos));
+        } finally {
+            waitStrategy.waitComplete(System.nanoTime() - startNanos);
+        }
+    }
+
+    // The lock and condition half of awaitOffer
+    private boolean blockOffer(T item, boolean timed, long timeoutNanos) {
+        long remainingNanos = timeoutNanos;
+        waitLock.lock();
+        waitingProducers.incrementAndGet();
+        try {
+            // Now that we are counted as waiting, any consumer that frees a slot will signal us - so re-check before we block.
+            while (!offerOpen(item)) {
+                if (timed && remainingNanos <= 0) {
+                    return false;
+                }
+                try {
+                    remainingNanos = awaitCondition(notFullCondition, timed, remainingNanos);
+                } catch (InterruptedException iEx) {
+                    // NOTE: Same interrupt handling as the other implementations - the interface doesn't throw
+                    // InterruptedException, so print a message, reset the interrupt flag, and exit WITHOUT enqueuing the item.
+                    System.out.println(getClass().getName() + "->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            waitingProducers.decrementAndGet();
+            waitLock.unlock();
+        }
+    }
+
+    // The lock and condition half of awaitPoll
+    private T blockPoll(boolean timed, long timeoutNanos) {
+        long remainingNanos = timeoutNanos;
+        waitLock.lock();
+        waitingConsumers.incrementAndGet();
+        try {
+            // Now that we are counted as waiting, any producer that publishes an item will signal us - so re-check before we block.
+            T item;
+            while ((item = pollOpen()) == null) {
+                if (timed && remainingNanos <= 0) {
+                    return null;
+                }
+                try {
+                    remainingNanos = awaitCondition(notEmptyCondition, timed, remainingNanos);
+                } catch (InterruptedException iEx) {
+                    // NOTE: A thread interrupt while this method is blocking will unblock as soon as possible, reset the interrupt flag, and return null;
+                    System.out.println(getClass().getName() + "->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return item;
+        } finally {
+            waitingConsumers.decrementAndGet();
+            waitLock.unlock();
+        }
+    }
+
+    // Parks on the condition. For timed waits, returns the time left before the deadline (awaitNanos style).
+    private static long awaitCondition(Condition condition, boolean timed, long remainingNanos) throws InterruptedException {
+        if (timed) {
+            return condition.awaitNanos(remainingNanos);
+        }
+
+        condition.await();
+        return 0;
+    }
+
+    // Wakes a single blocked consumer (if there are any) after an item was published
+    protected final void signalNotEmpty() {
+        signalNotEmpty(1);
+    }
+
+    // Wakes up to itemCount blocked consumers (if there are any) after a run of items was published
+    protected final void signalNotEmpty(int itemCount) {
+        signalWaiters(waitingConsumers, notEmptyCondition, itemCount);
+    }
+
+    // Wakes a single blocked producer (if there are any) after a slot was freed
+    protected final void signalNotFull() {
+        signalNotFull(1);
+    }
+
+    // Wakes up to slotCount blocked producers (if there are any) after a run of slots was freed
+    protected final void signalNotFull(int slotCount) {
+        signalWaiters(waitingProducers, notFullCondition, slotCount);
+    }
+
+    private void signalWaiters(AtomicInteger waitingCount, Condition condition, int wakeCount) {
+        if (wakeCount <= 0) {
+            return;
+        }
+        if (lazyPublication) {
+            // StoreLoad: a lazySet isn't ordered against the read below, so without this we could read no waiters while
+            // a thread that just registered still can't see what we published - and it would park with nobody to wake it.
+            // (It also orders a producer's publish before takeBackIfDrained's read of the close state)
+            VarHandle.fullFence();
+        }
+        if (waitingCount.get() > 0) {
+            waitLock.lock();
+            try {
+                // Take the lock once for the whole batch, and never wake more threads than are waiting
+                int waiting = waitingCount.get();
+                for (int i = 0; i < Math.min(wakeCount, waiting); i++) {
+                    condition.signal();
+                }
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+}
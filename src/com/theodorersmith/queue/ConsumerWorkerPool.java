@@ -0,0 +1,327 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// A pool of consumer threads bound to a queue, which hand the queue's items to a callback in batches. Instead of every
+// consumer calling dequeue() once per item (taking the queue's lock, and maybe waking a producer, every time), each worker
+// drains whatever is in the queue, up to batchSize items, with one drainTo - and only waits when it comes up empty.
+//
+//     ConsumerWorkerPool<Order> pool = new ConsumerWorkerPool<>(queue, 4, 64, orders -> store.saveAll(orders));
+//     pool.start();
+//     ...
+//     pool.shutdown(10, TimeUnit.SECONDS); // (once the producers have stopped)
+//
+// The batch list is reused by its worker, so the callback must copy anything it wants to keep after it returns. A callback
+// that throws doesn't stop its worker - the batch is counted as failed, and the worker carries on.
+//
+// How a worker waits when the queue is empty is up to its IdleStrategy:
+//   blocking()       - block in the queue's own dequeue (however the queue's WaitStrategy says) for the next item, then
+//                      drain the rest of the batch behind it. The default.
+//   busySpin()       - keep draining, with Thread.onSpinWait between tries. Lowest latency, but burns a core per worker.
+//   yielding()       - keep draining, with Thread.yield between tries
+//   backoff(maxNanos) - spin, then yield, then sleep for longer and longer (up to maxNanos) between tries
+//
+// The workers are platform threads, or virtual threads (Java 21+, looked up at runtime since the project builds for 17).
+// shutdown lets the workers finish what's in the queue and exit once it's empty, while shutdownNow interrupts them and
+// leaves whatever is still queued where it is. Closing the queue (see ProducerConsumerQueue.closeForProducers) also stops
+// the workers, once they have taken everything that was in it - then shutdown just waits for them.
+public class ConsumerWorkerPool<T> {
+
+    // The kind of thread the workers run on
+    public enum WorkerThreads {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    // How long an idle worker waits before it checks whether the pool is shutting down
+    private static final long IDLE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    // The pool's life cycle
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int DRAINING = 2; // Workers exit once they find the queue empty
+    private static final int STOPPED = 3; // Workers exit straight away
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final ProducerConsumerQueue<T> queue;
+    private final int batchSize;
+    private final Consumer<? super List<T>> batchHandler;
+    private final IdleStrategy idleStrategy;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger state = new AtomicInteger(NEW);
+
+    private final LongAdder itemCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder failedBatchCount = new LongAdder();
+    private final AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ConsumerWorkerPool(ProducerConsumerQueue<T> queue, int workerCount, int batchSize, Consumer<? super List<T>> batchHandler) {
+        this(queue, workerCount, batchSize, batchHandler, IdleStrategy.blocking(), WorkerThreads.PLATFORM);
+    }
+
+    public ConsumerWorkerPool(ProducerConsumerQueue<T> queue, int workerCount, int batchSize, Consumer<? super List<T>> batchHandler, IdleStrategy idleStrategy, WorkerThreads workerThreads) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("The pool needs at least one worker");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.queue = queue;
+        this.batchSize = batchSize;
+        this.batchHandler = batchHandler;
+        this.idleStrategy = idleStrategy;
+
+        ThreadFactory threadFactory = newThreadFactory(workerThreads);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threadFactory.newThread(this::runWorker);
+            worker.setName("ConsumerWorkerPool-worker-" + i);
+            workers.add(worker);
+        }
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Starts the workers (Only once)
+    public void start() {
+        if (!state.compareAndSet(NEW, RUNNING)) {
+            throw new IllegalStateException("The pool has already been started");
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    // Lets the workers empty the queue and exit, and waits (for at most the timeout) for them to. Stop the producers first
+    // - a worker exits as soon as it finds the queue empty. Returns true if every worker finished, otherwise the ones
+    // that are left are interrupted.
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        if (state.compareAndSet(NEW, STOPPED)) {
+            // (Never started, so there's nothing to wait for)
+            return true;
+        }
+        state.compareAndSet(RUNNING, DRAINING);
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (Thread worker : workers) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis > 0) {
+                    worker.join(remainingMillis);
+                }
+            }
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ConsumerWorkerPool->shutdown: Thread " + Thread.currentThread().getName() + " received an interrupt. Stopping the workers without draining.");
+            Thread.currentThread().interrupt();
+        }
+
+        boolean finished = true;
+        for (Thread worker : workers) {
+            finished &= !worker.isAlive();
+        }
+        if (!finished) {
+            shutdownNow();
+        }
+        return finished;
+    }
+
+    // Stops the workers straight away (interrupting any that are blocked). Items still in the queue stay there.
+    public void shutdownNow() {
+        state.set(STOPPED);
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    // True once every worker has exited - after shutdown, or once the queue has been closed and drained
+    public boolean isTerminated() {
+        if (state.get() == NEW) {
+            return false;
+        }
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    // The number of items (and batches) handed to the callback so far, including failed ones
+    public long getItemCount() {
+        return itemCount.sum();
+    }
+
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    // The number of batches the callback threw on, and the first exception it threw (or null)
+    public long getFailedBatchCount() {
+        return failedBatchCount.sum();
+    }
+
+    public RuntimeException getFirstFailure() {
+        return firstFailure.get();
+    }
+
+    /////
+    ///// Worker
+    /////
+
+    private void runWorker() {
+        List<T> batch = new ArrayList<>(batchSize);
+        int idleCount = 0;
+        while (state.get() != STOPPED && !Thread.currentThread().isInterrupted()) {
+            if (queue.drainTo(batch, batchSize) == 0) {
+                if (state.get() == DRAINING) {
+                    // (Empty, and no more coming)
+                    return;
+                }
+                T first;
+                try {
+                    first = idleStrategy.idle(queue, idleCount++, IDLE_CHECK_NANOS);
+                } catch (QueueClosedException ex) {
+                    // (The queue is closed, and there's nothing left in it)
+                    return;
+                }
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            }
+            idleCount = 0;
+
+            try {
+                batchHandler.accept(batch);
+            } catch (RuntimeException ex) {
+                failedBatchCount.increment();
+                firstFailure.compareAndSet(null, ex);
+            }
+            itemCount.add(batch.size());
+            batchCount.increment();
+            batch.clear();
+        }
+    }
+
+    /////
+    ///// Idle Strategies
+    /////
+
+    // What a worker does when it finds the queue empty
+    public abstract static class IdleStrategy {
+
+        private static final int DEFAULT_SPINS = 100;
+        private static final int DEFAULT_YIELDS = 10;
+        private static final long MIN_BACKOFF_NANOS = 1000;
+
+        // Block in the queue's dequeue for the next item
+        public static IdleStrategy blocking() {
+            return new IdleStrategy() {
+                @Override
+                <T> T idle(ProducerConsumerQueue<T> queue, int idleCount, long maxWaitNanos) {
+                    return queue.dequeue(maxWaitNanos, TimeUnit.NANOSECONDS);
+                }
+
+                @Override
+                public String toString() {
+                    return "Blocking";
+                }
+            };
+        }
+
+        // Spin between tries. Never gives up the CPU.
+        public static IdleStrategy busySpin() {
+            return backoffStrategy("BusySpin", Integer.MAX_VALUE, 0, 0);
+        }
+
+        // Yield between tries
+        public static IdleStrategy yielding() {
+            return backoffStrategy("Yielding", 0, Integer.MAX_VALUE, 0);
+        }
+
+        // Spin a little, yield a little, then sleep between tries - doubling the sleep each time, up to maxNanos
+        public static IdleStrategy backoff(long maxNanos) {
+            if (maxNanos < MIN_BACKOFF_NANOS) {
+                throw new IllegalArgumentException("The longest back off must be at least " + MIN_BACKOFF_NANOS + " ns");
+            }
+            return backoffStrategy("Backoff", DEFAULT_SPINS, DEFAULT_YIELDS, maxNanos);
+        }
+
+        // Called each time a worker finds the queue empty (idleCount is how many times in a row it has). Waits for at most
+        // maxWaitNanos, and returns an item if it took one from the queue while waiting, or null if the worker should just
+        // try again. Throws QueueClosedException once the queue is closed and drained.
+        abstract <T> T idle(ProducerConsumerQueue<T> queue, int idleCount, long maxWaitNanos);
+
+        // Spins for the first spins tries, yields for the next yields, then parks for MIN_BACKOFF_NANOS doubling up to
+        // maxParkNanos
+        private static IdleStrategy backoffStrategy(String name, int spins, int yields, long maxParkNanos) {
+            return new IdleStrategy() {
+                @Override
+                <T> T idle(ProducerConsumerQueue<T> queue, int idleCount, long maxWaitNanos) {
+                    if (queue.isClosedForProducers()) {
+                        // (Nothing more is coming - this takes anything that's left, or throws if it's drained)
+                        return queue.tryDequeue();
+                    }
+                    if (idleCount < spins) {
+                        Thread.onSpinWait();
+                    } else if (idleCount - spins < yields) {
+                        Thread.yield();
+                    } else {
+                        int doublings = Math.min(30, idleCount - spins - yields);
+                        LockSupport.parkNanos(Math.min(Math.min(maxParkNanos, maxWaitNanos), MIN_BACKOFF_NANOS << doublings));
+                    }
+                    return null;
+                }
+
+                @Override
+                public String toString() {
+                    return name;
+                }
+            };
+        }
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private static ThreadFactory newThreadFactory(WorkerThreads workerThreads) {
+        if (workerThreads == WorkerThreads.PLATFORM) {
+            return Thread::new;
+        }
+        // Thread.ofVirtual().factory(), looked up at runtime (Java 21+)
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later", ex);
+        }
+    }
+}
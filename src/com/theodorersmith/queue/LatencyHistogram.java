@@ -0,0 +1,130 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.Arrays;
+
+// A fixed size, log-linear histogram of nanosecond values (in the style of HdrHistogram). Values below 2 * SUB_BUCKETS are
+// counted exactly. Above that, every power of two range is split into SUB_BUCKETS equal buckets, so a value is only ever
+// rounded by less than 1 / SUB_BUCKETS (about 1.6%) - whether it is 200 ns or 20 seconds. Values above MAX_VALUE (about 68
+// seconds) are counted as MAX_VALUE.
+//
+// Recording is a shift and an array increment, and never allocates. This class is NOT thread safe - give each recording
+// thread its own histogram and add() them together afterwards. (QueueMetrics keeps its own striped atomic buckets, and
+// adds them into one of these for a snapshot - with only the bucket counts to go on, so its mean and max are approximate)
+public final class LatencyHistogram {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 36;
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long totalValue; // For the mean
+    private long maxValue;
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Counts one value (in nanoseconds). Negative values are counted as zero.
+    public void record(long value) {
+        value = clamp(value);
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        totalValue += value;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    // Adds every value counted by other into this histogram
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        totalValue = 0;
+        maxValue = 0;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return maxValue;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double)totalValue / totalCount;
+    }
+
+    // The value that percentile percent (0 - 100) of the counted values are at or below. Reported as the top of its
+    // bucket (but never more than the max), so it can be slightly high, never low. Zero if nothing has been counted.
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketHighestValue(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /////
+    ///// Bucket Helpers (Shared with QueueMetrics)
+    /////
+
+    // The bucket a (clamped) value falls in. Values below 2 * SUB_BUCKETS get a bucket each. Above that, a value with its
+    // top bit at position b goes in range b - SUB_BUCKET_BITS, at the sub bucket given by its top SUB_BUCKET_BITS + 1 bits.
+    static int bucketIndex(long value) {
+        int range = Math.max(0, (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+        return (range << SUB_BUCKET_BITS) + (int)(value >>> range);
+    }
+
+    // The smallest and largest values that fall in the bucket
+    static long bucketLowestValue(int bucketIndex) {
+        int range = Math.max(0, (bucketIndex >>> SUB_BUCKET_BITS) - 1);
+        return (long)(bucketIndex - (range << SUB_BUCKET_BITS)) << range;
+    }
+
+    static long bucketHighestValue(int bucketIndex) {
+        int range = Math.max(0, (bucketIndex >>> SUB_BUCKET_BITS) - 1);
+        return bucketLowestValue(bucketIndex) + (1L << range) - 1;
+    }
+
+    static long clamp(long value) {
+        return value < 0 ? 0 : Math.min(value, MAX_VALUE);
+    }
+
+    // Adds count values to one bucket, without knowing exactly what they were (QueueMetrics uses this to build a snapshot
+    // from its striped buckets). They count towards the mean as the middle of the bucket, and towards the max as its top -
+    // so both are only as precise as the buckets.
+    void addBucketCount(int bucketIndex, long count) {
+        long highestValue = bucketHighestValue(bucketIndex);
+        counts[bucketIndex] += count;
+        totalCount += count;
+        totalValue += count * (highestValue - ((highestValue - bucketLowestValue(bucketIndex)) >>> 1));
+        maxValue = Math.max(maxValue, highestValue);
+    }
+}
@@ -0,0 +1,587 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded queue with a non-blocking API: enqueueAsync and dequeueAsync return a CompletableFuture right away, and a
+// caller that can't go ahead yet (the queue is full, or empty) gets a pending future instead of blocking its thread.
+//
+// There is no polling thread. A pending future is completed by the opposite side's operation, on that thread: an
+// enqueue hands its item straight to the oldest pending dequeue, and a dequeue that frees a slot moves the oldest
+// pending enqueue's item into the queue and completes its future. So callbacks attached to these futures run on
+// whichever producer or consumer thread completed them - hand anything slow off with the *Async variants.
+//
+// Everything is guarded by one ReentrantLock, but futures are only ever completed after it is released.
+//
+// Cancelling a pending future withdraws it, as long as the other side hasn't already taken it:
+//   - A cancelled dequeue never loses an item. If an item was on its way to it, the item goes back in the queue.
+//   - A cancelled enqueue only withdraws its item if the item hasn't been moved into the queue yet. Once it has, it
+//     stays queued, even though the future reports being cancelled.
+// The blocking methods (which let this run through the test suite, and compare against the blocking queues) wait on
+// the same futures. When they time out, they withdraw under the lock rather than by cancelling, so they always know
+// whether their item got in.
+//
+// Closing fails pending futures with QueueClosedException: closeForProducers fails the pending enqueues (and the pending
+// dequeues, since there are only any while the queue is empty), and close fails the lot. A closed queue's enqueueAsync
+// and dequeueAsync return futures that have already failed.
+//
+// ProducerConsumerFlow adapts this queue to java.util.concurrent.Flow publishers and subscribers.
+public class ProducerConsumerAsyncQueue<T> implements TestableQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    // An enqueue that is waiting for a free slot. It hasn't been accepted for as long as it is in pendingEnqueues.
+    private static final class PendingEnqueue<T> {
+        private final T item;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingEnqueue(T item) {
+            this.item = item;
+        }
+    }
+
+    private final int capacity; // The most items the queue can hold (Pending enqueues don't count)
+    private final ReentrantLock queueLock = new ReentrantLock();
+
+    // Guarded by queueLock. There are only ever pending dequeues while items is empty, and only ever pending enqueues
+    // while items is full.
+    private final ArrayDeque<T> items;
+    private final ArrayDeque<CompletableFuture<T>> pendingDequeues = new ArrayDeque<>();
+    private final ArrayDeque<PendingEnqueue<T>> pendingEnqueues = new ArrayDeque<>();
+
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues fail, and dequeues fail once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues fail
+    private volatile int closeState = OPEN; // Written under queueLock
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerAsyncQueue(int capacity) {
+        if (capacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+
+        this.capacity = capacity;
+        this.items = new ArrayDeque<>(capacity);
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the maximum capacity of the queue
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    // Gets the current length of the queue (Not counting pending enqueues)
+    public int getLength() {
+        queueLock.lock();
+        try {
+            return items.size();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    // Resets queue to a default empty state, cancelling every pending future. NOTE: Not safe to call while other threads
+    // are using the queue.
+    public void resetQueue() {
+        List<CompletableFuture<?>> cancelled = new ArrayList<>();
+        queueLock.lock();
+        try {
+            items.clear();
+            cancelled.addAll(pendingDequeues);
+            pendingDequeues.clear();
+            for (PendingEnqueue<T> pending : pendingEnqueues) {
+                cancelled.add(pending.future);
+            }
+            pendingEnqueues.clear();
+            closeState = OPEN;
+        } finally {
+            queueLock.unlock();
+        }
+
+        for (CompletableFuture<?> future : cancelled) {
+            future.cancel(false);
+        }
+    }
+
+    /////
+    ///// Async Methods
+    /////
+
+    // Adds the item to the end of the queue. The future is already complete if the item went straight in (or straight
+    // to a pending dequeue). Otherwise it completes once a dequeue frees a slot and the item has been moved in. Fails
+    // with QueueClosedException if the queue is closed for producers before then.
+    public CompletableFuture<Void> enqueueAsync(T item) {
+        PendingEnqueue<T> pending;
+        try {
+            pending = enqueueOrPend(item);
+        } catch (QueueClosedException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        if (pending == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // A cancelled enqueue gives up its place in line (unless it has already been accepted)
+        pending.future.whenComplete((ignored, ex) -> {
+            if (ex instanceof CancellationException) {
+                withdrawEnqueue(pending);
+            }
+        });
+        return pending.future;
+    }
+
+    // Pops an item off the front of the queue. The future is already complete if there was an item. Otherwise it
+    // completes with the next item enqueued (on the enqueuing thread). Fails with QueueClosedException if the queue is
+    // closed, or closed for producers and drained, before then.
+    public CompletableFuture<T> dequeueAsync() {
+        CompletableFuture<T> future;
+        try {
+            T item = tryDequeue();
+            if (item != null) {
+                return CompletableFuture.completedFuture(item);
+            }
+            future = dequeueOrPend();
+        } catch (QueueClosedException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        if (!future.isDone()) {
+            future.whenComplete((ignored, ex) -> {
+                if (ex instanceof CancellationException) {
+                    withdrawDequeue(future);
+                }
+            });
+        }
+        return future;
+    }
+
+    /////
+    ///// ProducerConsumerQueue Implementation
+    /////
+
+    @Override
+    // Threadsafe add an item to the end of the queue. Blocks if queue is full.
+    public void enqueue(T item) {
+        try {
+            awaitEnqueue(item, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerAsyncQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    // Threadsafe pops an item off the front of the queue. Blocks if queue is empty
+    public T dequeue() {
+        try {
+            return awaitDequeue(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerAsyncQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        try {
+            return awaitEnqueue(item, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerAsyncQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitDequeue(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerAsyncQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    // Adds the item only if there is space right now (or a pending dequeue to hand it to). Never blocks.
+    public boolean tryEnqueue(T item) {
+        requireItem(item);
+        while (true) {
+            CompletableFuture<T> dequeue;
+            queueLock.lock();
+            try {
+                requireOpen();
+                dequeue = pollPendingDequeue();
+                if (dequeue == null) {
+                    if (items.size() == capacity) {
+                        return false;
+                    }
+                    items.addLast(item);
+                    return true;
+                }
+            } finally {
+                queueLock.unlock();
+            }
+
+            // Hand the item straight over. If the dequeue was cancelled after we took it, go round again.
+            if (dequeue.complete(item)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    // Pops an item off the front of the queue only if there is one right now. Never blocks.
+    public T tryDequeue() {
+        T item;
+        PendingEnqueue<T> accepted;
+        queueLock.lock();
+        try {
+            item = pollItem();
+            if (item == null) {
+                return null;
+            }
+            accepted = acceptPendingEnqueue();
+        } finally {
+            queueLock.unlock();
+        }
+
+        if (accepted != null) {
+            accepted.future.complete(null);
+        }
+        return item;
+    }
+
+    @Override
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. Accepts one pending
+    // enqueue for each slot freed. Never throws QueueClosedException - a closed queue just drains nothing.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int drained = 0;
+        List<PendingEnqueue<T>> accepted = new ArrayList<>();
+        queueLock.lock();
+        try {
+            T item;
+            while (drained < maxItems && closeState != CLOSED && (item = items.pollFirst()) != null) {
+                target.add(item);
+                drained++;
+
+                PendingEnqueue<T> pending = acceptPendingEnqueue();
+                if (pending != null) {
+                    accepted.add(pending);
+                }
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        for (PendingEnqueue<T> pending : accepted) {
+            pending.future.complete(null);
+        }
+        return drained;
+    }
+
+    @Override
+    // Stops accepting items. Pending enqueues fail, and so do pending dequeues (There are only any while the queue is
+    // empty, so there is nothing left for them). Dequeues carry on until the queue is empty.
+    public void closeForProducers() {
+        List<CompletableFuture<?>> refusedEnqueues = new ArrayList<>();
+        List<CompletableFuture<?>> drainedDequeues = new ArrayList<>();
+        queueLock.lock();
+        try {
+            if (closeState != OPEN) {
+                return;
+            }
+            closeState = CLOSED_FOR_PRODUCERS;
+            takePendingEnqueues(refusedEnqueues);
+            if (items.isEmpty()) {
+                drainedDequeues.addAll(pendingDequeues);
+                pendingDequeues.clear();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        failAll(refusedEnqueues, "The queue is closed for producers");
+        failAll(drainedDequeues, "The queue is closed and drained");
+    }
+
+    @Override
+    // Stops enqueues and dequeues, failing every pending future. Items left in the queue stay there.
+    public void close() {
+        List<CompletableFuture<?>> refusedEnqueues = new ArrayList<>();
+        List<CompletableFuture<?>> refusedDequeues = new ArrayList<>();
+        queueLock.lock();
+        try {
+            closeState = CLOSED;
+            takePendingEnqueues(refusedEnqueues);
+            refusedDequeues.addAll(pendingDequeues);
+            pendingDequeues.clear();
+        } finally {
+            queueLock.unlock();
+        }
+
+        failAll(refusedEnqueues, "The queue is closed for producers");
+        failAll(refusedDequeues, "The queue is closed");
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Puts the item in the queue (or hands it to a pending dequeue) and returns null, or registers it as a pending
+    // enqueue if the queue is full.
+    private PendingEnqueue<T> enqueueOrPend(T item) {
+        requireItem(item);
+        while (true) {
+            CompletableFuture<T> dequeue;
+            queueLock.lock();
+            try {
+                requireOpen();
+                dequeue = pollPendingDequeue();
+                if (dequeue == null) {
+                    if (items.size() < capacity) {
+                        items.addLast(item);
+                        return null;
+                    }
+                    PendingEnqueue<T> pending = new PendingEnqueue<>(item);
+                    pendingEnqueues.addLast(pending);
+                    return pending;
+                }
+            } finally {
+                queueLock.unlock();
+            }
+
+            // Hand the item straight over (Outside the lock, since this runs the dequeue's callbacks). If the dequeue
+            // was cancelled after we took it, go round again.
+            if (dequeue.complete(item)) {
+                return null;
+            }
+        }
+    }
+
+    // Returns a future completed with the head item, or registers a pending dequeue if the queue is empty
+    private CompletableFuture<T> dequeueOrPend() {
+        T item;
+        PendingEnqueue<T> accepted;
+        queueLock.lock();
+        try {
+            item = pollItem();
+            if (item == null) {
+                CompletableFuture<T> pending = new CompletableFuture<>();
+                pendingDequeues.addLast(pending);
+                return pending;
+            }
+            accepted = acceptPendingEnqueue();
+        } finally {
+            queueLock.unlock();
+        }
+
+        if (accepted != null) {
+            accepted.future.complete(null);
+        }
+        return CompletableFuture.completedFuture(item);
+    }
+
+    // Enqueues the item, waiting (on the pending enqueue's future) while the queue is full. Returns false if we timed out
+    // before the item was accepted.
+    private boolean awaitEnqueue(T item, boolean timed, long remainingNanos) throws InterruptedException {
+        PendingEnqueue<T> pending = enqueueOrPend(item);
+        if (pending == null) {
+            return true;
+        }
+
+        try {
+            awaitFuture(pending.future, timed, remainingNanos);
+            return true;
+        } catch (TimeoutException | InterruptedException ex) {
+            // Take our item back - unless a dequeue has already moved it into the queue, in which case it counts (or the
+            // queue has been closed, and we throw)
+            if (!withdrawEnqueue(pending)) {
+                if (ex instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                joinFuture(pending.future);
+                return true;
+            }
+            if (ex instanceof InterruptedException) {
+                throw (InterruptedException)ex;
+            }
+            return false;
+        }
+    }
+
+    // Dequeues an item, waiting (on the pending dequeue's future) while the queue is empty. Returns null if we timed out.
+    private T awaitDequeue(boolean timed, long remainingNanos) throws InterruptedException {
+        T item = tryDequeue();
+        if (item != null) {
+            return item;
+        }
+        if (timed && remainingNanos <= 0) {
+            return null;
+        }
+
+        CompletableFuture<T> pending = dequeueOrPend();
+        try {
+            return awaitFuture(pending, timed, remainingNanos);
+        } catch (TimeoutException | InterruptedException ex) {
+            // Give up our place in line - unless an enqueue has already taken us, in which case the item is on its way (or
+            // the queue has been closed, and we throw). Nobody else cancels this future, so one or the other will arrive.
+            if (!withdrawDequeue(pending)) {
+                if (ex instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                return joinFuture(pending);
+            }
+            if (ex instanceof InterruptedException) {
+                throw (InterruptedException)ex;
+            }
+            return null;
+        }
+    }
+
+    // Takes a pending enqueue out of line. Returns false if it had already been accepted.
+    private boolean withdrawEnqueue(PendingEnqueue<T> pending) {
+        queueLock.lock();
+        try {
+            return pendingEnqueues.remove(pending);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Takes a pending dequeue out of line. Returns false if an enqueue had already taken it.
+    private boolean withdrawDequeue(CompletableFuture<T> pending) {
+        queueLock.lock();
+        try {
+            return pendingDequeues.remove(pending);
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Takes the oldest pending dequeue that hasn't been cancelled (Call with queueLock held)
+    private CompletableFuture<T> pollPendingDequeue() {
+        CompletableFuture<T> dequeue;
+        while ((dequeue = pendingDequeues.pollFirst()) != null && dequeue.isDone()) {
+            // Cancelled, and its clean up hasn't run yet
+        }
+        return dequeue;
+    }
+
+    // Moves the oldest pending enqueue's item into the (just freed) slot. Its future still has to be completed, once
+    // the lock is released. (Call with queueLock held)
+    private PendingEnqueue<T> acceptPendingEnqueue() {
+        PendingEnqueue<T> pending;
+        while ((pending = pendingEnqueues.pollFirst()) != null && pending.future.isCancelled()) {
+            // Cancelled, and its clean up hasn't run yet
+        }
+        if (pending != null) {
+            items.addLast(pending.item);
+        }
+        return pending;
+    }
+
+    // Pops the head item, or returns null if there isn't one. Throws once the queue is closed, or closed for producers and
+    // empty. (Call with queueLock held)
+    private T pollItem() {
+        if (closeState == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+        T item = items.pollFirst();
+        if (item == null && closeState == CLOSED_FOR_PRODUCERS) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+        return item;
+    }
+
+    // (Call with queueLock held)
+    private void requireOpen() {
+        if (closeState != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    // Takes every pending enqueue out of line, for closing (Call with queueLock held)
+    private void takePendingEnqueues(List<CompletableFuture<?>> futures) {
+        for (PendingEnqueue<T> pending : pendingEnqueues) {
+            futures.add(pending.future);
+        }
+        pendingEnqueues.clear();
+    }
+
+    private static void failAll(List<CompletableFuture<?>> futures, String message) {
+        for (CompletableFuture<?> future : futures) {
+            future.completeExceptionally(new QueueClosedException(message));
+        }
+    }
+
+    private static <V> V awaitFuture(CompletableFuture<V> future, boolean timed, long remainingNanos) throws InterruptedException, TimeoutException {
+        try {
+            return timed ? future.get(remainingNanos, TimeUnit.NANOSECONDS) : future.get();
+        } catch (ExecutionException ex) {
+            throw closedOrIllegal(ex.getCause());
+        }
+    }
+
+    // Waits for a future we know is about to complete, without being interruptible
+    private static <V> V joinFuture(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            throw closedOrIllegal(ex.getCause());
+        }
+    }
+
+    private static RuntimeException closedOrIllegal(Throwable cause) {
+        if (cause instanceof QueueClosedException) {
+            return (QueueClosedException)cause;
+        }
+        // Our futures are otherwise only ever completed normally (or cancelled)
+        return new IllegalStateException("Queue future failed", cause);
+    }
+
+    private static void requireItem(Object item) {
+        if (item == null) {
+            throw new NullPointerException("ProducerConsumerAsyncQueue can't hold null items");
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// A bounded blocking ring of preallocated events, where every consumer group sees every event. It's the fan-out version
+// of ProducerConsumerEventRing: instead of a producer enqueuing the same item into one queue per downstream stage (audit,
+// indexing, forwarding...), it publishes each event once, and each stage reads it from the same slot.
+//
+//     ProducerConsumerBroadcastRing<OrderEvent> ring = new ProducerConsumerBroadcastRing<>(1024, OrderEvent::new);
+//     ProducerConsumerBroadcastRing<OrderEvent>.ConsumerGroup audit = ring.newConsumerGroup();
+//     ProducerConsumerBroadcastRing<OrderEvent>.ConsumerGroup indexing = ring.newConsumerGroup();
+//
+//     // Producers - same as ProducerConsumerEventRing
+//     long sequence = ring.claim();
+//     ring.get(sequence).set(orderId, quantity);
+//     ring.publish(sequence);
+//
+//     // Consumers - through their group
+//     long sequence = audit.take();
+//     write(ring.get(sequence));
+//     audit.release(sequence);
+//
+// Each group has its own take and release cursors, so the groups move through the ring independently. The consumers
+// within a group share the events between them (each event goes to exactly one consumer of each group), exactly like the
+// consumers of a ProducerConsumerEventRing. A producer only blocks while the slowest group is capacity events behind it -
+// the ring's free slots are the ones every group has released.
+//
+// A group can also be gated on other (upstream) groups instead of on the producers - it only takes an event once every
+// upstream group has released it. That makes a dependency graph of stages over the one ring (see
+// ProducerConsumerPipeline), with the events passed from stage to stage in place instead of being re-enqueued:
+//
+//     ProducerConsumerBroadcastRing<OrderEvent>.ConsumerGroup enrich = ring.newConsumerGroup(audit, indexing);
+//
+// Events are shared between the groups, so a consumer may only write to an event if every other group that reads it is
+// downstream of its own group (directly or not) - otherwise consumers MUST treat them as read only. Groups have to be
+// added before the first claim, since a group added later would have missed the events before it. If there are no groups
+// at all, nobody is listening, and published events are simply dropped.
+//
+// The cursors work the same way as ProducerConsumerEventRing's (see markFinished there) - per slot markers for
+// out of order publishes and releases, and contiguous cursors moved with a CAS. Producers don't re-scan every group on
+// every claim; they keep the minimum released cursor they last saw, and only re-scan when that says the ring is full.
+// (Only the groups with nothing downstream of them are scanned, since a group is never ahead of its upstream groups.)
+public class ProducerConsumerBroadcastRing<E> {
+
+    // Returned instead of a sequence when there's no slot (or event) to be had - full, empty, timed out or interrupted
+    public static final long NO_SEQUENCE = -1;
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final int capacity;
+    private final int indexMask; // The ring is a power of two long, so a sequence maps to its slot with a mask
+    private final Object[] events; // Filled by the event factory, and never replaced
+
+    // Each slot holds the last sequence that was published in it. The published cursor only moves past sequence s once
+    // slot s holds s.
+    private final AtomicLongArray publishedSlots;
+
+    // The producer side cursors, each on its own padded pair of cache lines
+    //   CLAIM     - the next sequence a producer will claim
+    //   PUBLISHED - every sequence below this has been published
+    //   GATE      - the slowest group's released cursor, as of the last re-scan (Every group has released below this)
+    private static final int PADDED_LINE_LONGS = 16;
+    private static final int CLAIM = PADDED_LINE_LONGS;
+    private static final int PUBLISHED = PADDED_LINE_LONGS * 2;
+    private static final int GATE = PADDED_LINE_LONGS * 3;
+    private final AtomicLongArray cursors = new AtomicLongArray(PADDED_LINE_LONGS * 5);
+
+    // Each group's cursors, in its own padded array
+    //   TAKE     - the next sequence one of the group's consumers will take
+    //   RELEASED - every sequence below this has been released by the group
+    private static final int TAKE = PADDED_LINE_LONGS;
+    private static final int RELEASED = PADDED_LINE_LONGS * 2;
+
+    // The consumer groups (Copied on write - only ever changes before the first claim)
+    private volatile ConsumerGroup[] groups;
+
+    // Parked producers (waiting for a slot every group has released)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot; // The re-check a parked producer makes before it parks
+    private final WaitStrategy waitStrategy;
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerBroadcastRing(int capacity, Supplier<? extends E> eventFactory) {
+        this(capacity, eventFactory, WaitStrategy.blocking());
+    }
+
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerBroadcastRing(int capacity, Supplier<? extends E> eventFactory, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        this.capacity = capacity;
+        int ringLength = Integer.highestOneBit(capacity * 2 - 1);
+        this.indexMask = ringLength - 1;
+        this.waitStrategy = waitStrategy;
+
+        this.events = new Object[ringLength];
+        for (int i = 0; i < ringLength; i++) {
+            E event = eventFactory.get();
+            if (event == null) {
+                throw new IllegalArgumentException("The event factory returned null");
+            }
+            events[i] = event;
+        }
+        this.publishedSlots = newSlotArray(ringLength);
+        this.groups = (ConsumerGroup[])new ProducerConsumerBroadcastRing<?>.ConsumerGroup[0];
+        this.hasFreeSlot = () -> cursors.get(CLAIM) - refreshGate() < capacity;
+    }
+
+    // (No sequence is negative, so -1 means "nothing finished in this slot yet")
+    private static AtomicLongArray newSlotArray(int ringLength) {
+        AtomicLongArray slots = new AtomicLongArray(ringLength);
+        for (int i = 0; i < ringLength; i++) {
+            slots.set(i, NO_SEQUENCE);
+        }
+        return slots;
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Adds a consumer group, which will see every event published from now on - or, if given upstream groups, every event
+    // once all of them have released it. Throws IllegalStateException once the first slot has been claimed.
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public final synchronized ConsumerGroup newConsumerGroup(ConsumerGroup... upstream) {
+        if (cursors.get(CLAIM) != 0) {
+            throw new IllegalStateException("Consumer groups must be added before the first claim");
+        }
+        for (ConsumerGroup upstreamGroup : upstream) {
+            if (upstreamGroup.getRing() != this) {
+                throw new IllegalArgumentException("An upstream group must belong to the same ring");
+            }
+        }
+        // (Copied element by element into an array of our own, so the caller's varargs array never escapes)
+        ConsumerGroup[] upstreamCopy = (ConsumerGroup[])new ProducerConsumerBroadcastRing<?>.ConsumerGroup[upstream.length];
+        for (int i = 0; i < upstream.length; i++) {
+            upstreamCopy[i] = upstream[i];
+        }
+        ConsumerGroup group = new ConsumerGroup(upstreamCopy);
+        for (ConsumerGroup upstreamGroup : upstream) {
+            upstreamGroup.addDownstream(group);
+        }
+        ConsumerGroup[] newGroups = Arrays.copyOf(groups, groups.length + 1);
+        newGroups[groups.length] = group;
+        groups = newGroups;
+        return group;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    // The number of slots claimed and not yet released by every group (Only a snapshot, since other threads may be moving
+    // the cursors)
+    public int getLength() {
+        long slowest = slowestReleased();
+        return (int)Math.max(0, Math.min(capacity, cursors.get(CLAIM) - slowest));
+    }
+
+    // The event in the slot for sequence. Only touch it between claim and publish (as its producer), or read it between
+    // take and release (as a consumer).
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E)events[(int)sequence & indexMask];
+    }
+
+    // Claims the next slot for a producer, blocking while the slowest group is a full ring behind. Returns its sequence,
+    // or NO_SEQUENCE if we were interrupted.
+    public long claim() {
+        try {
+            return awaitClaim(false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - print a message, reset the interrupt flag, and exit WITHOUT
+            // claiming a slot.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerBroadcastRing->claim: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without claiming a slot.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Claims the next slot, blocking for at most the timeout while the ring is full. Returns NO_SEQUENCE if we timed out
+    // (or were interrupted) first.
+    public long claim(long timeout, TimeUnit unit) {
+        try {
+            return awaitClaim(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerBroadcastRing->claim: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without claiming a slot.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Claims the next slot only if there is one free right now. Never blocks.
+    public long tryClaim() {
+        while (true) {
+            long sequence = cursors.get(CLAIM);
+            // (Only re-scan the groups when the gate we last saw says we're full)
+            if (sequence - cursors.get(GATE) >= capacity && sequence - refreshGate() >= capacity) {
+                return NO_SEQUENCE;
+            }
+            if (cursors.compareAndSet(CLAIM, sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    // Hands the claimed slot's event over to every group (once every earlier sequence has been published too)
+    public void publish(long sequence) {
+        int advanced = markFinished(publishedSlots, cursors, PUBLISHED, sequence);
+        if (advanced > 0) {
+            // (Groups with upstream groups are woken by those instead)
+            for (ConsumerGroup group : groups) {
+                if (group.upstream.length == 0) {
+                    group.notEmptyWaiters.wake(advanced);
+                }
+            }
+        }
+    }
+
+    // Claims a slot (blocking while the ring is full), lets writer fill in its event, and publishes it. Returns false if
+    // we were interrupted before we could claim one.
+    public boolean publishEvent(Consumer<? super E> writer) {
+        long sequence = claim();
+        if (sequence == NO_SEQUENCE) {
+            return false;
+        }
+        try {
+            writer.accept(get(sequence));
+        } finally {
+            publish(sequence);
+        }
+        return true;
+    }
+
+    /////
+    ///// Consumer Groups
+    /////
+
+    // A set of consumers that between them see every event once. Each group moves through the ring on its own cursors.
+    public final class ConsumerGroup {
+
+        // The groups that have to release an event before this one can take it (None means it's gated on the producers),
+        // and the groups gated on this one (Only changes before the first claim)
+        private final ConsumerGroup[] upstream;
+        private volatile ConsumerGroup[] downstream;
+
+        // This group's last released sequence in each slot
+        private final AtomicLongArray releasedSlots = newSlotArray(events.length);
+
+        // This group's cursors (TAKE and RELEASED), padded the same way as the ring's
+        private final AtomicLongArray groupCursors = new AtomicLongArray(PADDED_LINE_LONGS * 4);
+
+        // This group's parked consumers (waiting for a published event)
+        private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+        private final BooleanSupplier hasEvent;
+
+        @SuppressWarnings("unchecked")
+        private ConsumerGroup(ConsumerGroup[] upstream) {
+            this.upstream = upstream;
+            this.downstream = (ConsumerGroup[])new ProducerConsumerBroadcastRing<?>.ConsumerGroup[0];
+            this.hasEvent = () -> groupCursors.get(TAKE) < getAvailable();
+        }
+
+        // The number of events this group could take but hasn't yet (Only a snapshot)
+        public int getBacklog() {
+            return (int)Math.max(0, getAvailable() - groupCursors.get(TAKE));
+        }
+
+        // Takes the next published event for one of this group's consumers, blocking while there isn't one. Returns its
+        // sequence, or NO_SEQUENCE if we were interrupted.
+        public long take() {
+            try {
+                return awaitTake(false, 0);
+            } catch (InterruptedException iEx) {
+                System.out.println("com.theodorersmith.queue.ProducerConsumerBroadcastRing->take: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without taking an event.");
+                Thread.currentThread().interrupt();
+                return NO_SEQUENCE;
+            }
+        }
+
+        // Takes the next published event, blocking for at most the timeout while there isn't one. Returns NO_SEQUENCE if
+        // we timed out (or were interrupted) first.
+        public long take(long timeout, TimeUnit unit) {
+            try {
+                return awaitTake(true, unit.toNanos(timeout));
+            } catch (InterruptedException iEx) {
+                System.out.println("com.theodorersmith.queue.ProducerConsumerBroadcastRing->take: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without taking an event.");
+                Thread.currentThread().interrupt();
+                return NO_SEQUENCE;
+            }
+        }
+
+        // Takes the next published event only if there is one right now. Never blocks.
+        public long tryTake() {
+            while (true) {
+                long sequence = groupCursors.get(TAKE);
+                if (sequence >= getAvailable()) {
+                    return NO_SEQUENCE;
+                }
+                if (groupCursors.compareAndSet(TAKE, sequence, sequence + 1)) {
+                    return sequence;
+                }
+            }
+        }
+
+        // Marks the taken event as done for this group (once every earlier sequence has been released by the group too).
+        // The event moves on to the downstream groups once all of their upstream groups have released it, and the slot is
+        // free for the producers once every group has.
+        public void release(long sequence) {
+            int advanced = markFinished(releasedSlots, groupCursors, RELEASED, sequence);
+            if (advanced > 0) {
+                ConsumerGroup[] currentDownstream = downstream;
+                if (currentDownstream.length == 0) {
+                    // (Only the slowest end group's releases free a slot, but which group that is changes - so any of them
+                    // moving on lets a parked producer re-check)
+                    notFullWaiters.wake(advanced);
+                } else {
+                    for (ConsumerGroup group : currentDownstream) {
+                        group.notEmptyWaiters.wake(advanced);
+                    }
+                }
+            }
+        }
+
+        // Takes an event (blocking while there isn't one), lets reader process it, and releases it. Returns false if we
+        // were interrupted before we could take one.
+        public boolean consumeEvent(Consumer<? super E> reader) {
+            long sequence = take();
+            if (sequence == NO_SEQUENCE) {
+                return false;
+            }
+            try {
+                reader.accept(get(sequence));
+            } finally {
+                release(sequence);
+            }
+            return true;
+        }
+
+        // Takes an event, waiting whenever there isn't one. Returns NO_SEQUENCE if we timed out first.
+        private long awaitTake(boolean timed, long remainingNanos) throws InterruptedException {
+            long sequence;
+            while ((sequence = tryTake()) == NO_SEQUENCE) {
+                if (timed && remainingNanos <= 0) {
+                    return NO_SEQUENCE;
+                }
+                remainingNanos = notEmptyWaiters.await(waitStrategy, hasEvent, timed, remainingNanos);
+            }
+            return sequence;
+        }
+
+        // Every sequence below this can be taken by this group - published, or released by every upstream group
+        private long getAvailable() {
+            if (upstream.length == 0) {
+                return cursors.get(PUBLISHED);
+            }
+            long available = upstream[0].getReleased();
+            for (int i = 1; i < upstream.length; i++) {
+                available = Math.min(available, upstream[i].getReleased());
+            }
+            return available;
+        }
+
+        private long getReleased() {
+            return groupCursors.get(RELEASED);
+        }
+
+        private ProducerConsumerBroadcastRing<E> getRing() {
+            return ProducerConsumerBroadcastRing.this;
+        }
+
+        private void addDownstream(ConsumerGroup group) {
+            ConsumerGroup[] newDownstream = Arrays.copyOf(downstream, downstream.length + 1);
+            newDownstream[downstream.length] = group;
+            downstream = newDownstream;
+        }
+    }
+
+    /////
+    ///// Ring Helpers
+    /////
+
+    // The slowest group's released cursor - which is always one of the end groups, with nothing downstream. (With no groups,
+    // there's nobody to wait for, so it's wherever the producers are.)
+    private long slowestReleased() {
+        long slowest = cursors.get(CLAIM);
+        for (ConsumerGroup group : groups) {
+            if (group.downstream.length == 0) {
+                slowest = Math.min(slowest, group.getReleased());
+            }
+        }
+        return slowest;
+    }
+
+    // Re-scans the groups for the slowest released cursor, and moves the gate up to it. Returns the gate.
+    private long refreshGate() {
+        long slowest = slowestReleased();
+
+        // (Several producers may re-scan at once - the gate only ever moves forward)
+        long gate = cursors.get(GATE);
+        while (slowest > gate && !cursors.compareAndSet(GATE, gate, slowest)) {
+            gate = cursors.get(GATE);
+        }
+        return Math.max(gate, slowest);
+    }
+
+    // Claims a slot, waiting whenever the ring is full. Returns NO_SEQUENCE if we timed out first.
+    private long awaitClaim(boolean timed, long remainingNanos) throws InterruptedException {
+        long sequence;
+        while ((sequence = tryClaim()) == NO_SEQUENCE) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return NO_SEQUENCE;
+            }
+            remainingNanos = notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+        }
+        return sequence;
+    }
+
+    // Marks sequence as finished in its slot, then moves the cursor past every contiguous finished sequence. Returns how
+    // many steps this call moved it. (Same as ProducerConsumerEventRing.markFinished, for a cursor in any array.)
+    private int markFinished(AtomicLongArray slots, AtomicLongArray cursorArray, int cursor, long sequence) {
+        slots.set((int)sequence & indexMask, sequence);
+
+        int advanced = 0;
+        long next = cursorArray.get(cursor);
+        while (slots.get((int)next & indexMask) == next) {
+            if (cursorArray.compareAndSet(cursor, next, next + 1)) {
+                advanced++;
+            }
+            next = cursorArray.get(cursor);
+        }
+        return advanced;
+    }
+}
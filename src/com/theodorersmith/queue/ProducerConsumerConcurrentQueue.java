@@ -2,139 +2,626 @@ package com.theodorersmith.queue;
 
 // Copyright Theodore Smith, 2018 - All Rights Reserved
 
-import java.util.concurrent.atomic.AtomicInteger;
+import com.theodorersmith.queue.test.TestableQueue;
 
-// This implementation uses two objects for synchronization - a readLockObject (dequeue) and a writeLockObject (enqueue).
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// This implementation uses two locks - a readLock (dequeue) and a writeLock (enqueue).
 // I am using a circular array, so we should be able to write to a free slot without worrying about concurrent
-// reads, and vice versa. Instead of managing the head index and length, we are going to track the head, tail, and
-// length. The head will only be used by the dequeue, and the tail only by the enqueue, so the only shared value
-// that needs to be threadsafe between enqueue and dequeue threads is the queue length - we give it thread safety by
-// using the atomic library.
-public class ProducerConsumerConcurrentQueue<T> implements ProducerConsumerQueue<T> {
+// reads, and vice versa. Instead of managing a shared length, each side owns a sequence number that only ever goes up:
+// enqueue threads own the tail, and dequeue threads own the head. The length is just tail - head.
+//
+// Each side also keeps its own cached copy of the other side's sequence, and only re-reads the real one when the cached
+// copy says the queue is full (or empty). In a busy queue that means the two sides hardly ever read each other's lines.
+// By default (padded) the producer's values and the consumer's values each get their own cache lines, so a producer
+// updating the tail doesn't keep invalidating the line a consumer is updating the head in.
+//
+// Threads never wait while holding a lock. A thread that finds the queue full (or empty) parks in a WaiterQueue outside
+// of the locks, and every item (or slot) that becomes available wakes exactly one parked thread. (The original version
+// used notifyAll on an empty -> not empty transition, which woke every blocked consumer for a single item. That version
+// is kept as ConcurrentDoubleSyncArrayPCQueue for comparison.) Before parking, a thread waits however the queue's
+// WaitStrategy says - by default it parks straight away, but it can spin and/or yield first for short-gap traffic.
+//
+// The locks are ReentrantLocks rather than synchronized blocks. Nothing here blocks in a monitor (synchronized or
+// Object.wait), so a virtual thread that has to wait for the queue - or for one of the locks - unmounts from its carrier
+// thread instead of pinning it. One queue can be shared by a hundred thousand virtual threads on a handful of carriers.
+//
+// With QueueMetrics, the queue also counts what it does (see QueueMetrics), and stamps each slot with the time its item
+// was enqueued - in a long array next to queueArray, written under the same lock as the item - so a dequeue can record how
+// long the item waited. (Only the items the metrics sample are stamped; they are picked by sequence number, which the
+// enqueue and the dequeue of an item agree on.) Without metrics, that's a null check on each path.
+//
+// With powerOfTwo indexing, the backing array is rounded up to the next power of two so indexes wrap with a bitmask
+// instead of a division. The queue still holds at most the capacity it was asked for - the extra slots are never used at
+// the same time, they just let the indexes run past the logical capacity before they wrap.
+//
+// Closing the queue (closeForProducers / close) costs nothing on the fast paths. Each side only checks whether the queue is
+// closed when its cached copy of the other side's sequence says the queue is full (or empty) - and closing the queue
+// points the cached head a whole queue behind the tail (and, for close, the cached tail at the head), so from then on
+// every enqueue (and dequeue) takes that slow path and sees it. Parked threads are all woken, and their re-check counts a
+// closed queue as ready, so nobody parks on it again.
+public class ProducerConsumerConcurrentQueue<T> implements TestableQueue<T> {
 
     /////
     ///// Member Variables
     /////
 
-    private final T[] queueArray; // The internal array backing the queue. (Treated as circular array around headIdx)
+    private final T[] queueArray; // The internal array backing the queue. (Treated as a circular array)
+    private final int capacity; // The most items the queue can hold. (Less than queueArray.length with powerOfTwo indexing)
+    private final int indexMask; // queueArray.length - 1 with powerOfTwo indexing, or NO_MASK to wrap with %
+    private static final int NO_MASK = -1;
+
+    // We are going to synchronize with two locks - one for reading from the queue and one for writing. (Each lock keeps
+    // its state in its own small object, so the two don't share the cursors' cache lines)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock readLock = new ReentrantLock();
+
+    // The hot values for each side of the queue, laid out in a single array. The producer's values start at producerBase
+    // and the consumer's at consumerBase. Padded, those are PADDED_LINE_LONGS apart (with the same padding in front of the
+    // producer and after the consumer). Unpadded, they are packed right next to each other.
+    //   SEQUENCE       - the tail (producer) or head (consumer) position. Written only by its own side, under its lock.
+    //   INDEX          - where SEQUENCE falls in queueArray, kept so we don't need a long division. Only read by its own side.
+    //   OPPOSITE_CACHE - the last value of the other side's SEQUENCE that this side read. Only read by its own side.
+    private static final int SEQUENCE = 0;
+    private static final int INDEX = 1;
+    private static final int OPPOSITE_CACHE = 2;
+    private static final int CURSOR_LONGS = 3;
+    private static final int PADDED_LINE_LONGS = 16; // 128 bytes - two lines, so the adjacent line prefetcher can't pair them either
+
+    private final AtomicLongArray cursors;
+    private final int producerBase;
+    private final int consumerBase;
+
+    // Parked enqueue threads (waiting for a free slot) and parked dequeue threads (waiting for an item)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot; // The re-check a parked enqueue thread makes before it parks
+    private final BooleanSupplier hasItem; // The re-check a parked dequeue thread makes before it parks
+    private final WaitStrategy waitStrategy; // What a thread does before it parks
 
-    // We are going to synchronize with two objects - one for reading from the queue and one for writing.
-    private final Object writeLockObj = new Object();
-    private int headIdx;
-    private final Object readLockObj = new Object();
-    private int tailIdx ;
+    // Whether the queue has been closed. Only changed under the locks (writeLock for CLOSED_FOR_PRODUCERS, both for CLOSED),
+    // and only read on the slow paths.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1;
+    private static final int CLOSED = 2;
+    private volatile int closeState = OPEN;
 
-    // The length can be written from within both the enqueue and dequeue sync blocks, so must be threadsafe.
-    private AtomicInteger length;
+    // Instrumentation (both null when metrics are off). enqueueStamps[i] is when the item in queueArray[i] was enqueued.
+    private final QueueMetrics metrics;
+    private final long[] enqueueStamps;
 
     /////
     ///// Construction and Initialization
     /////
 
-    @SuppressWarnings("unchecked")
     public ProducerConsumerConcurrentQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerConcurrentQueue(int capacity, WaitStrategy waitStrategy) {
+        this(capacity, waitStrategy, true);
+    }
+
+    // Counts what the queue does into metrics (which can only belong to this queue)
+    public ProducerConsumerConcurrentQueue(int capacity, WaitStrategy waitStrategy, QueueMetrics metrics) {
+        this(capacity, waitStrategy, true, false, metrics);
+    }
+
+    // padded = false packs the producer and consumer values together (Only really useful to benchmark against)
+    public ProducerConsumerConcurrentQueue(int capacity, WaitStrategy waitStrategy, boolean padded) {
+        this(capacity, waitStrategy, padded, false);
+    }
+
+    // powerOfTwo = true rounds the backing array up to a power of two and wraps indexes with a mask
+    public ProducerConsumerConcurrentQueue(int capacity, WaitStrategy waitStrategy, boolean padded, boolean powerOfTwo) {
+        this(capacity, waitStrategy, padded, powerOfTwo, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerConcurrentQueue(int capacity, WaitStrategy waitStrategy, boolean padded, boolean powerOfTwo, QueueMetrics metrics) {
         if (capacity < 1) {
             // If the capacity is less than 1, throw an Illegal Argument Exception
             // Note: This is an ApplicationException, so it won't be checked at compile time
             throw new IllegalArgumentException("Queue capacity must be greater than zero");
         }
 
-        this.queueArray = (T[])new Object[capacity];
-        this.headIdx = 0;
-        this.tailIdx = 0;
-        this.length = new AtomicInteger(0);
+        if (powerOfTwo && capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Queue capacity is too large to round up to a power of two");
+        }
+
+        int arrayLength = powerOfTwo ? roundUpToPowerOfTwo(capacity) : capacity;
+        this.queueArray = (T[])new Object[arrayLength];
+        this.capacity = capacity;
+        this.indexMask = powerOfTwo ? arrayLength - 1 : NO_MASK;
+        if (padded) {
+            this.producerBase = PADDED_LINE_LONGS;
+            this.consumerBase = 2 * PADDED_LINE_LONGS;
+            this.cursors = new AtomicLongArray(3 * PADDED_LINE_LONGS);
+        } else {
+            this.producerBase = 0;
+            this.consumerBase = CURSOR_LONGS;
+            this.cursors = new AtomicLongArray(2 * CURSOR_LONGS);
+        }
+        this.hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+        this.hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+        this.waitStrategy = waitStrategy;
+        this.metrics = metrics;
+        this.enqueueStamps = metrics == null ? null : new long[arrayLength];
+        if (metrics != null) {
+            metrics.attach(() -> cursors.get(producerBase + SEQUENCE), () -> cursors.get(consumerBase + SEQUENCE), this::getLength, capacity);
+        }
     }
 
     /////
-    ///// Public Methods
+    ///// TestableQueue Implementation
     /////
 
-    // Gets the maximum capacity of the queue
-    public synchronized int getCapacity() {
-        return this.queueArray.length;
+    @Override
+    // Gets the maximum capacity of the queue (The logical capacity - not the size of the backing array)
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    // Gets the current length of the queue
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = cursors.get(consumerBase + SEQUENCE);
+        long tail = cursors.get(producerBase + SEQUENCE);
+        return (int)(tail - head);
     }
 
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        writeLock.lock();
+        readLock.lock();
+        try {
+            Arrays.fill(queueArray, null);
+            for (int i = 0; i < cursors.length(); i++) {
+                cursors.set(i, 0);
+            }
+            closeState = OPEN;
+            // (The metrics count from the sequences, so they start again too)
+            if (metrics != null) {
+                metrics.reset();
+            }
+        } finally {
+            readLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
     @Override
     // ProducerConsumerQueue Implementation
     // Threadsafe add an item to the end of the queue. Blocks if queue is full.
     public void enqueue(T item) {
-        // Sync on the write lock
-        synchronized (writeLockObj) {
-            // Check if we have space to add new items
-            while (length.get() == getCapacity()) {
-                // The length is at capacity. Block until we have free space
-                try {
-                    writeLockObj.wait();
-                } catch (InterruptedException iEx) {
-                    // NOTE: Would normally rethrow an InterruptedException in a place like this; however the interface doesn't
-                    // throw InterruptedException, so we can't rethrow. Instead print message to system.out, reset the interrupt
-                    // flag, and exit. Note that this means a thread interrupt while this method is blocking will unblock as
-                    // soon as possible WITHOUT enqueuing the item. (And future enqueues will be interrupted out of wait() until
-                    // the interrupt is cleared or otherwise handled.)
-                    System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
-                    Thread.currentThread().interrupt();
-                    return;
+        try {
+            awaitOffer(item, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Would normally rethrow an InterruptedException in a place like this; however the interface doesn't
+            // throw InterruptedException, so we can't rethrow. Instead print message to system.out, reset the interrupt
+            // flag, and exit. Note that this means a thread interrupt while this method is blocking will unblock as
+            // soon as possible WITHOUT enqueuing the item. (And future enqueues will be interrupted out of their wait until
+            // the interrupt is cleared or otherwise handled.)
+            System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks if queue is empty
+    public T dequeue() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full. Returns false if
+    // we timed out (or were interrupted) without enqueuing the item.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        try {
+            return awaitOffer(item, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as enqueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty. Returns null
+    // if we timed out (or were interrupted) without dequeuing an item.
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Adds the item only if there is space right now. Never blocks.
+    public boolean tryEnqueue(T item) {
+        return offer(item);
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Pops an item off the front of the queue only if there is one right now. Never blocks.
+    public T tryDequeue() {
+        return poll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add a batch of items to the end of the queue. Blocks whenever the queue is full. Each pass through the
+    // write lock claims as many free slots as it can, copies that run of items in (in at most two pieces around the end of
+    // the circular array), and wakes one dequeue thread per item in the run.
+    public void enqueueAll(T[] items) {
+        int itemIdx = 0;
+        while (itemIdx < items.length) {
+            int runLength;
+            writeLock.lock();
+            try {
+                // Claim every free slot we can use (Only dequeue threads move the head, so free space can only grow under us)
+                long tail = cursors.getPlain(producerBase + SEQUENCE);
+                int wanted = items.length - itemIdx;
+                if (capacity - (tail - cursors.getPlain(producerBase + OPPOSITE_CACHE)) < wanted) {
+                    // Our cached head doesn't show enough space - see how far the dequeue threads have really got (unless
+                    // the queue is closed, which is why it doesn't)
+                    if (closeState != OPEN) {
+                        throw new QueueClosedException("The queue is closed for producers (" + wanted + " items not enqueued)");
+                    }
+                    cursors.setPlain(producerBase + OPPOSITE_CACHE, cursors.get(consumerBase + SEQUENCE));
                 }
-            }
+                runLength = (int)Math.min(capacity - (tail - cursors.getPlain(producerBase + OPPOSITE_CACHE)), wanted);
+                if (runLength > 0) {
+                    // Copy the run to the tail of the array, wrapping around to the start if we need to.
+                    int tailIdx = (int)cursors.getPlain(producerBase + INDEX);
+                    int firstPart = Math.min(runLength, queueArray.length - tailIdx);
+                    System.arraycopy(items, itemIdx, queueArray, tailIdx, firstPart);
+                    System.arraycopy(items, itemIdx + firstPart, queueArray, 0, runLength - firstPart);
+                    if (metrics != null) {
+                        long now = System.nanoTime();
+                        Arrays.fill(enqueueStamps, tailIdx, tailIdx + firstPart, now);
+                        Arrays.fill(enqueueStamps, 0, runLength - firstPart, now);
+                    }
+                    cursors.setPlain(producerBase + INDEX, wrapIndex(tailIdx + runLength));
 
-            // We have space for items
-            // First, Add our item to the tail of the array and update the tail to point to the next (Circular) cell.
-            queueArray[tailIdx] = item;
-            tailIdx = (tailIdx + 1) % queueArray.length;
+                    // Publish the whole run with a single update to the tail
+                    cursors.set(producerBase + SEQUENCE, tail + runLength);
+                }
+            } finally {
+                writeLock.unlock();
+            }
 
-            // Next, we are going to increment the array length
-            int oldLength = length.getAndIncrement();
+            if (runLength > 0) {
+                itemIdx += runLength;
+                wakeDequeueThreads(runLength);
+                continue;
+            }
 
-            // If the old length was zero, we want to wake up all waiting dequeue threads (we have to notify in a dequeue
-            // sync loop, so here just return if it was bigger than zero
-            if (oldLength > 0) {
+            // The queue is full. Wait (outside the lock) until a slot frees up
+            try {
+                awaitReady(notFullWaiters, hasFreeSlot, false, 0);
+            } catch (InterruptedException iEx) {
+                // NOTE: Same as enqueue - exit WITHOUT enqueuing the rest of the batch, and reset the interrupt flag.
+                System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->enqueueAll: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing " + (items.length - itemIdx) + " items.");
+                Thread.currentThread().interrupt();
                 return;
             }
         }
-        // If we are still here, grab the read lock and wake up all the read threads
-        synchronized (readLockObj) {
-            readLockObj.notifyAll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Collection version of enqueueAll
+    @SuppressWarnings("unchecked")
+    public void enqueueAll(Collection<? extends T> items) {
+        enqueueAll((T[])items.toArray());
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. The items are taken as
+    // a single run, with one update to the head, then one enqueue thread is woken per slot.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int moved = 0;
+        readLock.lock();
+        try {
+            // Only enqueue threads move the tail, so the number of items can only grow under us
+            long head = cursors.getPlain(consumerBase + SEQUENCE);
+            if (cursors.getPlain(consumerBase + OPPOSITE_CACHE) - head < maxItems) {
+                // Our cached tail doesn't show enough items - see how far the enqueue threads have really got (unless the
+                // queue is closed, which is why it doesn't)
+                if (closeState == CLOSED) {
+                    return 0;
+                }
+                cursors.setPlain(consumerBase + OPPOSITE_CACHE, cursors.get(producerBase + SEQUENCE));
+            }
+            int runLength = (int)Math.min(maxItems, cursors.getPlain(consumerBase + OPPOSITE_CACHE) - head);
+            if (runLength <= 0) {
+                return 0;
+            }
+
+            // Move the run from the head of the array (clearing each slot, so we don't hold on to the item). If target
+            // throws part way through, the head only moves past the items it took - the rest are still in the queue.
+            int headIdx = (int)cursors.getPlain(consumerBase + INDEX);
+            try {
+                while (moved < runLength) {
+                    int idx = wrapIndex(headIdx + moved);
+                    target.add(queueArray[idx]);
+                    queueArray[idx] = null;
+                    moved++;
+                }
+            } finally {
+                if (moved > 0) {
+                    if (metrics != null) {
+                        recordSojourns(headIdx, moved, head);
+                    }
+                    cursors.setPlain(consumerBase + INDEX, wrapIndex(headIdx + moved));
+
+                    // Free the whole run with a single update to the head
+                    cursors.set(consumerBase + SEQUENCE, head + moved);
+                }
+            }
+        } finally {
+            readLock.unlock();
+
+            // Wake one enqueue thread per freed slot (if there are any waiting)
+            if (moved > 0) {
+                wakeEnqueueThreads(moved);
+            }
         }
+        return moved;
     }
 
     @Override
     // ProducerConsumerQueue Implementation
-    // Threadsafe pops an item off the front of the queue. Blocks if queue is full
-    public T dequeue() {
-        // Sync on the read lock
+    // Closes the queue to enqueues. Consumers can still take whatever is left.
+    public void closeForProducers() {
+        writeLock.lock();
+        try {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+            // Make the queue look full to the enqueue threads, so they all take the slow path (where the check is)
+            cursors.setPlain(producerBase + OPPOSITE_CACHE, cursors.getPlain(producerBase + SEQUENCE) - capacity);
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left (or find
+        // out there isn't anything)
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there.
+    public void close() {
+        writeLock.lock();
+        readLock.lock();
+        try {
+            closeState = CLOSED;
+            // Make the queue look full to the enqueue threads and empty to the dequeue threads, so they all take the slow path
+            cursors.setPlain(producerBase + OPPOSITE_CACHE, cursors.getPlain(producerBase + SEQUENCE) - capacity);
+            cursors.setPlain(consumerBase + OPPOSITE_CACHE, cursors.getPlain(consumerBase + SEQUENCE));
+        } finally {
+            readLock.unlock();
+            writeLock.unlock();
+        }
+
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Adds the item to the tail if there is space, and wakes one parked dequeue thread for it. Never blocks.
+    private boolean offer(T item) {
+        writeLock.lock();
+        try {
+            long tail = cursors.getPlain(producerBase + SEQUENCE);
+            if (tail - cursors.getPlain(producerBase + OPPOSITE_CACHE) == capacity) {
+                // Full according to our cached head - see how far the dequeue threads have really got (unless the queue
+                // is closed, which is why it looks full)
+                if (closeState != OPEN) {
+                    throw new QueueClosedException("The queue is closed for producers");
+                }
+                long head = cursors.get(consumerBase + SEQUENCE);
+                cursors.setPlain(producerBase + OPPOSITE_CACHE, head);
+                if (tail - head == capacity) {
+                    return false;
+                }
+            }
+
+            // We have space for items
+            // First, Add our item to the tail of the array and update the index to point to the next (Circular) cell.
+            int tailIdx = (int)cursors.getPlain(producerBase + INDEX);
+            queueArray[tailIdx] = item;
+            if (metrics != null && metrics.isSojournSampled(tail)) {
+                enqueueStamps[tailIdx] = System.nanoTime();
+            }
+            cursors.setPlain(producerBase + INDEX, wrapIndex(tailIdx + 1));
+
+            // Next, we are going to publish the new tail (This volatile write is what a parked dequeue thread re-checks
+            // after registering, so it has to come before our check for waiters below)
+            cursors.set(producerBase + SEQUENCE, tail + 1);
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Outside of the lock, wake a single dequeue thread for the new item
+        wakeDequeueThreads(1);
+        return true;
+    }
+
+    // Pops the item at the head if there is one, and wakes one parked enqueue thread for the freed slot. Never blocks.
+    private T poll() {
         T item;
-        synchronized (readLockObj) {
-            // Check if there are items to pop off the queue
-            while (length.get() == 0) {
-                // The length is at capacity. Block until we have free space
-                try {
-                    readLockObj.wait();
-                } catch (InterruptedException iEx) {
-                    System.out.println("com.theodorersmith.queue.ProducerConsumerConcurrentQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
-                    Thread.currentThread().interrupt();
+        long enqueueStamp = 0;
+        boolean sampled = false; // Whether this item's sojourn time is recorded
+        readLock.lock();
+        try {
+            long head = cursors.getPlain(consumerBase + SEQUENCE);
+            if (head == cursors.getPlain(consumerBase + OPPOSITE_CACHE)) {
+                // Empty according to our cached tail - see how far the enqueue threads have really got. Read closeState
+                // first: nothing is enqueued once it says closed, so if the tail still shows empty after that, it always will.
+                int state = closeState;
+                if (state == CLOSED) {
+                    throw new QueueClosedException("The queue is closed");
+                }
+                long tail = cursors.get(producerBase + SEQUENCE);
+                cursors.setPlain(consumerBase + OPPOSITE_CACHE, tail);
+                if (head == tail) {
+                    if (state == CLOSED_FOR_PRODUCERS) {
+                        throw new QueueClosedException("The queue is closed and drained");
+                    }
                     return null;
                 }
             }
 
             // We have a non-empty queue
-            // First get our item from the front of the queue.
+            // First get our item from the front of the queue (and clear the slot, so we don't hold on to it)
+            int headIdx = (int)cursors.getPlain(consumerBase + INDEX);
             item = queueArray[headIdx];
+            queueArray[headIdx] = null;
+            if (metrics != null && metrics.isSojournSampled(head)) {
+                enqueueStamp = enqueueStamps[headIdx];
+                sampled = true;
+            }
 
-            // Now decrement the length and update the head index
-            headIdx = (headIdx + 1) % queueArray.length;
-            int oldLength = length.getAndDecrement();
+            // Now update the head index and publish the new head
+            cursors.setPlain(consumerBase + INDEX, wrapIndex(headIdx + 1));
+            cursors.set(consumerBase + SEQUENCE, head + 1);
+        } finally {
+            readLock.unlock();
+        }
 
-            // If the old length was at capacitiy, we want to notify all the waiting enqueue threads.
-            if (oldLength < getCapacity()) {
-                // return early if we don't need to notify
-                return item;
-            }
+        // Outside of the lock, wake a single enqueue thread for the freed slot
+        wakeEnqueueThreads(1);
+        if (sampled) {
+            metrics.recordSojourn(System.nanoTime() - enqueueStamp);
         }
-        // If we are still here, grab the write lock and wake up all the write threads
-        synchronized (writeLockObj) {
-            writeLockObj.notifyAll();
+        return item;
+    }
+
+    // Offers the item, waiting whenever the queue is full. Returns false if we timed out first.
+    private boolean awaitOffer(T item, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(item)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = awaitReady(notFullWaiters, hasFreeSlot, timed, remainingNanos);
         }
+        return true;
+    }
 
+    // Polls for an item, waiting whenever the queue is empty. Returns null if we timed out first.
+    private T awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        T item;
+        while ((item = poll()) == null) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = awaitReady(notEmptyWaiters, hasItem, timed, remainingNanos);
+        }
         return item;
     }
+
+    // WaiterQueue.await, recording how long we waited in the metrics (if there are any). Returns the time left (Only
+    // meaningful when timed).
+    private long awaitReady(WaiterQueue waiters, BooleanSupplier ready, boolean timed, long remainingNanos) throws InterruptedException {
+        if (metrics == null) {
+            return waiters.await(waitStrategy, ready, timed, remainingNanos);
+        }
+
+        // Time the wait for the metrics too
+        long startNanos = System.nanoTime();
+        try {
+            return waiters.await(waitStrategy, ready, timed, remainingNanos);
+        } finally {
+            long waitedNanos = System.nanoTime() - startNanos;
+            if (waiters == notFullWaiters) {
+                metrics.recordEnqueueWait(waitedNanos);
+            } else {
+                metrics.recordDequeueWait(waitedNanos);
+            }
+        }
+    }
+
+    // Wakes up to count parked enqueue threads (counting the wakeups, with metrics)
+    private void wakeEnqueueThreads(int count) {
+        int woken = notFullWaiters.wake(count);
+        if (metrics != null) {
+            metrics.recordEnqueueWakeups(woken);
+        }
+    }
+
+    // Wakes up to count parked dequeue threads (counting the wakeups, with metrics)
+    private void wakeDequeueThreads(int count) {
+        int woken = notEmptyWaiters.wake(count);
+        if (metrics != null) {
+            metrics.recordDequeueWakeups(woken);
+        }
+    }
+
+    // Records the sojourn times of the sampled items among the count starting at queueArray[startIdx] (whose sequence
+    // number is startSequence), wrapping around the end of the array. Call under readLock, before the slots are handed back.
+    private void recordSojourns(int startIdx, int count, long startSequence) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (metrics.isSojournSampled(startSequence + i)) {
+                metrics.recordSojourn(now - enqueueStamps[wrapIndex(startIdx + i)]);
+            }
+        }
+    }
+
+    // Wraps an index that may have run up to (less than) twice the array length back into queueArray
+    private int wrapIndex(int idx) {
+        return indexMask != NO_MASK ? idx & indexMask : idx % queueArray.length;
+    }
+
+    // The smallest power of two >= value (value must be between 1 and 2^30)
+    private static int roundUpToPowerOfTwo(int value) {
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
 }
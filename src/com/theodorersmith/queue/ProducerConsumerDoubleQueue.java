@@ -0,0 +1,173 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.TimeUnit;
+
+// A bounded blocking queue of doubles. Same blocking behavior as ProducerConsumerConcurrentQueue<Double>, but the items are
+// kept in a double[], so enqueueing and dequeueing never box (or allocate) anything.
+//
+// Without null to fall back on, the dequeue methods return the queue's emptyValue whenever the object queues would
+// return null (A timed out or interrupted dequeue, or a tryDequeueDouble on an empty queue). By default that is
+// Double.NaN - if that can be a real item, give the queue an emptyValue that can't be, or don't use those methods.
+// (Check for NaN with Double.isNaN - NaN never == NaN)
+public class ProducerConsumerDoubleQueue extends AbstractProducerConsumerPrimitiveQueue {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final double[] queueArray; // The internal array backing the queue. (Treated as a circular array)
+    private final double emptyValue; // Returned by dequeues that come back without an item
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerDoubleQueue(int capacity) {
+        this(capacity, Double.NaN, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerDoubleQueue(int capacity, double emptyValue, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.queueArray = new double[arrayLength];
+        this.emptyValue = emptyValue;
+    }
+
+    // The value dequeues return when they come back without an item
+    public double getEmptyValue() {
+        return this.emptyValue;
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Threadsafe add an item to the end of the queue. Blocks if queue is full.
+    public void enqueueDouble(double item) {
+        try {
+            awaitOffer(item, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerDoubleQueue->enqueueDouble: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Threadsafe pops an item off the front of the queue. Blocks if queue is empty. Returns emptyValue if interrupted.
+    public double dequeueDouble() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerDoubleQueue->dequeueDouble: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning emptyValue.");
+            Thread.currentThread().interrupt();
+            return emptyValue;
+        }
+    }
+
+    // Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full. Returns false if
+    // we timed out (or were interrupted) without enqueuing the item.
+    public boolean enqueueDouble(double item, long timeout, TimeUnit unit) {
+        try {
+            return awaitOffer(item, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerDoubleQueue->enqueueDouble: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty. Returns
+    // emptyValue if we timed out (or were interrupted) without dequeuing an item.
+    public double dequeueDouble(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerDoubleQueue->dequeueDouble: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning emptyValue.");
+            Thread.currentThread().interrupt();
+            return emptyValue;
+        }
+    }
+
+    // Adds the item only if there is space right now. Never blocks. Returns false if the queue was full.
+    public boolean tryEnqueueDouble(double item) {
+        return offer(item);
+    }
+
+    // Pops an item off the front of the queue only if there is one right now. Never blocks. Returns emptyValue if the
+    // queue was empty.
+    public double tryDequeueDouble() {
+        return poll();
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Adds the item to the tail if there is space, and wakes one parked dequeue thread for it. Never blocks.
+    private boolean offer(double item) {
+        synchronized (writeLockObj) {
+            int tailIdx = claimTail();
+            if (tailIdx < 0) {
+                return false;
+            }
+            queueArray[tailIdx] = item;
+            publishTail();
+        }
+        itemAdded();
+        return true;
+    }
+
+    // Pops the item at the head if there is one (or returns emptyValue), and wakes one parked enqueue thread for the
+    // freed slot. Never blocks.
+    private double poll() {
+        double item;
+        synchronized (readLockObj) {
+            int headIdx = claimHead();
+            if (headIdx < 0) {
+                return emptyValue;
+            }
+            item = queueArray[headIdx];
+            publishHead();
+        }
+        slotFreed();
+        return item;
+    }
+
+    // Offers the item, waiting whenever the queue is full. Returns false if we timed out first.
+    private boolean awaitOffer(double item, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(item)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = awaitFreeSlot(timed, remainingNanos);
+        }
+        return true;
+    }
+
+    // Polls for an item, waiting whenever the queue is empty. Returns emptyValue if we timed out first. (An item can
+    // equal emptyValue, so this claims the head itself instead of looping on poll)
+    private double awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        double item;
+        while (true) {
+            synchronized (readLockObj) {
+                int headIdx = claimHead();
+                if (headIdx >= 0) {
+                    item = queueArray[headIdx];
+                    publishHead();
+                    break;
+                }
+            }
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return emptyValue;
+            }
+            remainingNanos = awaitItem(timed, remainingNanos);
+        }
+
+        // Outside of the lock, wake a single enqueue thread for the freed slot
+        slotFreed();
+        return item;
+    }
+}
@@ -0,0 +1,482 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// A blocking queue with a soft and a hard capacity. Instead of one array sized for the peak, the items live in a ring of
+// fixed size chunks. The ring starts with enough chunks for the soft capacity (plus one, so the producer always has a
+// free chunk to move into while the consumer is finishing its own). While the queue stays under the soft capacity the
+// same chunks go round and round, and neither side allocates anything.
+//
+// Under a burst, a producer that reaches the end of its chunk and finds the next one still being read links a new chunk
+// in between - so the queue grows a chunk at a time, until it holds hardCapacity items and enqueue starts blocking. Once
+// the backlog drains (to half the soft capacity - so a queue hovering around its soft capacity doesn't keep allocating
+// and dropping the same chunk), the free chunks in front of the producer are unlinked until the ring is back to its soft
+// size. Both sides do that: the producer whenever it moves to a new chunk, and the consumer whenever it leaves one (if it
+// can get the writeLock without waiting). So the extra memory is only held while there is a backlog to hold, even if the
+// producers have gone quiet.
+//
+// Same two locks as ProducerConsumerConcurrentQueue - a writeLock (enqueue) and a readLock (dequeue), with each side
+// owning a sequence number that only goes up. The ring is only changed under the writeLock. The consumer follows the next
+// links without it, but only into chunks that were linked before the items in them were published, and the one link that
+// gets rewritten (from the producer's chunk) isn't followed until the producer has published an item past it.
+//
+// The producer reads headChunk to decide whether its next chunk is free. The consumer only moves headChunk forward,
+// towards the producer, so a stale read can only make a free chunk look busy (and cost an extra chunk), never the reverse.
+public class ProducerConsumerElasticQueue<T> implements TestableQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private final int softCapacity; // The queue holds on to enough chunks for this many items
+    private final int hardCapacity; // The most items the queue can hold. Enqueue blocks here.
+    private final int chunkSize;
+    private final int retainedChunks; // The size of the ring when there is no backlog
+
+    // Both sequences are only written under their own side's lock, and read (volatile) by the other side
+    private volatile long tailSequence;
+    private volatile long headSequence;
+
+    // Producer side (guarded by writeLock, which also guards every change to the ring)
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Chunk tailChunk;
+    private int tailIdx; // The next slot to write in tailChunk (chunkSize when it's full)
+    private volatile int allocatedChunks; // Written under writeLock. Read without it by getAllocatedCapacity.
+
+    // Consumer side (guarded by readLock)
+    private final ReentrantLock readLock = new ReentrantLock();
+    private volatile Chunk headChunk; // Written under readLock. Read by the producer to find out which chunks are free.
+    private int headIdx; // The next slot to read in headChunk (chunkSize when it's used up)
+
+    // Whether the queue has been closed. Only changed under the locks (writeLock for CLOSED_FOR_PRODUCERS, both for CLOSED),
+    // so each side sees it exactly. Read without them by the waiters' ready checks.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private volatile int closeState = OPEN;
+
+    // Parked enqueue threads (waiting for a free slot) and parked dequeue threads (waiting for an item)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+    private final BooleanSupplier hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+    private final WaitStrategy waitStrategy; // What a thread does before it parks
+
+    // One link in the ring
+    private static final class Chunk {
+        private final Object[] items;
+        private Chunk next;
+
+        private Chunk(int chunkSize) {
+            this.items = new Object[chunkSize];
+        }
+    }
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerElasticQueue(int softCapacity, int hardCapacity) {
+        this(softCapacity, hardCapacity, Math.min(softCapacity, DEFAULT_CHUNK_SIZE), WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerElasticQueue(int softCapacity, int hardCapacity, int chunkSize, WaitStrategy waitStrategy) {
+        if (softCapacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+        if (hardCapacity < softCapacity) {
+            throw new IllegalArgumentException("Hard capacity can't be less than the soft capacity");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero");
+        }
+
+        this.softCapacity = softCapacity;
+        this.hardCapacity = hardCapacity;
+        this.chunkSize = chunkSize;
+        this.retainedChunks = (softCapacity + chunkSize - 1) / chunkSize + 1;
+        this.waitStrategy = waitStrategy;
+        buildRing();
+    }
+
+    // Links a fresh ring of retainedChunks chunks, with both sides at the start of the first one
+    private void buildRing() {
+        Chunk first = new Chunk(chunkSize);
+        Chunk last = first;
+        for (int i = 1; i < retainedChunks; i++) {
+            last.next = new Chunk(chunkSize);
+            last = last.next;
+        }
+        last.next = first;
+
+        tailChunk = first;
+        tailIdx = 0;
+        headChunk = first;
+        headIdx = 0;
+        allocatedChunks = retainedChunks;
+        tailSequence = 0;
+        headSequence = 0;
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the maximum capacity of the queue (The hard capacity)
+    public int getCapacity() {
+        return this.hardCapacity;
+    }
+
+    @Override
+    // Gets the current length of the queue
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = headSequence;
+        return (int)(tailSequence - head);
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state, and back to its soft size. NOTE: Not safe to call while other
+    // threads are using the queue.
+    public void resetQueue() {
+        writeLock.lock();
+        readLock.lock();
+        try {
+            buildRing();
+            closeState = OPEN;
+        } finally {
+            readLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    public int getSoftCapacity() {
+        return this.softCapacity;
+    }
+
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    // Gets the number of item slots the queue is holding on to right now (over every chunk in the ring)
+    public int getAllocatedCapacity() {
+        return this.allocatedChunks * this.chunkSize;
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Grows the queue past the soft capacity if it has to, and blocks if
+    // the queue is at its hard capacity.
+    public void enqueue(T item) {
+        try {
+            awaitOffer(item, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerElasticQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks if queue is empty
+    public T dequeue() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerElasticQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is at its hard capacity.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        try {
+            return awaitOffer(item, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerElasticQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty.
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerElasticQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Adds the item only if the queue is under its hard capacity right now. Never blocks.
+    public boolean tryEnqueue(T item) {
+        if (!offer(item)) {
+            return false;
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Pops an item off the front of the queue only if there is one right now. Never blocks.
+    public T tryDequeue() {
+        T item = poll();
+        if (item != null) {
+            notFullWaiters.wakeOne();
+        }
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. Waiting enqueue threads
+    // are woken once for the whole batch. Never throws QueueClosedException - a closed queue just has nothing to move.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int drained = 0;
+        readLock.lock();
+        try {
+            // Only enqueue threads move the tail, so the number of items can only grow under us
+            long head = headSequence;
+            int available = closeState == CLOSED ? 0 : (int)Math.min(maxItems, tailSequence - head);
+            try {
+                for (; drained < available; drained++) {
+                    T item = takeHead();
+                    try {
+                        target.add(item);
+                    } catch (Throwable ex) {
+                        // target refused it - put it back where takeHead found it (always in the head chunk, just
+                        // behind headIdx), so only the items target took leave the queue
+                        headChunk.items[--headIdx] = item;
+                        throw ex;
+                    }
+                }
+            } finally {
+                headSequence = head + drained;
+            }
+        } finally {
+            readLock.unlock();
+            notFullWaiters.wake(drained);
+        }
+        return drained;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues. Consumers can still take whatever is left.
+    public void closeForProducers() {
+        writeLock.lock();
+        try {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left (or find
+        // out there isn't anything)
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there.
+    public void close() {
+        writeLock.lock();
+        readLock.lock();
+        try {
+            closeState = CLOSED;
+        } finally {
+            readLock.unlock();
+            writeLock.unlock();
+        }
+
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Adds the item to the tail if the queue is under its hard capacity (moving to - or making - a new chunk if the tail
+    // chunk is full). Never blocks. Throws once the queue is closed for producers.
+    private boolean offer(T item) {
+        writeLock.lock();
+        try {
+            if (closeState != OPEN) {
+                throw new QueueClosedException("The queue is closed for producers");
+            }
+            long tail = tailSequence;
+            if (tail - headSequence == hardCapacity) {
+                return false;
+            }
+
+            if (tailIdx == chunkSize) {
+                advanceTailChunk(tail);
+            }
+            tailChunk.items[tailIdx++] = item;
+
+            // Publish the new tail (This volatile write is what a parked dequeue thread re-checks after registering, and
+            // it is also what publishes any chunk we just linked in)
+            tailSequence = tail + 1;
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Moves the producer into the next chunk. If that chunk is still being read, a new chunk is linked in front of it.
+    // (Call with writeLock held)
+    private void advanceTailChunk(long tail) {
+        Chunk consumerChunk = headChunk; // (Read once - every chunk after ours and before this one is free)
+        if (tail - headSequence <= softCapacity / 2) {
+            releaseSurplusChunks(consumerChunk);
+        }
+
+        Chunk next = tailChunk.next;
+        if (next == consumerChunk) {
+            // No free chunk - grow by one
+            Chunk grown = new Chunk(chunkSize);
+            grown.next = next;
+            tailChunk.next = grown;
+            next = grown;
+            allocatedChunks++;
+        }
+
+        tailChunk = next;
+        tailIdx = 0;
+    }
+
+    // Unlinks free chunks in front of the producer (always keeping one) until the ring is back to its soft size. Only
+    // called once the backlog has drained. (Call with writeLock held. consumerChunk is a value of headChunk read after
+    // taking it - every chunk after tailChunk and before consumerChunk is free.)
+    private void releaseSurplusChunks(Chunk consumerChunk) {
+        Chunk next = tailChunk.next;
+        while (allocatedChunks > retainedChunks && next != consumerChunk && next.next != consumerChunk) {
+            // Two free chunks in a row - drop the first and keep the second
+            tailChunk.next = next.next;
+            next = next.next;
+            allocatedChunks--;
+        }
+    }
+
+    // Pops the item at the head if there is one. Never blocks. Throws once the queue is closed, or closed for producers
+    // and empty.
+    private T poll() {
+        readLock.lock();
+        try {
+            // Read closeState first: nothing is enqueued once it says closed, so if the tail still shows empty after that,
+            // it always will
+            int state = closeState;
+            if (state == CLOSED) {
+                throw new QueueClosedException("The queue is closed");
+            }
+            long head = headSequence;
+            if (head == tailSequence) {
+                if (state == CLOSED_FOR_PRODUCERS) {
+                    throw new QueueClosedException("The queue is closed and drained");
+                }
+                return null;
+            }
+
+            T item = takeHead();
+            headSequence = head + 1;
+            return item;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Takes the item at headIdx (moving into the next chunk first if this one is used up), and clears its slot so we
+    // don't hold on to it. (Call with readLock held, and only when there is an item)
+    @SuppressWarnings("unchecked")
+    private T takeHead() {
+        if (headIdx == chunkSize) {
+            headChunk = headChunk.next;
+            headIdx = 0;
+
+            // The chunk we just left is free now. If the ring has grown and the backlog has drained, give the surplus
+            // back - unless a producer has the writeLock, in which case it can do it when it next moves chunk.
+            if (allocatedChunks > retainedChunks && tailSequence - headSequence <= softCapacity / 2 && writeLock.tryLock()) {
+                try {
+                    releaseSurplusChunks(headChunk);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        }
+
+        Object[] items = headChunk.items;
+        T item = (T)items[headIdx];
+        items[headIdx++] = null;
+        return item;
+    }
+
+    // Offers the item, waiting whenever the queue is at its hard capacity. Returns false if we timed out first. Wakes a
+    // single dequeue thread for the new item.
+    private boolean awaitOffer(T item, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(item)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    // Polls for an item, waiting whenever the queue is empty. Returns null if we timed out first. Wakes a single enqueue
+    // thread for the freed slot.
+    private T awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        T item;
+        while ((item = poll()) == null) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = notEmptyWaiters.await(waitStrategy, hasItem, timed, remainingNanos);
+        }
+        notFullWaiters.wakeOne();
+        return item;
+    }
+}
@@ -0,0 +1,306 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// A bounded blocking ring of preallocated events (in the style of the LMAX Disruptor). Every slot is filled up front by
+// an event factory, and the events are reused for the life of the ring - so instead of allocating a message per item
+// and enqueuing the reference, producers claim a slot, fill in its event in place, and publish it:
+//
+//     long sequence = ring.claim();
+//     ring.get(sequence).set(orderId, quantity);
+//     ring.publish(sequence);
+//
+// and consumers take a published slot, read its event, and release the slot back to the producers:
+//
+//     long sequence = ring.take();
+//     process(ring.get(sequence));
+//     ring.release(sequence);
+//
+// (publishEvent / consumeEvent do the same with a lambda, and always publish / release the slot - even if the lambda
+// throws.) Any number of producers and consumers can share the ring. Producers get increasing sequence numbers, and
+// consumers share the published events between them, each event going to exactly one consumer in sequence order.
+//
+// The backpressure is the same as ProducerConsumerConcurrentQueue's: claim blocks while capacity slots are claimed but not
+// yet released, and take blocks while there's nothing published that hasn't been taken - waiting however the WaitStrategy
+// says, and then parked in a WaiterQueue. Both have timed and non-blocking (try) versions, which return NO_SEQUENCE.
+//
+// Publishes and releases can happen out of order (a producer that claimed later can publish first), so each side marks
+// the sequence it finished in a per slot array, and then moves a shared cursor past every contiguous finished sequence.
+// Consumers only see events up to the published cursor, and producers only reuse slots behind the released cursor.
+// Whoever moves a cursor wakes one waiting thread per step. Nothing is locked, and nothing is allocated per event.
+//
+// An event is owned by its producer from claim until publish, and by its consumer from take until release. The publish
+// and release hand offs are volatile writes, so the event's fields need no synchronization of their own - as long as
+// nobody touches the event outside of those windows. Every claimed sequence MUST be published, and every taken sequence
+// released - a slot that never is stalls the ring at that sequence.
+public class ProducerConsumerEventRing<E> {
+
+    // Returned instead of a sequence when there's no slot (or event) to be had - full, empty, timed out or interrupted
+    public static final long NO_SEQUENCE = -1;
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final int capacity;
+    private final int indexMask; // The ring is a power of two long, so a sequence maps to its slot with a mask
+    private final Object[] events; // Filled by the event factory, and never replaced
+
+    // Each slot holds the last sequence that was published (released) in it. A cursor only moves past sequence s once
+    // slot s holds s.
+    private final AtomicLongArray publishedSlots;
+    private final AtomicLongArray releasedSlots;
+
+    // The four cursors, each on its own padded pair of cache lines (like ProducerConsumerConcurrentQueue's)
+    //   CLAIM     - the next sequence a producer will claim
+    //   PUBLISHED - every sequence below this has been published
+    //   TAKE      - the next sequence a consumer will take
+    //   RELEASED  - every sequence below this has been released
+    private static final int PADDED_LINE_LONGS = 16;
+    private static final int CLAIM = PADDED_LINE_LONGS;
+    private static final int PUBLISHED = PADDED_LINE_LONGS * 2;
+    private static final int TAKE = PADDED_LINE_LONGS * 3;
+    private static final int RELEASED = PADDED_LINE_LONGS * 4;
+    private final AtomicLongArray cursors = new AtomicLongArray(PADDED_LINE_LONGS * 6);
+
+    // Parked producers (waiting for a free slot) and parked consumers (waiting for a published event)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot; // The re-check a parked producer makes before it parks
+    private final BooleanSupplier hasEvent; // The re-check a parked consumer makes before it parks
+    private final WaitStrategy waitStrategy;
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerEventRing(int capacity, Supplier<? extends E> eventFactory) {
+        this(capacity, eventFactory, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerEventRing(int capacity, Supplier<? extends E> eventFactory, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        this.capacity = capacity;
+        int ringLength = Integer.highestOneBit(capacity * 2 - 1);
+        this.indexMask = ringLength - 1;
+        this.waitStrategy = waitStrategy;
+
+        this.events = new Object[ringLength];
+        for (int i = 0; i < ringLength; i++) {
+            E event = eventFactory.get();
+            if (event == null) {
+                throw new IllegalArgumentException("The event factory returned null");
+            }
+            events[i] = event;
+        }
+        this.publishedSlots = newSlotArray(ringLength);
+        this.releasedSlots = newSlotArray(ringLength);
+        this.hasFreeSlot = () -> cursors.get(CLAIM) - cursors.get(RELEASED) < capacity;
+        this.hasEvent = () -> cursors.get(TAKE) < cursors.get(PUBLISHED);
+    }
+
+    // (No sequence is negative, so -1 means "nothing finished in this slot yet")
+    private static AtomicLongArray newSlotArray(int ringLength) {
+        AtomicLongArray slots = new AtomicLongArray(ringLength);
+        for (int i = 0; i < ringLength; i++) {
+            slots.set(i, NO_SEQUENCE);
+        }
+        return slots;
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // The number of slots claimed and not yet released (Only a snapshot, since other threads may be moving the cursors)
+    public int getLength() {
+        long released = cursors.get(RELEASED);
+        return (int)Math.max(0, Math.min(capacity, cursors.get(CLAIM) - released));
+    }
+
+    // The event in the slot for sequence. Only touch it between claim and publish (as its producer), or between take and
+    // release (as its consumer).
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E)events[(int)sequence & indexMask];
+    }
+
+    // Claims the next slot for a producer, blocking while the ring is full. Returns its sequence, or NO_SEQUENCE if we
+    // were interrupted.
+    public long claim() {
+        try {
+            return awaitClaim(false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - print a message, reset the interrupt flag, and exit WITHOUT
+            // claiming a slot.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerEventRing->claim: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without claiming a slot.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Claims the next slot, blocking for at most the timeout while the ring is full. Returns NO_SEQUENCE if we timed out
+    // (or were interrupted) first.
+    public long claim(long timeout, TimeUnit unit) {
+        try {
+            return awaitClaim(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerEventRing->claim: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without claiming a slot.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Claims the next slot only if there is one free right now. Never blocks.
+    public long tryClaim() {
+        while (true) {
+            long sequence = cursors.get(CLAIM);
+            if (sequence - cursors.get(RELEASED) >= capacity) {
+                return NO_SEQUENCE;
+            }
+            if (cursors.compareAndSet(CLAIM, sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    // Hands the claimed slot's event over to the consumers (once every earlier sequence has been published too)
+    public void publish(long sequence) {
+        int advanced = markFinished(publishedSlots, PUBLISHED, sequence);
+        notEmptyWaiters.wake(advanced);
+    }
+
+    // Takes the next published event for a consumer, blocking while there isn't one. Returns its sequence, or
+    // NO_SEQUENCE if we were interrupted.
+    public long take() {
+        try {
+            return awaitTake(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerEventRing->take: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without taking an event.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Takes the next published event, blocking for at most the timeout while there isn't one. Returns NO_SEQUENCE if we
+    // timed out (or were interrupted) first.
+    public long take(long timeout, TimeUnit unit) {
+        try {
+            return awaitTake(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerEventRing->take: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without taking an event.");
+            Thread.currentThread().interrupt();
+            return NO_SEQUENCE;
+        }
+    }
+
+    // Takes the next published event only if there is one right now. Never blocks.
+    public long tryTake() {
+        while (true) {
+            long sequence = cursors.get(TAKE);
+            if (sequence >= cursors.get(PUBLISHED)) {
+                return NO_SEQUENCE;
+            }
+            if (cursors.compareAndSet(TAKE, sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    // Hands the taken slot back to the producers (once every earlier sequence has been released too)
+    public void release(long sequence) {
+        int advanced = markFinished(releasedSlots, RELEASED, sequence);
+        notFullWaiters.wake(advanced);
+    }
+
+    // Claims a slot (blocking while the ring is full), lets writer fill in its event, and publishes it. Returns false if
+    // we were interrupted before we could claim one.
+    public boolean publishEvent(Consumer<? super E> writer) {
+        long sequence = claim();
+        if (sequence == NO_SEQUENCE) {
+            return false;
+        }
+        try {
+            writer.accept(get(sequence));
+        } finally {
+            publish(sequence);
+        }
+        return true;
+    }
+
+    // Takes an event (blocking while there isn't one), lets reader process it, and releases its slot. Returns false if
+    // we were interrupted before we could take one.
+    public boolean consumeEvent(Consumer<? super E> reader) {
+        long sequence = take();
+        if (sequence == NO_SEQUENCE) {
+            return false;
+        }
+        try {
+            reader.accept(get(sequence));
+        } finally {
+            release(sequence);
+        }
+        return true;
+    }
+
+    /////
+    ///// Ring Helpers
+    /////
+
+    // Claims a slot, waiting whenever the ring is full. Returns NO_SEQUENCE if we timed out first.
+    private long awaitClaim(boolean timed, long remainingNanos) throws InterruptedException {
+        long sequence;
+        while ((sequence = tryClaim()) == NO_SEQUENCE) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return NO_SEQUENCE;
+            }
+            remainingNanos = notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+        }
+        return sequence;
+    }
+
+    // Takes an event, waiting whenever there isn't one. Returns NO_SEQUENCE if we timed out first.
+    private long awaitTake(boolean timed, long remainingNanos) throws InterruptedException {
+        long sequence;
+        while ((sequence = tryTake()) == NO_SEQUENCE) {
+            if (timed && remainingNanos <= 0) {
+                return NO_SEQUENCE;
+            }
+            remainingNanos = notEmptyWaiters.await(waitStrategy, hasEvent, timed, remainingNanos);
+        }
+        return sequence;
+    }
+
+    // Marks sequence as finished in its slot, then moves the cursor past every contiguous finished sequence (ours, and
+    // any later ones that finished before us and were waiting on it). Returns how many steps this call moved it.
+    //
+    // Two threads can't both miss a step: each marks its slot BEFORE reading the cursor, and the thread that moves the
+    // cursor onto a slot reads that slot AFTER moving it - so either the marker sees the cursor has reached its slot, or
+    // the mover sees the mark. (All volatile, so sequentially consistent.)
+    private int markFinished(AtomicLongArray slots, int cursor, long sequence) {
+        slots.set((int)sequence & indexMask, sequence);
+
+        int advanced = 0;
+        long next = cursors.get(cursor);
+        while (slots.get((int)next & indexMask) == next) {
+            if (cursors.compareAndSet(cursor, next, next + 1)) {
+                advanced++;
+            }
+            next = cursors.get(cursor);
+        }
+        return advanced;
+    }
+}
@@ -0,0 +1,206 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Adapters between ProducerConsumerAsyncQueue and java.util.concurrent.Flow, so a queue can sit between reactive stages.
+//
+//   publisher(queue)  - a Flow.Publisher that delivers the queue's items. A subscriber's request(n) is turned into n
+//                       dequeueAsync calls (one outstanding at a time), so nothing is taken off the queue that the
+//                       subscriber hasn't asked for. Each subscriber competes for items, like any other consumer.
+//   subscriber(queue) - a Flow.Subscriber that enqueues what it receives. It only requests as many items as the queue
+//                       has free slots (counting the items it has asked for and not yet enqueued), and looks again each
+//                       time an enqueue completes. When the queue is full it still keeps one item requested - that item
+//                       waits in a pending enqueue, and its enqueue completing is how the subscriber finds out a slot
+//                       has freed up. So an upstream publisher gets at most one item more than the queue holds ahead of
+//                       the consumers. (Other producers can take the slots it asked for, and then more of its items wait.)
+//
+// A queue only ends when it is closed. A publisher then calls onComplete once the queue is closed for producers and
+// drained, or onError if it is closed outright, and a subscriber cancels its subscription once the queue stops taking
+// items. A subscriber ignores onComplete and onError.
+public final class ProducerConsumerFlow {
+
+    private ProducerConsumerFlow() {
+    }
+
+    public static <T> Flow.Publisher<T> publisher(ProducerConsumerAsyncQueue<T> queue) {
+        return subscriber -> subscriber.onSubscribe(new QueueSubscription<>(queue, subscriber));
+    }
+
+    public static <T> Flow.Subscriber<T> subscriber(ProducerConsumerAsyncQueue<T> queue) {
+        return new QueueSubscriber<>(queue);
+    }
+
+    /////
+    ///// Publisher Side
+    /////
+
+    // Delivers items to one subscriber, as fast as it requests them. Requests, cancels and dequeue completions can all
+    // arrive on different threads at once, so they all go through pump(): whichever thread takes pumpCount up from zero
+    // does the delivering (one onNext at a time), and the others just leave it a count so it goes round again.
+    private static final class QueueSubscription<T> implements Flow.Subscription {
+        private final ProducerConsumerAsyncQueue<T> queue;
+        private final Flow.Subscriber<? super T> subscriber;
+
+        private final AtomicLong demand = new AtomicLong(); // Requested but not yet delivered (Long.MAX_VALUE is unbounded)
+        private final AtomicInteger pumpCount = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable requestError;
+
+        private CompletableFuture<T> pendingDequeue; // Only touched by the thread that is pumping
+
+        private QueueSubscription(ProducerConsumerAsyncQueue<T> queue, Flow.Subscriber<? super T> subscriber) {
+            this.queue = queue;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // (Flow rule 3.9)
+                requestError = new IllegalArgumentException("Subscription requests must be positive; Requested " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            pump();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            pump();
+        }
+
+        private void pump() {
+            if (pumpCount.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                while (true) {
+                    if (cancelled || requestError != null) {
+                        stop();
+                        break;
+                    }
+
+                    if (pendingDequeue == null) {
+                        if (demand.get() == 0) {
+                            break;
+                        }
+                        pendingDequeue = queue.dequeueAsync();
+                        if (!pendingDequeue.isDone()) {
+                            // Come back when an enqueue completes it (or closing fails it)
+                            pendingDequeue.whenComplete((ignored, ex) -> pump());
+                            break;
+                        }
+                    } else if (!pendingDequeue.isDone()) {
+                        break;
+                    }
+
+                    if (pendingDequeue.isCompletedExceptionally()) {
+                        // The queue has been closed, so nothing more is coming
+                        Throwable closed = pendingDequeue.handle((ignored, ex) -> ex).join();
+                        pendingDequeue = null;
+                        cancelled = true;
+                        if (queue.isClosed()) {
+                            subscriber.onError(closed);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+
+                    T item = pendingDequeue.join();
+                    pendingDequeue = null;
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(item);
+                }
+                missed = pumpCount.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        // Gives up any outstanding dequeue (putting the item back if one already arrived), and reports a bad request
+        private void stop() {
+            if (pendingDequeue != null) {
+                if (!pendingDequeue.cancel(false) && !pendingDequeue.isCompletedExceptionally()) {
+                    queue.enqueueAsync(pendingDequeue.join());
+                }
+                pendingDequeue = null;
+            }
+
+            if (!cancelled) {
+                cancelled = true;
+                subscriber.onError(requestError);
+            }
+        }
+    }
+
+    /////
+    ///// Subscriber Side
+    /////
+
+    private static final class QueueSubscriber<T> implements Flow.Subscriber<T> {
+        private final ProducerConsumerAsyncQueue<T> queue;
+        private final AtomicLong outstanding = new AtomicLong(); // Requested (or received) but not yet enqueued
+        private volatile Flow.Subscription subscription;
+
+        private QueueSubscriber(ProducerConsumerAsyncQueue<T> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (this.subscription != null) {
+                // (Flow rule 2.5 - only one subscription at a time)
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+            requestFreeSlots();
+        }
+
+        @Override
+        public void onNext(T item) {
+            // Once this one is in the queue, see how many more there's room for (or stop, if the queue has been closed)
+            queue.enqueueAsync(item).whenComplete((ignored, ex) -> {
+                if (ex != null) {
+                    subscription.cancel();
+                    return;
+                }
+                outstanding.decrementAndGet();
+                requestFreeSlots();
+            });
+        }
+
+        // Requests enough items to fill the queue's free slots, or one if it's full (Enqueue completions can arrive on
+        // several threads at once, hence the compare and set)
+        private void requestFreeSlots() {
+            while (true) {
+                long current = outstanding.get();
+                long wanted = Math.max(queue.getCapacity() - queue.getLength(), 1) - current;
+                if (wanted <= 0) {
+                    return;
+                }
+                if (outstanding.compareAndSet(current, current + wanted)) {
+                    subscription.request(wanted);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
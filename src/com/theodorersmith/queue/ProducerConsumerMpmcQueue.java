@@ -0,0 +1,140 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free multi-producer/multi-consumer bounded ring (Dmitry Vyukov's design). Instead of a shared length, every slot
+// has its own sequence number that says whose turn it is. Producers race with a CAS on the enqueue position and
+// consumers race with a CAS on the dequeue position, so producers never contend with consumers, and the only shared
+// writes are to the slot being handed over.
+//
+// Slot sequence numbers for a position "pos" (doubled so that a capacity of one still has three distinct states):
+//   2 * pos               -> the slot is free and waiting for the producer of pos
+//   2 * pos + 1           -> the slot holds the item for pos and is waiting for the consumer of pos
+//   2 * (pos + capacity)  -> the item was taken, and the slot is free for the next lap around the ring
+//
+// Threads only block (in AbstractProducerConsumerRingQueue) when the ring is actually full or empty. A producer that
+// finds the queue closed after claiming its position publishes CLOSED_SLOT there instead of its item.
+public class ProducerConsumerMpmcQueue<T> extends AbstractProducerConsumerRingQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final T[] queueArray; // The internal array backing the queue. (Treated as circular array)
+    private final AtomicLongArray slotSequences; // The turn marker for each slot in queueArray
+
+    // Positions only ever increase. The array index is position % capacity.
+    private final AtomicLong enqueuePos = new AtomicLong(0);
+    private final AtomicLong dequeuePos = new AtomicLong(0);
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerMpmcQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerMpmcQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, false, waitStrategy);
+
+        this.queueArray = (T[])new Object[capacity];
+        this.slotSequences = new AtomicLongArray(capacity);
+        this.resetQueue();
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the current length of the queue (Counts items that are claimed but not yet published)
+    public int getLength() {
+        // Read the dequeue position first, so the difference can't go negative
+        long head = dequeuePos.get();
+        long tail = enqueuePos.get();
+        return (int)Math.max(0, Math.min(capacity, tail - head));
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        for (int i = 0; i < capacity; i++) {
+            queueArray[i] = null;
+            slotSequences.set(i, 2L * i);
+        }
+        enqueuePos.set(0);
+        dequeuePos.set(0);
+        reopen();
+    }
+
+    /////
+    ///// Ring Operations
+    /////
+
+    @Override
+    protected boolean offer(T item) {
+        long pos = enqueuePos.get();
+        while (true) {
+            int idx = (int)(pos % capacity);
+            long turn = slotSequences.get(idx) - 2 * pos;
+
+            if (turn == 0) {
+                // The slot is free for this position. Try to claim it.
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    if (isClaimRefused()) {
+                        // Closed since we checked - hand the position to its consumer empty, so it isn't waited on forever
+                        queueArray[idx] = closedSlot();
+                        slotSequences.set(idx, 2 * pos + 1);
+                        throw closedAfterClaim();
+                    }
+                    queueArray[idx] = item;
+                    // Publish to the consumer of this position. (This is a volatile write, which also orders it before
+                    // our read of the waiting consumer count in signalNotEmpty)
+                    slotSequences.set(idx, 2 * pos + 1);
+                    return true;
+                }
+                pos = enqueuePos.get();
+            } else if (turn < 0) {
+                // The slot still holds the item from the previous lap - the ring is full.
+                return false;
+            } else {
+                // Another producer already claimed this position. Catch up and retry.
+                pos = enqueuePos.get();
+            }
+        }
+    }
+
+    @Override
+    protected T poll() {
+        long pos = dequeuePos.get();
+        while (true) {
+            int idx = (int)(pos % capacity);
+            long turn = slotSequences.get(idx) - (2 * pos + 1);
+
+            if (turn == 0) {
+                // The slot holds the item for this position. Try to claim it.
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    T item = queueArray[idx];
+                    queueArray[idx] = null;
+                    // Hand the slot to the producer of the next lap
+                    slotSequences.set(idx, 2 * (pos + capacity));
+                    if (item != CLOSED_SLOT) {
+                        return item;
+                    }
+                }
+                pos = dequeuePos.get();
+            } else if (turn < 0) {
+                // Nothing has been published for this position yet - the ring is empty.
+                return null;
+            } else {
+                // Another consumer already claimed this position. Catch up and retry.
+                pos = dequeuePos.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lock-free multi-producer/single-consumer bounded ring. Producers still race for the tail with a CAS, but the single
+// consumer owns the head and never needs a CAS. Since producers may finish writing their slots out of order, a slot is
+// "published" once its item is non-null, and the consumer frees a slot by setting it back to null before moving the
+// head forward with lazySet. Producers share a cached limit (head + capacity) so they only read the consumer's head
+// when the ring looks full. A producer that finds the queue closed after claiming its slot publishes CLOSED_SLOT there
+// instead of its item.
+//
+// NOTE: Only ONE thread may dequeue at a time. Use ProducerConsumerQueues to pick the right ring for your thread counts.
+public class ProducerConsumerMpscQueue<T> extends AbstractProducerConsumerRingQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final AtomicReferenceArray<T> queueArray; // The internal array backing the queue. (Treated as circular array)
+
+    private final AtomicLong tailPos = new AtomicLong(0); // Claimed by producers with a CAS
+    private volatile long producerLimit; // The producers' shared copy of (headPos + capacity). May be stale, but never too high.
+
+    private final AtomicLong headPos = new AtomicLong(0); // Only written by the consumer
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerMpscQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerMpscQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, true, waitStrategy);
+
+        this.queueArray = new AtomicReferenceArray<>(capacity);
+        this.resetQueue();
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the current length of the queue (Counts items that are claimed but not yet published)
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = headPos.get();
+        long tail = tailPos.get();
+        return (int)Math.max(0, Math.min(capacity, tail - head));
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        for (int i = 0; i < capacity; i++) {
+            queueArray.set(i, null);
+        }
+        headPos.set(0);
+        tailPos.set(0);
+        producerLimit = capacity;
+        reopen();
+    }
+
+    /////
+    ///// Ring Operations
+    /////
+
+    @Override
+    protected boolean offer(T item) {
+        while (true) {
+            long tail = tailPos.get();
+            if (tail >= producerLimit) {
+                // Looks full from the cached limit - re-read the real head before giving up
+                long limit = headPos.get() + capacity;
+                if (tail >= limit) {
+                    return false;
+                }
+                producerLimit = limit;
+            }
+
+            if (tailPos.compareAndSet(tail, tail + 1)) {
+                // The slot is ours. Publishing the (non-null) item is what makes it visible to the consumer.
+                if (isClaimRefused()) {
+                    queueArray.lazySet((int)(tail % capacity), closedSlot());
+                    throw closedAfterClaim();
+                }
+                queueArray.lazySet((int)(tail % capacity), item);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    protected T poll() {
+        while (true) {
+            long head = headPos.get();
+            int idx = (int)(head % capacity);
+
+            // A null slot is either an empty ring, or a producer that claimed the slot but hasn't published yet. Either way
+            // there is nothing to take right now (and that producer will signal when it publishes).
+            T item = queueArray.get(idx);
+            if (item == null) {
+                return null;
+            }
+
+            queueArray.lazySet(idx, null);
+            headPos.lazySet(head + 1);
+            if (item != CLOSED_SLOT) {
+                return item;
+            }
+        }
+    }
+}
@@ -0,0 +1,704 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+// A bounded blocking queue whose items survive a restart. Every enqueued item is appended to a write-ahead log in a
+// directory, and every dequeue moves a durable read position forward. A queue opened on a directory that already holds
+// a log gets back every item that was enqueued but never dequeued, in the same order.
+//
+// The items themselves are also kept in memory (in a circular array, exactly like the primitive queues), so a dequeue
+// never reads the log - the log is only read back while a queue is opening. Items are turned into bytes (and back) by a
+// QueueSerializer.
+//
+// The log is split into segment files, each named after the log position of its first record, and a new segment is
+// started once the current one is segmentBytes long. Segments are deleted once every record in them has been dequeued.
+// Each record is its length, a CRC32C of the length and the bytes, and then the bytes. While opening, the log is read up
+// to the first record that is cut short or fails its CRC (the tail of a write that never finished) and cut off there.
+//
+// The read position lives in a small memory mapped checkpoint file, and is written on every dequeue. Both it and the
+// log are written through the OS page cache on every operation, so nothing is lost if the JVM dies. The flush mode
+// decides when they are fsynced (so nothing is lost if the OS or the machine dies too):
+//   FSYNC_PER_ITEM - every enqueue fsyncs its own record before returning (under the write lock, so one at a time)
+//   GROUP_COMMIT   - every enqueue waits for an fsync that covers its record before returning, but one fsync covers
+//                    every record written while the one before it was running (The default)
+//   ASYNC          - enqueue never waits. A background thread fsyncs every ASYNC_FLUSH_INTERVAL_MILLIS, so a crash of
+//                    the machine can lose the last few milliseconds of items.
+//
+// The read position is only fsynced along with the log, so after a crash of the machine the last few dequeued items can
+// come back again. (Items are delivered at least once, never lost)
+public class ProducerConsumerPersistentQueue<T> extends AbstractProducerConsumerPrimitiveQueue implements TestableQueue<T>, AutoCloseable {
+
+    public enum FlushMode {
+        FSYNC_PER_ITEM,
+        GROUP_COMMIT,
+        ASYNC
+    }
+
+    /////
+    ///// Member Variables
+    /////
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    public static final long ASYNC_FLUSH_INTERVAL_MILLIS = 10;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_MAGIC = 0x50435051; // "PCPQ"
+    private static final int CHECKPOINT_BYTES = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES; // The length and the CRC
+
+    // (Each enqueuing thread reuses its own CRC, since the checksum is worked out outside of the write lock)
+    private static final ThreadLocal<CRC32C> THREAD_CRC = ThreadLocal.withInitial(CRC32C::new);
+
+    private final Path directory;
+    private final QueueSerializer<T> serializer;
+    private final FlushMode flushMode;
+    private final long segmentBytes;
+
+    // The items (and the log position just past each one's record). Stored under the write lock, taken under the read lock.
+    private final Object[] items;
+    private final long[] itemEnds;
+
+    // The log. Only touched under the write lock (and the active segment is only swapped while holding the flush lock too)
+    private final ArrayDeque<Long> segmentBases = new ArrayDeque<>(); // Oldest first
+    private FileChannel activeSegment;
+    private long activeBase;
+    private ByteBuffer appendBuffer = ByteBuffer.allocateDirect(4096);
+    private volatile long writtenPosition; // The end of the last record written to the log
+
+    // Whoever holds the flush lock fsyncs for everybody waiting on it (the group commit)
+    private final Object flushLockObj = new Object();
+    private volatile long durablePosition; // Everything before this position has been fsynced
+    private long forcedReadPosition; // The read position as of the last fsync of the checkpoint. Only touched under the flush lock.
+
+    // The read position is the end of the last record dequeued. Only written under the read lock.
+    private final MappedByteBuffer checkpoint;
+    private volatile long readPosition;
+
+    private volatile Thread flusher; // Only for ASYNC. (resetQueue starts a new one if it reopens the log)
+    private volatile boolean logClosed = false;
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    // Opens the queue in directory (creating it if it isn't there), recovering any items left in its log
+    public ProducerConsumerPersistentQueue(Path directory, int capacity, QueueSerializer<T> serializer) throws IOException {
+        this(directory, capacity, serializer, FlushMode.GROUP_COMMIT);
+    }
+
+    public ProducerConsumerPersistentQueue(Path directory, int capacity, QueueSerializer<T> serializer, FlushMode flushMode) throws IOException {
+        this(directory, capacity, serializer, flushMode, DEFAULT_SEGMENT_BYTES, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerPersistentQueue(Path directory, int capacity, QueueSerializer<T> serializer, FlushMode flushMode, long segmentBytes, WaitStrategy waitStrategy) throws IOException {
+        super(capacity, waitStrategy);
+        if (segmentBytes < 1) {
+            throw new IllegalArgumentException("Segment size must be greater than zero");
+        }
+        this.directory = directory;
+        this.serializer = serializer;
+        this.flushMode = flushMode;
+        this.segmentBytes = segmentBytes;
+        this.items = new Object[arrayLength];
+        this.itemEnds = new long[arrayLength];
+
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        // (The mapping stays valid after the channel is closed)
+        try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean existing = channel.size() > 0;
+            if (existing && channel.size() != CHECKPOINT_BYTES) {
+                throw new IOException("File " + checkpointFile + " is not a queue checkpoint");
+            }
+            this.checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_BYTES);
+            if (!existing) {
+                checkpoint.putInt(MAGIC_OFFSET, CHECKPOINT_MAGIC);
+                checkpoint.putLong(READ_POSITION_OFFSET, 0);
+            } else if (checkpoint.getInt(MAGIC_OFFSET) != CHECKPOINT_MAGIC) {
+                throw new IOException("File " + checkpointFile + " is not a queue checkpoint");
+            }
+        }
+
+        recover();
+
+        startFlusher();
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Fsyncs everything written to the log so far (and the read position). Only needed in ASYNC mode - the other modes
+    // have already done this by the time an enqueue returns.
+    public void flush() {
+        synchronized (flushLockObj) {
+            if (logClosed) {
+                return;
+            }
+            try {
+                forceLog();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    // Closes the queue (see ProducerConsumerQueue.close - anything left in it stays in the log), then flushes the log and
+    // closes it. A new queue can be opened on the directory, or resetQueue reopens this one (empty).
+    @Override
+    public void close() {
+        super.close();
+        synchronized (writeLockObj) {
+            synchronized (flushLockObj) {
+                if (logClosed) {
+                    return;
+                }
+                try {
+                    forceLog();
+                    logClosed = true;
+                    activeSegment.close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        }
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    public FlushMode getFlushMode() {
+        return this.flushMode;
+    }
+
+    /////
+    ///// ProducerConsumerQueue Implementation
+    /////
+
+    @Override
+    // Threadsafe add an item to the end of the queue (and the log). Blocks if queue is full.
+    public void enqueue(T item) {
+        byte[] bytes = serializer.serialize(item);
+        try {
+            awaitOffer(item, bytes, recordChecksum(bytes), false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPersistentQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    // Threadsafe pops an item off the front of the queue, and moves the read position past it. Blocks if queue is empty.
+    public T dequeue() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPersistentQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        byte[] bytes = serializer.serialize(item);
+        try {
+            return awaitOffer(item, bytes, recordChecksum(bytes), true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPersistentQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPersistentQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean tryEnqueue(T item) {
+        byte[] bytes = serializer.serialize(item);
+        return offer(item, bytes, recordChecksum(bytes));
+    }
+
+    @Override
+    public T tryDequeue() {
+        return poll();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. The read position is
+    // moved past all of them, and waiting enqueue threads are woken once for the whole batch.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int drained = 0;
+        synchronized (readLockObj) {
+            int headIdx;
+            while (drained < maxItems && (headIdx = claimHeadForDrain()) >= 0) {
+                target.add((T)items[headIdx]);
+                items[headIdx] = null;
+                commitRead(itemEnds[headIdx]);
+                publishHead();
+                drained++;
+            }
+        }
+        slotsFreed(drained);
+        return drained;
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Resets queue to a default empty (and open) state, deleting the whole log - and reopening it, if the queue was closed.
+    // NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                synchronized (flushLockObj) {
+                    super.resetQueue();
+                    Arrays.fill(items, null);
+                    boolean reopening = logClosed;
+                    logClosed = false;
+                    try {
+                        activeSegment.close();
+                        for (long base : segmentBases) {
+                            Files.deleteIfExists(segmentPath(base));
+                        }
+                        segmentBases.clear();
+
+                        // Carry on from the same log position, so a position never means two different records
+                        openActiveSegment(writtenPosition);
+                        commitRead(writtenPosition);
+                        forceLog();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    if (reopening) {
+                        startFlusher();
+                    }
+                }
+            }
+        }
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Appends the record and stores the item in the tail slot if there is one, and wakes one parked dequeue thread for
+    // it. Then waits for the record to be fsynced, if the flush mode says to. Never blocks on a full queue.
+    private boolean offer(T item, byte[] bytes, int checksum) {
+        long end;
+        try {
+            synchronized (writeLockObj) {
+                int tailIdx = claimTail();
+                if (tailIdx < 0) {
+                    return false;
+                }
+                // (If the append throws, the slot is never published)
+                end = append(bytes, checksum);
+                items[tailIdx] = item;
+                itemEnds[tailIdx] = end;
+                publishTail();
+            }
+            itemAdded();
+
+            if (flushMode == FlushMode.GROUP_COMMIT) {
+                awaitDurable(end);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return true;
+    }
+
+    // Takes the item at the head if there is one, moves the read position past it, and wakes one parked enqueue thread
+    // for the freed slot. Never blocks. Returns null if the queue was empty.
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        T item;
+        synchronized (readLockObj) {
+            int headIdx = claimHead();
+            if (headIdx < 0) {
+                return null;
+            }
+            item = (T)items[headIdx];
+            items[headIdx] = null;
+            // (Before the slot is published, since a producer can reuse it straight after)
+            commitRead(itemEnds[headIdx]);
+            publishHead();
+        }
+        slotFreed();
+        return item;
+    }
+
+    // Offers the item, waiting whenever the queue is full. Returns false if we timed out first.
+    private boolean awaitOffer(T item, byte[] bytes, int checksum, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(item, bytes, checksum)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = awaitFreeSlot(timed, remainingNanos);
+        }
+        return true;
+    }
+
+    // Polls for an item, waiting whenever the queue is empty. Returns null if we timed out first.
+    private T awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        T item;
+        while ((item = poll()) == null) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = awaitItem(timed, remainingNanos);
+        }
+        return item;
+    }
+
+    // Must hold the read lock. Moves the read position (and the checkpoint) to the end of a dequeued record.
+    private void commitRead(long end) {
+        readPosition = end;
+        checkpoint.putLong(READ_POSITION_OFFSET, end);
+    }
+
+    /////
+    ///// Log Helpers
+    /////
+
+    // Must hold the write lock. Appends a record to the active segment (starting a new one first if it is full), and
+    // returns the log position just past it. Fsyncs it straight away in FSYNC_PER_ITEM mode.
+    //
+    // A FileChannel closes itself if the thread using it is interrupted, which would close the log for every thread. So
+    // the interrupt flag is held back until the record is written (and put back after), and if another thread's interrupt
+    // closes the segment anyway, it is reopened and the record written again.
+    private long append(byte[] bytes, int checksum) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (writtenPosition - activeBase >= segmentBytes) {
+                rollSegment();
+            }
+
+            int recordBytes = RECORD_HEADER_BYTES + bytes.length;
+            if (appendBuffer.capacity() < recordBytes) {
+                appendBuffer = ByteBuffer.allocateDirect(Math.max(recordBytes, 2 * appendBuffer.capacity()));
+            }
+            appendBuffer.clear();
+            appendBuffer.putInt(bytes.length).putInt(checksum).put(bytes).flip();
+
+            long segmentOffset = writtenPosition - activeBase;
+            while (true) {
+                try {
+                    while (appendBuffer.hasRemaining()) {
+                        activeSegment.write(appendBuffer);
+                    }
+                    break;
+                } catch (ClosedChannelException ex) {
+                    if (logClosed) {
+                        throw ex;
+                    }
+                    interrupted |= Thread.interrupted();
+                    reopenActiveSegment(segmentOffset);
+                    appendBuffer.rewind();
+                } catch (IOException ex) {
+                    // Don't leave half a record in the log for the next one to be written after
+                    try {
+                        activeSegment.truncate(segmentOffset);
+                    } catch (IOException truncateEx) {
+                        // Recovery will cut it off at the bad CRC instead
+                    }
+                    throw ex;
+                }
+            }
+
+            long end = writtenPosition + recordBytes;
+            writtenPosition = end;
+            if (flushMode == FlushMode.FSYNC_PER_ITEM) {
+                synchronized (flushLockObj) {
+                    forceLog();
+                }
+            }
+            return end;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Waits until the record ending at end has been fsynced. If nobody is fsyncing right now, this thread does it - for
+    // its own record and every record written before it. Otherwise it waits for the running fsync, and then the first
+    // thread in does one more for everybody who was waiting (unless the running one already covered them).
+    private void awaitDurable(long end) throws IOException {
+        if (durablePosition >= end) {
+            return;
+        }
+        synchronized (flushLockObj) {
+            if (durablePosition >= end || logClosed) {
+                return;
+            }
+            forceLog();
+        }
+    }
+
+    // Must hold the flush lock. Fsyncs the active segment, and the checkpoint if the read position has moved. (Holds back
+    // the interrupt flag like append does. If an interrupt has closed the active segment, the fsync goes through a channel
+    // of its own instead - the next append will reopen the active one.)
+    private void forceLog() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            long target = writtenPosition;
+            if (target > durablePosition) {
+                try {
+                    activeSegment.force(false);
+                } catch (ClosedChannelException ex) {
+                    if (logClosed) {
+                        throw ex;
+                    }
+                    interrupted |= Thread.interrupted();
+                    try (FileChannel segment = FileChannel.open(segmentPath(activeBase), StandardOpenOption.WRITE)) {
+                        segment.force(false);
+                    }
+                }
+                durablePosition = target;
+            }
+            long read = readPosition;
+            if (read != forcedReadPosition) {
+                checkpoint.force();
+                forcedReadPosition = read;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Must hold the write lock. Fsyncs and closes the active segment, starts a new one at the current log position, and
+    // deletes any old segments that have been completely read (as of the last fsynced read position).
+    private void rollSegment() throws IOException {
+        synchronized (flushLockObj) {
+            forceLog();
+            activeSegment.close();
+            openActiveSegment(writtenPosition);
+
+            while (segmentBases.size() > 1) {
+                long oldestBase = segmentBases.pollFirst();
+                if (segmentBases.peekFirst() > forcedReadPosition) {
+                    // (Still has unread records)
+                    segmentBases.addFirst(oldestBase);
+                    break;
+                }
+                Files.deleteIfExists(segmentPath(oldestBase));
+            }
+        }
+    }
+
+    // Must hold the write lock. Reopens the active segment after an interrupt closed it, cutting off anything past segmentOffset
+    private void reopenActiveSegment(long segmentOffset) throws IOException {
+        synchronized (flushLockObj) {
+            activeSegment = FileChannel.open(segmentPath(activeBase), StandardOpenOption.WRITE);
+            activeSegment.truncate(segmentOffset);
+            activeSegment.position(segmentOffset);
+        }
+    }
+
+    // Must hold the write lock. Opens (or creates) the segment starting at base for appending, after any records it already has.
+    private void openActiveSegment(long base) throws IOException {
+        activeSegment = FileChannel.open(segmentPath(base), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        activeSegment.position(activeSegment.size());
+        activeBase = base;
+        segmentBases.addLast(base);
+    }
+
+    private Path segmentPath(long base) {
+        // (Zero padded, so the files sort by name)
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private static int recordChecksum(byte[] bytes) {
+        CRC32C crc = THREAD_CRC.get();
+        crc.reset();
+        // The length is checked as well, so a zeroed (or never written) region doesn't pass as empty records
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(bytes.length >>> shift);
+        }
+        crc.update(bytes, 0, bytes.length);
+        return (int)crc.getValue();
+    }
+
+    // Starts the background fsync thread (Only for ASYNC)
+    private void startFlusher() {
+        if (flushMode == FlushMode.ASYNC) {
+            Thread newFlusher = new Thread(this::runFlusher, "PersistentQueueFlusher-" + directory.getFileName());
+            newFlusher.setDaemon(true);
+            flusher = newFlusher;
+            newFlusher.start();
+        }
+    }
+
+    private void runFlusher() {
+        // (Stops once the log is closed, or once resetQueue has started a newer flusher)
+        while (!logClosed && flusher == Thread.currentThread()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ASYNC_FLUSH_INTERVAL_MILLIS));
+            try {
+                flush();
+            } catch (UncheckedIOException ex) {
+                System.out.println("com.theodorersmith.queue.ProducerConsumerPersistentQueue->runFlusher: Couldn't flush the log - " + ex.getMessage());
+            }
+        }
+    }
+
+    /////
+    ///// Recovery Helpers
+    /////
+
+    // Reads the log back from the read position, putting every record after it back in the queue. Records cut short (or
+    // failing their CRC) are cut off the end of their segment, and segments that were already completely read are deleted.
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segmentFile : segmentFiles) {
+                String name = segmentFile.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    // Not one of ours - leave it alone
+                }
+            }
+        }
+        Collections.sort(bases);
+
+        // Segments are only deleted once they have been read, so if the checkpoint is from before the oldest segment,
+        // everything before that segment was already dequeued
+        long read = checkpoint.getLong(READ_POSITION_OFFSET);
+        if (!bases.isEmpty() && read < bases.get(0)) {
+            read = bases.get(0);
+        }
+
+        long end = read;
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            if (i + 1 < bases.size() && bases.get(i + 1) <= read) {
+                Files.delete(segmentPath(base));
+                continue;
+            }
+            end = replaySegment(base, read);
+            segmentBases.addLast(base);
+        }
+
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                if (segmentBases.isEmpty() || end < read) {
+                    // A new log - or the log lost records the checkpoint had already read past (the page cache was lost
+                    // in ASYNC mode), in which case new records have to start after the read position
+                    end = Math.max(end, read);
+                    openActiveSegment(end);
+                } else {
+                    activeSegment = FileChannel.open(segmentPath(segmentBases.peekLast()), StandardOpenOption.WRITE);
+                    activeSegment.position(activeSegment.size());
+                    activeBase = segmentBases.peekLast();
+                }
+                writtenPosition = end;
+                commitRead(read);
+            }
+        }
+        synchronized (flushLockObj) {
+            activeSegment.force(false);
+            checkpoint.force();
+            durablePosition = end;
+            forcedReadPosition = read;
+        }
+    }
+
+    // Reads every whole record in the segment starting at base, and puts the ones after the read position back in the
+    // queue. Cuts the segment off after the last good record, and returns the log position just past it.
+    private long replaySegment(long base, long read) throws IOException {
+        Path segmentFile = segmentPath(base);
+        long fileBytes = Files.size(segmentFile);
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentFile)))) {
+            while (offset + RECORD_HEADER_BYTES <= fileBytes) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || offset + RECORD_HEADER_BYTES + length > fileBytes) {
+                    // Cut short
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                if (recordChecksum(bytes) != checksum) {
+                    break;
+                }
+
+                long recordStart = base + offset;
+                long recordEnd = recordStart + RECORD_HEADER_BYTES + length;
+                if (recordEnd > read) {
+                    if (recordStart < read) {
+                        throw new IOException("Queue checkpoint in " + directory + " points into the middle of a record (position " + read + ")");
+                    }
+                    recoverItem(serializer.deserialize(bytes), recordEnd);
+                }
+                offset = recordEnd - base;
+            }
+        }
+
+        if (offset < fileBytes) {
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+            }
+        }
+        return base + offset;
+    }
+
+    // Puts a recovered item back at the tail of the queue (Without logging it again)
+    private void recoverItem(T item, long end) throws IOException {
+        synchronized (writeLockObj) {
+            int tailIdx = claimTail();
+            if (tailIdx < 0) {
+                throw new IOException("Queue log in " + directory + " holds more than " + capacity + " items - open it with a bigger capacity");
+            }
+            items[tailIdx] = item;
+            itemEnds[tailIdx] = end;
+            publishTail();
+        }
+    }
+}
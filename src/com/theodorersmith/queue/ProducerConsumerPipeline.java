@@ -0,0 +1,251 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// A pipeline of stages over one shared ring of preallocated events. Instead of chaining the stages through a queue each
+// (and enqueuing / dequeuing every item once per stage), producers publish each event once, and it passes from stage to
+// stage in place - each stage is a consumer group on a ProducerConsumerBroadcastRing, gated on the stages upstream of it.
+//
+//     ProducerConsumerPipeline<OrderEvent> pipeline = new ProducerConsumerPipeline<>(1024, OrderEvent::new);
+//     ProducerConsumerPipeline<OrderEvent>.Stage decode = pipeline.addStage("decode", 2, OrderEvent::decode);
+//     ProducerConsumerPipeline<OrderEvent>.Stage enrich = pipeline.addStage("enrich", 4, OrderEvent::enrich, decode);
+//     pipeline.addStage("persist", 1, store::persist, enrich);
+//     pipeline.start(threadPool);
+//
+//     pipeline.publishEvent(event -> event.set(rawBytes));
+//     ...
+//     pipeline.shutdown(10, TimeUnit.SECONDS);
+//
+// A stage with no upstream stages sees events as they're published, and one with several (a diamond) waits until all of
+// them are done with an event. Each stage runs on its own number of worker threads, which share its events between them -
+// so a stage with more than one worker sees its events out of order. A stage may write to an event as long as every
+// stage that reads what it writes is downstream of it, and stages that run side by side only read.
+//
+// Stages are added before start, and the workers run on the ExecutorService given to start. A handler that throws
+// doesn't stop its worker (or stall the ring) - the event is still passed on, and the stage counts the failure.
+public class ProducerConsumerPipeline<E> {
+
+    // How long an idle worker waits for an event before it checks whether the pipeline is shutting down
+    private static final long WORKER_IDLE_CHECK_MILLIS = 10;
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final ProducerConsumerBroadcastRing<E> ring;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Future<?>> workers = new ArrayList<>();
+    private boolean started; // (Only touched under this)
+    private volatile boolean shuttingDown;
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerPipeline(int capacity, Supplier<? extends E> eventFactory) {
+        this(capacity, eventFactory, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerPipeline(int capacity, Supplier<? extends E> eventFactory, WaitStrategy waitStrategy) {
+        this.ring = new ProducerConsumerBroadcastRing<>(capacity, eventFactory, waitStrategy);
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    // Adds a stage, run by workerCount threads calling handler on each event - once all of the upstream stages are done
+    // with it, or as soon as it's published if there are none. Throws IllegalStateException once the pipeline has started.
+    @SafeVarargs
+    public final synchronized Stage addStage(String name, int workerCount, Consumer<? super E> handler, Stage... upstream) {
+        if (started) {
+            throw new IllegalStateException("Stages must be added before the pipeline starts");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("A stage needs at least one worker");
+        }
+        ProducerConsumerBroadcastRing<E>.ConsumerGroup[] upstreamGroups = newGroupArray(upstream.length);
+        for (int i = 0; i < upstream.length; i++) {
+            if (upstream[i].getPipeline() != this) {
+                throw new IllegalArgumentException("An upstream stage must belong to the same pipeline");
+            }
+            upstreamGroups[i] = upstream[i].group;
+        }
+        Stage stage = new Stage(name, workerCount, handler, ring.newConsumerGroup(upstreamGroups));
+        stages.add(stage);
+        return stage;
+    }
+
+    // Starts every stage's workers on the executor (which needs a thread free for each of them)
+    public synchronized void start(ExecutorService executor) {
+        if (started) {
+            throw new IllegalStateException("The pipeline has already started");
+        }
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("The pipeline has no stages");
+        }
+        started = true;
+        for (Stage stage : stages) {
+            for (int i = 0; i < stage.workerCount; i++) {
+                workers.add(executor.submit(stage::runWorker));
+            }
+        }
+    }
+
+    // Lets the workers finish once every event published so far has been through every stage, and waits (for at most the
+    // timeout) for them to. Stop publishing first. Returns true if the pipeline drained - otherwise the workers that are
+    // left are interrupted.
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        List<Future<?>> startedWorkers;
+        synchronized (this) {
+            startedWorkers = new ArrayList<>(workers);
+        }
+        shuttingDown = true;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        for (Future<?> worker : startedWorkers) {
+            try {
+                worker.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException tEx) {
+                drained = false;
+            } catch (InterruptedException iEx) {
+                System.out.println("com.theodorersmith.queue.ProducerConsumerPipeline->shutdown: Thread " + Thread.currentThread().getName() + " received an interrupt. Stopping the workers without draining.");
+                Thread.currentThread().interrupt();
+                drained = false;
+                break;
+            } catch (Exception ex) {
+                // (A worker never throws - but if one somehow did, the others can still drain)
+            }
+        }
+        if (!drained) {
+            for (Future<?> worker : startedWorkers) {
+                worker.cancel(true);
+            }
+        }
+        return drained;
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+
+    // The number of events published (or being published) and not yet through every stage (Only a snapshot)
+    public int getLength() {
+        return ring.getLength();
+    }
+
+    // The producer side is the ring's - claim a slot, fill in its event, publish it. (See ProducerConsumerBroadcastRing.)
+    public long claim() {
+        return ring.claim();
+    }
+
+    public long claim(long timeout, TimeUnit unit) {
+        return ring.claim(timeout, unit);
+    }
+
+    public long tryClaim() {
+        return ring.tryClaim();
+    }
+
+    public E get(long sequence) {
+        return ring.get(sequence);
+    }
+
+    public void publish(long sequence) {
+        ring.publish(sequence);
+    }
+
+    public boolean publishEvent(Consumer<? super E> writer) {
+        return ring.publishEvent(writer);
+    }
+
+    /////
+    ///// Stages
+    /////
+
+    // One stage of the pipeline - a consumer group on the ring, and the workers that run its handler
+    public final class Stage {
+        private final String name;
+        private final int workerCount;
+        private final Consumer<? super E> handler;
+        private final ProducerConsumerBroadcastRing<E>.ConsumerGroup group;
+
+        private final LongAdder failureCount = new LongAdder();
+        private final AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();
+
+        private Stage(String name, int workerCount, Consumer<? super E> handler, ProducerConsumerBroadcastRing<E>.ConsumerGroup group) {
+            this.name = name;
+            this.workerCount = workerCount;
+            this.handler = handler;
+            this.group = group;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getWorkerCount() {
+            return workerCount;
+        }
+
+        // The number of events this stage could be working on but hasn't taken yet (Only a snapshot)
+        public int getBacklog() {
+            return group.getBacklog();
+        }
+
+        // The number of events the handler threw on, and the first exception it threw (or null)
+        public long getFailureCount() {
+            return failureCount.sum();
+        }
+
+        public RuntimeException getFirstFailure() {
+            return firstFailure.get();
+        }
+
+        private ProducerConsumerPipeline<E> getPipeline() {
+            return ProducerConsumerPipeline.this;
+        }
+
+        // A worker takes events until the pipeline is shutting down and has nothing left in it (or it's interrupted)
+        private void runWorker() {
+            while (true) {
+                long sequence = group.take(WORKER_IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                if (sequence == ProducerConsumerBroadcastRing.NO_SEQUENCE) {
+                    if (Thread.currentThread().isInterrupted() || (shuttingDown && ring.getLength() == 0)) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    handler.accept(ring.get(sequence));
+                } catch (RuntimeException ex) {
+                    failureCount.increment();
+                    firstFailure.compareAndSet(null, ex);
+                } finally {
+                    group.release(sequence);
+                }
+            }
+        }
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    @SuppressWarnings("unchecked")
+    private ProducerConsumerBroadcastRing<E>.ConsumerGroup[] newGroupArray(int length) {
+        return (ProducerConsumerBroadcastRing<E>.ConsumerGroup[])new ProducerConsumerBroadcastRing<?>.ConsumerGroup[length];
+    }
+}
@@ -0,0 +1,443 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+// A bounded blocking queue with a small, fixed number of priority levels. Level 0 is the most urgent. Each level has its
+// own circular array, so items are FIFO within a level, and dequeue takes from the most urgent level that has items.
+// A bitmask of the non-empty levels finds that level with one numberOfTrailingZeros, so enqueue and dequeue are O(1).
+//
+// The capacity is shared by every level - the queue blocks when it holds capacity items, however they are spread out.
+// (So each level's array can hold the whole capacity, and a level never fills up before the queue does)
+//
+// Items get their level from the priority function given to the constructor (by default, every item goes to the least
+// urgent level), or explicitly with enqueue(item, priority).
+//
+// Starvation guard: with a starvationLimit above zero, a level that has items can only be passed over starvationLimit
+// dequeues in a row. Then the next dequeue serves it (the most urgent starved level first), so every waiting level gets
+// at least one dequeue in every starvationLimit + 1. Zero means strict priority - bulk items wait for as long as there
+// are urgent ones.
+//
+// Unlike the FIFO queues, both sides need to see every level, so there is one lock for enqueue and dequeue. Threads wait
+// outside of it, in one WaiterQueue per side, the same as ProducerConsumerConcurrentQueue.
+public class ProducerConsumerPriorityQueue<T> implements TestableQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    public static final int MAX_LEVELS = Integer.SIZE; // One bit per level in nonEmptyLevels
+
+    private final int capacity; // The most items the queue can hold, over all the levels
+    private final int levelCount;
+    private final ToIntFunction<? super T> priorityOf;
+    private final int starvationLimit; // Zero for strict priority
+
+    // One circular array per level, guarded by queueLock
+    private final ReentrantLock queueLock = new ReentrantLock();
+    private final T[][] levelArrays;
+    private final int[] levelHeads;
+    private final int[] levelLengths;
+    private final int[] levelSkips; // Dequeues in a row that passed over each (non-empty) level
+    private int nonEmptyLevels; // Bit n is set while level n has items
+
+    private volatile int length; // Written under queueLock. Read without it by getLength and the waiters' ready checks.
+
+    // Whether the queue has been closed. Written under queueLock (so offer and poll see it exactly), read without it by
+    // the waiters' ready checks.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private volatile int closeState = OPEN;
+
+    // Parked enqueue threads (waiting for a free slot) and parked dequeue threads (waiting for an item)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+    private final BooleanSupplier hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+    private final WaitStrategy waitStrategy; // What a thread does before it parks
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    // Every item goes to the least urgent level, unless it is enqueued with an explicit priority
+    public ProducerConsumerPriorityQueue(int capacity, int levelCount) {
+        this(capacity, levelCount, item -> levelCount - 1);
+    }
+
+    public ProducerConsumerPriorityQueue(int capacity, int levelCount, ToIntFunction<? super T> priorityOf) {
+        this(capacity, levelCount, priorityOf, 0, WaitStrategy.blocking());
+    }
+
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerPriorityQueue(int capacity, int levelCount, ToIntFunction<? super T> priorityOf, int starvationLimit, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+        if (levelCount < 1 || levelCount > MAX_LEVELS) {
+            throw new IllegalArgumentException("Priority level count must be between 1 and " + MAX_LEVELS);
+        }
+        if (starvationLimit < 0) {
+            throw new IllegalArgumentException("Starvation limit can't be negative");
+        }
+
+        this.capacity = capacity;
+        this.levelCount = levelCount;
+        this.priorityOf = priorityOf;
+        this.starvationLimit = starvationLimit;
+        this.waitStrategy = waitStrategy;
+        this.levelArrays = (T[][])new Object[levelCount][capacity];
+        this.levelHeads = new int[levelCount];
+        this.levelLengths = new int[levelCount];
+        this.levelSkips = new int[levelCount];
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the maximum capacity of the queue (Over all the levels)
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    // Gets the current length of the queue (Over all the levels)
+    public int getLength() {
+        return this.length;
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        queueLock.lock();
+        try {
+            for (T[] levelArray : levelArrays) {
+                Arrays.fill(levelArray, null);
+            }
+            Arrays.fill(levelHeads, 0);
+            Arrays.fill(levelLengths, 0);
+            Arrays.fill(levelSkips, 0);
+            nonEmptyLevels = 0;
+            length = 0;
+            closeState = OPEN;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    public int getLevelCount() {
+        return this.levelCount;
+    }
+
+    // Gets the number of items currently waiting in one level
+    public int getLevelLength(int priority) {
+        checkPriority(priority);
+        queueLock.lock();
+        try {
+            return levelLengths[priority];
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /////
+    ///// Priority Methods
+    /////
+
+    // Threadsafe add an item to the end of the given priority level. Blocks if queue is full.
+    public void enqueue(T item, int priority) {
+        checkPriority(priority);
+        try {
+            awaitOffer(item, priority, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPriorityQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Threadsafe add an item to the end of the given priority level. Blocks for at most the timeout if queue is full.
+    public boolean enqueue(T item, int priority, long timeout, TimeUnit unit) {
+        checkPriority(priority);
+        try {
+            return awaitOffer(item, priority, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPriorityQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Adds the item to the given priority level only if there is space right now. Never blocks.
+    public boolean tryEnqueue(T item, int priority) {
+        checkPriority(priority);
+        if (!offer(item, priority)) {
+            return false;
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    /////
+    ///// ProducerConsumerQueue Implementation
+    /////
+
+    @Override
+    // Threadsafe add an item to the end of its priority level (from the priority function). Blocks if queue is full.
+    public void enqueue(T item) {
+        enqueue(item, priorityFor(item));
+    }
+
+    @Override
+    // Threadsafe pops the next item off the most urgent level with items (or a starved level). Blocks if queue is empty.
+    public T dequeue() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPriorityQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        return enqueue(item, priorityFor(item), timeout, unit);
+    }
+
+    @Override
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerPriorityQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean tryEnqueue(T item) {
+        return tryEnqueue(item, priorityFor(item));
+    }
+
+    @Override
+    public T tryDequeue() {
+        T item = poll();
+        if (item != null) {
+            notFullWaiters.wakeOne();
+        }
+        return item;
+    }
+
+    @Override
+    // Threadsafe moves up to maxItems items into target, in the order dequeue would have taken them. Never blocks.
+    // Waiting enqueue threads are woken once for the whole batch. Never throws QueueClosedException - a closed queue just
+    // has nothing to move.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int drained = 0;
+        queueLock.lock();
+        try {
+            while (drained < maxItems && length > 0 && closeState != CLOSED) {
+                target.add(removeNext());
+                drained++;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        notFullWaiters.wake(drained);
+        return drained;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues. Consumers can still take whatever is left.
+    public void closeForProducers() {
+        queueLock.lock();
+        try {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+
+        // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left (or find
+        // out there isn't anything)
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there.
+    public void close() {
+        queueLock.lock();
+        try {
+            closeState = CLOSED;
+        } finally {
+            queueLock.unlock();
+        }
+
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Adds the item to the end of its level if there is space. Never blocks. Throws once the queue is closed for producers.
+    private boolean offer(T item, int priority) {
+        if (item == null) {
+            // (A null slot is how an empty level reads, so it can't be an item)
+            throw new NullPointerException("ProducerConsumerPriorityQueue can't hold null items");
+        }
+
+        queueLock.lock();
+        try {
+            if (closeState != OPEN) {
+                throw new QueueClosedException("The queue is closed for producers");
+            }
+            if (length == capacity) {
+                return false;
+            }
+
+            T[] levelArray = levelArrays[priority];
+            int tailIdx = levelHeads[priority] + levelLengths[priority];
+            levelArray[tailIdx < capacity ? tailIdx : tailIdx - capacity] = item;
+            levelLengths[priority]++;
+            nonEmptyLevels |= 1 << priority;
+
+            // (This volatile write is what a parked dequeue thread re-checks after registering)
+            length++;
+            return true;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Pops the next item if there is one. Never blocks. Throws once the queue is closed, or closed for producers and empty.
+    private T poll() {
+        queueLock.lock();
+        try {
+            if (closeState == CLOSED) {
+                throw new QueueClosedException("The queue is closed");
+            }
+            if (length == 0) {
+                if (closeState == CLOSED_FOR_PRODUCERS) {
+                    throw new QueueClosedException("The queue is closed and drained");
+                }
+                return null;
+            }
+            return removeNext();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    // Pops the next item - from the most urgent starved level if there is one, otherwise from the most urgent level
+    // with items. (Call with queueLock held, and only when the queue isn't empty)
+    private T removeNext() {
+        int level = Integer.numberOfTrailingZeros(nonEmptyLevels);
+        if (starvationLimit > 0) {
+            level = chargeSkips(level);
+        }
+
+        T[] levelArray = levelArrays[level];
+        int headIdx = levelHeads[level];
+        T item = levelArray[headIdx];
+        levelArray[headIdx] = null;
+        levelHeads[level] = headIdx + 1 < capacity ? headIdx + 1 : 0;
+        if (--levelLengths[level] == 0) {
+            nonEmptyLevels &= ~(1 << level);
+        }
+
+        length--;
+        return item;
+    }
+
+    // Picks the level to serve when the most urgent level with items is topLevel - which is topLevel, unless a less
+    // urgent level has already been passed over starvationLimit times. Every waiting level that isn't served has its
+    // skip count charged. (At most one pass over the levels, and there are at most MAX_LEVELS of them)
+    private int chargeSkips(int topLevel) {
+        int served = topLevel;
+        for (int waiting = nonEmptyLevels & ~(1 << topLevel); waiting != 0; waiting &= waiting - 1) {
+            int level = Integer.numberOfTrailingZeros(waiting);
+            if (served == topLevel && levelSkips[level] >= starvationLimit) {
+                served = level;
+            }
+        }
+
+        for (int waiting = nonEmptyLevels; waiting != 0; waiting &= waiting - 1) {
+            int level = Integer.numberOfTrailingZeros(waiting);
+            levelSkips[level] = level == served ? 0 : levelSkips[level] + 1;
+        }
+        return served;
+    }
+
+    // Offers the item, waiting whenever the queue is full. Returns false if we timed out first. Wakes a single dequeue
+    // thread for the new item.
+    private boolean awaitOffer(T item, int priority, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(item, priority)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    // Polls for an item, waiting whenever the queue is empty. Returns null if we timed out first. Wakes a single enqueue
+    // thread for the freed slot.
+    private T awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        T item;
+        while ((item = poll()) == null) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = notEmptyWaiters.await(waitStrategy, hasItem, timed, remainingNanos);
+        }
+        notFullWaiters.wakeOne();
+        return item;
+    }
+
+    private int priorityFor(T item) {
+        int priority = priorityOf.applyAsInt(item);
+        checkPriority(priority);
+        return priority;
+    }
+
+    private void checkPriority(int priority) {
+        if (priority < 0 || priority >= levelCount) {
+            throw new IllegalArgumentException("Priority must be between 0 and " + (levelCount - 1) + "; Was " + priority);
+        }
+    }
+}
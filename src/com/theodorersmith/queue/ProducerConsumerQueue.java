@@ -1,7 +1,87 @@
 package com.theodorersmith.queue;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 public interface ProducerConsumerQueue<T>
 {
     public void enqueue(T item);
     public T dequeue();
-}
\ No newline at end of file
+
+    // Adds the item to the end of the queue, blocking for at most the timeout while the queue is full. Returns false if
+    // the timeout ran out (or the thread was interrupted) before the item could be added.
+    public boolean enqueue(T item, long timeout, TimeUnit unit);
+
+    // Pops an item off the front of the queue, blocking for at most the timeout while the queue is empty. Returns null
+    // if the timeout ran out (or the thread was interrupted) before an item was available.
+    public T dequeue(long timeout, TimeUnit unit);
+
+    // Adds the item only if there is space right now. Never blocks. Returns false if the queue was full.
+    public default boolean tryEnqueue(T item) {
+        return enqueue(item, 0, TimeUnit.NANOSECONDS);
+    }
+
+    // Pops an item off the front of the queue only if there is one right now. Never blocks. Returns null if the queue was empty.
+    public default T tryDequeue() {
+        return dequeue(0, TimeUnit.NANOSECONDS);
+    }
+
+    // Enqueues every item in the batch (in order), blocking whenever the queue is full. Implementations should copy in
+    // runs of items and wake waiting consumers once per run instead of once per item. If the thread is interrupted,
+    // this stops early (with the interrupt flag still set) and the rest of the batch is not enqueued.
+    public default void enqueueAll(T[] items) {
+        for (T item : items) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            enqueue(item);
+        }
+    }
+
+    // Collection version of enqueueAll
+    public default void enqueueAll(Collection<? extends T> items) {
+        for (T item : items) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            enqueue(item);
+        }
+    }
+
+    // Moves up to maxItems of the items currently in the queue into target (in order) WITHOUT blocking. Implementations
+    // should take the run in one pass and wake waiting producers once for the whole batch - this default just takes the
+    // items one at a time with tryDequeue (so an item target throws on has already left the queue). Returns the number of
+    // items moved, which is zero if the queue is empty. Never throws QueueClosedException - it just returns zero once the
+    // queue is drained (or closed).
+    public default int drainTo(Collection<? super T> target, int maxItems) {
+        int moved = 0;
+        try {
+            T item;
+            while (moved < maxItems && (item = tryDequeue()) != null) {
+                target.add(item);
+                moved++;
+            }
+        } catch (QueueClosedException ex) {
+            // (Closed, or closed and drained - either way there's nothing more to move)
+        }
+        return moved;
+    }
+
+    // Shutting a queue down, without interrupts or poison pills:
+    //   closeForProducers() - every enqueue from now on throws QueueClosedException (and blocked enqueues wake up and
+    //                         throw). Consumers carry on taking what's left, and once the queue is empty every dequeue
+    //                         throws QueueClosedException - "closed and drained" - instead of blocking.
+    //   close()             - closes the queue for consumers too. Blocked and new dequeues throw QueueClosedException
+    //                         straight away, and anything still in the queue stays there (getLength still counts it).
+    // An item is either enqueued (and will be dequeued, unless close() strands it) or its enqueue threw - never lost in
+    // between. Both are idempotent, and closeForProducers followed by close is fine. Every queue supports closing.
+    public void closeForProducers();
+
+    public void close();
+
+    // True once closeForProducers (or close) has been called
+    public boolean isClosedForProducers();
+
+    // True once close has been called
+    public boolean isClosed();
+}
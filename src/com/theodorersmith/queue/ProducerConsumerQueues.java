@@ -0,0 +1,38 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+// Factory for picking the cheapest correct ProducerConsumerQueue for a given number of producer and consumer threads.
+// Any side that is known to have a single thread gets a ring that skips the CAS (and uses lazySet publication) on that
+// side. If you aren't sure, use MULTIPLE - a single-thread ring that is shared between threads WILL lose items.
+public final class ProducerConsumerQueues {
+
+    // How many threads will use one side (enqueue or dequeue) of the queue at the same time
+    public enum ThreadingMode {
+        SINGLE,
+        MULTIPLE
+    }
+
+    private ProducerConsumerQueues() {
+    }
+
+    // Creates a bounded blocking queue specialized for the given producer and consumer threading modes
+    public static <T> ProducerConsumerQueue<T> create(int capacity, ThreadingMode producerMode, ThreadingMode consumerMode) {
+        return create(capacity, producerMode, consumerMode, WaitStrategy.blocking());
+    }
+
+    // Same as above, but threads that find the queue full/empty wait with the given strategy before they block
+    public static <T> ProducerConsumerQueue<T> create(int capacity, ThreadingMode producerMode, ThreadingMode consumerMode, WaitStrategy waitStrategy) {
+        if (producerMode == ThreadingMode.SINGLE) {
+            if (consumerMode == ThreadingMode.SINGLE) {
+                return new ProducerConsumerSpscQueue<>(capacity, waitStrategy);
+            }
+            return new ProducerConsumerSpmcQueue<>(capacity, waitStrategy);
+        }
+
+        if (consumerMode == ThreadingMode.SINGLE) {
+            return new ProducerConsumerMpscQueue<>(capacity, waitStrategy);
+        }
+        return new ProducerConsumerMpmcQueue<>(capacity, waitStrategy);
+    }
+}
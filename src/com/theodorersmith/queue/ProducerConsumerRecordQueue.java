@@ -0,0 +1,395 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+// A bounded blocking queue of fixed length byte records, kept off the heap - either in a direct ByteBuffer, or in a
+// memory mapped file (so the records survive a restart, and a big queue costs the GC nothing).
+//
+// Producers write a record straight into its slot, and consumers read it straight out of its slot:
+//
+//     queue.enqueue(slot -> slot.putLong(orderId).putInt(quantity));
+//     long orderId = queue.dequeue(slot -> slot.getLong());
+//
+// The slot handed to a RecordWriter/RecordReader is a view of the whole buffer, with its position at the start of the
+// record and its limit at the end. Relative gets/puts stay inside the record. (Absolute indexes are from the start of the
+// buffer, so stick to relative ones.) The view is only valid during the call - and since the writer runs under the write
+// lock (and the reader under the read lock), keep them short.
+//
+// It also implements TestableQueue<byte[]>, copying records in and out of byte arrays, so it can be used anywhere the
+// other queues are (The byte[] versions allocate a byte[] per dequeue - use the writer/reader versions to avoid that).
+//
+// The file layout is a small header (the record size, the capacity, and the head and tail sequences) followed by the
+// slots. The head and tail are written to the header as they move, so a queue reopened on the same file carries on
+// where it left off. The records are only as durable as the OS page cache, unless force() is called.
+public class ProducerConsumerRecordQueue extends AbstractProducerConsumerPrimitiveQueue implements TestableQueue<byte[]> {
+
+    // Writes a single record into slot (Between its position and limit)
+    public interface RecordWriter {
+        void write(ByteBuffer slot);
+    }
+
+    // Reads a single record out of slot (Between its position and limit). The slot is read only.
+    public interface RecordReader<R> {
+        R read(ByteBuffer slot);
+    }
+
+    /////
+    ///// Member Variables
+    /////
+
+    // File header layout (The head and tail get their own cache lines, since they are written on every operation)
+    private static final int HEADER_MAGIC = 0x50435251; // "PCRQ"
+    private static final int MAGIC_OFFSET = 0;
+    private static final int RECORD_SIZE_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int HEAD_OFFSET = 64;
+    private static final int TAIL_OFFSET = 128;
+    private static final int HEADER_BYTES = 192;
+
+    private final int recordSize;
+    private final ByteBuffer buffer; // The header and the slots
+    private final ByteBuffer writeView; // Handed to writers. Only touched under the write lock.
+    private final ByteBuffer readView; // Handed to readers (read only). Only touched under the read lock.
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    // An empty queue in a direct (off heap) ByteBuffer
+    public ProducerConsumerRecordQueue(int capacity, int recordSize) {
+        this(capacity, recordSize, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerRecordQueue(int capacity, int recordSize, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        this.recordSize = recordSize;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize(arrayLength, recordSize));
+        this.writeView = buffer.duplicate();
+        this.readView = buffer.asReadOnlyBuffer();
+        writeHeader();
+    }
+
+    // A queue in a memory mapped file. If the file already holds a queue, it is reopened with the records it had (and
+    // must have been created with the same capacity and record size). Otherwise it is created empty.
+    public ProducerConsumerRecordQueue(Path file, int capacity, int recordSize) throws IOException {
+        this(file, capacity, recordSize, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerRecordQueue(Path file, int capacity, int recordSize, WaitStrategy waitStrategy) throws IOException {
+        super(capacity, waitStrategy);
+        this.recordSize = recordSize;
+        int size = bufferSize(arrayLength, recordSize);
+
+        // (The mapping stays valid after the channel is closed)
+        boolean existing;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            existing = channel.size() > 0;
+            if (existing && channel.size() != size) {
+                throw new IOException("Queue file " + file + " is " + channel.size() + " bytes, but a queue of " + capacity + " x " + recordSize + " byte records needs " + size);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        this.writeView = buffer.duplicate();
+        this.readView = buffer.asReadOnlyBuffer();
+
+        if (existing) {
+            restoreHeader(file);
+        } else {
+            writeHeader();
+        }
+    }
+
+    private static int bufferSize(int arrayLength, int recordSize) {
+        if (recordSize < 1) {
+            throw new IllegalArgumentException("Record size must be greater than zero");
+        }
+        long size = HEADER_BYTES + (long)arrayLength * recordSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Queue of " + arrayLength + " x " + recordSize + " byte records is too large for a single buffer");
+        }
+        return (int)size;
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Resets queue to a default empty state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                super.resetQueue();
+                writeHeader();
+            }
+        }
+    }
+
+    // The size of every record, in bytes
+    public int getRecordSize() {
+        return this.recordSize;
+    }
+
+    // Flushes the records (and the header) to the file. Does nothing for a queue in a direct buffer.
+    public void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer)buffer).force();
+        }
+    }
+
+    /////
+    ///// Public Methods (Zero copy)
+    /////
+
+    // Threadsafe write a record into the next free slot. Blocks if queue is full.
+    public void enqueue(RecordWriter writer) {
+        try {
+            awaitOffer(writer, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the record, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerRecordQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Threadsafe read the record at the front of the queue and remove it. Blocks if queue is empty. Returns what the
+    // reader returned (or null if interrupted).
+    public <R> R dequeue(RecordReader<R> reader) {
+        try {
+            return awaitPoll(reader, false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerRecordQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Threadsafe write a record into the next free slot. Blocks for at most the timeout if queue is full. Returns false
+    // if we timed out (or were interrupted) without enqueuing the record - the writer is only called if there is a slot.
+    public boolean enqueue(RecordWriter writer, long timeout, TimeUnit unit) {
+        try {
+            return awaitOffer(writer, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerRecordQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Threadsafe read the record at the front of the queue and remove it. Blocks for at most the timeout if queue is
+    // empty. Returns null if we timed out (or were interrupted) - the reader is only called if there is a record.
+    public <R> R dequeue(RecordReader<R> reader, long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(reader, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerRecordQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Writes a record only if there is a free slot right now. Never blocks. Returns false if the queue was full.
+    public boolean tryEnqueue(RecordWriter writer) {
+        return offer(writer);
+    }
+
+    // Reads (and removes) the record at the front of the queue only if there is one right now. Never blocks. Returns null
+    // if the queue was empty.
+    public <R> R tryDequeue(RecordReader<R> reader) {
+        return poll(reader);
+    }
+
+    /////
+    ///// ProducerConsumerQueue Implementation (Copies through byte arrays)
+    /////
+
+    @Override
+    // Threadsafe add a record (exactly getRecordSize() bytes) to the end of the queue. Blocks if queue is full.
+    public void enqueue(byte[] item) {
+        checkRecordLength(item);
+        enqueue(slot -> slot.put(item));
+    }
+
+    @Override
+    // Threadsafe pops a copy of the record at the front of the queue. Blocks if queue is empty.
+    public byte[] dequeue() {
+        return dequeue(this::copyRecord);
+    }
+
+    @Override
+    public boolean enqueue(byte[] item, long timeout, TimeUnit unit) {
+        checkRecordLength(item);
+        return enqueue(slot -> slot.put(item), timeout, unit);
+    }
+
+    @Override
+    public byte[] dequeue(long timeout, TimeUnit unit) {
+        return dequeue(this::copyRecord, timeout, unit);
+    }
+
+    @Override
+    public boolean tryEnqueue(byte[] item) {
+        checkRecordLength(item);
+        return offer(slot -> slot.put(item));
+    }
+
+    @Override
+    public byte[] tryDequeue() {
+        return poll(this::copyRecord);
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe copies up to maxItems records off the front of the queue into target. Never blocks. Waiting enqueue
+    // threads are woken once for the whole batch.
+    public int drainTo(Collection<? super byte[]> target, int maxItems) {
+        int drained = 0;
+        synchronized (readLockObj) {
+            int headIdx;
+            while (drained < maxItems && (headIdx = claimHeadForDrain()) >= 0) {
+                target.add(copyRecord(slotView(readView, headIdx)));
+                buffer.putLong(HEAD_OFFSET, publishHead());
+                drained++;
+            }
+        }
+        slotsFreed(drained);
+        return drained;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Writes a record into the tail slot if there is one, and wakes one parked dequeue thread for it. Never blocks.
+    private boolean offer(RecordWriter writer) {
+        synchronized (writeLockObj) {
+            int tailIdx = claimTail();
+            if (tailIdx < 0) {
+                return false;
+            }
+            // (If the writer throws, the slot is never published)
+            writer.write(slotView(writeView, tailIdx));
+            buffer.putLong(TAIL_OFFSET, publishTail());
+        }
+        itemAdded();
+        return true;
+    }
+
+    // Reads the record at the head if there is one, and wakes one parked enqueue thread for the freed slot. Never
+    // blocks. Returns null if the queue was empty.
+    private <R> R poll(RecordReader<R> reader) {
+        R result;
+        synchronized (readLockObj) {
+            int headIdx = claimHead();
+            if (headIdx < 0) {
+                return null;
+            }
+            // (If the reader throws, the record stays at the head)
+            result = reader.read(slotView(readView, headIdx));
+            buffer.putLong(HEAD_OFFSET, publishHead());
+        }
+        slotFreed();
+        return result;
+    }
+
+    // Offers the record, waiting whenever the queue is full. Returns false if we timed out first.
+    private boolean awaitOffer(RecordWriter writer, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offer(writer)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = awaitFreeSlot(timed, remainingNanos);
+        }
+        return true;
+    }
+
+    // Polls for a record, waiting whenever the queue is empty. Returns null if we timed out first. (A reader can return
+    // null, so this claims the head itself instead of looping on poll)
+    private <R> R awaitPoll(RecordReader<R> reader, boolean timed, long remainingNanos) throws InterruptedException {
+        R result;
+        while (true) {
+            synchronized (readLockObj) {
+                int headIdx = claimHead();
+                if (headIdx >= 0) {
+                    result = reader.read(slotView(readView, headIdx));
+                    buffer.putLong(HEAD_OFFSET, publishHead());
+                    break;
+                }
+            }
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = awaitItem(timed, remainingNanos);
+        }
+
+        // Outside of the lock, wake a single enqueue thread for the freed slot
+        slotFreed();
+        return result;
+    }
+
+    // Points view at the slot (position at the start of the record, limit at the end) and returns it
+    private ByteBuffer slotView(ByteBuffer view, int slotIdx) {
+        int start = HEADER_BYTES + slotIdx * recordSize;
+        view.limit(start + recordSize).position(start);
+        return view;
+    }
+
+    private byte[] copyRecord(ByteBuffer slot) {
+        byte[] record = new byte[recordSize];
+        slot.get(record);
+        return record;
+    }
+
+    private void checkRecordLength(byte[] item) {
+        if (item.length != recordSize) {
+            throw new IllegalArgumentException("Records must be exactly " + recordSize + " bytes (was " + item.length + ")");
+        }
+    }
+
+    /////
+    ///// Header Helpers
+    /////
+
+    private void writeHeader() {
+        buffer.putInt(MAGIC_OFFSET, HEADER_MAGIC);
+        buffer.putInt(RECORD_SIZE_OFFSET, recordSize);
+        buffer.putInt(CAPACITY_OFFSET, capacity);
+        buffer.putLong(HEAD_OFFSET, 0);
+        buffer.putLong(TAIL_OFFSET, 0);
+    }
+
+    // Picks up where an existing queue file left off. Throws if the file isn't a queue, or doesn't match this one.
+    private void restoreHeader(Path file) throws IOException {
+        if (buffer.getInt(MAGIC_OFFSET) != HEADER_MAGIC) {
+            throw new IOException("File " + file + " is not a queue file");
+        }
+        if (buffer.getInt(RECORD_SIZE_OFFSET) != recordSize || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+            throw new IOException("Queue file " + file + " holds " + buffer.getInt(CAPACITY_OFFSET) + " x " + buffer.getInt(RECORD_SIZE_OFFSET) +
+                    " byte records, not " + capacity + " x " + recordSize);
+        }
+
+        long head = buffer.getLong(HEAD_OFFSET);
+        long tail = buffer.getLong(TAIL_OFFSET);
+        if (head < 0 || tail < head || tail - head > capacity) {
+            throw new IOException("Queue file " + file + " has a corrupt header (head " + head + ", tail " + tail + ")");
+        }
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                restoreSequences(head, tail);
+            }
+        }
+    }
+}
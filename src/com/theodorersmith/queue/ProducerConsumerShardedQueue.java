@@ -0,0 +1,376 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// A bounded blocking queue split into several independent shards (lock-free ProducerConsumerMpmcQueue rings), so threads
+// working on different shards never touch the same head, tail or lock. One ring (or one pair of locks) is a single point
+// every thread has to get through, however cheap it is - shards spread that out.
+//
+// Each thread has a home shard. Producers put items in their home shard (THREAD_AFFINITY), or go round the shards one
+// item at a time starting from it (ROUND_ROBIN), and only move on to the other shards if it is full. Consumers take from
+// their home shard, and steal from the others when it is empty.
+//
+// The capacity is split between the shards (so they add up to exactly the capacity), and a thread only blocks once it has
+// tried every shard - so the queue blocks exactly when the whole queue is full (or empty), same as the other queues. The
+// blocked threads wait in one WaiterQueue per side, shared by every shard. The ready checks add up the shard lengths,
+// but only threads that are about to wait run them - the fast path never touches anything shared.
+//
+// Items are only FIFO within a shard. An item can be dequeued before an older one that is sitting in another shard.
+// (With THREAD_AFFINITY, each producer's own items stay in order as long as it doesn't overflow into other shards.)
+//
+// Closing the queue closes the shards too (see AbstractProducerConsumerRingQueue - a producer that claimed a slot in a
+// shard just as the queue was closed for producers leaves CLOSED_SLOT there instead of its item). The queue's own close
+// state is only changed after the shards', so a consumer that reads it and then finds every shard empty knows it's drained.
+//
+// Like the rings it is made of, it can't hold null items.
+public class ProducerConsumerShardedQueue<T> implements TestableQueue<T> {
+
+    public enum ShardSelection {
+        THREAD_AFFINITY,
+        ROUND_ROBIN
+    }
+
+    /////
+    ///// Member Variables
+    /////
+
+    // Each thread's next shard offset in ROUND_ROBIN mode. (Per thread, so round robin doesn't need a shared counter)
+    private static final ThreadLocal<int[]> ROUND_ROBIN_OFFSET = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final int capacity; // The most items the whole queue can hold
+    private final ProducerConsumerMpmcQueue<T>[] shards;
+    private final ShardSelection shardSelection;
+
+    // Whether the queue has been closed. Only changed after the shards have been closed the same way.
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private volatile int closeState = OPEN;
+
+    // Parked enqueue threads (waiting for a free slot in any shard) and parked dequeue threads (waiting for an item in any shard)
+    private final WaiterQueue notFullWaiters = new WaiterQueue();
+    private final WaiterQueue notEmptyWaiters = new WaiterQueue();
+    private final BooleanSupplier hasFreeSlot = WaiterQueue.freeSlotOrClosed(this::getLength, this::getCapacity, this::isClosedForProducers);
+    private final BooleanSupplier hasItem = WaiterQueue.itemOrClosed(this::getLength, this::isClosedForProducers);
+    private final WaitStrategy waitStrategy; // What a thread does before it parks
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    // One shard per core
+    public ProducerConsumerShardedQueue(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ProducerConsumerShardedQueue(int capacity, int shardCount) {
+        this(capacity, shardCount, ShardSelection.THREAD_AFFINITY, WaitStrategy.blocking());
+    }
+
+    // (There are never more shards than the capacity, since every shard needs at least one slot)
+    @SuppressWarnings("unchecked")
+    public ProducerConsumerShardedQueue(int capacity, int shardCount, ShardSelection shardSelection, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            // If the capacity is less than 1, throw an Illegal Argument Exception
+            // Note: This is an ApplicationException, so it won't be checked at compile time
+            throw new IllegalArgumentException("Queue capacity must be greater than zero");
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be greater than zero");
+        }
+
+        this.capacity = capacity;
+        this.shardSelection = shardSelection;
+        this.waitStrategy = waitStrategy;
+
+        // Split the capacity as evenly as we can - the first (capacity % shardCount) shards get one extra slot
+        shardCount = Math.min(shardCount, capacity);
+        this.shards = (ProducerConsumerMpmcQueue<T>[])new ProducerConsumerMpmcQueue<?>[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ProducerConsumerMpmcQueue<>(capacity / shardCount + (i < capacity % shardCount ? 1 : 0));
+        }
+    }
+
+    /////
+    ///// Public Methods
+    /////
+
+    @Override
+    // Gets the maximum capacity of the queue
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    // Gets the current length of the queue (Adds up the shards, so it is only a snapshot while other threads are busy)
+    public int getLength() {
+        int length = 0;
+        for (ProducerConsumerMpmcQueue<T> shard : shards) {
+            length += shard.getLength();
+        }
+        return length;
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        for (ProducerConsumerMpmcQueue<T> shard : shards) {
+            shard.resetQueue();
+        }
+        closeState = OPEN;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /////
+    ///// ProducerConsumerQueue Implementation
+    /////
+
+    @Override
+    // Threadsafe add an item to the queue (its home shard, if there is room). Blocks if every shard is full.
+    public void enqueue(T item) {
+        requireItem(item);
+        try {
+            awaitOffer(item, false, 0);
+        } catch (InterruptedException iEx) {
+            // NOTE: Same as ProducerConsumerConcurrentQueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.ProducerConsumerShardedQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    // Threadsafe pops an item off the front of our home shard (or another shard, if it is empty). Blocks if every shard is empty.
+    public T dequeue() {
+        try {
+            return awaitPoll(false, 0);
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerShardedQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        requireItem(item);
+        try {
+            return awaitOffer(item, true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerShardedQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public T dequeue(long timeout, TimeUnit unit) {
+        try {
+            return awaitPoll(true, unit.toNanos(timeout));
+        } catch (InterruptedException iEx) {
+            System.out.println("com.theodorersmith.queue.ProducerConsumerShardedQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    @Override
+    public boolean tryEnqueue(T item) {
+        requireItem(item);
+        if (!offerOpen(item)) {
+            return false;
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    @Override
+    public T tryDequeue() {
+        T item = pollOpen();
+        if (item != null) {
+            notFullWaiters.wakeOne();
+        }
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe moves up to maxItems items into target, starting with our home shard. Never blocks. Waiting enqueue
+    // threads are woken once for the whole batch. Never throws QueueClosedException - a closed queue just has nothing to move.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        if (closeState == CLOSED) {
+            return 0;
+        }
+
+        int drained = 0;
+        try {
+            int home = homeShard();
+            for (int i = 0; i < shards.length && drained < maxItems; i++) {
+                ProducerConsumerMpmcQueue<T> shard = shards[wrapShard(home + i)];
+                T item;
+                while (drained < maxItems && (item = shard.poll()) != null) {
+                    target.add(item);
+                    drained++;
+                }
+            }
+        } finally {
+            notFullWaiters.wake(drained);
+        }
+        return drained;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues. Consumers can still take whatever is left.
+    public synchronized void closeForProducers() {
+        if (closeState == OPEN) {
+            for (ProducerConsumerMpmcQueue<T> shard : shards) {
+                shard.closeForProducers();
+            }
+            closeState = CLOSED_FOR_PRODUCERS;
+        }
+
+        // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left (or find
+        // out there isn't anything)
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Closes the queue to enqueues and dequeues. Anything left in the queue stays there.
+    public synchronized void close() {
+        for (ProducerConsumerMpmcQueue<T> shard : shards) {
+            shard.close();
+        }
+        closeState = CLOSED;
+
+        notFullWaiters.wakeAll();
+        notEmptyWaiters.wakeAll();
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /////
+    ///// Queue Helpers
+    /////
+
+    // Puts the item in the first shard with room, starting from the producer's shard. Never blocks.
+    private boolean offer(T item) {
+        int start = producerShard();
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[wrapShard(start + i)].offer(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Takes an item from the first shard that has one, starting from our home shard. Never blocks. Returns null if every
+    // shard was empty.
+    private T poll() {
+        int home = homeShard();
+        for (int i = 0; i < shards.length; i++) {
+            T item = shards[wrapShard(home + i)].poll();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    // offer, except that it throws once the queue is closed for producers
+    private boolean offerOpen(T item) {
+        if (closeState != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+        // (If the queue is closed after we claim a slot, the shard throws for us)
+        return offer(item);
+    }
+
+    // poll, except that it throws once the queue is closed, or closed for producers and drained
+    private T pollOpen() {
+        // Read the close state first: once it says closed, the shards are closed too, so a producer that claims a slot
+        // after this fills it with CLOSED_SLOT - if every shard is empty after this read, it stays that way
+        int state = closeState;
+        if (state == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+
+        T item = poll();
+        if (item == null && state == CLOSED_FOR_PRODUCERS && getLength() == 0) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+        return item;
+    }
+
+    // Offers the item, waiting whenever every shard is full. Returns false if we timed out first. Wakes a single
+    // dequeue thread for the new item.
+    private boolean awaitOffer(T item, boolean timed, long remainingNanos) throws InterruptedException {
+        while (!offerOpen(item)) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return false;
+            }
+            remainingNanos = notFullWaiters.await(waitStrategy, hasFreeSlot, timed, remainingNanos);
+        }
+        notEmptyWaiters.wakeOne();
+        return true;
+    }
+
+    // Polls for an item, waiting whenever every shard is empty. Returns null if we timed out first. Wakes a single
+    // enqueue thread for the freed slot.
+    private T awaitPoll(boolean timed, long remainingNanos) throws InterruptedException {
+        T item;
+        while ((item = pollOpen()) == null) {
+            if (timed && remainingNanos <= 0) {
+                // Out of time (or never had any, for a zero timeout)
+                return null;
+            }
+            remainingNanos = notEmptyWaiters.await(waitStrategy, hasItem, timed, remainingNanos);
+        }
+        notFullWaiters.wakeOne();
+        return item;
+    }
+
+    // The calling thread's home shard. Thread ids are handed out in order, so consecutive threads get consecutive shards.
+    private int homeShard() {
+        return (int)(Thread.currentThread().getId() % shards.length);
+    }
+
+    // The shard a producer tries first
+    private int producerShard() {
+        if (shardSelection == ShardSelection.THREAD_AFFINITY) {
+            return homeShard();
+        }
+        int[] offset = ROUND_ROBIN_OFFSET.get();
+        offset[0] = offset[0] + 1 >= shards.length ? 0 : offset[0] + 1;
+        return wrapShard(homeShard() + offset[0]);
+    }
+
+    private int wrapShard(int shardIdx) {
+        return shardIdx >= shards.length ? shardIdx - shards.length : shardIdx;
+    }
+
+    private static void requireItem(Object item) {
+        if (item == null) {
+            throw new NullPointerException("ProducerConsumerShardedQueue can't hold null items");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lock-free single-producer/multi-consumer bounded ring. Consumers race for the head with a CAS, but the single
+// producer owns the tail and publishes it with lazySet. A consumer that won the head CAS may not have read its item
+// yet, so the producer only reuses a slot once that consumer has set it back to null.
+//
+// NOTE: Only ONE thread may enqueue at a time. Use ProducerConsumerQueues to pick the right ring for your thread counts.
+public class ProducerConsumerSpmcQueue<T> extends AbstractProducerConsumerRingQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final AtomicReferenceArray<T> queueArray; // The internal array backing the queue. (Treated as circular array)
+
+    private final AtomicLong tailPos = new AtomicLong(0); // Only written by the producer
+    private long headCache; // The producer's copy of headPos
+
+    private final AtomicLong headPos = new AtomicLong(0); // Claimed by consumers with a CAS
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerSpmcQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerSpmcQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, true, waitStrategy);
+
+        this.queueArray = new AtomicReferenceArray<>(capacity);
+        this.resetQueue();
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the current length of the queue
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = headPos.get();
+        long tail = tailPos.get();
+        return (int)Math.max(0, Math.min(capacity, tail - head));
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        for (int i = 0; i < capacity; i++) {
+            queueArray.set(i, null);
+        }
+        headCache = 0;
+        headPos.set(0);
+        tailPos.set(0);
+        reopen();
+    }
+
+    /////
+    ///// Ring Operations
+    /////
+
+    @Override
+    protected boolean offer(T item) {
+        long tail = tailPos.get();
+        if (tail - headCache >= capacity) {
+            // Looks full from our copy - re-read the real head before giving up
+            headCache = headPos.get();
+            if (tail - headCache >= capacity) {
+                return false;
+            }
+        }
+
+        // The consumer that claimed this slot on the last lap may still be reading it
+        int idx = (int)(tail % capacity);
+        if (queueArray.get(idx) != null) {
+            return false;
+        }
+
+        queueArray.lazySet(idx, item);
+        tailPos.lazySet(tail + 1);
+        return true;
+    }
+
+    @Override
+    protected T poll() {
+        while (true) {
+            long head = headPos.get();
+            if (head >= tailPos.get()) {
+                return null;
+            }
+
+            if (headPos.compareAndSet(head, head + 1)) {
+                // The position is ours. Take the item and free the slot for the producer.
+                int idx = (int)(head % capacity);
+                T item;
+                if (isDrained()) {
+                    // The producer may be taking this item back (see takeBack) - whoever swaps the slot first has it
+                    item = queueArray.getAndSet(idx, null);
+                } else {
+                    item = queueArray.get(idx);
+                    queueArray.lazySet(idx, null);
+                }
+                if (item != CLOSED_SLOT) {
+                    return item;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected int takeBack(int itemCount) {
+        // A consumer that moved the head past a position before the queue was drained takes its item with a plain read
+        // (poll checks isDrained after its head CAS), so only try for positions the head hasn't reached. Past that, the
+        // consumers swap the slot too, and whoever gets there first has the item.
+        int takenBack = 0;
+        long tail = tailPos.get();
+        for (long pos = Math.max(tail - itemCount, headPos.get()); pos < tail; pos++) {
+            int idx = (int)(pos % capacity);
+            T item = queueArray.get(idx);
+            if (item != null && item != CLOSED_SLOT && queueArray.compareAndSet(idx, item, closedSlot())) {
+                takenBack++;
+            }
+        }
+        return takenBack;
+    }
+}
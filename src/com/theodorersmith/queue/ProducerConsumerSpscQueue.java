@@ -0,0 +1,144 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lock-free single-producer/single-consumer bounded ring. With only one thread on each side there is nothing to race
+// for, so there are no CAS operations at all: the producer owns the tail and the consumer owns the head, and each one
+// publishes its index with lazySet (an ordered store without the full fence of a volatile write). Each side also keeps
+// a private copy of the opposite index and only re-reads the shared one when its copy says the ring is full/empty.
+// (Slots are only swapped atomically once the queue is closed and drained, when the producer may be taking its last
+// items back - see AbstractProducerConsumerRingQueue)
+//
+// NOTE: Only ONE thread may enqueue at a time, and only ONE thread may dequeue at a time. Use ProducerConsumerQueues
+// to pick the right ring for your thread counts.
+public class ProducerConsumerSpscQueue<T> extends AbstractProducerConsumerRingQueue<T> {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final AtomicReferenceArray<T> queueArray; // The internal array backing the queue. (Treated as circular array)
+
+    private final AtomicLong tailPos = new AtomicLong(0); // Only written by the producer
+    private long headCache; // The producer's copy of headPos
+
+    private final AtomicLong headPos = new AtomicLong(0); // Only written by the consumer
+    private long tailCache; // The consumer's copy of tailPos
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    public ProducerConsumerSpscQueue(int capacity) {
+        this(capacity, WaitStrategy.blocking());
+    }
+
+    public ProducerConsumerSpscQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, true, waitStrategy);
+
+        this.queueArray = new AtomicReferenceArray<>(capacity);
+        this.resetQueue();
+    }
+
+    /////
+    ///// TestableQueue Implementation
+    /////
+
+    @Override
+    // Gets the current length of the queue
+    public int getLength() {
+        // Read the head first, so the difference can't go negative
+        long head = headPos.get();
+        long tail = tailPos.get();
+        return (int)Math.max(0, Math.min(capacity, tail - head));
+    }
+
+    @Override
+    // Resets queue to a default empty (and open) state. NOTE: Not safe to call while other threads are using the queue.
+    public void resetQueue() {
+        for (int i = 0; i < capacity; i++) {
+            queueArray.set(i, null);
+        }
+        headCache = 0;
+        tailCache = 0;
+        headPos.set(0);
+        tailPos.set(0);
+        reopen();
+    }
+
+    /////
+    ///// Ring Operations
+    /////
+
+    @Override
+    protected boolean offer(T item) {
+        long tail = tailPos.get();
+        if (tail - headCache >= capacity) {
+            // Looks full from our copy - re-read the real head before giving up
+            headCache = headPos.get();
+            if (tail - headCache >= capacity) {
+                return false;
+            }
+        }
+
+        // Plain write of the item, then an ordered store of the tail to publish it
+        queueArray.setPlain((int)(tail % capacity), item);
+        tailPos.lazySet(tail + 1);
+        return true;
+    }
+
+    @Override
+    protected T poll() {
+        long head = headPos.get();
+        if (head >= tailCache) {
+            // Looks empty from our copy - re-read the real tail before giving up
+            tailCache = tailPos.get();
+            if (head >= tailCache) {
+                return null;
+            }
+        }
+
+        int idx = (int)(head % capacity);
+        T item = queueArray.getPlain(idx);
+        queueArray.setPlain(idx, null);
+        headPos.lazySet(head + 1);
+        return item;
+    }
+
+    @Override
+    protected T pollDrained() {
+        while (true) {
+            long head = headPos.get();
+            if (head >= tailPos.get()) {
+                return null;
+            }
+
+            // The producer may be taking this item back - whoever swaps the slot first has it
+            int idx = (int)(head % capacity);
+            T item = queueArray.getAndSet(idx, null);
+            headPos.lazySet(head + 1);
+            if (item != CLOSED_SLOT) {
+                return item;
+            }
+        }
+    }
+
+    @Override
+    protected int takeBack(int itemCount) {
+        // The consumer only takes items with getAndSet once the queue is drained, and any item it took before that was
+        // already nulled out - so a CAS from the item to CLOSED_SLOT only succeeds if nobody has it
+        int takenBack = 0;
+        long tail = tailPos.get();
+        for (long pos = tail - itemCount; pos < tail; pos++) {
+            int idx = (int)(pos % capacity);
+            T item = queueArray.get(idx);
+            if (item != null && item != CLOSED_SLOT && queueArray.compareAndSet(idx, item, closedSlot())) {
+                takenBack++;
+            }
+        }
+        return takenBack;
+    }
+}
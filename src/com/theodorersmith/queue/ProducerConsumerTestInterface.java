@@ -32,16 +32,39 @@ public class ProducerConsumerTestInterface {
         System.out.println("--- Puppet Java Exercise -------------------------------");
         System.out.println("");
         System.out.println(" A) Run Basic Exercise Test Case (5 x 5 for 1000 elements)");
-        System.out.println("    (This uses the DoubleSyncArray implementation below)");
+        System.out.println("    (This uses the ProducerConsumerConcurrentQueue implementation below)");
         System.out.println("");
         System.out.println("--- Other Tests and Implementations... ---");
         System.out.println("");
         System.out.println(" B) Run Benchmarks On All Implementations of Blocking PC Queue");
+        System.out.println(" E) Run Batch (enqueueAll / drainTo) Benchmarks On All Implementations of Blocking PC Queue");
         System.out.println(" F) Run Full Tests On All Implementations of Blocking PC Queue");
+        System.out.println(" C) Run Context Switch Benchmarks (targeted wakeups vs notifyAll; Linux only)");
+        System.out.println(" S) Run Tests and Shape Benchmarks On SPSC / MPSC / SPMC Queues");
+        System.out.println(" P) Run Tests and Allocation Benchmarks On Primitive (int / long / double) Queues");
+        System.out.println(" G) Run Tests and Bursty Load Footprint Benchmarks On the Elastic (soft / hard capacity) Queue");
+        System.out.println(" M) Run Tests and Overhead (on vs off) Benchmarks For Queue Metrics");
+        System.out.println(" H) Run Tests and Allocation Benchmarks On the Event Ring (preallocated events, claim / publish)");
+        System.out.println(" U) Run Tests and Fan-Out (1 / 4 / 16 groups) Benchmarks On the Broadcast Ring vs a Queue per Group");
+        System.out.println(" L) Run Tests and End to End Benchmarks On a 3 Stage Pipeline (one ring vs 3 chained queues)");
+        System.out.println(" K) Run Tests and Per Item Overhead Benchmarks On the Consumer Worker Pool (batches vs dequeue per item)");
+        System.out.println(" D) Run Flush Mode (fsync per item / group commit / async) Benchmarks On the Persistent Queue");
+        System.out.println(" W) Run Wait Strategy (spin / yield / park) Latency and CPU Benchmarks");
+        System.out.println(" T) Run Thread Scaling Benchmarks (1 x 1 up to 64 x 64 producers / consumers)");
+        System.out.println(" R) Run Priority Queue Benchmarks (FIFO vs 1 / 4 levels, with and without the starvation guard)");
+        System.out.println(" N) Run Non-Blocking (CompletableFuture / Flow) Benchmarks On the Async Queue");
+        System.out.println(" V) Run Virtual Thread Benchmarks (up to 100,000 x 100,000 producers / consumers; Java 21+)");
         System.out.println("");
         System.out.println(" 1) Test ConcurrentNotifyAllArrayPCQueue");
         System.out.println(" 2) Test ConcurrentTwoConditionLockArrayPCQueue");
-        System.out.println(" 3) Test ConcurrentDoubleSyncArrayPCQueue (* default implementation)");
+        System.out.println(" 3) Test ConcurrentDoubleSyncArrayPCQueue (original notifyAll wakeups)");
+        System.out.println(" 4) Test ProducerConsumerMpmcQueue (lock-free ring)");
+        System.out.println(" 5) Test ProducerConsumerConcurrentQueue (* default implementation)");
+        System.out.println(" 6) Test ProducerConsumerRecordQueue (off-heap / memory mapped byte records)");
+        System.out.println(" 7) Test ProducerConsumerPersistentQueue (write-ahead log, recovers items on restart)");
+        System.out.println(" 8) Test ProducerConsumerShardedQueue (one MPMC ring per core, with stealing)");
+        System.out.println(" 9) Test ProducerConsumerAsyncQueue (CompletableFuture and Flow API)");
+        System.out.println(" 0) Test ProducerConsumerPriorityQueue (priority levels, with a starvation guard)");
         System.out.println("");
         System.out.println("--------------------------------------------------------");
         System.out.println(" Q) Quit");
@@ -55,6 +78,42 @@ public class ProducerConsumerTestInterface {
             case 'A':
                 PCQueueTestManager.runDefaultTest();
                 return true;
+            case 'c':
+            case 'C':
+                PCQueueTestManager.benchContextSwitches();
+                return true;
+            case 'm':
+            case 'M':
+                PCQueueTestManager.benchQueueMetrics();
+                return true;
+            case 'k':
+            case 'K':
+                PCQueueTestManager.benchWorkerPool();
+                return true;
+            case 'l':
+            case 'L':
+                PCQueueTestManager.benchPipeline();
+                return true;
+            case 'u':
+            case 'U':
+                PCQueueTestManager.benchBroadcastRing();
+                return true;
+            case 'h':
+            case 'H':
+                PCQueueTestManager.benchEventRing();
+                return true;
+            case 'g':
+            case 'G':
+                PCQueueTestManager.benchElasticQueue();
+                return true;
+            case 'd':
+            case 'D':
+                PCQueueTestManager.benchPersistentQueues();
+                return true;
+            case 'e':
+            case 'E':
+                PCQueueTestManager.benchBatchedQueues();
+                return true;
             case 'f':
             case 'F':
                 PCQueueTestManager.testAllQueues();
@@ -63,6 +122,34 @@ public class ProducerConsumerTestInterface {
             case 'B':
                 PCQueueTestManager.benchAllQueues();
                 return true;
+            case 'p':
+            case 'P':
+                PCQueueTestManager.benchPrimitiveQueues();
+                return true;
+            case 's':
+            case 'S':
+                PCQueueTestManager.benchSpecializedQueues();
+                return true;
+            case 'r':
+            case 'R':
+                PCQueueTestManager.benchPriorityQueue();
+                return true;
+            case 'n':
+            case 'N':
+                PCQueueTestManager.benchAsyncQueue();
+                return true;
+            case 'v':
+            case 'V':
+                PCQueueTestManager.benchVirtualThreads();
+                return true;
+            case 't':
+            case 'T':
+                PCQueueTestManager.benchThreadScaling();
+                return true;
+            case 'w':
+            case 'W':
+                PCQueueTestManager.benchWaitStrategies();
+                return true;
             case '1':
                 PCQueueTestManager.testNotifyAllQueue();
                 return true;
@@ -72,6 +159,27 @@ public class ProducerConsumerTestInterface {
             case '3':
                 PCQueueTestManager.testDoubleSyncQueue();
                 return true;
+            case '4':
+                PCQueueTestManager.testMpmcQueue();
+                return true;
+            case '5':
+                PCQueueTestManager.testConcurrentQueue();
+                return true;
+            case '6':
+                PCQueueTestManager.testRecordQueue();
+                return true;
+            case '7':
+                PCQueueTestManager.testPersistentQueue();
+                return true;
+            case '8':
+                PCQueueTestManager.testShardedQueue();
+                return true;
+            case '9':
+                PCQueueTestManager.testAsyncQueue();
+                return true;
+            case '0':
+                PCQueueTestManager.testPriorityQueue();
+                return true;
             case 'q':
             case 'Q':
                 return false;
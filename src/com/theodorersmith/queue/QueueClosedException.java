@@ -0,0 +1,15 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+// Thrown by a queue that has been closed (see ProducerConsumerQueue.close and closeForProducers) - by an enqueue once the
+// queue is closed for producers, and by a dequeue once it is closed and drained. Unlike the null a timed out or interrupted
+// dequeue returns, this always means no more items are coming. Unchecked, since the queue interface doesn't throw anything.
+public class QueueClosedException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueueClosedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,383 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+// Optional instrumentation for a queue - pass one to the queue's constructor (ProducerConsumerConcurrentQueue takes one),
+// and the queue counts:
+//   - items enqueued and dequeued
+//   - how often (and for how long in total) enqueues waited on a full queue, and dequeues on an empty one
+//   - how many parked threads were woken on each side
+//   - how long each item spent in the queue (its sojourn time), in an HDR style histogram
+// Read them with snapshot(), or through JMX once register() has been called.
+//
+// Producers and consumers record from many threads at once, so every counter is striped: the wait and wakeup totals are
+// LongAdders, and the sojourn histogram keeps one set of atomic buckets per stripe (picked from the recording thread's
+// hash). A recording thread mostly touches its own cells, and only snapshot() adds the stripes up.
+//
+// The fast path is kept as short as we can make it. The enqueued / dequeued totals are read from counters the queue
+// already keeps (its tail and head sequences), so counting them costs nothing. The waits and wakeups are only recorded on
+// the slow path. That leaves a time stamp per enqueue, and a time stamp and one striped increment per dequeue. (The
+// sojourn mean and max come from the histogram buckets, so they don't need counters of their own.) A queue without
+// metrics pays for a null check on each path.
+//
+// A time stamp (System.nanoTime) costs tens of nanoseconds, which is about what a whole uncontended handoff costs - so
+// timing every item can halve the throughput of a queue that is never waited on. If that's too much, pass a sojourn
+// sample interval: only one item in every interval is timed (picked by its sequence number, so both sides agree on which
+// ones without sharing anything). The histogram then holds a sample of the sojourn times, and the percentiles are
+// estimates from it. Everything else is still counted exactly.
+//
+// Reading the metrics tells you which side is the bottleneck: if enqueues spend their time blocked on a full queue, the
+// consumers can't keep up. If dequeues spend theirs blocked on an empty queue, the producers can't. A growing sojourn
+// time with little blocking on either side means the queue is too big for the rate it drains at.
+public class QueueMetrics implements QueueMetricsMXBean {
+
+    /////
+    ///// Member Variables
+    /////
+
+    private final LongAdder enqueueWaits = new LongAdder();
+    private final LongAdder enqueueBlockedNanos = new LongAdder();
+    private final LongAdder dequeueWaits = new LongAdder();
+    private final LongAdder dequeueBlockedNanos = new LongAdder();
+    private final LongAdder enqueueWakeups = new LongAdder();
+    private final LongAdder dequeueWakeups = new LongAdder();
+
+    // The sojourn histogram, striped. Each stripe is a full set of LatencyHistogram buckets.
+    private final AtomicLongArray[] sojournStripes;
+    private final int stripeMask;
+    private final long sojournSampleMask; // Items whose sequence & mask == 0 are timed
+
+    // The queue's totals and occupancy (set by the queue, when it is constructed with these metrics). The totals are
+    // counted from when the queue was created - reset() just moves the baselines they are reported against.
+    private volatile LongSupplier enqueuedGauge = () -> 0;
+    private volatile LongSupplier dequeuedGauge = () -> 0;
+    private volatile IntSupplier lengthGauge = () -> 0;
+    private volatile int capacity;
+    private volatile long enqueuedBaseline;
+    private volatile long dequeuedBaseline;
+
+    private volatile ObjectName registeredName;
+
+    /////
+    ///// Construction and Initialization
+    /////
+
+    // One histogram stripe per processor (rounded up to a power of two), timing every item
+    public QueueMetrics() {
+        this(Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    // Times one item in every sojournSampleInterval (which must be a power of two)
+    public QueueMetrics(int sojournSampleInterval) {
+        this(Runtime.getRuntime().availableProcessors(), sojournSampleInterval);
+    }
+
+    public QueueMetrics(int stripes, int sojournSampleInterval) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Metrics need at least one stripe");
+        }
+        if (sojournSampleInterval < 1 || Integer.bitCount(sojournSampleInterval) != 1) {
+            throw new IllegalArgumentException("The sojourn sample interval must be a power of two");
+        }
+
+        int stripeCount = Integer.highestOneBit(Math.min(stripes, 1 << 10) * 2 - 1);
+        this.sojournStripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            sojournStripes[i] = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.sojournSampleMask = sojournSampleInterval - 1;
+    }
+
+    // Called by the queue these metrics are passed to, with the queue's own running totals. A QueueMetrics can only
+    // belong to one queue.
+    synchronized void attach(LongSupplier enqueuedGauge, LongSupplier dequeuedGauge, IntSupplier lengthGauge, int capacity) {
+        if (this.capacity != 0) {
+            throw new IllegalStateException("These metrics already belong to a queue");
+        }
+        this.enqueuedGauge = enqueuedGauge;
+        this.dequeuedGauge = dequeuedGauge;
+        this.lengthGauge = lengthGauge;
+        this.capacity = capacity;
+    }
+
+    /////
+    ///// JMX
+    /////
+
+    // Registers these metrics with the platform MBean server, as com.theodorersmith.queue:type=QueueMetrics,name=<name>
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.theodorersmith.queue:type=QueueMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    // Unregisters these metrics (if they were registered)
+    public void unregister() throws JMException {
+        ObjectName objectName = registeredName;
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            registeredName = null;
+        }
+    }
+
+    /////
+    ///// Snapshots
+    /////
+
+    // Copies every counter into an immutable snapshot. (The counters keep moving while we copy, so a snapshot taken under
+    // load can be off by the few operations that landed in the middle of it)
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // A point in time copy of a queue's metrics
+    public static final class Snapshot {
+        private final long enqueuedCount;
+        private final long dequeuedCount;
+        private final int length;
+        private final int capacity;
+        private final long enqueueWaitCount;
+        private final long enqueueBlockedNanos;
+        private final long dequeueWaitCount;
+        private final long dequeueBlockedNanos;
+        private final long enqueueWakeupCount;
+        private final long dequeueWakeupCount;
+        private final LatencyHistogram sojournHistogram;
+
+        private Snapshot(QueueMetrics metrics) {
+            // (Dequeued first, so we can't see more dequeued than enqueued)
+            this.dequeuedCount = metrics.getDequeuedCount();
+            this.enqueuedCount = metrics.getEnqueuedCount();
+            this.length = metrics.lengthGauge.getAsInt();
+            this.capacity = metrics.capacity;
+            this.enqueueWaitCount = metrics.enqueueWaits.sum();
+            this.enqueueBlockedNanos = metrics.enqueueBlockedNanos.sum();
+            this.dequeueWaitCount = metrics.dequeueWaits.sum();
+            this.dequeueBlockedNanos = metrics.dequeueBlockedNanos.sum();
+            this.enqueueWakeupCount = metrics.enqueueWakeups.sum();
+            this.dequeueWakeupCount = metrics.dequeueWakeups.sum();
+
+            this.sojournHistogram = new LatencyHistogram();
+            for (AtomicLongArray stripe : metrics.sojournStripes) {
+                for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                    long count = stripe.get(i);
+                    if (count != 0) {
+                        sojournHistogram.addBucketCount(i, count);
+                    }
+                }
+            }
+        }
+
+        public long getEnqueuedCount() {
+            return enqueuedCount;
+        }
+
+        public long getDequeuedCount() {
+            return dequeuedCount;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public long getEnqueueWaitCount() {
+            return enqueueWaitCount;
+        }
+
+        public long getEnqueueBlockedNanos() {
+            return enqueueBlockedNanos;
+        }
+
+        public long getDequeueWaitCount() {
+            return dequeueWaitCount;
+        }
+
+        public long getDequeueBlockedNanos() {
+            return dequeueBlockedNanos;
+        }
+
+        public long getEnqueueWakeupCount() {
+            return enqueueWakeupCount;
+        }
+
+        public long getDequeueWakeupCount() {
+            return dequeueWakeupCount;
+        }
+
+        // The sojourn time of every dequeued item, in nanoseconds (A copy - it won't change)
+        public LatencyHistogram getSojournHistogram() {
+            return sojournHistogram;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("enqueued %d; dequeued %d; length %d/%d; enqueue waits %d (%d ms); dequeue waits %d (%d ms); wakeups %d/%d; sojourn mean %.1f us, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    enqueuedCount, dequeuedCount, length, capacity,
+                    enqueueWaitCount, TimeUnit.NANOSECONDS.toMillis(enqueueBlockedNanos),
+                    dequeueWaitCount, TimeUnit.NANOSECONDS.toMillis(dequeueBlockedNanos),
+                    enqueueWakeupCount, dequeueWakeupCount,
+                    sojournHistogram.getMean() / 1000.0,
+                    sojournHistogram.getValueAtPercentile(50) / 1000.0,
+                    sojournHistogram.getValueAtPercentile(99) / 1000.0,
+                    sojournHistogram.getValueAtPercentile(99.9) / 1000.0,
+                    sojournHistogram.getMax() / 1000.0);
+        }
+    }
+
+    /////
+    ///// QueueMetricsMXBean Implementation
+    /////
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueuedGauge.getAsLong() - enqueuedBaseline;
+    }
+
+    @Override
+    public long getDequeuedCount() {
+        return dequeuedGauge.getAsLong() - dequeuedBaseline;
+    }
+
+    @Override
+    public int getLength() {
+        return lengthGauge.getAsInt();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getEnqueueWaitCount() {
+        return enqueueWaits.sum();
+    }
+
+    @Override
+    public long getEnqueueBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(enqueueBlockedNanos.sum());
+    }
+
+    @Override
+    public long getDequeueWaitCount() {
+        return dequeueWaits.sum();
+    }
+
+    @Override
+    public long getDequeueBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(dequeueBlockedNanos.sum());
+    }
+
+    @Override
+    public long getEnqueueWakeupCount() {
+        return enqueueWakeups.sum();
+    }
+
+    @Override
+    public long getDequeueWakeupCount() {
+        return dequeueWakeups.sum();
+    }
+
+    @Override
+    public double getSojournMeanMicros() {
+        return snapshot().getSojournHistogram().getMean() / 1000.0;
+    }
+
+    @Override
+    public double getSojournP50Micros() {
+        return snapshot().getSojournHistogram().getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getSojournP99Micros() {
+        return snapshot().getSojournHistogram().getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSojournP999Micros() {
+        return snapshot().getSojournHistogram().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getSojournMaxMicros() {
+        return snapshot().getSojournHistogram().getMax() / 1000.0;
+    }
+
+    @Override
+    // NOTE: Counts recorded while the reset is running may or may not survive it
+    public void reset() {
+        enqueuedBaseline = enqueuedGauge.getAsLong();
+        dequeuedBaseline = dequeuedGauge.getAsLong();
+        enqueueWaits.reset();
+        enqueueBlockedNanos.reset();
+        dequeueWaits.reset();
+        dequeueBlockedNanos.reset();
+        enqueueWakeups.reset();
+        dequeueWakeups.reset();
+        for (AtomicLongArray stripe : sojournStripes) {
+            for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    /////
+    ///// Recording (Called by the instrumented queue)
+    /////
+
+    void recordEnqueueWait(long waitedNanos) {
+        enqueueWaits.increment();
+        enqueueBlockedNanos.add(waitedNanos);
+    }
+
+    void recordDequeueWait(long waitedNanos) {
+        dequeueWaits.increment();
+        dequeueBlockedNanos.add(waitedNanos);
+    }
+
+    void recordEnqueueWakeups(int count) {
+        if (count > 0) {
+            enqueueWakeups.add(count);
+        }
+    }
+
+    void recordDequeueWakeups(int count) {
+        if (count > 0) {
+            dequeueWakeups.add(count);
+        }
+    }
+
+    // Whether the item with this (enqueue / dequeue) sequence number is timed
+    boolean isSojournSampled(long sequence) {
+        return (sequence & sojournSampleMask) == 0;
+    }
+
+    void recordSojourn(long sojournNanos) {
+        sojournStripes[stripeIndex()].getAndIncrement(LatencyHistogram.bucketIndex(LatencyHistogram.clamp(sojournNanos)));
+    }
+
+    // Spreads threads over the stripes by their identity hash (the same thread always lands on the same stripe)
+    private int stripeIndex() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+}
@@ -0,0 +1,44 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+// The JMX view of a QueueMetrics (registered with QueueMetrics.register). Every attribute is read live, so a monitoring
+// tool polling these sees the counters as they are at that moment. The sojourn times are how long items spent in the
+// queue - from the end of their enqueue to the start of their dequeue.
+public interface QueueMetricsMXBean {
+    long getEnqueuedCount();
+
+    long getDequeuedCount();
+
+    int getLength();
+
+    int getCapacity();
+
+    // The number of times an enqueue found the queue full and had to wait, and the total time spent waiting
+    long getEnqueueWaitCount();
+
+    long getEnqueueBlockedMillis();
+
+    // The number of times a dequeue found the queue empty and had to wait, and the total time spent waiting
+    long getDequeueWaitCount();
+
+    long getDequeueBlockedMillis();
+
+    // The number of parked enqueue (dequeue) threads woken for a freed slot (a new item)
+    long getEnqueueWakeupCount();
+
+    long getDequeueWakeupCount();
+
+    double getSojournMeanMicros();
+
+    double getSojournP50Micros();
+
+    double getSojournP99Micros();
+
+    double getSojournP999Micros();
+
+    double getSojournMaxMicros();
+
+    // Sets every counter (and the sojourn histogram) back to zero
+    void reset();
+}
@@ -0,0 +1,87 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Turns the items of a ProducerConsumerPersistentQueue into bytes for its log, and back again when the queue is reopened.
+// Serialization happens on the enqueuing thread (outside of the queue's locks), and deserialization only happens while a
+// queue is recovering its items - a live queue hands back the same item objects it was given.
+//
+// A few ready made serializers:
+//   strings()        - UTF-8 Strings
+//   longs()          - Longs, as 8 bytes
+//   javaSerialized() - anything Serializable, through ObjectOutputStream (convenient, but slow and bulky)
+public interface QueueSerializer<T> {
+
+    byte[] serialize(T item);
+
+    T deserialize(byte[] bytes);
+
+    /////
+    ///// Serializer Factory Methods
+    /////
+
+    static QueueSerializer<String> strings() {
+        return new QueueSerializer<String>() {
+            @Override
+            public byte[] serialize(String item) {
+                return item.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    static QueueSerializer<Long> longs() {
+        return new QueueSerializer<Long>() {
+            @Override
+            public byte[] serialize(Long item) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(item).array();
+            }
+
+            @Override
+            public Long deserialize(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+        };
+    }
+
+    static <T extends Serializable> QueueSerializer<T> javaSerialized() {
+        return new QueueSerializer<T>() {
+            @Override
+            public byte[] serialize(T item) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(item);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return bytes.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T deserialize(byte[] bytes) {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T)in.readObject();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } catch (ClassNotFoundException ex) {
+                    throw new IllegalStateException("Can't deserialize a queue item", ex);
+                }
+            }
+        };
+    }
+}
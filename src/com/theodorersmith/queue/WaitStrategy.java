@@ -0,0 +1,191 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.function.BooleanSupplier;
+
+// Decides what a thread does between finding the queue full (or empty) and parking. Parking and being unparked costs
+// several microseconds of OS work per handoff, so when the gaps between items are short it can be cheaper to spin (or
+// yield) for a little while and catch the next item/slot without ever leaving the CPU.
+//
+// A queue is given its strategy when it is constructed:
+//   blocking()      - park straight away (the original behavior, and the default)
+//   busySpin()      - spin with Thread.onSpinWait and never park. Lowest latency, but burns a core per waiting thread.
+//   spinThenYield() - spin for a while, then Thread.yield until the queue is ready. Never parks.
+//   spinThenPark()  - spin, then yield a few times, then park.
+//   adaptive()      - like spinThenPark, but tunes its spin count from how long recent waits actually took.
+//
+// Threads that are spinning are not registered as waiters, so the other side never has to wake them. That is where the
+// saving comes from - it is also why busySpin and spinThenYield need a spare core per waiting thread to pay off.
+//
+// The adaptive strategy keeps state about the queue it is used on, so each queue should get its own instance.
+public abstract class WaitStrategy {
+
+    /////
+    ///// Strategy Factory Methods
+    /////
+
+    private static final int DEFAULT_SPINS = 1000;
+    private static final int DEFAULT_YIELDS = 10;
+    private static final int FOREVER = Integer.MAX_VALUE;
+
+    // Park as soon as the queue is full/empty
+    public static WaitStrategy blocking() {
+        return new PhasedWaitStrategy("Blocking", 0, 0);
+    }
+
+    // Spin until the queue is ready. Never parks.
+    public static WaitStrategy busySpin() {
+        return new PhasedWaitStrategy("BusySpin", FOREVER, 0);
+    }
+
+    // Spin for a while, then yield until the queue is ready. Never parks.
+    public static WaitStrategy spinThenYield() {
+        return new PhasedWaitStrategy("SpinThenYield", DEFAULT_SPINS, FOREVER);
+    }
+
+    // Spin for a while, then yield a few times, then park
+    public static WaitStrategy spinThenPark() {
+        return spinThenPark(DEFAULT_SPINS, DEFAULT_YIELDS);
+    }
+
+    public static WaitStrategy spinThenPark(int spins, int yields) {
+        if (spins < 0 || yields < 0) {
+            throw new IllegalArgumentException("Spin and yield counts can't be negative");
+        }
+        return new PhasedWaitStrategy("SpinThenPark", spins, yields);
+    }
+
+    // Spin, then park, with the spin count tuned from recent wait times
+    public static WaitStrategy adaptive() {
+        return new AdaptiveWaitStrategy();
+    }
+
+    /////
+    ///// Strategy Methods (Used by the queues)
+    /////
+
+    // Waits (without parking) until ready returns true, for as long as this strategy allows. Returns true if ready was
+    // seen, or false if the caller should park (or give up, if the deadline has passed).
+    abstract boolean spin(BooleanSupplier ready, boolean timed, long deadlineNanos) throws InterruptedException;
+
+    // Told how long each wait took in the end (spinning plus any parking). Only the adaptive strategy cares.
+    void waitComplete(long waitNanos) {
+    }
+
+    /////
+    ///// Strategy Implementations
+    /////
+
+    // Spins up to spinCount times, then yields up to yieldCount times (FOREVER for either means just that)
+    private static class PhasedWaitStrategy extends WaitStrategy {
+        private final String name;
+        private final int spinCount;
+        private final int yieldCount;
+
+        private PhasedWaitStrategy(String name, int spinCount, int yieldCount) {
+            this.name = name;
+            this.spinCount = spinCount;
+            this.yieldCount = yieldCount;
+        }
+
+        @Override
+        boolean spin(BooleanSupplier ready, boolean timed, long deadlineNanos) throws InterruptedException {
+            return spinPhase(ready, spinCount, timed, deadlineNanos) || yieldPhase(ready, yieldCount, timed, deadlineNanos);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Spins about as long as a typical wait takes, as long as a typical wait is shorter than parking would be. Once waits
+    // get longer than a park/unpark round trip, spinning is just burning CPU, so it drops back to (almost) no spinning.
+    // NOTE: The fields are updated without any locking. Lost updates only make the estimates a little noisier.
+    private static class AdaptiveWaitStrategy extends WaitStrategy {
+        private static final int MIN_SPINS = 10;
+        private static final int MAX_SPINS = 1 << 16;
+        private static final long PARK_COST_NANOS = 20_000; // Rough cost of a park/unpark round trip
+        private static final int AVERAGE_WEIGHT = 8; // New samples move the running averages 1/8th of the way
+
+        private volatile int spinLimit = DEFAULT_SPINS;
+        private volatile long averageWaitNanos = 0;
+        private volatile long averageSpinNanos = 50; // Nanos per spin iteration, measured as we go
+
+        @Override
+        boolean spin(BooleanSupplier ready, boolean timed, long deadlineNanos) throws InterruptedException {
+            int spins = spinLimit;
+            long startNanos = System.nanoTime();
+            if (spinPhase(ready, spins, timed, deadlineNanos)) {
+                return true;
+            }
+
+            // Only a full spin phase gives us a clean nanos-per-spin measurement
+            long nanosPerSpin = Math.max(1, (System.nanoTime() - startNanos) / spins);
+            averageSpinNanos += (nanosPerSpin - averageSpinNanos) / AVERAGE_WEIGHT;
+
+            return yieldPhase(ready, DEFAULT_YIELDS, timed, deadlineNanos);
+        }
+
+        @Override
+        void waitComplete(long waitNanos) {
+            long averageWait = averageWaitNanos + (waitNanos - averageWaitNanos) / AVERAGE_WEIGHT;
+            averageWaitNanos = averageWait;
+
+            if (averageWait > PARK_COST_NANOS) {
+                spinLimit = MIN_SPINS;
+            } else {
+                // Spin for about twice the typical wait, so most waits end while we are still spinning
+                long spins = 2 * averageWait / Math.max(1, averageSpinNanos);
+                spinLimit = (int)Math.max(MIN_SPINS, Math.min(MAX_SPINS, spins));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Adaptive";
+        }
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Spins with onSpinWait up to spinCount times (Integer.MAX_VALUE for forever), checking ready each time. Returns true
+    // as soon as ready is seen, or false if we ran out of spins (or hit the deadline) first. Throws if interrupted.
+    private static boolean spinPhase(BooleanSupplier ready, int spinCount, boolean timed, long deadlineNanos) throws InterruptedException {
+        for (int i = 0; spinCount == FOREVER || i < spinCount; i++) {
+            if (ready.getAsBoolean()) {
+                return true;
+            }
+            if (isDone(timed, deadlineNanos)) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return spinCount > 0 && ready.getAsBoolean();
+    }
+
+    // Same as spinPhase, but gives up the CPU with Thread.yield between checks
+    private static boolean yieldPhase(BooleanSupplier ready, int yieldCount, boolean timed, long deadlineNanos) throws InterruptedException {
+        for (int i = 0; yieldCount == FOREVER || i < yieldCount; i++) {
+            if (ready.getAsBoolean()) {
+                return true;
+            }
+            if (isDone(timed, deadlineNanos)) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return yieldCount > 0 && ready.getAsBoolean();
+    }
+
+    // Throws if we were interrupted. Returns true if this is a timed wait and the deadline has passed.
+    private static boolean isDone(boolean timed, long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return timed && System.nanoTime() - deadlineNanos >= 0;
+    }
+}
@@ -0,0 +1,186 @@
+package com.theodorersmith.queue;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+// An explicit FIFO of parked threads, used in place of wait()/notifyAll() so a queue can wake exactly as many threads as
+// it has items (or free slots) for. Threads park with LockSupport outside of any queue lock, and are woken one at a time
+// with LockSupport.unpark.
+//
+// The handshake with the waking side is the same as the lock-free rings use: a waiter registers itself (volatile write)
+// BEFORE its final re-check of the queue, and the waking side reads hasWaiters() (volatile read) AFTER it publishes.
+// Either the waiter sees the new item/slot, or the waker sees the waiter - so a wakeup can't be lost.
+//
+// A waiter that gets woken but then gives up (because it was interrupted) passes the wakeup on to the next waiter, so a
+// wakeup is never swallowed by a thread that is leaving.
+final class WaiterQueue {
+
+    /////
+    ///// Member Variables
+    /////
+
+    // A single parked thread. Woken is set (under the lock) when the waiter is taken off the queue to be unparked.
+    // A thread only ever waits in one queue at a time, so each thread reuses the same Waiter (Parking doesn't allocate).
+    private static final ThreadLocal<Waiter> THREAD_WAITER = ThreadLocal.withInitial(() -> new Waiter(Thread.currentThread()));
+
+    private static final class Waiter {
+        private final Thread thread;
+        private volatile boolean woken;
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    // Only guards the waiter list itself - never held while a thread is parked, or while touching the queue being waited on
+    private final ReentrantLock waiterLock = new ReentrantLock();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    // The number of queued (not yet woken) waiters. Read without the lock on every enqueue/dequeue fast path.
+    private volatile int waitingCount;
+
+    /////
+    ///// Public Methods
+    /////
+
+    // The re-checks the bounded queues give their waiters: a free slot, or an item. A closed queue counts as ready too, so
+    // the thread goes back and finds out it's closed instead of parking.
+    static BooleanSupplier freeSlotOrClosed(IntSupplier length, IntSupplier capacity, BooleanSupplier closed) {
+        return () -> closed.getAsBoolean() || length.getAsInt() < capacity.getAsInt();
+    }
+
+    static BooleanSupplier itemOrClosed(IntSupplier length, BooleanSupplier closed) {
+        return () -> closed.getAsBoolean() || length.getAsInt() > 0;
+    }
+
+    // True if any thread is parked (or about to park) waiting for a wakeup
+    boolean hasWaiters() {
+        return waitingCount > 0;
+    }
+
+    // Parks the calling thread until it is woken, or ready returns true. If timed, gives up after remainingNanos. Returns
+    // the time left before the deadline (Only meaningful when timed). The caller re-checks the queue afterwards either
+    // way - a wakeup is a hint that an item/slot was published, not a promise that it is still there.
+    long await(BooleanSupplier ready, boolean timed, long remainingNanos) throws InterruptedException {
+        long deadline = timed ? System.nanoTime() + remainingNanos : 0L;
+        Waiter waiter = register();
+        try {
+            // Now that we are registered, anything published from here on will wake us - so re-check before we park.
+            while (!waiter.woken && !ready.getAsBoolean()) {
+                if (timed) {
+                    if (remainingNanos <= 0) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remainingNanos);
+                    remainingNanos = deadline - System.nanoTime();
+                } else {
+                    LockSupport.park(this);
+                }
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (InterruptedException iEx) {
+            // If we were woken on our way out, hand the wakeup to somebody who is still waiting
+            if (!cancel(waiter) && ready.getAsBoolean()) {
+                wake(1);
+            }
+            throw iEx;
+        }
+
+        cancel(waiter);
+        return remainingNanos;
+    }
+
+    // Waits until ready (or, if timed, until remainingNanos have passed) - first however the wait strategy says, and then
+    // parked here. Tells the wait strategy how long it waited. Returns the time left (Only meaningful when timed).
+    long await(WaitStrategy waitStrategy, BooleanSupplier ready, boolean timed, long remainingNanos) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long waitedNanos;
+        try {
+            if (!waitStrategy.spin(ready, timed, startNanos + remainingNanos)) {
+                await(ready, timed, remainingNanos - (System.nanoTime() - startNanos));
+            }
+        } finally {
+            waitedNanos = System.nanoTime() - startNanos;
+            waitStrategy.waitComplete(waitedNanos);
+        }
+        return remainingNanos - waitedNanos;
+    }
+
+    // Wakes the longest waiting thread (if there are any)
+    void wakeOne() {
+        wake(1);
+    }
+
+    // Wakes every waiting thread (For a queue that has been closed). Returns the number of threads woken.
+    int wakeAll() {
+        return wake(Integer.MAX_VALUE);
+    }
+
+    // Wakes up to wakeCount of the longest waiting threads. Returns the number of threads woken.
+    int wake(int wakeCount) {
+        if (wakeCount <= 0 || waitingCount == 0) {
+            return 0;
+        }
+
+        int woken = 0;
+        waiterLock.lock();
+        try {
+            Waiter waiter;
+            while (woken < wakeCount && (waiter = waiters.pollFirst()) != null) {
+                waiter.woken = true;
+                // unpark never blocks, so it is fine to do it under our (tiny) lock
+                LockSupport.unpark(waiter.thread);
+                woken++;
+            }
+            waitingCount = waiters.size();
+        } finally {
+            waiterLock.unlock();
+        }
+        return woken;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private Waiter register() {
+        Waiter waiter = THREAD_WAITER.get();
+        waiterLock.lock();
+        try {
+            // Our last wait took us off whichever queue we were in, so nobody else can be touching woken now
+            waiter.woken = false;
+            waiters.addLast(waiter);
+            waitingCount = waiters.size();
+        } finally {
+            waiterLock.unlock();
+        }
+        return waiter;
+    }
+
+    // Takes the waiter off the queue if it is still there. Returns false if it had already been woken.
+    private boolean cancel(Waiter waiter) {
+        if (waiter.woken) {
+            return false;
+        }
+
+        waiterLock.lock();
+        try {
+            if (waiter.woken) {
+                return false;
+            }
+            waiters.remove(waiter);
+            waitingCount = waiters.size();
+            return true;
+        } finally {
+            waiterLock.unlock();
+        }
+    }
+}
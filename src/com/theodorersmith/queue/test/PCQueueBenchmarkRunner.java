@@ -0,0 +1,442 @@
+package com.theodorersmith.queue.test;
+
+import com.theodorersmith.queue.LatencyHistogram;
+import com.theodorersmith.queue.test.modules.BenchTest_NThreadContention;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A headless version of PCQueueTestManager.benchAllQueues, for CI. Runs every benchmark queue over the benchmark scenarios
+// (with BenchTest_NThreadContention) and writes the results as JSON or CSV - one record per queue and scenario, with the
+// throughput, the latency percentiles and the garbage collections during the runs. Progress goes to stderr without any
+// color, so stdout can be redirected straight to a file.
+//
+// It can also compare a run against a stored baseline (a file it wrote before), and exits with 1 if any queue's throughput
+// dropped (or, optionally, its p99 latency rose) by more than a threshold - or if any run failed, or a result in the
+// baseline is missing from the run. A baseline that none of the results match (a stale one, or a full run's against
+// --quick) exits with 2, so the comparison can't pass by comparing nothing.
+//
+// Usage: java -cp target/benchmarks.jar com.theodorersmith.queue.test.PCQueueBenchmarkRunner [options] [queue types...]
+//        java -cp target/benchmarks.jar com.theodorersmith.queue.test.PCQueueBenchmarkRunner compare BASELINE CURRENT [options]
+//   --format json|csv         - the output format (default json, or csv if the output file ends in .csv)
+//   --output FILE             - write the results to FILE instead of stdout
+//   --runs N                  - measured runs per queue and scenario (default 3). The throughput is the median run's, and
+//                               the latency percentiles are over every object of every run.
+//   --warmup N                - unmeasured runs first (default 1)
+//   --quick                   - a tenth of the objects, one warmup and one measured run (for smoke testing)
+//   --baseline FILE           - after running, compare the results with FILE
+//   --threshold PCT           - a throughput drop of more than PCT percent is a regression (default 10)
+//   --latency-threshold PCT   - a p99 latency rise of more than PCT percent is a regression too (off by default - p99 is
+//                               much noisier than throughput on a shared machine)
+//   queue types               - only benchmark these queues (simple class names from BENCHMARK_QUEUE_TYPES)
+// Exit codes: 0 - no regressions, 1 - a regression, a failed run or a missing result, 2 - bad arguments, an unreadable
+// file or a baseline that doesn't match the run.
+public class PCQueueBenchmarkRunner {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_REGRESSION = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String[] CSV_COLUMNS = {
+            "implementation", "capacity", "producers", "consumers", "objects", "runs", "status",
+            "throughputOpsPerSec", "latencyP50Micros", "latencyP90Micros", "latencyP99Micros", "latencyP999Micros",
+            "latencyMaxMicros", "gcCount", "gcMillis"
+    };
+
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            exitCode = (args.length > 0 && args[0].equals("compare")) ? compareFiles(args) : runBenchmarks(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println("PCQueueBenchmarkRunner: " + ex.getMessage());
+            exitCode = EXIT_USAGE;
+        } catch (IOException ex) {
+            System.err.println("PCQueueBenchmarkRunner: Couldn't read or write a results file - " + ex);
+            exitCode = EXIT_USAGE;
+        }
+        System.exit(exitCode);
+    }
+
+    /////
+    ///// Modes
+    /////
+
+    private static int runBenchmarks(String[] args) throws IOException {
+        String format = null;
+        Path output = null;
+        Path baseline = null;
+        int runs = 3;
+        int warmupRuns = 1;
+        int objectsDivisor = 1;
+        double threshold = 10;
+        double latencyThreshold = -1;
+        List<String> queueTypes = new ArrayList<>();
+        // (Maven passes -Dbench.args through as a single argument, so split on whitespace as well)
+        String[] splitArgs = String.join(" ", args).trim().split("\\s+");
+        for (int i = 0; i < splitArgs.length; i++) {
+            String arg = splitArgs[i];
+            if (arg.isEmpty()) {
+                continue;
+            }
+            switch (arg) {
+                case "--format":
+                    format = optionValue(splitArgs, ++i, arg);
+                    break;
+                case "--output":
+                    output = Paths.get(optionValue(splitArgs, ++i, arg));
+                    break;
+                case "--runs":
+                    runs = parsePositive(optionValue(splitArgs, ++i, arg), arg);
+                    break;
+                case "--warmup":
+                    warmupRuns = Integer.parseInt(optionValue(splitArgs, ++i, arg));
+                    break;
+                case "--quick":
+                    objectsDivisor = 10;
+                    runs = 1;
+                    warmupRuns = 1;
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(optionValue(splitArgs, ++i, arg));
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(optionValue(splitArgs, ++i, arg));
+                    break;
+                case "--latency-threshold":
+                    latencyThreshold = Double.parseDouble(optionValue(splitArgs, ++i, arg));
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                    PCQueueTestManager.createBenchmarkQueue(arg, 1); // (Throws for an unknown queue type)
+                    queueTypes.add(arg);
+            }
+        }
+        if (queueTypes.isEmpty()) {
+            queueTypes.addAll(Arrays.asList(PCQueueTestManager.BENCHMARK_QUEUE_TYPES));
+        }
+        if (format == null) {
+            format = output != null && output.toString().endsWith(".csv") ? "csv" : "json";
+        }
+        if (!format.equals("json") && !format.equals("csv")) {
+            throw new IllegalArgumentException("Unknown format " + format + " (json or csv)");
+        }
+        // Read the baseline up front, so a bad path fails before the benchmarks rather than after
+        List<Map<String, String>> baselineRecords = baseline == null ? null : readRecords(baseline);
+
+        List<Map<String, String>> records = new ArrayList<>();
+        for (int[] scenario : PCQueueTestManager.BENCHMARK_SCENARIOS) {
+            for (String queueType : queueTypes) {
+                records.add(runScenario(queueType, scenario[0], scenario[1], scenario[2], scenario[3] / objectsDivisor, warmupRuns, runs));
+            }
+        }
+
+        String text = format.equals("csv") ? toCsv(records) : toJson(records);
+        if (output == null) {
+            System.out.print(text);
+            System.out.flush();
+        } else {
+            Files.write(output, text.getBytes(StandardCharsets.UTF_8));
+            System.err.println("Wrote " + records.size() + " results to " + output);
+        }
+
+        int exitCode = EXIT_OK;
+        for (Map<String, String> record : records) {
+            if (!record.get("status").equals("ok")) {
+                exitCode = EXIT_REGRESSION;
+            }
+        }
+        if (baselineRecords != null) {
+            // (Only the queues we ran have to be in the results - unless we ran them all)
+            boolean allQueues = queueTypes.equals(Arrays.asList(PCQueueTestManager.BENCHMARK_QUEUE_TYPES));
+            exitCode = Math.max(exitCode, compare(baselineRecords, records, allQueues ? null : queueTypes, threshold, latencyThreshold, System.err));
+        }
+        return exitCode;
+    }
+
+    private static int compareFiles(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Usage: compare BASELINE CURRENT [--threshold PCT] [--latency-threshold PCT]");
+        }
+        double threshold = 10;
+        double latencyThreshold = -1;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--threshold")) {
+                threshold = Double.parseDouble(optionValue(args, ++i, "--threshold"));
+            } else if (args[i].equals("--latency-threshold")) {
+                latencyThreshold = Double.parseDouble(optionValue(args, ++i, "--latency-threshold"));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Map<String, String>> baselineRecords = readRecords(Paths.get(args[1]));
+        List<Map<String, String>> currentRecords = readRecords(Paths.get(args[2]));
+        return compare(baselineRecords, currentRecords, null, threshold, latencyThreshold, System.out);
+    }
+
+    /////
+    ///// Benchmarking
+    /////
+
+    // Runs one queue in one scenario warmupRuns + runs times (a fresh queue each time), and combines the measured runs
+    // into one record
+    private static Map<String, String> runScenario(String queueType, int capacity, int producers, int consumers, int numObjects, int warmupRuns, int runs) {
+        System.err.print(queueType + " (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects) - ");
+
+        List<Double> throughputs = new ArrayList<>();
+        LatencyHistogram latencies = new LatencyHistogram();
+        long gcCount = 0;
+        long gcMillis = 0;
+        String failure = null;
+        for (int run = 0; run < warmupRuns + runs && failure == null; run++) {
+            ExecutorService threadPool = Executors.newCachedThreadPool();
+            try {
+                BenchTest_NThreadContention.Result result = BenchTest_NThreadContention.measure(threadPool,
+                        PCQueueTestManager.createBenchmarkQueue(queueType, capacity), producers, 0, consumers, 0, numObjects, 1,
+                        PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+                failure = result.getFailure();
+                if (failure == null && run >= warmupRuns) {
+                    throughputs.add(result.getThroughput());
+                    latencies.add(result.getLatencies());
+                    gcCount += result.getGcCount();
+                    gcMillis += result.getGcMillis();
+                }
+            } finally {
+                threadPool.shutdownNow();
+            }
+        }
+
+        Map<String, String> record = new LinkedHashMap<>();
+        record.put("implementation", queueType);
+        record.put("capacity", String.valueOf(capacity));
+        record.put("producers", String.valueOf(producers));
+        record.put("consumers", String.valueOf(consumers));
+        record.put("objects", String.valueOf(numObjects));
+        record.put("runs", String.valueOf(throughputs.size()));
+        record.put("status", failure == null ? "ok" : "failed");
+        if (failure != null) {
+            System.err.println("FAILED: " + failure);
+            return record;
+        }
+
+        throughputs.sort(null);
+        record.put("throughputOpsPerSec", String.format(Locale.ROOT, "%.0f", throughputs.get(throughputs.size() / 2)));
+        record.put("latencyP50Micros", micros(latencies.getValueAtPercentile(50)));
+        record.put("latencyP90Micros", micros(latencies.getValueAtPercentile(90)));
+        record.put("latencyP99Micros", micros(latencies.getValueAtPercentile(99)));
+        record.put("latencyP999Micros", micros(latencies.getValueAtPercentile(99.9)));
+        record.put("latencyMaxMicros", micros(latencies.getMax()));
+        record.put("gcCount", String.valueOf(gcCount));
+        record.put("gcMillis", String.valueOf(gcMillis));
+        System.err.println(record.get("throughputOpsPerSec") + " ops/s; p99 " + record.get("latencyP99Micros") + " us");
+        return record;
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    /////
+    ///// Comparison
+    /////
+
+    // Prints each current result next to its baseline, and returns the exit code - EXIT_REGRESSION if any of them
+    // regressed (or failed), or if a baseline result has no current one (a queue that was renamed or dropped), and
+    // EXIT_USAGE if no current result has a baseline at all. Results with no baseline (a new queue or scenario) are
+    // reported, but aren't a regression. queueTypes limits the baseline results that must be matched to those queues
+    // (null for all of them).
+    private static int compare(List<Map<String, String>> baselineRecords, List<Map<String, String>> currentRecords,
+                               List<String> queueTypes, double threshold, double latencyThreshold, PrintStream out) {
+        Map<String, Map<String, String>> baselineByKey = new LinkedHashMap<>();
+        for (Map<String, String> record : baselineRecords) {
+            baselineByKey.put(recordKey(record), record);
+        }
+
+        boolean regressed = false;
+        Set<String> matchedKeys = new HashSet<>();
+        out.println(String.format("%-40s %-16s %14s %14s %8s %12s %12s %8s", "Queue", "Scenario", "Baseline ops/s", "Current ops/s", "Change", "Baseline p99", "Current p99", "Change"));
+        for (Map<String, String> current : currentRecords) {
+            String scenario = current.get("capacity") + "/" + current.get("producers") + "/" + current.get("consumers") + "/" + current.get("objects");
+            Map<String, String> base = baselineByKey.get(recordKey(current));
+            if (base != null) {
+                matchedKeys.add(recordKey(current));
+            }
+            String prefix = String.format("%-40s %-16s", current.get("implementation"), scenario);
+            if (!"ok".equals(current.get("status"))) {
+                out.println(prefix + " FAILED");
+                regressed = true;
+                continue;
+            }
+            if (base == null || !"ok".equals(base.get("status"))) {
+                out.println(prefix + " (no baseline)");
+                continue;
+            }
+
+            double baseThroughput = Double.parseDouble(base.get("throughputOpsPerSec"));
+            double currentThroughput = Double.parseDouble(current.get("throughputOpsPerSec"));
+            double baseP99 = Double.parseDouble(base.get("latencyP99Micros"));
+            double currentP99 = Double.parseDouble(current.get("latencyP99Micros"));
+            double throughputChange = percentChange(baseThroughput, currentThroughput);
+            double p99Change = percentChange(baseP99, currentP99);
+            boolean throughputRegressed = throughputChange < -threshold;
+            boolean latencyRegressed = latencyThreshold >= 0 && p99Change > latencyThreshold;
+            regressed |= throughputRegressed || latencyRegressed;
+
+            out.println(prefix + String.format(Locale.ROOT, " %14.0f %14.0f %+7.1f%% %12.1f %12.1f %+7.1f%%%s",
+                    baseThroughput, currentThroughput, throughputChange, baseP99, currentP99, p99Change,
+                    throughputRegressed || latencyRegressed ? "  REGRESSED" : ""));
+        }
+
+        // Baseline results the run should have had, but didn't
+        for (Map<String, String> base : baselineRecords) {
+            if (!matchedKeys.contains(recordKey(base)) && (queueTypes == null || queueTypes.contains(base.get("implementation")))) {
+                String scenario = base.get("capacity") + "/" + base.get("producers") + "/" + base.get("consumers") + "/" + base.get("objects");
+                out.println(String.format("%-40s %-16s", base.get("implementation"), scenario) + " MISSING (in the baseline, but not in this run)");
+                regressed = true;
+            }
+        }
+
+        if (matchedKeys.isEmpty()) {
+            out.println("No results match the baseline - it is stale, or was run with different options (--quick changes the object counts)");
+            return EXIT_USAGE;
+        }
+        out.println(regressed
+                ? "Regressions found (throughput threshold " + threshold + "%" + (latencyThreshold >= 0 ? "; p99 threshold " + latencyThreshold + "%" : "") + ")"
+                : "No regressions");
+        return regressed ? EXIT_REGRESSION : EXIT_OK;
+    }
+
+    private static String recordKey(Map<String, String> record) {
+        return record.get("implementation") + "/" + record.get("capacity") + "/" + record.get("producers") + "/" + record.get("consumers") + "/" + record.get("objects");
+    }
+
+    private static double percentChange(double base, double current) {
+        return base == 0 ? 0 : (current - base) / base * 100;
+    }
+
+    /////
+    ///// Reading and Writing Results
+    /////
+
+    private static String toJson(List<Map<String, String>> records) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"javaVersion\": \"").append(escapeJson(System.getProperty("java.version"))).append("\",\n");
+        json.append("  \"availableProcessors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"results\": [\n");
+        for (int i = 0; i < records.size(); i++) {
+            json.append("    {");
+            boolean first = true;
+            for (Map.Entry<String, String> field : records.get(i).entrySet()) {
+                json.append(first ? "" : ", ").append('"').append(field.getKey()).append("\": ");
+                // Everything but the implementation and status is a number
+                boolean isText = field.getKey().equals("implementation") || field.getKey().equals("status");
+                json.append(isText ? "\"" + escapeJson(field.getValue()) + "\"" : field.getValue());
+                first = false;
+            }
+            json.append(i < records.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("  ]\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String toCsv(List<Map<String, String>> records) {
+        StringBuilder csv = new StringBuilder(String.join(",", CSV_COLUMNS)).append('\n');
+        for (Map<String, String> record : records) {
+            for (int i = 0; i < CSV_COLUMNS.length; i++) {
+                csv.append(i > 0 ? "," : "").append(record.getOrDefault(CSV_COLUMNS[i], ""));
+            }
+            csv.append('\n');
+        }
+        return csv.toString();
+    }
+
+    // Reads the records back from a JSON or CSV file written by this runner. (This isn't a general JSON parser - it only
+    // handles what toJson writes: flat result objects of string and number fields)
+    private static List<Map<String, String>> readRecords(Path path) throws IOException {
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        List<Map<String, String>> records = new ArrayList<>();
+        if (text.trim().startsWith("{")) {
+            Matcher objectMatcher = Pattern.compile("\\{[^{}]*}").matcher(text);
+            Pattern fieldPattern = Pattern.compile("\"(\\w+)\"\\s*:\\s*(\"(?:[^\"\\\\]|\\\\.)*\"|[-+0-9.eE]+)");
+            while (objectMatcher.find()) {
+                Map<String, String> record = new LinkedHashMap<>();
+                Matcher fieldMatcher = fieldPattern.matcher(objectMatcher.group());
+                while (fieldMatcher.find()) {
+                    String value = fieldMatcher.group(2);
+                    record.put(fieldMatcher.group(1), value.startsWith("\"") ? unescapeJson(value.substring(1, value.length() - 1)) : value);
+                }
+                if (record.containsKey("implementation")) {
+                    records.add(record);
+                }
+            }
+        } else {
+            List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) {
+                throw new IllegalArgumentException(path + " is empty");
+            }
+            String[] header = lines.get(0).split(",");
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] values = line.split(",", -1);
+                Map<String, String> record = new LinkedHashMap<>();
+                for (int i = 0; i < header.length && i < values.length; i++) {
+                    record.put(header[i].trim(), values[i].trim());
+                }
+                records.add(record);
+            }
+        }
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("No benchmark results in " + path);
+        }
+        return records;
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String unescapeJson(String value) {
+        return value.replaceAll("\\\\(.)", "$1");
+    }
+
+    /////
+    ///// Argument Helpers
+    /////
+
+    private static String optionValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static int parsePositive(String value, String option) {
+        int parsed = Integer.parseInt(value);
+        if (parsed < 1) {
+            throw new IllegalArgumentException(option + " must be at least 1");
+        }
+        return parsed;
+    }
+}
@@ -1,7 +1,11 @@
 package com.theodorersmith.queue.test;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 // This class organize some static helper methods to assist with testing and output
@@ -17,6 +21,10 @@ public class PCQueueTestHelpers {
     public static final int CONST_TIMEOUT_LONG = 20000;
     public static final int CONST_TIMEOUT_XLONG = 30000;
 
+    // How late a timed enqueue/dequeue may return and still count as honoring its timeout (ms). Generous, since the
+    // scheduler can always add some lag on a busy machine.
+    public static final int CONST_TIMEOUT_TOLERANCE = 50;
+
     // Default number of objects we run contention tests for;
     public static final int CONST_DEFAULT_SMALL_CONTENTIONOBJECTCOUNT = 1000;
     public static final int CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT = 20000;
@@ -66,6 +74,40 @@ public class PCQueueTestHelpers {
         }
     }
 
+    // Deletes a (test queue's) directory and everything in it. Quietly leaves behind anything it can't delete.
+    public static void deleteDirectory(Path directory) {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file.toPath());
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    // Returns an executor that starts a new virtual thread for every task, or null if this JVM doesn't have virtual
+    // threads. (They need Java 21, and the project still builds for 17 - so the factory is looked up at runtime)
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    // True if this JVM has virtual threads (Checks for the factory without creating an executor)
+    public static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException ex) {
+            return false;
+        }
+    }
 
 
     /////
@@ -110,6 +152,12 @@ public class PCQueueTestHelpers {
         System.out.println();
     }
 
+    // Prints a success string with benchmark and some extra benchmark details, followed by newline
+    public static void printSuccess(long benchmark, String details) {
+        System.out.print(COLOR_GREEN + "Success (" + benchmark + " ms; " + details + ")" + COLOR_DEFAULT);
+        System.out.println();
+    }
+
     // Prints the name of the passed object runtime class in blue
     public static void printClassNameBlue(Object nameObj) {
         System.out.print(COLOR_CYAN + nameObj.getClass().getSimpleName() + COLOR_DEFAULT);
@@ -117,4 +165,10 @@ public class PCQueueTestHelpers {
     public static void printClassNamePurple(Object nameObj) {
         System.out.print(COLOR_PURPLE + nameObj.getClass().getSimpleName() + COLOR_DEFAULT);
     }
+    public static void printClassNameBlue(Class<?> nameClass) {
+        System.out.print(COLOR_CYAN + nameClass.getSimpleName() + COLOR_DEFAULT);
+    }
+    public static void printClassNamePurple(Class<?> nameClass) {
+        System.out.print(COLOR_PURPLE + nameClass.getSimpleName() + COLOR_DEFAULT);
+    }
 }
@@ -1,14 +1,159 @@
 package com.theodorersmith.queue.test;
 
+import com.theodorersmith.queue.ProducerConsumerAsyncQueue;
+import com.theodorersmith.queue.ProducerConsumerBroadcastRing;
 import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.ProducerConsumerDoubleQueue;
+import com.theodorersmith.queue.ProducerConsumerElasticQueue;
+import com.theodorersmith.queue.ProducerConsumerEventRing;
+import com.theodorersmith.queue.ProducerConsumerIntQueue;
+import com.theodorersmith.queue.ProducerConsumerLongQueue;
+import com.theodorersmith.queue.ProducerConsumerMpmcQueue;
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue;
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue.FlushMode;
+import com.theodorersmith.queue.ProducerConsumerPipeline;
+import com.theodorersmith.queue.ProducerConsumerPriorityQueue;
 import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.ProducerConsumerQueues.ThreadingMode;
+import com.theodorersmith.queue.ProducerConsumerRecordQueue;
+import com.theodorersmith.queue.ProducerConsumerShardedQueue;
+import com.theodorersmith.queue.ProducerConsumerShardedQueue.ShardSelection;
+import com.theodorersmith.queue.ProducerConsumerSpmcQueue;
+import com.theodorersmith.queue.ProducerConsumerMpscQueue;
+import com.theodorersmith.queue.ProducerConsumerSpscQueue;
+import com.theodorersmith.queue.QueueMetrics;
+import com.theodorersmith.queue.WaitStrategy;
 import com.theodorersmith.queue.test.implementations.*;
 import com.theodorersmith.queue.test.modules.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.ToIntFunction;
 
 public class PCQueueTestManager {
 
+    /////
+    ///// Benchmark Configuration (Shared with the JMH suite in com.theodorersmith.queue.test.benchmarks)
+    /////
+
+    // The benchmark scenario matrix: { capacity, producers, consumers, number of objects }
+    public static final int[][] BENCHMARK_SCENARIOS = {
+            {1, 5, 5, 100000},
+            {10, 10, 10, 100000},
+            {10, 100, 100, 20000},
+            {100, 100, 100, 100000}
+    };
+
+    // The queue implementations compared by the benchmarks (by simple class name). The first is the default implementation.
+    public static final String[] BENCHMARK_QUEUE_TYPES = {
+            "ProducerConsumerConcurrentQueue",
+            "ConcurrentDoubleSyncArrayPCQueue",
+            "ConcurrentNotifyAllArrayPCQueue",
+            "ConcurrentTwoConditionLockArrayPCQueue",
+            "JavaReferenceArrayPCQueue",
+            "JavaReferenceLinkedPCQueue",
+            "ProducerConsumerMpmcQueue",
+            "ProducerConsumerShardedQueue"
+    };
+
+    // The fan-out (consumer group) counts the broadcast ring benchmarks run at
+    public static final int[] BROADCAST_GROUP_COUNTS = {1, 4, 16};
+
+    // The batch sizes the consumer worker pool benchmarks compare with dequeue() per item
+    public static final int[] WORKER_POOL_BATCH_SIZES = {1, 16, 64};
+
+    // The worker counts for the pipeline benchmarks' three stages: { decode, enrich, persist }
+    public static final int[][] PIPELINE_STAGE_WORKERS = {
+            {1, 1, 1},
+            {2, 2, 2},
+            {1, 4, 1}
+    };
+
+    // The queue implementations compared by the thread scaling benchmarks, and the thread counts (per side) they run at
+    public static final String[] SCALING_QUEUE_TYPES = {
+            "ProducerConsumerConcurrentQueue",
+            "ProducerConsumerMpmcQueue",
+            "JavaReferenceArrayPCQueue",
+            "ProducerConsumerShardedQueue"
+    };
+    public static final int[] SCALING_THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+    // The virtual thread benchmarks run the benchmark scenarios, then these much wider ones. Only the queues that never
+    // block in a monitor (synchronized / Object.wait) are included - the others pin a carrier thread for every blocked
+    // virtual thread, and once every carrier is pinned they just stall. (ConcurrentTwoConditionLockArrayPCQueue waits on
+    // a Condition, but its dequeue is synchronized, so it pins too)
+    public static final int[][] VIRTUAL_THREAD_SCENARIOS = {
+            {100, 1000, 1000, 100000},
+            {1000, 10000, 10000, 100000},
+            {1000, 100000, 100000, 200000}
+    };
+    public static final String[] VIRTUAL_THREAD_QUEUE_TYPES = {
+            "ProducerConsumerConcurrentQueue",
+            "JavaReferenceArrayPCQueue",
+            "JavaReferenceLinkedPCQueue",
+            "ProducerConsumerMpmcQueue",
+            "ProducerConsumerShardedQueue"
+    };
+
+    // The wait strategies compared by the wait strategy benchmarks
+    public static final String[] WAIT_STRATEGY_NAMES = {
+            "Blocking",
+            "SpinThenPark",
+            "Adaptive",
+            "SpinThenYield",
+            "BusySpin"
+    };
+
+    // Creates a new wait strategy from its name
+    public static WaitStrategy createWaitStrategy(String strategyName) {
+        switch (strategyName) {
+            case "Blocking":
+                return WaitStrategy.blocking();
+            case "SpinThenPark":
+                return WaitStrategy.spinThenPark();
+            case "Adaptive":
+                return WaitStrategy.adaptive();
+            case "SpinThenYield":
+                return WaitStrategy.spinThenYield();
+            case "BusySpin":
+                return WaitStrategy.busySpin();
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy: " + strategyName);
+        }
+    }
+
+    // Creates an empty benchmark queue from its simple class name
+    public static TestableQueue<Object> createBenchmarkQueue(String queueType, int capacity) {
+        switch (queueType) {
+            case "ProducerConsumerConcurrentQueue":
+                return new ProducerConsumerConcurrentQueue<>(capacity);
+            case "ConcurrentDoubleSyncArrayPCQueue":
+                return new ConcurrentDoubleSyncArrayPCQueue<>(capacity);
+            case "ConcurrentNotifyAllArrayPCQueue":
+                return new ConcurrentNotifyAllArrayPCQueue<>(capacity);
+            case "ConcurrentTwoConditionLockArrayPCQueue":
+                return new ConcurrentTwoConditionLockArrayPCQueue<>(capacity);
+            case "JavaReferenceArrayPCQueue":
+                return new JavaReferenceArrayPCQueue<>(capacity);
+            case "JavaReferenceLinkedPCQueue":
+                return new JavaReferenceLinkedPCQueue<>(capacity);
+            case "ProducerConsumerMpmcQueue":
+                return new ProducerConsumerMpmcQueue<>(capacity);
+            case "ProducerConsumerShardedQueue":
+                return new ProducerConsumerShardedQueue<>(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown benchmark queue type: " + queueType);
+        }
+    }
+
+    /////
+    ///// Console Test and Benchmark Entry Points
+    /////
+
     public static void runDefaultTest() {
         System.out.println(" --- Running the Default Test Exercise  ---");
         System.out.println("Capacity: 5; Producers: 5; Consumers: 5; 1000 Objects)");
@@ -22,31 +167,231 @@ public class PCQueueTestManager {
 
     // Runs suite of tests on all queue implementations
     public static void testAllQueues() {
+        TestableQueue<Object> concurrentQueue = new ProducerConsumerConcurrentQueue<>(10);
         TestableQueue<Object> notifyAllArrayQueue = new ConcurrentNotifyAllArrayPCQueue<>(10);
         TestableQueue<Object> twoConditionArrayQueue = new ConcurrentTwoConditionLockArrayPCQueue<>(10);
         TestableQueue<Object> doubleSyncArrayQueue = new ConcurrentDoubleSyncArrayPCQueue<>(10);
         TestableQueue<Object> javaReferenceArrayQueue = new JavaReferenceArrayPCQueue<>(10);
         TestableQueue<Object> javaReferenceLinkQueue = new JavaReferenceLinkedPCQueue<>(10);
+        TestableQueue<Object> mpmcRingQueue = new ProducerConsumerMpmcQueue<>(10);
+        TestableQueue<Object> recordQueue = new RecordQueueObjectAdapter(new ProducerConsumerRecordQueue(10, Long.BYTES));
+        TestableQueue<Object> shardedQueue = new ProducerConsumerShardedQueue<>(10, 4);
+        TestableQueue<Object> asyncQueue = new ProducerConsumerAsyncQueue<>(10);
+        TestableQueue<Object> priorityQueue = new ProducerConsumerPriorityQueue<>(10, 4);
+        TestableQueue<Object> elasticQueue = new ProducerConsumerElasticQueue<>(2, 10, 2, WaitStrategy.blocking());
 
+        PCQueueTestManager.runAllTestsOnQueue(concurrentQueue);
         PCQueueTestManager.runAllTestsOnQueue(notifyAllArrayQueue);
         PCQueueTestManager.runAllTestsOnQueue(twoConditionArrayQueue);
         PCQueueTestManager.runAllTestsOnQueue(doubleSyncArrayQueue);
         PCQueueTestManager.runAllTestsOnQueue(javaReferenceArrayQueue);
         PCQueueTestManager.runAllTestsOnQueue(javaReferenceLinkQueue);
+        PCQueueTestManager.runAllTestsOnQueue(mpmcRingQueue);
+        PCQueueTestManager.runAllTestsOnQueue(recordQueue);
+        PCQueueTestManager.runAllTestsOnQueue(shardedQueue);
+        PCQueueTestManager.runAllTestsOnQueue(asyncQueue);
+        PCQueueTestManager.runAllTestsOnQueue(priorityQueue);
+        PCQueueTestManager.runAllTestsOnQueue(elasticQueue);
     }
 
     // Runs a basic stopwatch benchmark on all queue implementations
     public static void benchAllQueues() {
         System.out.println(" --- Running Benchmarks for All PC Queue Implementations ---");
 
-        runBenchmarks(1, 5,5, 100000);
-        runBenchmarks(10, 10,10, 100000);
-        runBenchmarks(10, 100, 100, 20000);
-        runBenchmarks(100, 100, 100, 100000);
+        for (int[] scenario : BENCHMARK_SCENARIOS) {
+            runBenchmarks(scenario[0], scenario[1], scenario[2], scenario[3], 1);
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs the stopwatch benchmark on virtual threads (one per producer / consumer) - the benchmark scenarios, and then up
+    // to 100,000 producers and 100,000 consumers. Needs Java 21.
+    public static void benchVirtualThreads() {
+        if (!PCQueueTestHelpers.supportsVirtualThreads()) {
+            System.out.println("PCQueueTestManager->benchVirtualThreads: Virtual threads need Java 21 or later (Running " + System.getProperty("java.version") + ")");
+            return;
+        }
+
+        System.out.println(" --- Running Virtual Thread Benchmarks ---");
+
+        for (int[] scenario : BENCHMARK_SCENARIOS) {
+            runBenchmarks(VIRTUAL_THREAD_QUEUE_TYPES, scenario[0], scenario[1], scenario[2], scenario[3], 1, true);
+        }
+        for (int[] scenario : VIRTUAL_THREAD_SCENARIOS) {
+            runBenchmarks(VIRTUAL_THREAD_QUEUE_TYPES, scenario[0], scenario[1], scenario[2], scenario[3], 1, true);
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs the stopwatch benchmark with single item and batched (enqueueAll / drainTo) producers and consumers
+    public static void benchBatchedQueues() {
+        System.out.println(" --- Running Batch Benchmarks for All PC Queue Implementations ---");
+
+        runBenchmarks(1024, 10, 10, 200000, 1);
+        runBenchmarks(1024, 10, 10, 200000, 64);
+        runBenchmarks(1024, 10, 10, 200000, 1024);
+        runBenchmarks(100, 100, 100, 200000, 1);
+        runBenchmarks(100, 100, 100, 200000, 64);
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs the basic functional tests and the 1x1 / Nx1 / 1xN thread shape benchmarks on the single producer and/or
+    // single consumer rings from ProducerConsumerQueues. (The high concurrency tests would break their threading rules)
+    public static void benchSpecializedQueues() {
+        System.out.println(" --- Running Tests and Benchmarks for SPSC / MPSC / SPMC Queues ---");
+
+        PCQueueTestManager.runBasicFunctionalTestsOnQueue(new ProducerConsumerSpscQueue<>(10), 1, 1);
+        PCQueueTestManager.runBasicFunctionalTestsOnQueue(new ProducerConsumerMpscQueue<>(10), 10, 1);
+        PCQueueTestManager.runBasicFunctionalTestsOnQueue(new ProducerConsumerSpmcQueue<>(10), 1, 10);
+
+        runShapeBenchmarks(1, 5, 100000);
+        runShapeBenchmarks(10, 10, 100000);
+        runShapeBenchmarks(100, 100, 100000);
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Compares context switches for the default implementation (one wakeup per item) against the original notifyAll
+    // wakeup protocol (ConcurrentDoubleSyncArrayPCQueue) and the other blocking implementations. Needs Linux (/proc).
+    public static void benchContextSwitches() {
+        System.out.println(" --- Running Context Switch Benchmarks ---");
+
+        runContextSwitchBenchmarks(1, 200, 200, 20000);
+        runContextSwitchBenchmarks(10, 200, 200, 20000);
+        runContextSwitchBenchmarks(10, 10, 100, 100000);
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Compares the latency/CPU tradeoff of each WaitStrategy on the default implementation and the MPMC ring
+    public static void benchWaitStrategies() {
+        System.out.println(" --- Running Wait Strategy Benchmarks ---");
+
+        runWaitStrategyBenchmarks(1024, 1, 1, 100000, 0);
+        runWaitStrategyBenchmarks(1024, 1, 1, 50000, 5);
+        runWaitStrategyBenchmarks(1024, 4, 4, 100000, 0);
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Tests the int/long/double queues, then compares how much a ProducerConsumerQueue<Long> and the primitive long queue
+    // allocate per item
+    public static void benchPrimitiveQueues() {
+        System.out.println(" --- Running Tests and Allocation Benchmarks for Primitive Queues ---");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            // Capacity 10 (backed by 16 slots), to check the logical capacity is enforced
+            Test_PrimitiveQueue.run(threadPool, Test_PrimitiveQueue.adapt(new ProducerConsumerIntQueue(10)), 5, 5, PCQueueTestHelpers.CONST_DEFAULT_LARGE_CONTENTIONOBJECTCOUNT);
+            Test_PrimitiveQueue.run(threadPool, Test_PrimitiveQueue.adapt(new ProducerConsumerLongQueue(10)), 5, 5, PCQueueTestHelpers.CONST_DEFAULT_LARGE_CONTENTIONOBJECTCOUNT);
+            Test_PrimitiveQueue.run(threadPool, Test_PrimitiveQueue.adapt(new ProducerConsumerDoubleQueue(10)), 5, 5, PCQueueTestHelpers.CONST_DEFAULT_LARGE_CONTENTIONOBJECTCOUNT);
+            Test_PrimitiveQueue.run(threadPool, Test_PrimitiveQueue.adapt(new ProducerConsumerLongQueue(1)), 2, 2, PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT);
+
+            System.out.println(" --- Benchmarking Allocation (Capacity: 1024; Producers: 1; Consumers: 1; 1000000 Objects)");
+            ProducerConsumerQueue<Long> boxedQueue = new ProducerConsumerConcurrentQueue<>(1024);
+            ProducerConsumerLongQueue primitiveQueue = new ProducerConsumerLongQueue(1024);
+            PCQueueTestHelpers.printClassNameBlue(boxedQueue);
+            System.out.print("<Long> - ");
+            BenchTest_Allocation.runBoxed(threadPool, boxedQueue, 1000000, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            PCQueueTestHelpers.printClassNamePurple(primitiveQueue);
+            System.out.print(" - ");
+            BenchTest_Allocation.runPrimitive(threadPool, primitiveQueue, 1000000, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Tests QueueMetrics (and the full suite on an instrumented default implementation), then compares the default
+    // implementation with metrics off and on at the benchmark scenarios, printing what the metrics saw
+    public static void benchQueueMetrics() {
+        System.out.println(" --- Running Tests and Overhead Benchmarks for Queue Metrics ---");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("QueueMetrics", "Running Metrics Tests");
+            if (Test_QueueMetrics.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("QueueMetrics", "Metrics Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("QueueMetrics", "Metrics TEST FAILED");
+        } finally {
+            threadPool.shutdownNow();
+        }
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerConcurrentQueue<>(10, WaitStrategy.blocking(), new QueueMetrics()));
+
+        for (int[] scenario : BENCHMARK_SCENARIOS) {
+            runMetricsBenchmarks(scenario[0], scenario[1], scenario[2], scenario[3]);
+        }
 
         System.out.println(" --- Benchmarks Complete ---");
     }
 
+    // Tests the elastic queue, then compares its memory footprint under a bursty load with the default implementation sized
+    // for the peak, and checks that it doesn't allocate per item while under its soft capacity
+    public static void benchElasticQueue() {
+        System.out.println(" --- Running Tests and Footprint Benchmarks for the Elastic Queue ---");
+
+        testElasticQueue();
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            runFootprintBenchmarks(threadPool, 1, 1);
+            runFootprintBenchmarks(threadPool, 4, 2);
+
+            System.out.println(" --- Benchmarking Allocation under the Soft Capacity (Capacity: 1024; Producers: 1; Consumers: 1; 1000000 Objects)");
+            ProducerConsumerQueue<Long> fixedQueue = new ProducerConsumerConcurrentQueue<>(1024);
+            // (The hard capacity is the soft one here, so a producer running ahead can't make it grow - we want the cost of
+            // going round the ring, which should be nothing on top of the boxing)
+            ProducerConsumerQueue<Long> elasticQueue = new ProducerConsumerElasticQueue<>(1024, 1024);
+            PCQueueTestHelpers.printClassNamePurple(fixedQueue);
+            System.out.print("<Long> - ");
+            BenchTest_Allocation.runBoxed(threadPool, fixedQueue, 1000000, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            PCQueueTestHelpers.printClassNameBlue(elasticQueue);
+            System.out.print("<Long> - ");
+            BenchTest_Allocation.runBoxed(threadPool, elasticQueue, 1000000, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs the elastic queue specific tests (growth, shrink back, no growth under the soft capacity), then the full suite
+    // with the hard capacity as the capacity. (Soft capacity 2 in chunks of 2, so the suite makes it grow and shrink)
+    public static void testElasticQueue() {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerElasticQueue", "Running Elastic Tests");
+            if (Test_ElasticQueue.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerElasticQueue", "Elastic Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerElasticQueue", "Elastic TEST FAILED");
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerElasticQueue<>(1, 1));
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerElasticQueue<>(2, 10, 2, WaitStrategy.blocking()));
+    }
+
+    // Runs three different capacity tests on the default implementation, plus one with power of two indexing
+    public static void testConcurrentQueue() {
+        TestableQueue<Object> concurrentQueueOne = new ProducerConsumerConcurrentQueue<>(1);
+        TestableQueue<Object> concurrentQueueTwo = new ProducerConsumerConcurrentQueue<>(2);
+        TestableQueue<Object> concurrentQueueTen = new ProducerConsumerConcurrentQueue<>(10);
+        // Power of two indexing - backed by 16 slots, but must still stop at 10 items
+        TestableQueue<Object> concurrentQueueTenMasked = new ProducerConsumerConcurrentQueue<>(10, WaitStrategy.blocking(), true, true);
+
+        PCQueueTestManager.runAllTestsOnQueue(concurrentQueueOne);
+        PCQueueTestManager.runAllTestsOnQueue(concurrentQueueTwo);
+        PCQueueTestManager.runAllTestsOnQueue(concurrentQueueTen);
+        PCQueueTestManager.runAllTestsOnQueue(concurrentQueueTenMasked);
+    }
+
     // Runs two different capacity tests on the notifyAll implementation
     public static void testNotifyAllQueue() {
         TestableQueue<Object> notifyAllArrayQueueTwo = new ConcurrentNotifyAllArrayPCQueue<>(2);
@@ -65,40 +410,544 @@ public class PCQueueTestManager {
         PCQueueTestManager.runAllTestsOnQueue(twoConditionQueueTen);
     }
 
-    // Runs two different capacity tests on the double sync implementation
+    // Runs two different capacity tests on the double sync implementation, plus one with power of two indexing
     public static void testDoubleSyncQueue() {
         TestableQueue<Object> doubleSyncQueueTwo = new ConcurrentDoubleSyncArrayPCQueue<>(2);
         TestableQueue<Object> doubleSyncQueueTen = new ConcurrentDoubleSyncArrayPCQueue<>(10);
+        TestableQueue<Object> doubleSyncQueueTenMasked = new ConcurrentDoubleSyncArrayPCQueue<>(10, true);
 
         PCQueueTestManager.runAllTestsOnQueue(doubleSyncQueueTwo);
         PCQueueTestManager.runAllTestsOnQueue(doubleSyncQueueTen);
+        PCQueueTestManager.runAllTestsOnQueue(doubleSyncQueueTenMasked);
+    }
+
+    // Runs the record specific tests, then the full suite on a direct buffer queue and a memory mapped one (Through
+    // RecordQueueObjectAdapter, since the suite works with Objects)
+    public static void testRecordQueue() {
+        Path queueFile = null;
+        try {
+            queueFile = Files.createTempFile("pcqueue-records", ".dat");
+            Files.delete(queueFile);
+            Test_RecordQueue.run(queueFile);
+
+            TestableQueue<Object> directQueueTen = new RecordQueueObjectAdapter(new ProducerConsumerRecordQueue(10, Long.BYTES));
+            TestableQueue<Object> mappedQueueTen = new RecordQueueObjectAdapter(new ProducerConsumerRecordQueue(queueFile, 10, Long.BYTES));
+            PCQueueTestManager.runAllTestsOnQueue(directQueueTen);
+            PCQueueTestManager.runAllTestsOnQueue(mappedQueueTen);
+        } catch (IOException ex) {
+            System.out.println("PCQueueTestManager->testRecordQueue: Couldn't create a queue file - " + ex.getMessage());
+        } finally {
+            if (queueFile != null) {
+                queueFile.toFile().delete();
+            }
+        }
+    }
+
+    // Runs the suite on the sharded queue - a single shard, capacity one, and shards of uneven size. Round robin producers
+    // spread even a single thread's items over the shards, so they aren't FIFO and only get the high concurrency tests.
+    public static void testShardedQueue() {
+        TestableQueue<Object> shardedQueueOneShard = new ProducerConsumerShardedQueue<>(10, 1);
+        TestableQueue<Object> shardedQueueOne = new ProducerConsumerShardedQueue<>(1, 4);
+        TestableQueue<Object> shardedQueueTen = new ProducerConsumerShardedQueue<>(10, 4);
+        TestableQueue<Object> shardedQueueTenRoundRobin = new ProducerConsumerShardedQueue<>(10, 3, ShardSelection.ROUND_ROBIN, WaitStrategy.blocking());
+
+        PCQueueTestManager.runAllTestsOnQueue(shardedQueueOneShard);
+        PCQueueTestManager.runAllTestsOnQueue(shardedQueueOne);
+        PCQueueTestManager.runAllTestsOnQueue(shardedQueueTen);
+        if (PCQueueTestManager.runHighConcurrencyTestsOnQueue(shardedQueueTenRoundRobin))
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerShardedQueue", "Round Robin Tests Successful");
+        else
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerShardedQueue", "Round Robin TEST FAILED");
+    }
+
+    // Runs the async specific tests (pending futures, cancellation, Flow demand), then the full suite through the blocking
+    // methods
+    public static void testAsyncQueue() {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerAsyncQueue", "Running Async and Flow Tests");
+            if (Test_AsyncQueue.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerAsyncQueue", "Async and Flow Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerAsyncQueue", "Async and Flow TEST FAILED");
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerAsyncQueue<>(1));
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerAsyncQueue<>(10));
+    }
+
+    // Runs the priority specific tests (order, starvation guard, shared capacity, contention over the levels), then the
+    // full suite with every item at one level (The suite checks FIFO order)
+    public static void testPriorityQueue() {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerPriorityQueue", "Running Priority Tests");
+            if (Test_PriorityQueue.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerPriorityQueue", "Priority Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerPriorityQueue", "Priority TEST FAILED");
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerPriorityQueue<>(1, 1));
+        PCQueueTestManager.runAllTestsOnQueue(new ProducerConsumerPriorityQueue<>(10, 4));
+    }
+
+    // Compares the priority queue against the default (FIFO) implementation at the benchmark scenarios - with every item
+    // at one level, spread over four levels, and spread over four levels with the starvation guard on
+    public static void benchPriorityQueue() {
+        System.out.println(" --- Running Priority Queue Benchmarks ---");
+
+        for (int[] scenario : BENCHMARK_SCENARIOS) {
+            runPriorityBenchmarks(scenario[0], scenario[1], scenario[2], scenario[3]);
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Compares the async queue against the default (blocking) implementation at the benchmark scenarios' thread counts -
+    // used through its blocking methods, with callbacks on its futures, and through a Flow publisher
+    public static void benchAsyncQueue() {
+        System.out.println(" --- Running Async Queue Benchmarks ---");
+
+        for (int[] scenario : BENCHMARK_SCENARIOS) {
+            runAsyncBenchmarks(scenario[0], scenario[1], scenario[2], scenario[3]);
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Tests the event ring, then compares it with the default implementation at the benchmark scenarios - a new message
+    // object per item through the queue, against the ring's preallocated events filled in place
+    public static void benchEventRing() {
+        System.out.println(" --- Running Tests and Allocation Benchmarks for the Event Ring ---");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerEventRing", "Running Event Ring Tests");
+            if (Test_EventRing.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerEventRing", "Event Ring Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerEventRing", "Event Ring TEST FAILED");
+
+            for (int[] scenario : BENCHMARK_SCENARIOS) {
+                runEventRingBenchmarks(threadPool, scenario[0], scenario[1], scenario[2], scenario[3]);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
     }
 
+    // Tests the broadcast ring, then compares fanning out to 1, 4 and 16 groups of consumers through it with fanning out
+    // through a separate default implementation queue per group
+    public static void benchBroadcastRing() {
+        System.out.println(" --- Running Tests and Fan-Out Benchmarks for the Broadcast Ring ---");
 
-    private static void runBenchmarks(int capacity, int producers, int consumers, int numObjects) {
-        TestableQueue<Object> notifyAllArrayQueue = new ConcurrentNotifyAllArrayPCQueue<>(capacity);
-        TestableQueue<Object> twoConditionArrayQueue = new ConcurrentTwoConditionLockArrayPCQueue<>(capacity);
-        TestableQueue<Object> doubleSyncArrayQueue = new ConcurrentDoubleSyncArrayPCQueue<>(capacity);
-        TestableQueue<Object> javaReferenceArrayQueue = new JavaReferenceArrayPCQueue<>(capacity);
-        TestableQueue<Object> javaReferenceLinkQueue = new JavaReferenceLinkedPCQueue<>(capacity);
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerBroadcastRing", "Running Broadcast Ring Tests");
+            if (Test_BroadcastRing.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerBroadcastRing", "Broadcast Ring Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerBroadcastRing", "Broadcast Ring TEST FAILED");
 
-        System.out.println(" --- Benchmarking (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+            for (int groupCount : BROADCAST_GROUP_COUNTS) {
+                runBroadcastBenchmarks(threadPool, 1024, 1, groupCount, 1, 100000);
+                runBroadcastBenchmarks(threadPool, 100, 4, groupCount, 2, 100000);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
 
-        runBenchmark(doubleSyncArrayQueue, producers, consumers, numObjects, true);
-        runBenchmark(notifyAllArrayQueue, producers, consumers, numObjects, false);
-        runBenchmark(twoConditionArrayQueue, producers, consumers, numObjects, false);
-        runBenchmark(javaReferenceArrayQueue, producers, consumers, numObjects, false);
-        runBenchmark(javaReferenceLinkQueue, producers, consumers, numObjects, false);
+        System.out.println(" --- Benchmarks Complete ---");
     }
 
-    private static void runBenchmark(TestableQueue<Object> testQueue, int producers, int consumers, int numObjects, boolean isHighlighted) {
+    // Tests the pipeline (and the broadcast ring's upstream gating), then compares a three stage pipeline on one ring with
+    // the same stages chained through three default implementation queues, end to end
+    public static void benchPipeline() {
+        System.out.println(" --- Running Tests and End to End Benchmarks for the Pipeline ---");
+
         ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ProducerConsumerPipeline", "Running Pipeline Tests");
+            if (Test_Pipeline.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerPipeline", "Pipeline Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ProducerConsumerPipeline", "Pipeline TEST FAILED");
+
+            for (int[] stageWorkers : PIPELINE_STAGE_WORKERS) {
+                runPipelineBenchmarks(threadPool, 1024, 1, stageWorkers, 100000);
+                runPipelineBenchmarks(threadPool, 100, 4, stageWorkers, 100000);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Tests the consumer worker pool, then compares its workers draining batches with consumers calling dequeue() per item,
+    // at the benchmark scenarios
+    public static void benchWorkerPool() {
+        System.out.println(" --- Running Tests and Per Item Overhead Benchmarks for the Consumer Worker Pool ---");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            PCQueueTestHelpers.printTestHeader("ConsumerWorkerPool", "Running Worker Pool Tests");
+            if (Test_ConsumerWorkerPool.run(threadPool))
+                PCQueueTestHelpers.printTestHeader("ConsumerWorkerPool", "Worker Pool Tests Successful");
+            else
+                PCQueueTestHelpers.printTestHeader("ConsumerWorkerPool", "Worker Pool TEST FAILED");
+
+            for (int[] scenario : BENCHMARK_SCENARIOS) {
+                System.out.println(" --- Benchmarking Consumer Overhead (Capacity: " + scenario[0] + "; Producers: " + scenario[1] + "; Consumers: " + scenario[2] + "; " + scenario[3] + " Objects)");
+                BenchTest_WorkerPool.run(threadPool, scenario[0], scenario[1], scenario[2], WORKER_POOL_BATCH_SIZES, scenario[3], PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Measures throughput from 1 x 1 to 64 x 64 producer/consumer threads, to compare how the queues scale with threads
+    // (and cores). The sharded queue gets one shard per core.
+    public static void benchThreadScaling() {
+        System.out.println(" --- Running Thread Scaling Benchmarks (" + Runtime.getRuntime().availableProcessors() + " cores) ---");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            for (int capacity : new int[] {16, 1024}) {
+                System.out.println(" --- Benchmarking Scaling (Capacity: " + capacity + "; 200000 Objects)");
+                BenchTest_Scaling.printHeader(SCALING_THREAD_COUNTS);
+                for (String queueType : SCALING_QUEUE_TYPES) {
+                    BenchTest_Scaling.run(threadPool, queueType, () -> createBenchmarkQueue(queueType, capacity), SCALING_THREAD_COUNTS, 200000, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+                }
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs the persistence specific tests (reopening, torn records, segments), then the full suite on an ASYNC queue
+    // (Fsyncing every item would make the suite's million or so enqueues take minutes - the benchmarks cover the other modes)
+    public static void testPersistentQueue() {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("pcqueue-log");
+            Test_PersistentQueue.run(threadPool, directory);
+
+            // (1 MB segments, so the suite goes through a few of them)
+            try (ProducerConsumerPersistentQueue<Object> asyncQueueTen = new ProducerConsumerPersistentQueue<>(directory.resolve("suite"), 10,
+                    new ObjectTokenSerializer(), FlushMode.ASYNC, 1 << 20, WaitStrategy.blocking())) {
+                PCQueueTestManager.runAllTestsOnQueue(asyncQueueTen);
+            }
+        } catch (IOException ex) {
+            System.out.println("PCQueueTestManager->testPersistentQueue: Couldn't use a queue directory - " + ex.getMessage());
+        } finally {
+            threadPool.shutdownNow();
+            if (directory != null) {
+                PCQueueTestHelpers.deleteDirectory(directory);
+            }
+        }
+    }
+
+    // Compares the enqueue/dequeue throughput of each flush mode (fsync per item, group commit and async) against the
+    // in memory default implementation
+    public static void benchPersistentQueues() {
+        System.out.println(" --- Running Flush Mode Benchmarks for ProducerConsumerPersistentQueue ---");
+
+        runPersistenceBenchmarks(1024, 1, 1, 20000);
+        runPersistenceBenchmarks(1024, 8, 8, 20000);
+        runPersistenceBenchmarks(1024, 32, 4, 20000);
+
+        System.out.println(" --- Benchmarks Complete ---");
+    }
+
+    // Runs three different capacity tests on the lock-free MPMC ring implementation (Capacity one is a special case for the ring)
+    public static void testMpmcQueue() {
+        TestableQueue<Object> mpmcQueueOne = new ProducerConsumerMpmcQueue<>(1);
+        TestableQueue<Object> mpmcQueueTwo = new ProducerConsumerMpmcQueue<>(2);
+        TestableQueue<Object> mpmcQueueTen = new ProducerConsumerMpmcQueue<>(10);
+
+        PCQueueTestManager.runAllTestsOnQueue(mpmcQueueOne);
+        PCQueueTestManager.runAllTestsOnQueue(mpmcQueueTwo);
+        PCQueueTestManager.runAllTestsOnQueue(mpmcQueueTen);
+    }
+
+
+    private static void runBenchmarks(int capacity, int producers, int consumers, int numObjects, int batchSize) {
+        runBenchmarks(BENCHMARK_QUEUE_TYPES, capacity, producers, consumers, numObjects, batchSize, false);
+    }
+
+    private static void runBenchmarks(String[] queueTypes, int capacity, int producers, int consumers, int numObjects, int batchSize, boolean virtualThreads) {
+        System.out.println(" --- Benchmarking (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects" + (batchSize > 1 ? "; Batches of " + batchSize : "") + (virtualThreads ? "; Virtual Threads" : "") + ")");
+
+        // The first queue is the default implementation, so highlight it
+        boolean isHighlighted = true;
+        for (String queueType : queueTypes) {
+            runBenchmark(createBenchmarkQueue(queueType, capacity), producers, consumers, numObjects, batchSize, isHighlighted, virtualThreads);
+            isHighlighted = false;
+        }
+    }
+
+    private static void runMetricsBenchmarks(int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Metrics Overhead (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            ProducerConsumerConcurrentQueue<Object> plainQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+            PCQueueTestHelpers.printClassNamePurple(plainQueue);
+            System.out.print(" (metrics off) - ");
+            BenchTest_NThreadContention.run(threadPool, plainQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+
+            QueueMetrics metrics = new QueueMetrics();
+            ProducerConsumerConcurrentQueue<Object> instrumentedQueue = new ProducerConsumerConcurrentQueue<>(capacity, WaitStrategy.blocking(), metrics);
+            PCQueueTestHelpers.printClassNameBlue(instrumentedQueue);
+            System.out.print(" (metrics on) - ");
+            BenchTest_NThreadContention.run(threadPool, instrumentedQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+            System.out.println("    " + metrics.snapshot());
+
+            QueueMetrics sampledMetrics = new QueueMetrics(64);
+            ProducerConsumerConcurrentQueue<Object> sampledQueue = new ProducerConsumerConcurrentQueue<>(capacity, WaitStrategy.blocking(), sampledMetrics);
+            PCQueueTestHelpers.printClassNameBlue(sampledQueue);
+            System.out.print(" (metrics on, 1 in 64 timed) - ");
+            BenchTest_NThreadContention.run(threadPool, sampledQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+            System.out.println("    " + sampledMetrics.snapshot());
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    // Bursts of 20000 objects with 300 ms between them, and consumers that take 10 us per object - so each burst queues up
+    // a backlog of thousands of objects that drains before the next one. The default implementation has to be sized for
+    // the peak (65536) the whole time, while the elastic queue holds 1024 and grows to 65536.
+    private static void runFootprintBenchmarks(ExecutorService threadPool, int producers, int consumers) {
+        System.out.println(" --- Benchmarking Footprint (Producers: " + producers + "; Consumers: " + consumers + "; 5 Bursts of 20000 Objects)");
+
+        ProducerConsumerConcurrentQueue<Object> fixedQueue = new ProducerConsumerConcurrentQueue<>(65536);
+        PCQueueTestHelpers.printClassNamePurple(fixedQueue);
+        System.out.print(" (capacity 65536) - ");
+        BenchTest_NThreadContention.runBurstyFootprint(threadPool, fixedQueue, fixedQueue::getLength, fixedQueue::getCapacity,
+                producers, consumers, 5, 20000, 300, 10, 50, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+
+        ProducerConsumerElasticQueue<Object> elasticQueue = new ProducerConsumerElasticQueue<>(1024, 65536);
+        PCQueueTestHelpers.printClassNameBlue(elasticQueue);
+        System.out.print(" (soft 1024; hard 65536) - ");
+        BenchTest_NThreadContention.runBurstyFootprint(threadPool, elasticQueue, elasticQueue::getLength, elasticQueue::getAllocatedCapacity,
+                producers, consumers, 5, 20000, 300, 10, 50, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+    }
+
+    private static void runPriorityBenchmarks(int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Priority (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        // Spreads the benchmark's plain Objects over four levels (by identity hash, so about evenly)
+        ToIntFunction<Object> fourLevels = item -> (System.identityHashCode(item) >>> 4) & 3;
+        String[] labels = { " (FIFO) - ", " (1 level) - ", " (4 levels) - ", " (4 levels; starvation limit 8) - " };
+        List<TestableQueue<Object>> testQueues = List.of(
+                new ProducerConsumerConcurrentQueue<>(capacity),
+                new ProducerConsumerPriorityQueue<>(capacity, 1),
+                new ProducerConsumerPriorityQueue<>(capacity, 4, fourLevels),
+                new ProducerConsumerPriorityQueue<>(capacity, 4, fourLevels, 8, WaitStrategy.blocking())
+        );
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < testQueues.size(); i++) {
+                if (i == 0)
+                    PCQueueTestHelpers.printClassNamePurple(testQueues.get(i));
+                else
+                    PCQueueTestHelpers.printClassNameBlue(testQueues.get(i));
+                System.out.print(labels[i]);
+                BenchTest_NThreadContention.run(threadPool, testQueues.get(i), producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static void runAsyncBenchmarks(int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Async (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            TestableQueue<Object> blockingQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+            PCQueueTestHelpers.printClassNamePurple(blockingQueue);
+            System.out.print(" (blocking) - ");
+            BenchTest_NThreadContention.run(threadPool, blockingQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+
+            ProducerConsumerAsyncQueue<Object> asyncQueue = new ProducerConsumerAsyncQueue<>(capacity);
+            PCQueueTestHelpers.printClassNameBlue(asyncQueue);
+            System.out.print(" (blocking) - ");
+            BenchTest_NThreadContention.run(threadPool, asyncQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+
+            asyncQueue = new ProducerConsumerAsyncQueue<>(capacity);
+            PCQueueTestHelpers.printClassNameBlue(asyncQueue);
+            System.out.print(" (callbacks) - ");
+            BenchTest_AsyncQueue.run(threadPool, asyncQueue, producers, consumers, numObjects, 0, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+
+            asyncQueue = new ProducerConsumerAsyncQueue<>(capacity);
+            PCQueueTestHelpers.printClassNameBlue(asyncQueue);
+            System.out.print(" (flow, batches of 64) - ");
+            BenchTest_AsyncQueue.run(threadPool, asyncQueue, producers, consumers, numObjects, 64, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static void runPipelineBenchmarks(ExecutorService threadPool, int capacity, int producers, int[] stageWorkers, int numObjects) {
+        System.out.println(" --- Benchmarking Pipeline (Capacity: " + capacity + "; Producers: " + producers + "; Workers: " + stageWorkers[0] + " -> " + stageWorkers[1] + " -> " + stageWorkers[2] + "; " + numObjects + " Objects)");
+
+        PCQueueTestHelpers.printClassNamePurple(ProducerConsumerConcurrentQueue.class);
+        System.out.print(" (3 chained queues) - ");
+        BenchTest_Pipeline.runQueues(threadPool, capacity, producers, stageWorkers, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        PCQueueTestHelpers.printClassNameBlue(ProducerConsumerPipeline.class);
+        System.out.print(" (3 stages on one ring) - ");
+        BenchTest_Pipeline.runPipeline(threadPool, capacity, producers, stageWorkers, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+    }
+
+    private static void runBroadcastBenchmarks(ExecutorService threadPool, int capacity, int producers, int groupCount, int consumersPerGroup, int numObjects) {
+        System.out.println(" --- Benchmarking Fan-Out (Capacity: " + capacity + "; Producers: " + producers + "; Groups: " + groupCount + " x " + consumersPerGroup + " Consumers; " + numObjects + " Objects)");
+
+        List<ProducerConsumerQueue<BenchTest_Broadcast.MessageEvent>> testQueues = new ArrayList<>();
+        ProducerConsumerBroadcastRing<BenchTest_Broadcast.MessageEvent> testRing = new ProducerConsumerBroadcastRing<>(capacity, BenchTest_Broadcast.MessageEvent::new);
+        List<ProducerConsumerBroadcastRing<BenchTest_Broadcast.MessageEvent>.ConsumerGroup> groups = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            testQueues.add(new ProducerConsumerConcurrentQueue<>(capacity));
+            groups.add(testRing.newConsumerGroup());
+        }
+        PCQueueTestHelpers.printClassNamePurple(testQueues.get(0));
+        System.out.print(" (one queue per group) - ");
+        BenchTest_Broadcast.runQueues(threadPool, testQueues, producers, consumersPerGroup, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        PCQueueTestHelpers.printClassNameBlue(testRing);
+        System.out.print(" (one consumer group per group) - ");
+        BenchTest_Broadcast.runRing(threadPool, testRing, groups, producers, consumersPerGroup, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+    }
+
+    private static void runEventRingBenchmarks(ExecutorService threadPool, int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Event Ring (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        ProducerConsumerQueue<BenchTest_EventRing.MessageEvent> testQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+        ProducerConsumerEventRing<BenchTest_EventRing.MessageEvent> testRing = new ProducerConsumerEventRing<>(capacity, BenchTest_EventRing.MessageEvent::new);
+        PCQueueTestHelpers.printClassNamePurple(testQueue);
+        System.out.print(" (new message per item) - ");
+        BenchTest_EventRing.runQueue(threadPool, testQueue, producers, consumers, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        PCQueueTestHelpers.printClassNameBlue(testRing);
+        System.out.print(" (preallocated events) - ");
+        BenchTest_EventRing.runRing(threadPool, testRing, producers, consumers, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+    }
+
+    private static void runPersistenceBenchmarks(int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Flush Modes (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("pcqueue-bench");
+
+            TestableQueue<Object> memoryQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+            PCQueueTestHelpers.printClassNameBlue(memoryQueue);
+            System.out.print(" (in memory) - ");
+            BenchTest_NThreadContention.run(threadPool, memoryQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+
+            for (FlushMode flushMode : FlushMode.values()) {
+                try (ProducerConsumerPersistentQueue<Object> persistentQueue = new ProducerConsumerPersistentQueue<>(directory.resolve(flushMode.name()), capacity,
+                        new ObjectTokenSerializer(), flushMode)) {
+                    PCQueueTestHelpers.printClassNamePurple(persistentQueue);
+                    System.out.print(" " + flushMode + " - ");
+                    BenchTest_NThreadContention.run(threadPool, persistentQueue, producers, 0, consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("PCQueueTestManager->runPersistenceBenchmarks: Couldn't use a queue directory - " + ex.getMessage());
+        } finally {
+            threadPool.shutdownNow();
+            if (directory != null) {
+                PCQueueTestHelpers.deleteDirectory(directory);
+            }
+        }
+    }
+
+    private static void runWaitStrategyBenchmarks(int capacity, int producers, int consumers, int numObjects, int producerGapMicros) {
+        System.out.println(" --- Benchmarking Wait Strategies (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects; " + producerGapMicros + " us between items)");
+
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            for (String strategyName : WAIT_STRATEGY_NAMES) {
+                // Each queue gets a fresh strategy, since the adaptive strategy learns from the queue it is used on
+                TestableQueue<Object> concurrentQueue = new ProducerConsumerConcurrentQueue<>(capacity, createWaitStrategy(strategyName));
+                TestableQueue<Object> mpmcQueue = new ProducerConsumerMpmcQueue<>(capacity, createWaitStrategy(strategyName));
+
+                PCQueueTestHelpers.printClassNamePurple(concurrentQueue);
+                System.out.print(" " + strategyName + " - ");
+                BenchTest_NThreadContention.runLatencyAndCpu(threadPool, concurrentQueue, producers, consumers, numObjects, producerGapMicros, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+                PCQueueTestHelpers.printClassNameBlue(mpmcQueue);
+                System.out.print(" " + strategyName + " - ");
+                BenchTest_NThreadContention.runLatencyAndCpu(threadPool, mpmcQueue, producers, consumers, numObjects, producerGapMicros, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static void runContextSwitchBenchmarks(int capacity, int producers, int consumers, int numObjects) {
+        System.out.println(" --- Benchmarking Context Switches (Capacity: " + capacity + "; Producers: " + producers + "; Consumers: " + consumers + "; " + numObjects + " Objects)");
+
+        String[] queueTypes = {
+                "ProducerConsumerConcurrentQueue",
+                "ConcurrentDoubleSyncArrayPCQueue",
+                "ConcurrentNotifyAllArrayPCQueue",
+                "ConcurrentTwoConditionLockArrayPCQueue",
+                "JavaReferenceArrayPCQueue"
+        };
+        boolean isHighlighted = true;
+        for (String queueType : queueTypes) {
+            TestableQueue<Object> testQueue = createBenchmarkQueue(queueType, capacity);
+            if (isHighlighted)
+                PCQueueTestHelpers.printClassNamePurple(testQueue);
+            else
+                PCQueueTestHelpers.printClassNameBlue(testQueue);
+            System.out.print(" - ");
+            BenchTest_ContextSwitches.run(testQueue, producers, consumers, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            isHighlighted = false;
+        }
+    }
+
+    private static void runShapeBenchmarks(int capacity, int numThreads, int numObjects) {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+
+        System.out.println(" --- Benchmarking Shapes (Capacity: " + capacity + "; N: " + numThreads + "; " + numObjects + " Objects)");
+
+        try {
+            BenchTest_NThreadContention.runShapes(threadPool, capacity, ThreadingMode.SINGLE, ThreadingMode.SINGLE, numThreads, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            BenchTest_NThreadContention.runShapes(threadPool, capacity, ThreadingMode.MULTIPLE, ThreadingMode.SINGLE, numThreads, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            BenchTest_NThreadContention.runShapes(threadPool, capacity, ThreadingMode.SINGLE, ThreadingMode.MULTIPLE, numThreads, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+            BenchTest_NThreadContention.runShapes(threadPool, capacity, ThreadingMode.MULTIPLE, ThreadingMode.MULTIPLE, numThreads, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG);
+        } finally {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static void runBenchmark(TestableQueue<Object> testQueue, int producers, int consumers, int numObjects, int batchSize, boolean isHighlighted, boolean virtualThreads) {
+        ExecutorService threadPool = virtualThreads ? PCQueueTestHelpers.newVirtualThreadExecutor() : Executors.newCachedThreadPool();
         if (isHighlighted)
             PCQueueTestHelpers.printClassNamePurple(testQueue);
         else
             PCQueueTestHelpers.printClassNameBlue(testQueue);
         System.out.print(" - ");
-        BenchTest_NThreadContention.run(threadPool, testQueue, producers, 0,consumers, 0, numObjects, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+        try {
+            BenchTest_NThreadContention.run(threadPool, testQueue, producers, 0,consumers, 0, numObjects, batchSize, PCQueueTestHelpers.CONST_TIMEOUT_XLONG, true);
+        } finally {
+            threadPool.shutdownNow();
+        }
     }
 
     /////
@@ -111,6 +960,8 @@ public class PCQueueTestManager {
         PCQueueTestHelpers.printTestHeader(queueClassName, "Running All Tests with Capacity " + testQueue.getCapacity());
 
         boolean success = runBasicFunctionalTestsOnQueue(testQueue);
+        // (The basic tests can leave their own objects in the queue, and the high concurrency tests only expect theirs)
+        testQueue.resetQueue();
         success = success && runHighConcurrencyTestsOnQueue(testQueue);
 
         if (success)
@@ -121,6 +972,12 @@ public class PCQueueTestManager {
 
     /// This runs a set of basic functionality tests (Requires that the queue implement ITestableQueue)
     private static boolean runBasicFunctionalTestsOnQueue(TestableQueue<Object> testQueue) {
+        return runBasicFunctionalTestsOnQueue(testQueue, 10, 10);
+    }
+
+    /// Same, but closes under contention with at most the given numbers of producer and consumer threads (For the
+    /// single producer and/or single consumer rings)
+    private static boolean runBasicFunctionalTestsOnQueue(TestableQueue<Object> testQueue, int maxProducerThreads, int maxConsumerThreads) {
         boolean success = true;
         ExecutorService threadPool = null;
 
@@ -132,7 +989,13 @@ public class PCQueueTestManager {
 
             success = Test_FillQueue.run(threadPool, testQueue);
             success = success && Test_FillDrainQueue.run(threadPool, testQueue);
+            success = success && Test_DrainTo.run(threadPool, testQueue);
             success = success && Test_QueueBlocking.run(threadPool, testQueue);
+            success = success && Test_QueueClose.run(threadPool, testQueue);
+            success = success && Test_QueueCloseContention.run(threadPool, testQueue, maxProducerThreads, maxConsumerThreads, false);
+            success = success && Test_QueueCloseContention.run(threadPool, testQueue, maxProducerThreads, maxConsumerThreads, true);
+            success = success && Test_TryOperations.run(threadPool, testQueue);
+            success = success && Test_QueueTimeouts.run(threadPool, testQueue);
             success = success && Test_TwoThreadContention.run(threadPool, testQueue, false);
             success = success && Test_TwoThreadContention.run(threadPool, testQueue, true);
 
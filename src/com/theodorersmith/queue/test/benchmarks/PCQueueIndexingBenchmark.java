@@ -0,0 +1,105 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.WaitStrategy;
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.implementations.ConcurrentDoubleSyncArrayPCQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+// Compares power of two (bitmask) indexing with the default % indexing, on the two queues that support both. The capacity
+// is deliberately not a power of two, so the masked queues are backed by a bigger array than the one they are bounded by.
+//
+// There is one thread group per thread count (1x1 and 5x5). Run it with: java -jar target/benchmarks.jar indexing [quick]
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCQueueIndexingBenchmark {
+
+    @Param({"ProducerConsumerConcurrentQueue",
+            "ConcurrentDoubleSyncArrayPCQueue"})
+    public String queueType;
+
+    @Param({"true", "false"})
+    public boolean powerOfTwo;
+
+    @Param({"1000"})
+    public int capacity;
+
+    private final Object item = new Object();
+    private TestableQueue<Object> queue;
+    private QueueUnblocker unblocker;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if (queueType.equals("ProducerConsumerConcurrentQueue")) {
+            queue = new ProducerConsumerConcurrentQueue<>(capacity, WaitStrategy.blocking(), true, powerOfTwo);
+        } else {
+            queue = new ConcurrentDoubleSyncArrayPCQueue<>(capacity, powerOfTwo);
+        }
+        unblocker = new QueueUnblocker(queue);
+        unblocker.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        unblocker.finish();
+    }
+
+    /////
+    ///// 1 producer x 1 consumer
+    /////
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public void enqueue1x1(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public Object dequeue1x1(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// 5 producers x 5 consumers
+    /////
+
+    @Benchmark
+    @Group("handoff5x5")
+    @GroupThreads(5)
+    public void enqueue5x5(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff5x5")
+    @GroupThreads(5)
+    public Object dequeue5x5(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private void enqueue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return;
+        }
+        queue.enqueue(item);
+    }
+
+    private Object dequeue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return null;
+        }
+        return queue.dequeue();
+    }
+}
@@ -0,0 +1,165 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.test.PCQueueTestManager;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Runs the JMH queue benchmarks over the same scenario matrix as PCQueueTestManager.benchAllQueues, then prints a summary
+// table with the throughput (ops/s) and average latency (us/op) of each queue in each scenario.
+//
+// Usage: java -jar target/benchmarks.jar [quick] [layout | indexing | primitive | persistence | metrics] [queue types...]
+//   quick       - one short warmup and measurement iteration per benchmark (for smoke testing, not for decisions)
+//   layout      - run PCQueueLayoutBenchmark (padded vs unpadded ProducerConsumerConcurrentQueue) instead
+//   indexing    - run PCQueueIndexingBenchmark (power of two mask vs % indexing) instead
+//   primitive   - run PCQueuePrimitiveBenchmark (boxed vs primitive long queue, with allocation per operation) instead
+//   persistence - run PCQueuePersistenceBenchmark (fsync per item vs group commit vs async flush) instead
+//   metrics     - run PCQueueMetricsBenchmark (ProducerConsumerConcurrentQueue with QueueMetrics off vs on vs sampled) instead
+//   queue types - only benchmark these queues (simple class names from PCQueueTestManager.BENCHMARK_QUEUE_TYPES)
+public class PCQueueJmhRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        boolean quick = false;
+        Class<?> groupBenchmark = null;
+        List<String> queueTypes = new ArrayList<>();
+        // (Maven passes -Djmh.args through as a single argument, so split on whitespace as well)
+        for (String arg : String.join(" ", args).trim().split("\\s+")) {
+            if (arg.isEmpty()) {
+                continue;
+            }
+            if (arg.equals("quick")) {
+                quick = true;
+            } else if (arg.equals("layout")) {
+                groupBenchmark = PCQueueLayoutBenchmark.class;
+            } else if (arg.equals("indexing")) {
+                groupBenchmark = PCQueueIndexingBenchmark.class;
+            } else if (arg.equals("primitive")) {
+                groupBenchmark = PCQueuePrimitiveBenchmark.class;
+            } else if (arg.equals("persistence")) {
+                groupBenchmark = PCQueuePersistenceBenchmark.class;
+            } else if (arg.equals("metrics")) {
+                groupBenchmark = PCQueueMetricsBenchmark.class;
+            } else {
+                queueTypes.add(arg);
+            }
+        }
+        if (groupBenchmark != null) {
+            runGroupBenchmark(groupBenchmark, quick);
+            return;
+        }
+        if (queueTypes.isEmpty()) {
+            queueTypes.addAll(List.of(PCQueueTestManager.BENCHMARK_QUEUE_TYPES));
+        }
+
+        // Throughput and average time need different output units, so each scenario runs once in each mode
+        List<RunResult> throughputResults = new ArrayList<>();
+        List<RunResult> latencyResults = new ArrayList<>();
+        for (int[] scenario : PCQueueTestManager.BENCHMARK_SCENARIOS) {
+            throughputResults.addAll(runScenario(scenario, queueTypes, Mode.Throughput, TimeUnit.SECONDS, quick));
+            latencyResults.addAll(runScenario(scenario, queueTypes, Mode.AverageTime, TimeUnit.MICROSECONDS, quick));
+        }
+
+        printSummary(throughputResults, latencyResults);
+    }
+
+    private static List<RunResult> runScenario(int[] scenario, List<String> queueTypes, Mode mode, TimeUnit timeUnit, boolean quick) throws RunnerException {
+        int capacity = scenario[0];
+        int producers = scenario[1];
+        int consumers = scenario[2];
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(PCQueueThroughputBenchmark.class.getName() + ".*")
+                .param("queueType", queueTypes.toArray(new String[0]))
+                .param("capacity", String.valueOf(capacity))
+                .param("producers", String.valueOf(producers))
+                .param("consumers", String.valueOf(consumers))
+                // JMH orders the thread group by method name - "dequeue" before "enqueue"
+                .threadGroups(consumers, producers)
+                .mode(mode)
+                .timeUnit(timeUnit);
+
+        if (quick) {
+            quickIterations(options);
+        }
+
+        return new ArrayList<>(new Runner(options.build()).run());
+    }
+
+    // The layout, indexing, primitive, persistence and metrics benchmarks have fixed thread groups, so they run as they are and print their own
+    // summary (one line per group and set of params). They also run with the GC profiler, so the summary can show the
+    // bytes allocated per operation.
+    private static void runGroupBenchmark(Class<?> benchmark, boolean quick) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(benchmark.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS);
+        if (quick) {
+            quickIterations(options);
+        }
+
+        System.out.println();
+        System.out.println(" --- " + benchmark.getSimpleName() + " Summary (Producer + consumer operations) ---");
+        System.out.println(String.format("%-16s %-60s %16s %12s", "Group", "Params", "Throughput ops/s", "Bytes/op"));
+        for (RunResult result : new Runner(options.build()).run()) {
+            StringBuilder params = new StringBuilder();
+            for (String key : result.getParams().getParamsKeys()) {
+                params.append(key).append('=').append(result.getParams().getParam(key)).append(' ');
+            }
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            System.out.println(String.format("%-16s %-60s %16.0f %12s",
+                    result.getParams().getBenchmark().substring(benchmark.getName().length() + 1),
+                    params.toString().trim(),
+                    result.getPrimaryResult().getScore(),
+                    allocation == null ? "-" : String.format("%.2f", allocation.getScore())));
+        }
+    }
+
+    private static void quickIterations(ChainedOptionsBuilder options) {
+        options.warmupIterations(1)
+                .warmupTime(TimeValue.milliseconds(500))
+                .measurementIterations(1)
+                .measurementTime(TimeValue.milliseconds(500));
+    }
+
+    private static void printSummary(List<RunResult> throughputResults, List<RunResult> latencyResults) {
+        Map<String, Double> latencyByKey = new LinkedHashMap<>();
+        for (RunResult result : latencyResults) {
+            latencyByKey.put(resultKey(result), result.getPrimaryResult().getScore());
+        }
+
+        System.out.println();
+        System.out.println(" --- Queue Benchmark Summary (Producer + consumer operations) ---");
+        System.out.println(String.format("%-40s %8s %9s %9s %16s %12s", "Queue", "Capacity", "Producers", "Consumers", "Throughput ops/s", "Avg us/op"));
+        for (RunResult result : throughputResults) {
+            String key = resultKey(result);
+            Double latency = latencyByKey.get(key);
+            System.out.println(String.format("%-40s %8s %9s %9s %16.0f %12s",
+                    result.getParams().getParam("queueType"),
+                    result.getParams().getParam("capacity"),
+                    result.getParams().getParam("producers"),
+                    result.getParams().getParam("consumers"),
+                    result.getPrimaryResult().getScore(),
+                    latency == null ? "-" : String.format("%.3f", latency)));
+        }
+    }
+
+    private static String resultKey(RunResult result) {
+        return result.getParams().getParam("queueType") + "/" +
+                result.getParams().getParam("capacity") + "/" +
+                result.getParams().getParam("producers") + "/" +
+                result.getParams().getParam("consumers");
+    }
+}
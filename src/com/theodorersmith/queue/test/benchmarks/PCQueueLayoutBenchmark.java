@@ -0,0 +1,96 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+// Compares the padded and unpadded field layouts of ProducerConsumerConcurrentQueue. The queue is big enough that the
+// producers and consumers rarely have to wait for each other, so most of the difference left is the cost of the two
+// sides writing to the same cache lines (false sharing).
+//
+// There is one thread group per thread count (1x1 and 10x10). Run it with: java -jar target/benchmarks.jar layout [quick]
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCQueueLayoutBenchmark {
+
+    @Param({"true", "false"})
+    public boolean padded;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private final Object item = new Object();
+    private ProducerConsumerConcurrentQueue<Object> queue;
+    private QueueUnblocker unblocker;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = new ProducerConsumerConcurrentQueue<>(capacity, WaitStrategy.blocking(), padded);
+        unblocker = new QueueUnblocker(queue);
+        unblocker.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        unblocker.finish();
+    }
+
+    /////
+    ///// 1 producer x 1 consumer
+    /////
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public void enqueue1x1(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public Object dequeue1x1(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// 10 producers x 10 consumers
+    /////
+
+    @Benchmark
+    @Group("handoff10x10")
+    @GroupThreads(10)
+    public void enqueue10x10(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff10x10")
+    @GroupThreads(10)
+    public Object dequeue10x10(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private void enqueue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return;
+        }
+        queue.enqueue(item);
+    }
+
+    private Object dequeue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return null;
+        }
+        return queue.dequeue();
+    }
+}
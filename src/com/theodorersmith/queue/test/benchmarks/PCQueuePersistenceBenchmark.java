@@ -0,0 +1,107 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue;
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue.FlushMode;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+import com.theodorersmith.queue.test.implementations.ObjectTokenSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Compares the flush modes of ProducerConsumerPersistentQueue - an fsync for every enqueue, group commits (one fsync for
+// every enqueue that arrived while the last one was running), and a background flush every few milliseconds. Each
+// iteration gets a new queue in a new temporary directory.
+//
+// Fsync per item can't go any faster with more producers, but group commit should - so there is a 1x1 group and an 8x1
+// group. Run it with: java -jar target/benchmarks.jar persistence [quick]
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCQueuePersistenceBenchmark {
+
+    @Param({"FSYNC_PER_ITEM", "GROUP_COMMIT", "ASYNC"})
+    public FlushMode flushMode;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private final Object item = new Object();
+    private Path directory;
+    private ProducerConsumerPersistentQueue<Object> queue;
+    private QueueUnblocker unblocker;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pcqueue-jmh");
+        queue = new ProducerConsumerPersistentQueue<>(directory, capacity, new ObjectTokenSerializer(), flushMode);
+        unblocker = new QueueUnblocker(queue);
+        unblocker.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException, IOException {
+        unblocker.finish();
+        queue.close();
+        PCQueueTestHelpers.deleteDirectory(directory);
+    }
+
+    /////
+    ///// 1 producer x 1 consumer
+    /////
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public void enqueue1x1(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public Object dequeue1x1(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// 8 producers x 1 consumer
+    /////
+
+    @Benchmark
+    @Group("handoff8x1")
+    @GroupThreads(8)
+    public void enqueue8x1(Control control) {
+        enqueue(control);
+    }
+
+    @Benchmark
+    @Group("handoff8x1")
+    @GroupThreads(1)
+    public Object dequeue8x1(Control control) {
+        return dequeue(control);
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private void enqueue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return;
+        }
+        queue.enqueue(item);
+    }
+
+    private Object dequeue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return null;
+        }
+        return queue.dequeue();
+    }
+}
@@ -0,0 +1,79 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.ProducerConsumerLongQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.TimeUnit;
+
+// Compares a ProducerConsumerConcurrentQueue<Long> with the primitive ProducerConsumerLongQueue, moving long values from
+// one producer to one consumer. The runner adds JMH's GC profiler for this one, so the summary shows the bytes allocated
+// per operation (gc.alloc.rate.norm) - a Long per item for the boxed queue, and nothing for the primitive one.
+//
+// Both sides use short timed waits (and give up once the measurement stops), since there isn't a shared TestableQueue for
+// a QueueUnblocker to work with here.
+//
+// Run it with: java -jar target/benchmarks.jar primitive [quick]
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCQueuePrimitiveBenchmark {
+
+    // The values start well above the Long.valueOf cache, so every boxed enqueue really allocates
+    private static final long FIRST_VALUE = 1_000_000L;
+
+    @Param({"boxed", "primitive"})
+    public String queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private ProducerConsumerConcurrentQueue<Long> boxedQueue;
+    private ProducerConsumerLongQueue primitiveQueue;
+    private long nextValue = FIRST_VALUE; // (Only the single producer touches this)
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        boxedQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+        primitiveQueue = new ProducerConsumerLongQueue(capacity);
+    }
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public void enqueue(Control control) {
+        if (control.stopMeasurement) {
+            return;
+        }
+        long value = nextValue++;
+        if (queueType.equals("boxed")) {
+            while (!boxedQueue.enqueue(value, 1, TimeUnit.MILLISECONDS) && !control.stopMeasurement) {
+            }
+        } else {
+            while (!primitiveQueue.enqueueLong(value, 1, TimeUnit.MILLISECONDS) && !control.stopMeasurement) {
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("handoff1x1")
+    @GroupThreads(1)
+    public long dequeue(Control control) {
+        if (control.stopMeasurement) {
+            return 0;
+        }
+        if (queueType.equals("boxed")) {
+            Long value;
+            while ((value = boxedQueue.dequeue(1, TimeUnit.MILLISECONDS)) == null && !control.stopMeasurement) {
+            }
+            return value == null ? 0 : value;
+        } else {
+            long value;
+            while ((value = primitiveQueue.dequeueLong(1, TimeUnit.MILLISECONDS)) == primitiveQueue.getEmptyValue() && !control.stopMeasurement) {
+            }
+            return value;
+        }
+    }
+}
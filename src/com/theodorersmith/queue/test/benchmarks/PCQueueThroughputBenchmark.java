@@ -0,0 +1,76 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.test.PCQueueTestManager;
+import com.theodorersmith.queue.test.TestableQueue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+// JMH version of the PCQueueTestManager.benchAllQueues stopwatch benchmark. Producer and consumer threads run as one JMH
+// thread group around a shared queue, so only the enqueue/dequeue calls themselves are measured (No thread pool startup,
+// result sets, or per item allocation - every producer hands over the same object).
+//
+// @GroupThreads has to be a constant, so PCQueueJmhRunner overrides the thread group sizes for each scenario (and sets
+// the producers/consumers params to match, so they show up in the results).
+@State(Scope.Group)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PCQueueThroughputBenchmark {
+
+    @Param({"ProducerConsumerConcurrentQueue",
+            "ConcurrentDoubleSyncArrayPCQueue",
+            "ConcurrentNotifyAllArrayPCQueue",
+            "ConcurrentTwoConditionLockArrayPCQueue",
+            "JavaReferenceArrayPCQueue",
+            "JavaReferenceLinkedPCQueue",
+            "ProducerConsumerMpmcQueue",
+            "ProducerConsumerShardedQueue"})
+    public String queueType;
+
+    @Param({"1"})
+    public int capacity;
+
+    @Param({"5"})
+    public int producers;
+
+    @Param({"5"})
+    public int consumers;
+
+    private final Object item = new Object();
+    private TestableQueue<Object> queue;
+    private QueueUnblocker unblocker;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = PCQueueTestManager.createBenchmarkQueue(queueType, capacity);
+        unblocker = new QueueUnblocker(queue);
+        unblocker.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        unblocker.finish();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(5)
+    public void enqueue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return;
+        }
+        queue.enqueue(item);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(5)
+    public Object dequeue(Control control) {
+        if (control.stopMeasurement) {
+            unblocker.release();
+            return null;
+        }
+        return queue.dequeue();
+    }
+}
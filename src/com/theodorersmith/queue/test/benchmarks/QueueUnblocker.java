@@ -0,0 +1,52 @@
+package com.theodorersmith.queue.test.benchmarks;
+
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Used by the JMH benchmarks. Once the measurement stops, JMH waits for every thread in the group to return. But a producer
+// that is blocked on a full queue (or a consumer blocked on an empty one) may have nobody left to unblock it. This thread
+// stands in for the missing side until the iteration is torn down. It stays parked while the measurement is running.
+final class QueueUnblocker extends Thread {
+    private static final Object FILLER = new Object();
+
+    private final TestableQueue<Object> queue;
+    private volatile boolean released = false;
+    private volatile boolean finished = false;
+
+    QueueUnblocker(TestableQueue<Object> queue) {
+        super("QueueUnblocker");
+        this.queue = queue;
+        setDaemon(true);
+    }
+
+    void release() {
+        released = true;
+    }
+
+    void finish() throws InterruptedException {
+        finished = true;
+        interrupt();
+        join();
+    }
+
+    @Override
+    public void run() {
+        while (!finished) {
+            if (!released) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+
+            int length = queue.getLength();
+            if (length == 0) {
+                queue.enqueue(FILLER);
+            } else if (length >= queue.getCapacity()) {
+                queue.dequeue();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+    }
+}
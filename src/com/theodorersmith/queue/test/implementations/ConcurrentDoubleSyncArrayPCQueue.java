@@ -2,11 +2,17 @@ package com.theodorersmith.queue.test.implementations;
 
 // Copyright Theodore Smith, 2018 - All Rights Reserved
 
+import com.theodorersmith.queue.QueueClosedException;
 import com.theodorersmith.queue.test.TestableQueue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-// NOTE: This is a copy of the default implementation (ProducerConsumerConcurrentQueue) that implements
-// TestableQueue for easier unit testing.
+// NOTE: This is a copy of the original default implementation (ProducerConsumerConcurrentQueue) that implements
+// TestableQueue for easier unit testing. The default implementation has since moved to waking one parked thread per
+// item/slot; this copy keeps the original notifyAll wakeups so the two can be benchmarked against each other.
 //
 // This implementation uses two objects for synchronization - a readLockObject (dequeue) and a writeLockObject.
 // I am using a circular array, so that we should be able to write to a free slot without worrying about concurrent
@@ -14,10 +20,20 @@ import java.util.concurrent.atomic.AtomicInteger;
 // length. The head will only be used by the dequeue, and the tail only by the enqueue, so the only shared value
 // that needs to be threadsafe between enqueue and dequeue threads is the queue length. We give it thread safety by
 // using the atomic library.
+//
+// The capacity is kept in a final field, so the hot paths never have to take the queue's own monitor to read it. With
+// powerOfTwo indexing, the backing array is rounded up to a power of two and indexes wrap with a bitmask instead of %.
+// The queue still holds at most the capacity it was asked for.
+//
+// The close state is written under the write lock (and under both for close), so an enqueue can't slip an item in
+// after a dequeue has seen the queue closed for producers and empty. Closing notifies all on both locks.
 public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
 
     /// Member Variables
     private final T[] queueArray; // The internal array backing the queue. (Treated as circular array around headIdx)
+    private final int capacity; // The most items the queue can hold. (Less than queueArray.length with powerOfTwo indexing)
+    private final int indexMask; // queueArray.length - 1 with powerOfTwo indexing, or NO_MASK to wrap with %
+    private static final int NO_MASK = -1;
 
     // We are going to synchronize with two objects - one for reading from the queue and one for writing.
     private final Object writeLockObj = new Object();
@@ -28,24 +44,40 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
     // The length can be written from within both the enqueue and dequeue sync blocks, so must be threadsafe.
     private AtomicInteger length;
 
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private volatile int closeState;
+
     /// Construction and Initialization
-    @SuppressWarnings("unchecked")
     public ConcurrentDoubleSyncArrayPCQueue(int capacity) {
+        this(capacity, false);
+    }
+
+    // powerOfTwo = true rounds the backing array up to a power of two and wraps indexes with a mask
+    @SuppressWarnings("unchecked")
+    public ConcurrentDoubleSyncArrayPCQueue(int capacity, boolean powerOfTwo) {
         if (capacity < 1) {
             // If the capacity is less than 1, throw an Illegal Argument Exception
             // Note: This is an ApplicationException, so it won't be checked at compile time
             throw new IllegalArgumentException("Queue capacity must be greater than zero");
         }
+        if (powerOfTwo && capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Queue capacity is too large to round up to a power of two");
+        }
 
-        this.queueArray = (T[])new Object[capacity];
+        int arrayLength = powerOfTwo ? (capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1) : capacity;
+        this.queueArray = (T[])new Object[arrayLength];
+        this.capacity = capacity;
+        this.indexMask = powerOfTwo ? arrayLength - 1 : NO_MASK;
         this.resetQueue();
     }
 
     /// ITestableQueue Implementation (Just used for testing)
     @Override
-    // Gets the maximum capacity of the queue
-    public synchronized int getCapacity() {
-        return this.queueArray.length;
+    // Gets the maximum capacity of the queue (The logical capacity - not the size of the backing array)
+    public int getCapacity() {
+        return this.capacity;
     }
     @Override
     // Gets the current length of the queue
@@ -58,6 +90,7 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
         this.headIdx = 0;
         this.tailIdx = 0;
         this.length = new AtomicInteger(0);
+        this.closeState = OPEN;
     }
 
     // IProducerConsumerQueue Implementation
@@ -67,7 +100,7 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
         // Sync on the write lock
         synchronized (writeLockObj) {
             // Check if we have space to add new items
-            while (length.get() == getCapacity()) {
+            while (closeState == OPEN && length.get() == capacity) {
                 // The length is at capacity. Block until we have free space
                 try {
                     writeLockObj.wait();
@@ -83,10 +116,12 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
                 }
             }
 
+            requireOpen();
+
             // We have space for items
             // First, Add our item to the tail of the array and update the tail to point to the next (Circular) cell.
             queueArray[tailIdx] = item;
-            tailIdx = (tailIdx + 1) % queueArray.length;
+            tailIdx = wrapIndex(tailIdx + 1);
 
             // Next, we are going to increment the array length
             int oldLength = length.getAndIncrement();
@@ -110,7 +145,7 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
         T item;
         synchronized (readLockObj) {
             // Check if there are items to pop off the queue
-            while (length.get() == 0) {
+            while (closeState == OPEN && length.get() == 0) {
                 // The length is at capacity. Block until we have free space
                 try {
                     readLockObj.wait();
@@ -121,16 +156,18 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
                 }
             }
 
+            requireItem();
+
             // We have a non-empty queue
             // First get our item from the front of the queue.
             item = queueArray[headIdx];
 
             // Now decrement the length and update the head index
-            headIdx = (headIdx + 1) % queueArray.length;
+            headIdx = wrapIndex(headIdx + 1);
             int oldLength = length.getAndDecrement();
 
             // If the old length was at capacitiy, we want to notify all the waiting enqueue threads.
-            if (oldLength < getCapacity()) {
+            if (oldLength < capacity) {
                 // return early if we don't need to notify
                 return item;
             }
@@ -142,4 +179,266 @@ public class ConcurrentDoubleSyncArrayPCQueue<T> implements TestableQueue<T> {
 
         return item;
     }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full. Returns false if
+    // we timed out (or were interrupted) without enqueuing the item.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remainingNanos;
+        int oldLength;
+
+        // Sync on the write lock
+        synchronized (writeLockObj) {
+            // Check if we have space to add new items
+            while (closeState == OPEN && length.get() == capacity) {
+                if (remainingNanos <= 0) {
+                    // Out of time (or never had any, for tryEnqueue)
+                    return false;
+                }
+
+                // The length is at capacity. Block until we have free space, or until the deadline
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(writeLockObj, remainingNanos);
+                } catch (InterruptedException iEx) {
+                    // NOTE: Same as enqueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+                    System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentDoubleSyncArrayPCQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                remainingNanos = deadline - System.nanoTime();
+            }
+
+            requireOpen();
+
+            // We have space for items
+            // First, Add our item to the tail of the array and update the tail to point to the next (Circular) cell.
+            queueArray[tailIdx] = item;
+            tailIdx = wrapIndex(tailIdx + 1);
+
+            // Next, we are going to increment the array length
+            oldLength = length.getAndIncrement();
+        }
+
+        // If the old length was zero, grab the read lock and wake up all the read threads
+        if (oldLength == 0) {
+            synchronized (readLockObj) {
+                readLockObj.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty. Returns null
+    // if we timed out (or were interrupted) without dequeuing an item.
+    public T dequeue(long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remainingNanos;
+        T item;
+        int oldLength;
+
+        // Sync on the read lock
+        synchronized (readLockObj) {
+            // Check if there are items to pop off the queue
+            while (closeState == OPEN && length.get() == 0) {
+                if (remainingNanos <= 0) {
+                    // Out of time (or never had any, for tryDequeue)
+                    return null;
+                }
+
+                // The queue is empty. Block until we have an item, or until the deadline
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(readLockObj, remainingNanos);
+                } catch (InterruptedException iEx) {
+                    System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentDoubleSyncArrayPCQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                remainingNanos = deadline - System.nanoTime();
+            }
+
+            requireItem();
+
+            // We have a non-empty queue
+            // First get our item from the front of the queue.
+            item = queueArray[headIdx];
+
+            // Now decrement the length and update the head index
+            headIdx = wrapIndex(headIdx + 1);
+            oldLength = length.getAndDecrement();
+        }
+
+        // If the old length was at capacity, grab the write lock and wake up all the write threads
+        if (oldLength == capacity) {
+            synchronized (writeLockObj) {
+                writeLockObj.notifyAll();
+            }
+        }
+        return item;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe add a batch of items to the end of the queue. Blocks whenever the queue is full. Each pass through the
+    // write lock claims as many free slots as it can, copies that run of items in (in at most two pieces around the end of
+    // the circular array), and only wakes the dequeue threads once for the run.
+    public void enqueueAll(T[] items) {
+        int itemIdx = 0;
+        while (itemIdx < items.length) {
+            int oldLength;
+            synchronized (writeLockObj) {
+                // Check if we have space to add new items
+                while (closeState == OPEN && length.get() == capacity) {
+                    // The length is at capacity. Block until we have free space
+                    try {
+                        writeLockObj.wait();
+                    } catch (InterruptedException iEx) {
+                        // NOTE: Same as enqueue - exit WITHOUT enqueuing the rest of the batch, and reset the interrupt flag.
+                        System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentDoubleSyncArrayPCQueue->enqueueAll: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing " + (items.length - itemIdx) + " items.");
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (closeState != OPEN) {
+                    throw new QueueClosedException("The queue is closed for producers (" + (items.length - itemIdx) + " items not enqueued)");
+                }
+
+                // Claim every free slot we can use (Only enqueue threads add to the length, so it can only shrink under us)
+                int runLength = Math.min(capacity - length.get(), items.length - itemIdx);
+
+                // Copy the run to the tail of the array, wrapping around to the start if we need to.
+                int firstPart = Math.min(runLength, queueArray.length - tailIdx);
+                System.arraycopy(items, itemIdx, queueArray, tailIdx, firstPart);
+                System.arraycopy(items, itemIdx + firstPart, queueArray, 0, runLength - firstPart);
+                tailIdx = wrapIndex(tailIdx + runLength);
+                itemIdx += runLength;
+
+                // Publish the whole run with a single update to the length
+                oldLength = length.getAndAdd(runLength);
+            }
+
+            // If the queue was empty, wake up the dequeue threads (once for the whole run)
+            if (oldLength == 0) {
+                synchronized (readLockObj) {
+                    readLockObj.notifyAll();
+                }
+            }
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Collection version of enqueueAll
+    @SuppressWarnings("unchecked")
+    public void enqueueAll(Collection<? extends T> items) {
+        enqueueAll((T[])items.toArray());
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks. The items are taken as
+    // a single run, with one update to the length, and enqueue threads are woken once.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int moved = 0;
+        int oldLength = 0;
+        try {
+            synchronized (readLockObj) {
+                // Only dequeue threads take from the length, so it can only grow under us
+                int runLength = closeState == CLOSED ? 0 : Math.min(maxItems, length.get());
+                if (runLength <= 0) {
+                    return 0;
+                }
+
+                // Move the run from the head of the array (clearing each slot, so we don't hold on to the item). If target
+                // throws part way through, the length only drops by the items it took - the rest are still in the queue.
+                try {
+                    while (moved < runLength) {
+                        target.add(queueArray[headIdx]);
+                        queueArray[headIdx] = null;
+                        headIdx = wrapIndex(headIdx + 1);
+                        moved++;
+                    }
+                } finally {
+                    // Free the whole run with a single update to the length
+                    if (moved > 0) {
+                        oldLength = length.getAndAdd(-moved);
+                    }
+                }
+            }
+        } finally {
+            // If the queue was full, wake up the enqueue threads (once for the whole run)
+            if (moved > 0 && oldLength == capacity) {
+                synchronized (writeLockObj) {
+                    writeLockObj.notifyAll();
+                }
+            }
+        }
+
+        return moved;
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Stops enqueues. Dequeues carry on until the queue is empty.
+    public void closeForProducers() {
+        synchronized (writeLockObj) {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+            writeLockObj.notifyAll();
+        }
+        synchronized (readLockObj) {
+            readLockObj.notifyAll();
+        }
+    }
+
+    @Override
+    // ProducerConsumerQueue Implementation
+    // Stops enqueues and dequeues. Items left in the queue stay there.
+    public void close() {
+        synchronized (writeLockObj) {
+            synchronized (readLockObj) {
+                closeState = CLOSED;
+                readLockObj.notifyAll();
+            }
+            writeLockObj.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /// Helpers
+    // Throws once the queue is closed for producers (Call holding the write lock)
+    private void requireOpen() {
+        if (closeState != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    // Throws once the queue is closed, or closed for producers and empty (Call holding the read lock). The close state is
+    // read before the length, so an item enqueued before the close is always seen.
+    private void requireItem() {
+        if (closeState == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+        if (length.get() == 0) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+    }
+
+    // Wraps an index that may have run up to (less than) twice the array length back into queueArray
+    private int wrapIndex(int idx) {
+        return indexMask != NO_MASK ? idx & indexMask : idx % queueArray.length;
+    }
 }
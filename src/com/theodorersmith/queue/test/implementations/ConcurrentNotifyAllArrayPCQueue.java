@@ -2,10 +2,15 @@ package com.theodorersmith.queue.test.implementations;
 
 // Copyright Theodore Smith, 2018 - All Rights Reserved
 
+import com.theodorersmith.queue.QueueClosedException;
 import com.theodorersmith.queue.test.TestableQueue;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 // Very basic implementation of a producer consumer queue. It uses synchronized methods and notifies all waiting threeads
 // when the queue becomes not-full or not-empty. Works fine, but there are likely more efficient implementations.
+// Closing notifies all waiting threads too, and they check the close state each time they wake.
 public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T> {
 
     /// Member Variables
@@ -13,6 +18,11 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
     private int length;  // The current length of the queue
     private final T[] queueArray; // The internal array backing the queue. (Treated as circular array around headIdx)
 
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private int closeState;
+
     /// Construction and Initialization
     @SuppressWarnings("unchecked")
     public ConcurrentNotifyAllArrayPCQueue(int capacity) {
@@ -42,6 +52,7 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
     public synchronized void resetQueue() {
         this.headIdx = 0;
         this.length = 0;
+        this.closeState = OPEN;
     }
 
     // IProducerConsumerQueue Implementation
@@ -49,7 +60,7 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
     /// Threadsafe add an item to the end of the queue. Blocks if queue is full.
     public synchronized void enqueue(T item) {
         // Check if we have space to add new items
-        while (length == queueArray.length) {
+        while (closeState == OPEN && length == queueArray.length) {
             // Block until we have free space
             try {
                 wait();
@@ -65,6 +76,8 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
             }
         }
 
+        requireOpen();
+
         // If we are adding the first item in the queue, we want to notify all waiting threads (they may be waiting to dequeue)
         if (length == 0) {
             notifyAll();
@@ -80,7 +93,7 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
     /// Threadsafe pops an item off the front of the queue. Blocks if queue is full
     public synchronized T dequeue() {
         // Check if we have space to remove new items
-        while (length == 0) {
+        while (closeState == OPEN && length == 0) {
             // Block until we have at least one item in the queue
             try {
                 wait();
@@ -92,6 +105,8 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
             }
         }
 
+        requireItem();
+
         // If we are removing an item from a full queue, we want to notify all waiting threads (they may be waiting te enqueue)
         if (length == queueArray.length) {
             notifyAll();
@@ -103,4 +118,147 @@ public final class ConcurrentNotifyAllArrayPCQueue<T> implements TestableQueue<T
         this.length--;
         return popItem;
     }
+
+    @Override
+    /// Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full.
+    public synchronized boolean enqueue(T item, long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remainingNanos;
+
+        // Check if we have space to add new items
+        while (closeState == OPEN && length == queueArray.length) {
+            if (remainingNanos <= 0) {
+                return false;
+            }
+
+            // Block until we have free space, or until the deadline
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            } catch (InterruptedException iEx) {
+                // NOTE: Same as enqueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+                System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentNotifyAllArrayPCQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            remainingNanos = deadline - System.nanoTime();
+        }
+
+        requireOpen();
+
+        // If we are adding the first item in the queue, we want to notify all waiting threads (they may be waiting to dequeue)
+        if (length == 0) {
+            notifyAll();
+        }
+
+        // Enqueue the item at the end of the (circular) array and update the queue length
+        int nextQueueIdx = (headIdx + length) % queueArray.length;
+        this.queueArray[nextQueueIdx] = item;
+        this.length++;
+        return true;
+    }
+
+    @Override
+    /// Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty.
+    public synchronized T dequeue(long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remainingNanos;
+
+        // Check if we have items to remove
+        while (closeState == OPEN && length == 0) {
+            if (remainingNanos <= 0) {
+                return null;
+            }
+
+            // Block until we have at least one item in the queue, or until the deadline
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            } catch (InterruptedException iEx) {
+                System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentNotifyAllArrayPCQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            remainingNanos = deadline - System.nanoTime();
+        }
+
+        requireItem();
+
+        // If we are removing an item from a full queue, we want to notify all waiting threads (they may be waiting te enqueue)
+        if (length == queueArray.length) {
+            notifyAll();
+        }
+
+        // Pop an item off the front of the queue and update the queue header index
+        T popItem = this.queueArray[headIdx];
+        this.headIdx = (headIdx + 1) % queueArray.length;
+        this.length--;
+        return popItem;
+    }
+
+    @Override
+    /// Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks.
+    public synchronized int drainTo(Collection<? super T> target, int maxItems) {
+        int count = closeState == CLOSED ? 0 : Math.min(maxItems, length);
+        if (count <= 0) {
+            return 0;
+        }
+
+        // If we are removing items from a full queue, we want to notify all waiting threads (they may be waiting to enqueue)
+        if (length == queueArray.length) {
+            notifyAll();
+        }
+
+        // Pop the items off the front of the queue and update the queue header index (and the length as we go, so if
+        // target throws, only the items it took are gone)
+        for (int i = 0; i < count; i++) {
+            target.add(this.queueArray[headIdx]);
+            this.queueArray[headIdx] = null;
+            this.headIdx = (headIdx + 1) % queueArray.length;
+            this.length--;
+        }
+        return count;
+    }
+
+    @Override
+    /// Stops enqueues. Dequeues carry on until the queue is empty.
+    public synchronized void closeForProducers() {
+        if (closeState == OPEN) {
+            closeState = CLOSED_FOR_PRODUCERS;
+        }
+        notifyAll();
+    }
+
+    @Override
+    /// Stops enqueues and dequeues. Items left in the queue stay there.
+    public synchronized void close() {
+        closeState = CLOSED;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public synchronized boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /// Helpers
+    // Throws once the queue is closed for producers
+    private void requireOpen() {
+        if (closeState != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    // Throws once the queue is closed, or closed for producers and empty
+    private void requireItem() {
+        if (closeState == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+        if (length == 0) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+    }
 }
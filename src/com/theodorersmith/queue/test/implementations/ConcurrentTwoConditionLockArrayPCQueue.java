@@ -2,15 +2,19 @@ package com.theodorersmith.queue.test.implementations;
 
 // Copyright Theodore Smith, 2018 - All Rights Reserved
 
+import com.theodorersmith.queue.QueueClosedException;
 import com.theodorersmith.queue.test.TestableQueue;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 // Implementation of a producer-consumer queue using a lock with two conditions. Still isn't that efficient, because
 // queue and unqueue use the same lock. This implementation notifies a single waiting thread when things are enqueued
-// or dequeued (instead of notifying all when the queue becomes not-empty or not-full)
+// or dequeued (instead of notifying all when the queue becomes not-empty or not-full). Closing signals all of them, and
+// they check the close state each time they wake.
 public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements TestableQueue<T> {
 
     /// Member Variables
@@ -22,6 +26,11 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
     private Condition queueNotFullCondition = queueLock.newCondition();
     private Condition queueNotEmptyCondition = queueLock.newCondition();
 
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private int closeState; // Guarded by queueLock
+
     /// Construction and Initialization
     @SuppressWarnings("unchecked")
     public ConcurrentTwoConditionLockArrayPCQueue(int capacity) {
@@ -55,6 +64,7 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
         queueLock.lock();
         this.headIdx = 0;
         this.length = 0;
+        this.closeState = OPEN;
         queueLock.unlock();
     }
 
@@ -66,7 +76,7 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
         queueLock.lock();
 
         // Check if we have space to add new items
-        while (length == queueArray.length) {
+        while (closeState == OPEN && length == queueArray.length) {
             // The queue is full and we don't have space to add items. Surrender lock and wait for the queue to have space.
             try {
                 queueNotFullCondition.await();
@@ -81,6 +91,10 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
                 return;
             }
         }
+        if (closeState != OPEN) {
+            queueLock.unlock();
+            throw closedForProducers();
+        }
 
         // We are adding something, so the queue is about to be not empty. Signal someone waiting for the queue to be not empty.
         queueNotEmptyCondition.signal();
@@ -100,7 +114,7 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
         queueLock.lock();
 
         // Check if there is anything to remove
-        while (length == 0) {
+        while (closeState == OPEN && length == 0) {
             // We don't have anything to remove from the queue. Surrender the lock and wait for the not empty condition.
             try {
                 queueNotEmptyCondition.await();
@@ -111,6 +125,11 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
                 return null;
             }
         }
+        QueueClosedException closed = closedToConsumers();
+        if (closed != null) {
+            queueLock.unlock();
+            throw closed;
+        }
 
         // We are removing something, so the queue is about to have space to add. Signal someone waiting on queueNotFull
         queueNotFullCondition.signal();
@@ -125,4 +144,178 @@ public final class ConcurrentTwoConditionLockArrayPCQueue<T> implements Testable
 
         return popItem;
     }
+
+    @Override
+    /// Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+
+        // Acquire the lock
+        queueLock.lock();
+        try {
+            // Check if we have space to add new items
+            while (closeState == OPEN && length == queueArray.length) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+
+                // The queue is full. Surrender lock and wait for the queue to have space, or until the deadline.
+                try {
+                    remainingNanos = queueNotFullCondition.awaitNanos(remainingNanos);
+                } catch (InterruptedException iEx) {
+                    // NOTE: Same as enqueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+                    System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentTwoConditionLockArrayPCQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            if (closeState != OPEN) {
+                throw closedForProducers();
+            }
+
+            // We are adding something, so the queue is about to be not empty. Signal someone waiting for the queue to be not empty.
+            queueNotEmptyCondition.signal();
+
+            // Enqueue the item at the end of the (circular) array and update the queue length
+            int nextQueueIdx = (headIdx + length) % queueArray.length;
+            this.queueArray[nextQueueIdx] = item;
+            this.length++;
+            return true;
+        } finally {
+            // Surrender the lock
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    /// Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty.
+    public T dequeue(long timeout, TimeUnit unit) {
+        long remainingNanos = unit.toNanos(timeout);
+
+        queueLock.lock();
+        try {
+            // Check if there is anything to remove
+            while (closeState == OPEN && length == 0) {
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+
+                // We don't have anything to remove. Surrender the lock and wait for the not empty condition, or until the deadline.
+                try {
+                    remainingNanos = queueNotEmptyCondition.awaitNanos(remainingNanos);
+                } catch (InterruptedException iEx) {
+                    System.out.println("com.theodorersmith.queue.test.implementations.ConcurrentTwoConditionLockArrayPCQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            QueueClosedException closed = closedToConsumers();
+            if (closed != null) {
+                throw closed;
+            }
+
+            // We are removing something, so the queue is about to have space to add. Signal someone waiting on queueNotFull
+            queueNotFullCondition.signal();
+
+            // Pop an item off the front of the queue and update the queue header index
+            T popItem = this.queueArray[headIdx];
+            this.headIdx = (headIdx + 1) % queueArray.length;
+            this.length--;
+            return popItem;
+        } finally {
+            // Surrender the lock
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    /// Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        queueLock.lock();
+        try {
+            int count = closeState == CLOSED ? 0 : Math.max(Math.min(maxItems, length), 0);
+
+            // Pop the items off the front of the queue and update the queue header index (and the length as we go, so if
+            // target throws, only the items it took are gone)
+            for (int i = 0; i < count; i++) {
+                target.add(this.queueArray[headIdx]);
+                this.queueArray[headIdx] = null;
+                this.headIdx = (headIdx + 1) % queueArray.length;
+                this.length--;
+
+                // Each removed item makes space for one waiting enqueue thread
+                queueNotFullCondition.signal();
+            }
+            return count;
+        } finally {
+            // Surrender the lock
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    /// Stops enqueues. Dequeues carry on until the queue is empty.
+    public void closeForProducers() {
+        queueLock.lock();
+        try {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+            // Wake everybody - enqueue threads to find out they're closed, and dequeue threads to take what's left
+            queueNotFullCondition.signalAll();
+            queueNotEmptyCondition.signalAll();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    /// Stops enqueues and dequeues. Items left in the queue stay there.
+    public void close() {
+        queueLock.lock();
+        try {
+            closeState = CLOSED;
+            queueNotFullCondition.signalAll();
+            queueNotEmptyCondition.signalAll();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        queueLock.lock();
+        try {
+            return closeState != OPEN;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        queueLock.lock();
+        try {
+            return closeState == CLOSED;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /// Helpers
+    private static QueueClosedException closedForProducers() {
+        return new QueueClosedException("The queue is closed for producers");
+    }
+
+    // The exception a dequeue throws once the queue is closed, or closed for producers and empty (or null if it can go
+    // ahead). Call with queueLock held.
+    private QueueClosedException closedToConsumers() {
+        if (closeState == CLOSED) {
+            return new QueueClosedException("The queue is closed");
+        }
+        if (length == 0) {
+            return new QueueClosedException("The queue is closed and drained");
+        }
+        return null;
+    }
 }
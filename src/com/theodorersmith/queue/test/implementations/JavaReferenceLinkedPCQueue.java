@@ -2,19 +2,41 @@ package com.theodorersmith.queue.test.implementations;
 
 // Copyright Theodore Smith, 2018 - All Rights Reserved
 
+import com.theodorersmith.queue.QueueClosedException;
 import com.theodorersmith.queue.test.TestableQueue;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 // This is an implementation of the ProducerConsumerQueue that uses the java LinkedBlockingQueue. This is NOT a solution
 // to the coding challenge - it is only included as a reference because I was curious about how my implementations stacked up.
+//
+// A java BlockingQueue can't be closed, so closing is layered on top without touching the fast paths (which are still a
+// plain offer / poll, plus a volatile read of the close state):
+//   - A thread only registers in blockedThreads when it is about to block inside the java queue, and closing interrupts
+//     the registered threads. They see the close state and throw QueueClosedException instead.
+//   - An enqueue re-reads the close state after its item goes in. If the queue was closed for producers in the meantime,
+//     a dequeue may already have seen it closed and empty - so the enqueue takes its item back out (unless a dequeue has
+//     got to it) and throws. (It takes back an equal item, which is the same thing as far as the queue is concerned.)
 public final class JavaReferenceLinkedPCQueue<T> implements TestableQueue<T> {
 
     /// Member Variables
     private final int capacity;
     private final BlockingQueue<T> javaBlockingQueue;
 
+    private static final int OPEN = 0;
+    private static final int CLOSED_FOR_PRODUCERS = 1; // Enqueues throw, and dequeues throw once the queue is empty
+    private static final int CLOSED = 2; // Enqueues and dequeues throw
+    private volatile int closeState = OPEN; // Written while synchronized on blockedThreads
+
+    // Threads blocked (or about to block) inside the java queue. Closing interrupts them, and takes them out of the set so
+    // each one knows the interrupt was ours.
+    private final Set<Thread> blockedThreads = new HashSet<>();
+
     /// Construction and Initialization
     public JavaReferenceLinkedPCQueue(int capacity) {
         this.capacity = capacity;
@@ -36,15 +58,25 @@ public final class JavaReferenceLinkedPCQueue<T> implements TestableQueue<T> {
     // Clears all items from the queue and resets to a default state
     public void resetQueue() {
         javaBlockingQueue.clear();
+        closeState = OPEN;
     }
 
     // IProducerConsumerQueue Implementation
     @Override
     /// Threadsafe add an item to the end of the queue. Blocks if queue is full.
     public void enqueue(T item) {
+        if (offerOpen(item)) {
+            return;
+        }
+
+        startBlocking();
         try {
+            requireOpen();
             javaBlockingQueue.put(item);
         } catch (InterruptedException iEx) {
+            // Closing interrupts us - if that's what this was, throw QueueClosedException instead
+            requireOpen();
+
             // NOTE: Would normally rethrow an InterruptedException in a place like this; however the interface doesn't
             // throw InterruptedException, so we can't rethrow. Instead print message to system.out, reset the interrupt
             // flag, and exit. Note that this means a thread interrupt while this method is blocking will unblock as
@@ -52,19 +84,206 @@ public final class JavaReferenceLinkedPCQueue<T> implements TestableQueue<T> {
             // the interrupt is cleared or otherwise handled.)
             System.out.println("com.theodorersmith.queue.test.implementations.JavaReferenceLinkedPCQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
             Thread.currentThread().interrupt();
+            return;
+        } finally {
+            stopBlocking();
         }
+        takeBackIfClosed(item);
     }
 
     @Override
     /// Threadsafe pops an item off the front of the queue. Blocks if queue is full
     public T dequeue() {
+        T item = pollOpen();
+        if (item != null) {
+            return item;
+        }
+
+        startBlocking();
         try {
-            return javaBlockingQueue.take();
+            item = pollOpen();
+            return item != null ? item : javaBlockingQueue.take();
         } catch (InterruptedException iEx) {
+            if (closeState != OPEN) {
+                // Closing interrupted us. Take what's left, or throw.
+                return pollOpen();
+            }
+
             // NOTE: A thread interrupt while this method is blocking will unblock as soon as possible, reset the interrupt flag, and return null;
             System.out.println("com.theodorersmith.queue.test.implementations.JavaReferenceLinkedPCQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
             Thread.currentThread().interrupt();
             return null;
+        } finally {
+            stopBlocking();
+        }
+    }
+
+    @Override
+    /// Threadsafe add an item to the end of the queue. Blocks for at most the timeout if queue is full.
+    public boolean enqueue(T item, long timeout, TimeUnit unit) {
+        if (offerOpen(item)) {
+            return true;
+        }
+        if (timeout <= 0) {
+            return false;
+        }
+
+        boolean added;
+        startBlocking();
+        try {
+            requireOpen();
+            added = javaBlockingQueue.offer(item, timeout, unit);
+        } catch (InterruptedException iEx) {
+            requireOpen();
+
+            // NOTE: Same as enqueue - exit WITHOUT enqueuing the item, and reset the interrupt flag.
+            System.out.println("com.theodorersmith.queue.test.implementations.JavaReferenceLinkedPCQueue->enqueue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting without enqueuing item.");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            stopBlocking();
+        }
+        if (added) {
+            takeBackIfClosed(item);
+        }
+        return added;
+    }
+
+    @Override
+    /// Threadsafe pops an item off the front of the queue. Blocks for at most the timeout if queue is empty.
+    public T dequeue(long timeout, TimeUnit unit) {
+        T item = pollOpen();
+        if (item != null || timeout <= 0) {
+            return item;
+        }
+
+        startBlocking();
+        try {
+            item = pollOpen();
+            return item != null ? item : javaBlockingQueue.poll(timeout, unit);
+        } catch (InterruptedException iEx) {
+            if (closeState != OPEN) {
+                return pollOpen();
+            }
+
+            System.out.println("com.theodorersmith.queue.test.implementations.JavaReferenceLinkedPCQueue->dequeue: Thread " + Thread.currentThread().getName() + " received an interrupt. Exiting returning null.");
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            stopBlocking();
+        }
+    }
+
+    @Override
+    /// Adds the item only if there is space right now. Never blocks.
+    public boolean tryEnqueue(T item) {
+        return offerOpen(item);
+    }
+
+    @Override
+    /// Pops an item off the front of the queue only if there is one right now. Never blocks.
+    public T tryDequeue() {
+        return pollOpen();
+    }
+
+    @Override
+    /// Threadsafe moves up to maxItems items off the front of the queue into target. Never blocks.
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        return closeState == CLOSED ? 0 : javaBlockingQueue.drainTo(target, maxItems);
+    }
+
+    @Override
+    /// Stops enqueues. Dequeues carry on until the queue is empty.
+    public void closeForProducers() {
+        synchronized (blockedThreads) {
+            if (closeState == OPEN) {
+                closeState = CLOSED_FOR_PRODUCERS;
+            }
+            interruptBlockedThreads();
+        }
+    }
+
+    @Override
+    /// Stops enqueues and dequeues. Items left in the queue stay there.
+    public void close() {
+        synchronized (blockedThreads) {
+            closeState = CLOSED;
+            interruptBlockedThreads();
+        }
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return closeState != OPEN;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closeState == CLOSED;
+    }
+
+    /// Helpers
+    // Adds the item if there is space right now. Throws once the queue is closed for producers.
+    private boolean offerOpen(T item) {
+        requireOpen();
+        if (!javaBlockingQueue.offer(item)) {
+            return false;
+        }
+        takeBackIfClosed(item);
+        return true;
+    }
+
+    // Pops the head item, or returns null if there isn't one. Throws once the queue is closed, or closed for producers and
+    // empty. (The close state is read before polling, so an empty poll after it really is drained.)
+    private T pollOpen() {
+        int state = closeState;
+        if (state == CLOSED) {
+            throw new QueueClosedException("The queue is closed");
+        }
+        T item = javaBlockingQueue.poll();
+        if (item == null && state == CLOSED_FOR_PRODUCERS) {
+            throw new QueueClosedException("The queue is closed and drained");
+        }
+        return item;
+    }
+
+    // Called once our item is in. If the queue has been closed for producers since, takes the item back out and throws -
+    // unless a dequeue already has it, in which case the enqueue counts.
+    private void takeBackIfClosed(T item) {
+        if (closeState != OPEN && javaBlockingQueue.remove(item)) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    private void requireOpen() {
+        if (closeState != OPEN) {
+            throw new QueueClosedException("The queue is closed for producers");
+        }
+    }
+
+    // Registers the current thread before it blocks. The caller re-checks the close state after this, so either it sees
+    // the close or the close sees it.
+    private void startBlocking() {
+        synchronized (blockedThreads) {
+            blockedThreads.add(Thread.currentThread());
+        }
+    }
+
+    // If closing interrupted us after the java queue had already returned, clears the interrupt so it doesn't leak out
+    // to the caller. (A real interrupt landing in the same moment is cleared with it.)
+    private void stopBlocking() {
+        synchronized (blockedThreads) {
+            if (!blockedThreads.remove(Thread.currentThread())) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    // (Call while synchronized on blockedThreads)
+    private void interruptBlockedThreads() {
+        for (Thread thread : blockedThreads) {
+            thread.interrupt();
         }
+        blockedThreads.clear();
     }
 }
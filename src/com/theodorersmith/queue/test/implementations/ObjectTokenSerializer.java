@@ -0,0 +1,26 @@
+package com.theodorersmith.queue.test.implementations;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.QueueSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lets the Object based test suite (and the benchmarks) run against a ProducerConsumerPersistentQueue. The suite enqueues
+// plain new Object()s, which have nothing in them to write - so each one is logged as an 8 byte token, and a recovered
+// token comes back as a new Object. A live queue hands back the original objects, so the suite still sees the same items.
+// This is NOT a useful serializer in its own right.
+public final class ObjectTokenSerializer implements QueueSerializer<Object> {
+    private final AtomicLong nextToken = new AtomicLong();
+
+    @Override
+    public byte[] serialize(Object item) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(nextToken.getAndIncrement()).array();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        return new Object();
+    }
+}
@@ -0,0 +1,133 @@
+package com.theodorersmith.queue.test.implementations;
+
+// Copyright Theodore Smith, 2018 - All Rights Reserved
+
+import com.theodorersmith.queue.ProducerConsumerRecordQueue;
+import com.theodorersmith.queue.test.TestableQueue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lets the Object based test suite run against a ProducerConsumerRecordQueue. Each item is parked in a map under a new id,
+// and only the 8 byte id goes through the record queue, so every enqueue/dequeue (and all of the blocking) is done by the
+// record queue itself - and the tests still get the same item objects back. This is NOT a useful queue in its own right.
+public final class RecordQueueObjectAdapter implements TestableQueue<Object> {
+
+    /// Member Variables
+    private final ProducerConsumerRecordQueue recordQueue;
+    private final Map<Long, Object> items = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    /// Construction and Initialization
+    public RecordQueueObjectAdapter(ProducerConsumerRecordQueue recordQueue) {
+        if (recordQueue.getRecordSize() < Long.BYTES) {
+            throw new IllegalArgumentException("Record queue must have records of at least " + Long.BYTES + " bytes");
+        }
+        this.recordQueue = recordQueue;
+    }
+
+    /// ITestableQueue Implementation (Just used for testing)
+    @Override
+    // Gets the maximum capacity of the queue
+    public int getCapacity() {
+        return recordQueue.getCapacity();
+    }
+    @Override
+    // Gets the current length of the queue
+    public int getLength() {
+        return recordQueue.getLength();
+    }
+    @Override
+    // Clears all items from the queue and resets to a default state
+    public void resetQueue() {
+        recordQueue.resetQueue();
+        items.clear();
+    }
+
+    // ProducerConsumerQueue Implementation
+    @Override
+    public void enqueue(Object item) {
+        long id = park(item);
+        boolean[] written = new boolean[1];
+        try {
+            recordQueue.enqueue(slot -> {
+                slot.putLong(id);
+                written[0] = true;
+            });
+        } finally {
+            if (!written[0]) {
+                // (The record queue was interrupted or closed, and gave up without enqueuing the id)
+                items.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public Object dequeue() {
+        Long id = recordQueue.dequeue(slot -> slot.getLong());
+        return id == null ? null : items.remove(id);
+    }
+
+    @Override
+    public boolean enqueue(Object item, long timeout, TimeUnit unit) {
+        long id = park(item);
+        boolean enqueued = false;
+        try {
+            enqueued = recordQueue.enqueue(slot -> slot.putLong(id), timeout, unit);
+            return enqueued;
+        } finally {
+            if (!enqueued) {
+                items.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public Object dequeue(long timeout, TimeUnit unit) {
+        Long id = recordQueue.dequeue(slot -> slot.getLong(), timeout, unit);
+        return id == null ? null : items.remove(id);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Object> target, int maxItems) {
+        List<byte[]> records = new ArrayList<>();
+        int drained = recordQueue.drainTo(records, maxItems);
+        for (byte[] record : records) {
+            target.add(items.remove(ByteBuffer.wrap(record).getLong()));
+        }
+        return drained;
+    }
+
+    @Override
+    public void closeForProducers() {
+        recordQueue.closeForProducers();
+    }
+
+    @Override
+    public void close() {
+        recordQueue.close();
+    }
+
+    @Override
+    public boolean isClosedForProducers() {
+        return recordQueue.isClosedForProducers();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return recordQueue.isClosed();
+    }
+
+    /// Helpers
+    private long park(Object item) {
+        long id = nextId.getAndIncrement();
+        items.put(id, item);
+        return id;
+    }
+}
@@ -0,0 +1,122 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerLongQueue;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarked test - moves numObjects long values from one producer to one consumer, and reports how many bytes the two
+// threads allocated per value on the way. A ProducerConsumerQueue<Long> allocates a Long for every value (the values
+// start well above the Long.valueOf cache), while the primitive queue shouldn't allocate anything at all.
+//
+// The counts come from com.sun.management.ThreadMXBean, so this needs a HotSpot based JVM. The first tenth of the values
+// are a warmup and aren't counted (So class loading and the first park of each thread don't show up as per item costs).
+public class BenchTest_Allocation {
+    private static final long FIRST_VALUE = 1_000_000L;
+
+    public static boolean runBoxed(ExecutorService threadPool, ProducerConsumerQueue<Long> testQueue, int numObjects, int timeout) {
+        return run(threadPool, numObjects, timeout,
+                value -> testQueue.enqueue(value),
+                () -> testQueue.dequeue());
+    }
+
+    public static boolean runPrimitive(ExecutorService threadPool, ProducerConsumerLongQueue testQueue, int numObjects, int timeout) {
+        return run(threadPool, numObjects, timeout,
+                testQueue::enqueueLong,
+                testQueue::dequeueLong);
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // (Primitive functional interfaces, so the harness itself doesn't box anything)
+    private interface LongEnqueue {
+        void enqueue(long value);
+    }
+
+    private interface LongDequeue {
+        long dequeue();
+    }
+
+    private static boolean run(ExecutorService threadPool, int numObjects, int timeout, LongEnqueue enqueue, LongDequeue dequeue) {
+        com.sun.management.ThreadMXBean threadBean = allocationBean();
+        if (threadBean == null) {
+            PCQueueTestHelpers.printFail("Thread allocation counters aren't available on this JVM");
+            return false;
+        }
+
+        final int warmupObjects = numObjects / 10;
+        Future<Long> producerFuture = null;
+        Future<Long> consumerFuture = null;
+        long startTime = System.currentTimeMillis();
+        try {
+            producerFuture = threadPool.submit(() ->
+            {
+                long threadId = Thread.currentThread().getId();
+                long startBytes = 0;
+                for (int i = 0; i < numObjects; i++) {
+                    if (i == warmupObjects) {
+                        startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                    }
+                    enqueue.enqueue(FIRST_VALUE + i);
+                }
+                return threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+            });
+            consumerFuture = threadPool.submit(() ->
+            {
+                long threadId = Thread.currentThread().getId();
+                long startBytes = 0;
+                long sum = 0;
+                for (int i = 0; i < numObjects; i++) {
+                    if (i == warmupObjects) {
+                        startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                    }
+                    sum += dequeue.dequeue();
+                }
+                long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+                long expectedSum = numObjects * FIRST_VALUE + (long)numObjects * (numObjects - 1) / 2;
+                return sum == expectedSum ? allocatedBytes : -1L;
+            });
+
+            long producerBytes = producerFuture.get(timeout, TimeUnit.MILLISECONDS);
+            long consumerBytes = consumerFuture.get(timeout, TimeUnit.MILLISECONDS);
+            if (consumerBytes < 0) {
+                PCQueueTestHelpers.printFail("The consumer didn't get back the values the producer enqueued");
+                return false;
+            }
+
+            int measuredObjects = numObjects - warmupObjects;
+            PCQueueTestHelpers.printSuccess(System.currentTimeMillis() - startTime,
+                    String.format("%.2f bytes/op allocated (producer %.2f; consumer %.2f)",
+                            (double)(producerBytes + consumerBytes) / measuredObjects,
+                            (double)producerBytes / measuredObjects,
+                            (double)consumerBytes / measuredObjects));
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            if (producerFuture != null && !producerFuture.isDone()) producerFuture.cancel(true);
+            if (consumerFuture != null && !consumerFuture.isDone()) consumerFuture.cancel(true);
+        }
+        return true;
+    }
+
+    // The HotSpot ThreadMXBean (with per thread allocation counters), or null if this JVM doesn't have one
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+}
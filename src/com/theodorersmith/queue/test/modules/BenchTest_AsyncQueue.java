@@ -0,0 +1,158 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerAsyncQueue;
+import com.theodorersmith.queue.ProducerConsumerFlow;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Benchmarked test - moves numObjects objects through a ProducerConsumerAsyncQueue without ever blocking a thread, for
+// comparison with BenchTest_NThreadContention on the blocking queues at the same producer/consumer counts.
+//
+// Each producer (and consumer) is started as a task on the thread pool, and runs its enqueues (dequeues) in a loop
+// until one comes back pending. Then it returns its thread, and carries on from the callback when the future completes
+// - on whichever thread completed it. So the producers and consumers only ever use the threads that are doing work.
+//
+// In flow mode the consumers are Flow subscribers of ProducerConsumerFlow.publisher, requesting batchSize items at a time.
+public class BenchTest_AsyncQueue {
+
+    public static boolean run(ExecutorService threadPool,
+                              ProducerConsumerAsyncQueue<Object> testQueue,
+                              int numProducers,
+                              int numConsumers,
+                              int numObjects,
+                              int flowBatchSize,
+                              int timeout) {
+        List<CompletableFuture<Void>> doneFutures = new ArrayList<>();
+        AtomicInteger dequeued = new AtomicInteger();
+        try {
+            long startStamp = System.currentTimeMillis();
+            for (int i = 0; i < numConsumers; i++) {
+                // Spread the remainder over the first few consumers (and producers), like BenchTest_NThreadContention
+                int consumerObjects = numObjects / numConsumers + (i < numObjects % numConsumers ? 1 : 0);
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                doneFutures.add(done);
+                if (flowBatchSize > 0) {
+                    threadPool.execute(() -> ProducerConsumerFlow.publisher(testQueue).subscribe(new CountingSubscriber(consumerObjects, flowBatchSize, dequeued, done)));
+                } else {
+                    threadPool.execute(() -> consume(testQueue, consumerObjects, dequeued, done));
+                }
+            }
+            for (int i = 0; i < numProducers; i++) {
+                int producerObjects = numObjects / numProducers + (i < numObjects % numProducers ? 1 : 0);
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                doneFutures.add(done);
+                threadPool.execute(() -> produce(testQueue, producerObjects, done));
+            }
+
+            CompletableFuture.allOf(doneFutures.toArray(new CompletableFuture<?>[0])).get(timeout, TimeUnit.MILLISECONDS);
+            long timeTaken = System.currentTimeMillis() - startStamp;
+
+            if (dequeued.get() != numObjects) {
+                PCQueueTestHelpers.printFail("Expected to dequeue " + numObjects + " objects; Observed " + dequeued.get() + " objects");
+                return false;
+            }
+            PCQueueTestHelpers.printSuccess(timeTaken);
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered (" + dequeued.get() + " of " + numObjects + " dequeued): " + ex);
+            // Anything still pending would never complete - drop it
+            testQueue.resetQueue();
+            return false;
+        }
+
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Enqueues until one comes back pending, then carries on from its callback
+    private static void produce(ProducerConsumerAsyncQueue<Object> testQueue, int remaining, CompletableFuture<Void> done) {
+        while (remaining > 0) {
+            CompletableFuture<Void> enqueueFuture = testQueue.enqueueAsync(new Object());
+            remaining--;
+            if (!enqueueFuture.isDone()) {
+                int left = remaining;
+                enqueueFuture.thenRun(() -> produce(testQueue, left, done));
+                return;
+            }
+        }
+        done.complete(null);
+    }
+
+    // Dequeues until one comes back pending, then carries on from its callback
+    private static void consume(ProducerConsumerAsyncQueue<Object> testQueue, int remaining, AtomicInteger dequeued, CompletableFuture<Void> done) {
+        while (remaining > 0) {
+            CompletableFuture<Object> dequeueFuture = testQueue.dequeueAsync();
+            remaining--;
+            if (!dequeueFuture.isDone()) {
+                int left = remaining;
+                dequeueFuture.thenRun(() -> {
+                    dequeued.incrementAndGet();
+                    consume(testQueue, left, dequeued, done);
+                });
+                return;
+            }
+            dequeued.incrementAndGet();
+        }
+        done.complete(null);
+    }
+
+    // Requests batchSize items at a time until it has had its share, then cancels
+    private static final class CountingSubscriber implements Flow.Subscriber<Object> {
+        private final int batchSize;
+        private final AtomicInteger dequeued;
+        private final CompletableFuture<Void> done;
+        private Flow.Subscription subscription;
+        private int remaining;
+        private int remainingInBatch;
+
+        private CountingSubscriber(int numObjects, int batchSize, AtomicInteger dequeued, CompletableFuture<Void> done) {
+            this.remaining = numObjects;
+            this.batchSize = batchSize;
+            this.dequeued = dequeued;
+            this.done = done;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            requestBatch();
+        }
+
+        @Override
+        public void onNext(Object item) {
+            dequeued.incrementAndGet();
+            remaining--;
+            if (--remainingInBatch == 0) {
+                requestBatch();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        private void requestBatch() {
+            if (remaining == 0) {
+                subscription.cancel();
+                done.complete(null);
+                return;
+            }
+            remainingInBatch = Math.min(batchSize, remaining);
+            subscription.request(remainingInBatch);
+        }
+    }
+}
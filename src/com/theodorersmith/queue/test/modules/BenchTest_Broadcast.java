@@ -0,0 +1,125 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerBroadcastRing;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarked test - fan-out. Producers send the numbers 0 to numObjects - 1 as messages, and every one of the groups of
+// consumers has to see every message (each group adding up what its consumers receive). Either each group has its own
+// ProducerConsumerQueue, and producers enqueue every message once per group, or the producers publish each message once
+// to a ProducerConsumerBroadcastRing with a consumer group per group. Reports the time, the messages sent per second, and
+// the deliveries (messages x groups) per second.
+public class BenchTest_Broadcast {
+
+    // The message - a mutable holder, so the ring can reuse it (Through the queues, one message is shared by every group)
+    public static final class MessageEvent {
+        private long value;
+    }
+
+    public static boolean runQueues(ExecutorService threadPool, List<? extends ProducerConsumerQueue<MessageEvent>> testQueues, int numProducerThreads, int numConsumersPerGroup, int numObjects, int timeout) {
+        return run(threadPool, testQueues.size(), numProducerThreads, numConsumersPerGroup, numObjects, timeout,
+                value -> {
+                    MessageEvent message = new MessageEvent();
+                    message.value = value;
+                    for (ProducerConsumerQueue<MessageEvent> queue : testQueues) {
+                        queue.enqueue(message);
+                    }
+                },
+                group -> testQueues.get(group).dequeue().value);
+    }
+
+    public static boolean runRing(ExecutorService threadPool, ProducerConsumerBroadcastRing<MessageEvent> testRing, List<ProducerConsumerBroadcastRing<MessageEvent>.ConsumerGroup> groups, int numProducerThreads, int numConsumersPerGroup, int numObjects, int timeout) {
+        return run(threadPool, groups.size(), numProducerThreads, numConsumersPerGroup, numObjects, timeout,
+                value -> {
+                    long sequence = testRing.claim();
+                    testRing.get(sequence).value = value;
+                    testRing.publish(sequence);
+                },
+                group -> {
+                    ProducerConsumerBroadcastRing<MessageEvent>.ConsumerGroup consumerGroup = groups.get(group);
+                    long sequence = consumerGroup.take();
+                    long value = testRing.get(sequence).value;
+                    consumerGroup.release(sequence);
+                    return value;
+                });
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // (Primitive functional interfaces, so the harness itself doesn't box anything)
+    private interface MessageSend {
+        void send(long value);
+    }
+
+    private interface GroupReceive {
+        long receive(int group);
+    }
+
+    private static boolean run(ExecutorService threadPool, int numGroups, int numProducerThreads, int numConsumersPerGroup, int numObjects, int timeout, MessageSend send, GroupReceive receive) {
+        // The consumer tasks are submitted group by group, after the producers - so each future's sum can be matched to
+        // its group
+        List<Future<Long>> futures = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try {
+            for (int p = 0; p < numProducerThreads; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    for (long value = firstValue; value < numObjects; value += numProducerThreads) {
+                        send.send(value);
+                    }
+                    return 0L;
+                }));
+            }
+            for (int g = 0; g < numGroups; g++) {
+                int group = g;
+                for (int c = 0; c < numConsumersPerGroup; c++) {
+                    int count = numObjects / numConsumersPerGroup + (c < numObjects % numConsumersPerGroup ? 1 : 0);
+                    futures.add(threadPool.submit(() -> {
+                        long sum = 0;
+                        for (int i = 0; i < count; i++) {
+                            sum += receive.receive(group);
+                        }
+                        return sum;
+                    }));
+                }
+            }
+
+            long[] groupSums = new long[numGroups];
+            for (int i = 0; i < futures.size(); i++) {
+                long sum = futures.get(i).get(timeout, TimeUnit.MILLISECONDS);
+                if (i >= numProducerThreads) {
+                    groupSums[(i - numProducerThreads) / numConsumersPerGroup] += sum;
+                }
+            }
+            long elapsedNanos = System.nanoTime() - startTime;
+
+            long expectedSum = (long)numObjects * (numObjects - 1) / 2;
+            for (int g = 0; g < numGroups; g++) {
+                if (groupSums[g] != expectedSum) {
+                    PCQueueTestHelpers.printFail("Expected group " + g + " to receive a sum of " + expectedSum + "; Observed " + groupSums[g]);
+                    return false;
+                }
+            }
+
+            PCQueueTestHelpers.printSuccess(TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%,.0f msgs/s; %,.0f deliveries/s",
+                    numObjects * 1e9 / elapsedNanos,
+                    (double)numObjects * numGroups * 1e9 / elapsedNanos));
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<Long> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarked test - runs the N thread contention test and reports how many context switches the whole process made
+// while it ran. A queue that wakes more threads than it has items for shows up here as extra voluntary switches (threads
+// that were woken, lost the race for the item, and went straight back to sleep).
+//
+// The counts come from /proc/self/task/*/status, so this only works on Linux. Counts are compared per thread (by task id),
+// so threads left over from an earlier run that exit while we are measuring don't throw off the totals.
+public class BenchTest_ContextSwitches {
+    public static boolean run(ProducerConsumerQueue<Object> testQueue,
+                              int numProducerThreads,
+                              int numConsumerThreads,
+                              int numObjects,
+                              int timeout) {
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        try {
+            Map<String, long[]> startSwitches = readThreadContextSwitches();
+            boolean success = BenchTest_NThreadContention.run(threadPool, testQueue, numProducerThreads, 0, numConsumerThreads, 0, numObjects, timeout, true);
+            Map<String, long[]> endSwitches = readThreadContextSwitches();
+
+            if (startSwitches == null || endSwitches == null) {
+                System.out.println("    Context switches: n/a (needs /proc/self/task)");
+            } else {
+                // Threads that started during the run count from zero, and threads that exited during the run are lost
+                long voluntary = 0;
+                long involuntary = 0;
+                for (Map.Entry<String, long[]> thread : endSwitches.entrySet()) {
+                    long[] start = startSwitches.getOrDefault(thread.getKey(), new long[2]);
+                    voluntary += thread.getValue()[0] - start[0];
+                    involuntary += thread.getValue()[1] - start[1];
+                }
+                System.out.println("    Context switches: " + voluntary + " voluntary, " + involuntary + " involuntary (" +
+                        String.format("%.2f", (double)(voluntary + involuntary) / numObjects) + " per object)");
+            }
+            return success;
+        } finally {
+            // Wait for the pool to wind down, so its threads don't exit in the middle of the next measurement
+            threadPool.shutdownNow();
+            try {
+                threadPool.awaitTermination(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException iEx) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Reads { voluntary, involuntary } context switches for every thread in this process, keyed by task id. Returns null if
+    // we can't read them.
+    public static Map<String, long[]> readThreadContextSwitches() {
+        Map<String, long[]> threadSwitches = new HashMap<>();
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Paths.get("/proc/self/task"))) {
+            for (Path task : tasks) {
+                long[] switches = new long[2];
+                try {
+                    for (String line : Files.readAllLines(task.resolve("status"))) {
+                        if (line.startsWith("voluntary_ctxt_switches:")) {
+                            switches[0] = Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                        } else if (line.startsWith("nonvoluntary_ctxt_switches:")) {
+                            switches[1] = Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                        }
+                    }
+                    threadSwitches.put(task.getFileName().toString(), switches);
+                } catch (IOException ioEx) {
+                    // The thread exited while we were looking at it - just skip it
+                }
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            return null;
+        }
+        return threadSwitches;
+    }
+}
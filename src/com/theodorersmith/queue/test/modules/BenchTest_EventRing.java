@@ -0,0 +1,155 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerEventRing;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Benchmarked test - producers send the numbers 0 to numObjects - 1 as messages, and consumers add up what they receive.
+// Through a ProducerConsumerQueue every message is a new MessageEvent (which is what callers do today), while through a
+// ProducerConsumerEventRing the producers fill in the ring's preallocated MessageEvents in place. Reports the time, the
+// throughput, and how many bytes every producer and consumer thread allocated per message between them.
+//
+// Like BenchTest_Allocation, the counts come from com.sun.management.ThreadMXBean (so this needs a HotSpot based JVM), and
+// each thread's first tenth of the messages are a warmup that isn't counted.
+public class BenchTest_EventRing {
+
+    // The message - a mutable holder, so the ring can reuse it
+    public static final class MessageEvent {
+        private long value;
+    }
+
+    public static boolean runQueue(ExecutorService threadPool, ProducerConsumerQueue<MessageEvent> testQueue, int numProducerThreads, int numConsumerThreads, int numObjects, int timeout) {
+        return run(threadPool, numProducerThreads, numConsumerThreads, numObjects, timeout,
+                value -> {
+                    MessageEvent message = new MessageEvent();
+                    message.value = value;
+                    testQueue.enqueue(message);
+                },
+                () -> testQueue.dequeue().value);
+    }
+
+    public static boolean runRing(ExecutorService threadPool, ProducerConsumerEventRing<MessageEvent> testRing, int numProducerThreads, int numConsumerThreads, int numObjects, int timeout) {
+        return run(threadPool, numProducerThreads, numConsumerThreads, numObjects, timeout,
+                value -> {
+                    long sequence = testRing.claim();
+                    testRing.get(sequence).value = value;
+                    testRing.publish(sequence);
+                },
+                () -> {
+                    long sequence = testRing.take();
+                    long value = testRing.get(sequence).value;
+                    testRing.release(sequence);
+                    return value;
+                });
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // (Primitive functional interfaces, so the harness itself doesn't box anything)
+    private interface MessageSend {
+        void send(long value);
+    }
+
+    private interface MessageReceive {
+        long receive();
+    }
+
+    private static boolean run(ExecutorService threadPool, int numProducerThreads, int numConsumerThreads, int numObjects, int timeout, MessageSend send, MessageReceive receive) {
+        com.sun.management.ThreadMXBean threadBean = allocationBean();
+        if (threadBean == null) {
+            PCQueueTestHelpers.printFail("Thread allocation counters aren't available on this JVM");
+            return false;
+        }
+
+        // Every task returns { bytes allocated after its warmup, messages sent / received after its warmup, sum received }
+        List<Future<long[]>> futures = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try {
+            for (int p = 0; p < numProducerThreads; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    long threadId = Thread.currentThread().getId();
+                    int count = (numObjects - firstValue + numProducerThreads - 1) / numProducerThreads;
+                    int warmup = count / 10;
+                    long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                    int sent = 0;
+                    for (long value = firstValue; value < numObjects; value += numProducerThreads) {
+                        if (sent++ == warmup) {
+                            startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                        }
+                        send.send(value);
+                    }
+                    return new long[]{threadBean.getThreadAllocatedBytes(threadId) - startBytes, count - warmup, 0};
+                }));
+            }
+            for (int c = 0; c < numConsumerThreads; c++) {
+                int count = numObjects / numConsumerThreads + (c < numObjects % numConsumerThreads ? 1 : 0);
+                futures.add(threadPool.submit(() -> {
+                    long threadId = Thread.currentThread().getId();
+                    int warmup = count / 10;
+                    long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                    long sum = 0;
+                    for (int i = 0; i < count; i++) {
+                        if (i == warmup) {
+                            startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                        }
+                        sum += receive.receive();
+                    }
+                    return new long[]{threadBean.getThreadAllocatedBytes(threadId) - startBytes, count - warmup, sum};
+                }));
+            }
+
+            long allocatedBytes = 0;
+            long measuredMessages = 0;
+            long sum = 0;
+            for (Future<long[]> fut : futures) {
+                long[] result = fut.get(timeout, TimeUnit.MILLISECONDS);
+                allocatedBytes += result[0];
+                measuredMessages += result[1];
+                sum += result[2];
+            }
+            long elapsedNanos = System.nanoTime() - startTime;
+
+            long expectedSum = (long)numObjects * (numObjects - 1) / 2;
+            if (sum != expectedSum) {
+                PCQueueTestHelpers.printFail("Expected the consumers to receive a sum of " + expectedSum + "; Observed " + sum);
+                return false;
+            }
+
+            // (Each message is counted once by its producer and once by its consumer, so there are half as many messages)
+            PCQueueTestHelpers.printSuccess(TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%,.0f ops/s; %.2f bytes/op allocated",
+                    numObjects * 1e9 / elapsedNanos,
+                    measuredMessages == 0 ? 0.0 : 2.0 * allocatedBytes / measuredMessages));
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<long[]> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+        return true;
+    }
+
+    // The HotSpot ThreadMXBean (with per thread allocation counters), or null if this JVM doesn't have one
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        return threadBean;
+    }
+}
@@ -1,17 +1,24 @@
 package com.theodorersmith.queue.test.modules;
 
+import com.theodorersmith.queue.LatencyHistogram;
 import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.ProducerConsumerQueues;
+import com.theodorersmith.queue.ProducerConsumerQueues.ThreadingMode;
 import com.theodorersmith.queue.test.PCQueueTestHelpers;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.*;
+import java.util.function.IntSupplier;
 
 // Benchmarked test - tests multiple thread contention for the provided number of producer and consumer threads and number
 // of objects, where each thread has between 0 and max delay between each queue/dequeue.
-// Uses very simple and inexact stopwatch benchmark, giving a timeout failure if we don't finish before timeout.
+// Uses very simple and inexact stopwatch benchmark, giving a timeout failure if we don't finish before timeout. Along
+// with the total time, run() reports the throughput and the p50 / p90 / p99 / p999 / max end to end latency of the
+// objects (from just before the enqueue to just after the dequeue).
 public class BenchTest_NThreadContention {
     public static boolean run(ExecutorService threadPool,
                               ProducerConsumerQueue<Object> testQueue,
@@ -22,14 +29,58 @@ public class BenchTest_NThreadContention {
                               int numObjects,
                               int timeout,
                               boolean runQuiet) {
+        return run(threadPool, testQueue, numProducerThreads, maxProducerDelay, numConsumerThreads, maxConsumerDelay, numObjects, 1, timeout, runQuiet);
+    }
+
+    // Same as above, but with a batch size. When the batch size is more than one, producers hand over their objects with
+    // enqueueAll, and consumers take one object with dequeue and then drain up to the rest of a batch with drainTo. The
+    // delays are applied once per batch.
+    public static boolean run(ExecutorService threadPool,
+                              ProducerConsumerQueue<Object> testQueue,
+                              int numProducerThreads,
+                              int maxProducerDelay,
+                              int numConsumerThreads,
+                              int maxConsumerDelay,
+                              int numObjects,
+                              int batchSize,
+                              int timeout,
+                              boolean runQuiet) {
         if (!runQuiet) {
             System.out.print("Running test: Multiple Thread Contention with " +
-                    +numObjects + " Objects; " +
+                    +numObjects + " Objects" + (batchSize > 1 ? " (Batches of " + batchSize + ")" : "") + "; " +
                     +numProducerThreads + " Producers (" + maxProducerDelay + " ms delay); " +
                     +numConsumerThreads + " Consumers (" + maxConsumerDelay + " ms delay)... ");
         }
 
-        List<Future<Set<Object>>> testFutureResults = null;
+        Result result = measure(threadPool, testQueue, numProducerThreads, maxProducerDelay, numConsumerThreads, maxConsumerDelay, numObjects, batchSize, timeout);
+        if (result.getFailure() != null) {
+            PCQueueTestHelpers.printFail(result.getFailure());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess(TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()), String.format(
+                "%,.0f ops/s; latency p50 %.1f us, p90 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us",
+                result.getThroughput(),
+                result.getLatencies().getValueAtPercentile(50) / 1000.0,
+                result.getLatencies().getValueAtPercentile(90) / 1000.0,
+                result.getLatencies().getValueAtPercentile(99) / 1000.0,
+                result.getLatencies().getValueAtPercentile(99.9) / 1000.0,
+                result.getLatencies().getMax() / 1000.0));
+        return true;
+    }
+
+    // Runs the same test as run(), but returns what it measured instead of printing it (so it can be used without the
+    // console, by PCQueueBenchmarkRunner). The result holds a failure message instead if the test failed.
+    public static Result measure(ExecutorService threadPool,
+                                 ProducerConsumerQueue<Object> testQueue,
+                                 int numProducerThreads,
+                                 int maxProducerDelay,
+                                 int numConsumerThreads,
+                                 int maxConsumerDelay,
+                                 int numObjects,
+                                 int batchSize,
+                                 int timeout) {
+        List<Future<int[]>> testFutureResults = null;
         try {
             // Figure out our number of test objects for each thread
             int numObjectsPerProducer = numObjects / numProducerThreads;
@@ -37,16 +88,55 @@ public class BenchTest_NThreadContention {
             int numObjectsPerConsumer = numObjects / numConsumerThreads;
             int remConsumerObjects = numObjects % numConsumerThreads;
 
+            // Allocate everything we measure with up front, so the measuring itself doesn't allocate: a carrier per object
+            // (which the producer stamps just before it enqueues it), and for each consumer an array of the latencies it
+            // sees and the carrier ids it got. (An array per consumer rather than a histogram per consumer - with 100,000
+            // virtual thread consumers, a histogram each would be over a gigabyte)
+            TimedItem[] items = new TimedItem[numObjects];
+            for (int i = 0; i < numObjects; i++) {
+                items[i] = new TimedItem(i);
+            }
+            long[][] consumerLatencies = new long[numConsumerThreads][];
+            int[][] consumerItemIds = new int[numConsumerThreads][];
+
             // Create our callable lists
-            // Note: Making the producer callable return an object set is a little hacky, but I want to use invokeAll, which
-            // is blocking with a timeout, which means all the Callable objects have to have the same generic type.
-            List<Callable<Set<Object>>> taskList = new ArrayList<>();
+            // Note: Every task returns { objects dequeued } (0 for producers), as invokeAll needs all the Callable objects
+            // to have the same generic type.
+            List<Callable<int[]>> taskList = new ArrayList<>();
 
-            // Add our producers to the list
+            // Add our producers to the list (each one enqueues its own run of the carriers)
+            int firstItem = 0;
             for (int i = 0; i < numProducerThreads; i++) {
                 int tempNumObjects = numObjectsPerProducer + (remProducerObjects > 0 ? 1 : 0);
                 remProducerObjects -= remProducerObjects > 0 ? 1 : 0;
-                taskList.add(() -> {
+                int tempFirstItem = firstItem;
+                firstItem += tempNumObjects;
+                Object[] batch = batchSize > 1 ? new Object[Math.min(batchSize, Math.max(1, tempNumObjects))] : null;
+                taskList.add(batchSize > 1 ? () -> {
+                    // Enqueue a number of objects calculated above, one batch at a time (enqueueAll is done with the batch
+                    // array once it returns, so we can reuse it)
+                    for (int j = 0; j < tempNumObjects; j += batchSize) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                            System.out.print("Breaking out of enqueue thread.");
+                            return null;
+                        }
+
+                        int batchLength = Math.min(batchSize, tempNumObjects - j);
+                        Object[] thisBatch = batchLength == batch.length ? batch : new Object[batchLength];
+                        long sendNanos = System.nanoTime();
+                        for (int k = 0; k < batchLength; k++) {
+                            TimedItem item = items[tempFirstItem + j + k];
+                            item.sendNanos = sendNanos;
+                            thisBatch[k] = item;
+                        }
+                        testQueue.enqueueAll(thisBatch);
+
+                        // Random sleep if we are using a delay
+                        if (maxProducerDelay > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(maxProducerDelay));
+                    }
+                    return new int[]{0};
+                } : () -> {
                     // Enqueue for a number of objects calculated above
                     for (int j = 0; j < tempNumObjects; j++) {
                         if (Thread.currentThread().isInterrupted()) {
@@ -55,12 +145,14 @@ public class BenchTest_NThreadContention {
                             return null;
                         }
 
-                        testQueue.enqueue(new Object());
+                        TimedItem item = items[tempFirstItem + j];
+                        item.sendNanos = System.nanoTime();
+                        testQueue.enqueue(item);
 
                         // Random sleep if we are using a delay
                         if (maxProducerDelay > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(maxProducerDelay));
                     }
-                    return null;
+                    return new int[]{0};
                 });
             }
 
@@ -68,53 +160,225 @@ public class BenchTest_NThreadContention {
             for (int i = 0; i < numConsumerThreads; i++) {
                 int tempNumObjects = numObjectsPerConsumer + (remConsumerObjects > 0 ? 1 : 0);
                 remConsumerObjects -= remConsumerObjects > 0 ? 1 : 0;
-                taskList.add(() -> {
-                    // Dequeue and add to result list for a number of objects calculated above
-                    Set<Object> resultSet = new HashSet<>();
-                    for (int j = 0; j < tempNumObjects; j++) {
+                long[] latencies = consumerLatencies[i] = new long[tempNumObjects];
+                int[] itemIds = consumerItemIds[i] = new int[tempNumObjects];
+                taskList.add(batchSize > 1 ? () -> {
+                    // Dequeue and record the latency for a number of objects calculated above, one batch at a time
+                    List<Object> batch = new ArrayList<>(batchSize);
+                    int count = 0;
+                    while (count < tempNumObjects) {
                         if (Thread.currentThread().isInterrupted()) {
                             // Our queue doesn't throw InterruptedException, so we need to handle interruption.
                             System.out.print("Breaking out of dequeue thread.");
-                            return resultSet;
+                            return new int[]{count};
                         }
 
-                        resultSet.add(testQueue.dequeue());
+                        // Block for the first object, then take whatever else is already waiting (up to a full batch)
+                        Object first = testQueue.dequeue();
+                        if (first == null) {
+                            return new int[]{count};
+                        }
+                        batch.add(first);
+                        testQueue.drainTo(batch, Math.min(batchSize, tempNumObjects - count) - 1);
+                        long receiveNanos = System.nanoTime();
+                        for (int k = 0; k < batch.size(); k++) {
+                            TimedItem item = (TimedItem)batch.get(k);
+                            latencies[count] = receiveNanos - item.sendNanos;
+                            itemIds[count++] = item.id;
+                        }
+                        batch.clear();
 
                         // Random sleep if we are using a delay
                         if (maxConsumerDelay > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(maxConsumerDelay));
                     }
-                    return resultSet;
+                    return new int[]{count};
+                } : () -> {
+                    // Dequeue and record the latency for a number of objects calculated above
+                    int count = 0;
+                    for (; count < tempNumObjects; count++) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                            System.out.print("Breaking out of dequeue thread.");
+                            break;
+                        }
+
+                        TimedItem item = (TimedItem)testQueue.dequeue();
+                        if (item == null) {
+                            break;
+                        }
+                        latencies[count] = System.nanoTime() - item.sendNanos;
+                        itemIds[count] = item.id;
+
+                        // Random sleep if we are using a delay
+                        if (maxConsumerDelay > 0) Thread.sleep(ThreadLocalRandom.current().nextInt(maxConsumerDelay));
+                    }
+                    return new int[]{count};
                 });
             }
 
             // Run Threads using a little rough stopwatch benchmarking to get some idea of performance.
             // Note: We are adding a small value to the timeout to ensure that if we do timeout, the stopwatch timestamp
             // will actually be greater than the timeout.
-            long startStamp = System.currentTimeMillis();
+            long[] startGc = readGarbageCollections();
+            long startStamp = System.nanoTime();
             testFutureResults = threadPool.invokeAll(taskList, timeout + PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
-            long endStamp = System.currentTimeMillis();
+            long endStamp = System.nanoTime();
+            long[] endGc = readGarbageCollections();
+
+            // If a thread threw, report that (rather than the timeout it probably caused)
+            for (Future<int[]> fut : testFutureResults) {
+                if (fut.isDone() && !fut.isCancelled()) {
+                    try {
+                        fut.get();
+                    } catch (ExecutionException ex) {
+                        return Result.failed("Exception Encountered: " + ex.getCause());
+                    }
+                }
+            }
 
             // If we are over time, return timeout fail
-            long timeTaken = endStamp - startStamp;
+            if (TimeUnit.NANOSECONDS.toMillis(endStamp - startStamp) > timeout) {
+                return Result.failed("Timed out");
+            }
+
+            // Combine our results - merge every consumer's latencies into one histogram, and verify that we dequeued
+            // every carrier exactly once
+            LatencyHistogram latencyHistogram = new LatencyHistogram();
+            boolean[] received = new boolean[numObjects];
+            int distinctReceived = 0;
+            for (int i = 0; i < numConsumerThreads; i++) {
+                int[] result = testFutureResults.get(numProducerThreads + i).get();
+                int count = result == null ? 0 : result[0];
+                for (int j = 0; j < count; j++) {
+                    latencyHistogram.record(consumerLatencies[i][j]);
+                    if (!received[consumerItemIds[i][j]]) {
+                        received[consumerItemIds[i][j]] = true;
+                        distinctReceived++;
+                    }
+                }
+            }
+            if (distinctReceived != numObjects) {
+                return Result.failed("Expected to dequeue " + numObjects + " objects; Observed " + distinctReceived + " objects");
+            }
+
+            return new Result(null, numObjects, endStamp - startStamp, latencyHistogram, endGc[0] - startGc[0], endGc[1] - startGc[1]);
+
+        } catch (Exception ex) {
+            // If we encounter an exception, fail the test and let finally shut down threads
+            return Result.failed("Exception Encountered: " + ex.getMessage());
+        } finally {
+            // Cancel any threads that are still running
+            if (testFutureResults != null) {
+                for (Future<int[]> fut : testFutureResults) {
+                    if (fut != null && !fut.isDone()) fut.cancel(true);
+                }
+            }
+        }
+    }
+
+    // Benchmarks the latency/CPU tradeoff of a queue (mostly of its WaitStrategy). Producers enqueue their send time
+    // (System.nanoTime) with an optional busy gap between items, and consumers measure how long each item took to reach
+    // them. Reports the mean and max handoff latency, and the CPU time used by the producer and consumer threads - a
+    // strategy that spins shows up as CPU time well above the (number of threads x) wall time it needed.
+    public static boolean runLatencyAndCpu(ExecutorService threadPool,
+                                           ProducerConsumerQueue<Object> testQueue,
+                                           int numProducerThreads,
+                                           int numConsumerThreads,
+                                           int numObjects,
+                                           int producerGapMicros,
+                                           int timeout) {
+        List<Future<long[]>> testFutureResults = null;
+        try {
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            long producerGapNanos = TimeUnit.MICROSECONDS.toNanos(producerGapMicros);
+            int numObjectsPerProducer = numObjects / numProducerThreads;
+            int remProducerObjects = numObjects % numProducerThreads;
+            int numObjectsPerConsumer = numObjects / numConsumerThreads;
+            int remConsumerObjects = numObjects % numConsumerThreads;
+
+            // Every task returns { latency sum, max latency, objects dequeued, thread CPU time } (all in nanos)
+            List<Callable<long[]>> taskList = new ArrayList<>();
+            for (int i = 0; i < numProducerThreads; i++) {
+                int tempNumObjects = numObjectsPerProducer + (remProducerObjects > 0 ? 1 : 0);
+                remProducerObjects -= remProducerObjects > 0 ? 1 : 0;
+                taskList.add(() -> {
+                    long startCpu = threadBean.getCurrentThreadCpuTime();
+                    for (int j = 0; j < tempNumObjects; j++) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            System.out.print("Breaking out of enqueue thread.");
+                            return null;
+                        }
+
+                        // Busy wait for the gap, so the producer's own sleeping doesn't hide the queue's wakeup cost
+                        if (producerGapNanos > 0) {
+                            long gapEnd = System.nanoTime() + producerGapNanos;
+                            while (System.nanoTime() < gapEnd) {
+                                Thread.onSpinWait();
+                            }
+                        }
+                        testQueue.enqueue(System.nanoTime());
+                    }
+                    return new long[]{0, 0, 0, threadBean.getCurrentThreadCpuTime() - startCpu};
+                });
+            }
+            for (int i = 0; i < numConsumerThreads; i++) {
+                int tempNumObjects = numObjectsPerConsumer + (remConsumerObjects > 0 ? 1 : 0);
+                remConsumerObjects -= remConsumerObjects > 0 ? 1 : 0;
+                taskList.add(() -> {
+                    long startCpu = threadBean.getCurrentThreadCpuTime();
+                    long latencySum = 0;
+                    long maxLatency = 0;
+                    int count = 0;
+                    for (; count < tempNumObjects; count++) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            System.out.print("Breaking out of dequeue thread.");
+                            break;
+                        }
+
+                        Object item = testQueue.dequeue();
+                        if (item == null) {
+                            break;
+                        }
+                        long latency = System.nanoTime() - (Long)item;
+                        latencySum += latency;
+                        maxLatency = Math.max(maxLatency, latency);
+                    }
+                    return new long[]{latencySum, maxLatency, count, threadBean.getCurrentThreadCpuTime() - startCpu};
+                });
+            }
+
+            long startStamp = System.currentTimeMillis();
+            testFutureResults = threadPool.invokeAll(taskList, timeout + PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+            long timeTaken = System.currentTimeMillis() - startStamp;
             if (timeTaken > timeout) {
                 PCQueueTestHelpers.printFail("Timed out");
                 return false;
             }
 
-            // Combine our results and verify that we dequeued as many objects as we were expecting.
-            Set<Object> combinedResults = new HashSet<>();
-            for (Future<Set<Object>> fut : testFutureResults) {
-                Set<Object> tempResult = fut.get();
-                if (tempResult != null) {
-                    combinedResults.addAll(tempResult);
+            // Combine the per thread results
+            long latencySum = 0;
+            long maxLatency = 0;
+            long count = 0;
+            long cpuNanos = 0;
+            for (Future<long[]> fut : testFutureResults) {
+                long[] result = fut.get();
+                if (result != null) {
+                    latencySum += result[0];
+                    maxLatency = Math.max(maxLatency, result[1]);
+                    count += result[2];
+                    cpuNanos += result[3];
                 }
             }
-            if (combinedResults.size() != numObjects) {
-                PCQueueTestHelpers.printFail("Expected to dequeue " + numObjects + " objects; Observed " + combinedResults.size() + " objects");
+            if (count != numObjects) {
+                PCQueueTestHelpers.printFail("Expected to dequeue " + numObjects + " objects; Observed " + count + " objects");
                 return false;
             }
 
-            PCQueueTestHelpers.printSuccess(timeTaken);
+            PCQueueTestHelpers.printSuccess(timeTaken, String.format("mean latency %.1f us; max %d us; CPU %d ms (%.1fx wall)",
+                    latencySum / 1000.0 / count,
+                    TimeUnit.NANOSECONDS.toMicros(maxLatency),
+                    TimeUnit.NANOSECONDS.toMillis(cpuNanos),
+                    cpuNanos / 1e6 / Math.max(1, timeTaken)));
 
         } catch (Exception ex) {
             // If we encounter an exception, log that we failed the test and let finally shut down threads
@@ -123,7 +387,7 @@ public class BenchTest_NThreadContention {
         } finally {
             // Cancel any threads that are still running
             if (testFutureResults != null) {
-                for (Future<Set<Object>> fut : testFutureResults) {
+                for (Future<long[]> fut : testFutureResults) {
                     if (fut != null && !fut.isDone()) fut.cancel(true);
                 }
             }
@@ -131,4 +395,238 @@ public class BenchTest_NThreadContention {
 
         return true;
     }
+
+    // Benchmarks a queue's memory footprint over time under a bursty load. Producers enqueue burstObjects objects (between
+    // them) as fast as they can, then go quiet for quietMillis, burstCount times. Consumers work steadily, busy waiting
+    // consumerWorkMicros per object, so every burst builds a backlog that drains during the quiet time. Meanwhile the
+    // calling thread samples the queue's length and allocatedSlots (how many item slots the queue is holding on to) every
+    // sampleMillis. Reports the peak length, the peak / mean / final allocated slots, and the allocated slots over time.
+    public static boolean runBurstyFootprint(ExecutorService threadPool,
+                                             ProducerConsumerQueue<Object> testQueue,
+                                             IntSupplier queueLength,
+                                             IntSupplier allocatedSlots,
+                                             int numProducerThreads,
+                                             int numConsumerThreads,
+                                             int burstCount,
+                                             int burstObjects,
+                                             int quietMillis,
+                                             int consumerWorkMicros,
+                                             int sampleMillis,
+                                             int timeout) {
+        List<Future<Integer>> testFutures = new ArrayList<>();
+        try {
+            long consumerWorkNanos = TimeUnit.MICROSECONDS.toNanos(consumerWorkMicros);
+            int numObjects = burstCount * burstObjects;
+            int numObjectsPerConsumer = numObjects / numConsumerThreads;
+            int remConsumerObjects = numObjects % numConsumerThreads;
+
+            long startStamp = System.currentTimeMillis();
+            // Every task returns the number of objects it dequeued (Producers return 0)
+            for (int i = 0; i < numProducerThreads; i++) {
+                int burstShare = burstObjects / numProducerThreads + (i < burstObjects % numProducerThreads ? 1 : 0);
+                testFutures.add(threadPool.submit(() -> {
+                    for (int burst = 0; burst < burstCount; burst++) {
+                        for (int j = 0; j < burstShare; j++) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                                System.out.print("Breaking out of enqueue thread.");
+                                return 0;
+                            }
+                            testQueue.enqueue(new Object());
+                        }
+                        Thread.sleep(quietMillis);
+                    }
+                    return 0;
+                }));
+            }
+            for (int i = 0; i < numConsumerThreads; i++) {
+                int tempNumObjects = numObjectsPerConsumer + (remConsumerObjects > 0 ? 1 : 0);
+                remConsumerObjects -= remConsumerObjects > 0 ? 1 : 0;
+                testFutures.add(threadPool.submit(() -> {
+                    int count = 0;
+                    for (; count < tempNumObjects; count++) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            System.out.print("Breaking out of dequeue thread.");
+                            break;
+                        }
+                        if (testQueue.dequeue() == null) {
+                            break;
+                        }
+
+                        // Busy wait for the work time (Sleeping would hand the CPU straight back to the producers)
+                        long workEnd = System.nanoTime() + consumerWorkNanos;
+                        while (System.nanoTime() < workEnd) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    return count;
+                }));
+            }
+
+            // Sample until every task is done
+            List<Integer> slotSamples = new ArrayList<>();
+            int peakLength = 0;
+            while (!allDone(testFutures)) {
+                if (System.currentTimeMillis() - startStamp > timeout) {
+                    PCQueueTestHelpers.printFail("Timed out");
+                    return false;
+                }
+                peakLength = Math.max(peakLength, queueLength.getAsInt());
+                slotSamples.add(allocatedSlots.getAsInt());
+                Thread.sleep(sampleMillis);
+            }
+            long timeTaken = System.currentTimeMillis() - startStamp;
+
+            int dequeued = 0;
+            for (Future<Integer> fut : testFutures) {
+                dequeued += fut.get();
+            }
+            if (dequeued != numObjects) {
+                PCQueueTestHelpers.printFail("Expected to dequeue " + numObjects + " objects; Observed " + dequeued + " objects");
+                return false;
+            }
+
+            long slotSum = 0;
+            int peakSlots = 0;
+            for (int slots : slotSamples) {
+                slotSum += slots;
+                peakSlots = Math.max(peakSlots, slots);
+            }
+            PCQueueTestHelpers.printSuccess(timeTaken, String.format("peak length %d; allocated slots peak %d, mean %d, at end %d",
+                    peakLength,
+                    peakSlots,
+                    slotSamples.isEmpty() ? 0 : slotSum / slotSamples.size(),
+                    allocatedSlots.getAsInt()));
+            System.out.println("    Allocated slots every " + sampleMillis + " ms: " + slotSamples);
+
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex.getMessage());
+            return false;
+        } finally {
+            // Cancel any threads that are still running
+            for (Future<Integer> fut : testFutures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+
+        return true;
+    }
+
+    // Benchmarks a ProducerConsumerQueues specialization on every thread shape it supports: 1x1 always, Nx1 when it
+    // allows multiple producers, and 1xN when it allows multiple consumers. Each shape runs on a fresh queue.
+    public static boolean runShapes(ExecutorService threadPool,
+                                    int capacity,
+                                    ThreadingMode producerMode,
+                                    ThreadingMode consumerMode,
+                                    int numThreads,
+                                    int numObjects,
+                                    int timeout) {
+        boolean success = runShape(threadPool, capacity, producerMode, consumerMode, 1, 1, numObjects, timeout);
+        if (producerMode == ThreadingMode.MULTIPLE) {
+            success = runShape(threadPool, capacity, producerMode, consumerMode, numThreads, 1, numObjects, timeout) && success;
+        }
+        if (consumerMode == ThreadingMode.MULTIPLE) {
+            success = runShape(threadPool, capacity, producerMode, consumerMode, 1, numThreads, numObjects, timeout) && success;
+        }
+        return success;
+    }
+
+    private static boolean runShape(ExecutorService threadPool,
+                                    int capacity,
+                                    ThreadingMode producerMode,
+                                    ThreadingMode consumerMode,
+                                    int numProducerThreads,
+                                    int numConsumerThreads,
+                                    int numObjects,
+                                    int timeout) {
+        ProducerConsumerQueue<Object> testQueue = ProducerConsumerQueues.create(capacity, producerMode, consumerMode);
+        PCQueueTestHelpers.printClassNameBlue(testQueue);
+        System.out.print(" " + numProducerThreads + "x" + numConsumerThreads + " - ");
+        return run(threadPool, testQueue, numProducerThreads, 0, numConsumerThreads, 0, numObjects, timeout, true);
+    }
+
+    private static boolean allDone(List<? extends Future<?>> futures) {
+        for (Future<?> fut : futures) {
+            if (!fut.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The carrier run() sends through the queue - one per object, allocated before the run starts. The producer stamps
+    // it with System.nanoTime just before enqueueing it (sendNanos is published to the consumer by the queue itself).
+    private static final class TimedItem {
+        private final int id;
+        private long sendNanos;
+
+        private TimedItem(int id) {
+            this.id = id;
+        }
+    }
+
+    // What measure() saw: the time taken, every object's end to end latency, and the garbage collections (count and
+    // milliseconds, over all collectors) that happened during the run. Or, if the test failed, why.
+    public static final class Result {
+        private final String failure;
+        private final int numObjects;
+        private final long elapsedNanos;
+        private final LatencyHistogram latencies;
+        private final long gcCount;
+        private final long gcMillis;
+
+        private Result(String failure, int numObjects, long elapsedNanos, LatencyHistogram latencies, long gcCount, long gcMillis) {
+            this.failure = failure;
+            this.numObjects = numObjects;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        private static Result failed(String failure) {
+            return new Result(failure, 0, 0, new LatencyHistogram(), 0, 0);
+        }
+
+        // Null if the test passed
+        public String getFailure() {
+            return failure;
+        }
+
+        public int getNumObjects() {
+            return numObjects;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Objects per second
+        public double getThroughput() {
+            return numObjects * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+    }
+
+    // { collection count, collection time in ms } summed over every garbage collector
+    private static long[] readGarbageCollections() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gcBean.getCollectionCount());
+            totals[1] += Math.max(0, gcBean.getCollectionTime());
+        }
+        return totals;
+    }
 }
@@ -0,0 +1,157 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.ProducerConsumerPipeline;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Benchmarked test - end to end throughput of a three stage pipeline (decode -> enrich -> persist). Producers send the
+// numbers 0 to numObjects - 1, decode and enrich each compute a field from the one before, and persist adds up the results.
+// Either the stages are chained through three ProducerConsumerConcurrentQueues (each message is enqueued and dequeued
+// once per stage), or they're the stages of one ProducerConsumerPipeline (each message is published once, and passed on in
+// place). Both time from the first send until persist has seen the last message, and check the persisted total.
+public class BenchTest_Pipeline {
+
+    // The message - filled in stage by stage (Through the queues, the same message is passed on from queue to queue)
+    public static final class PipelineEvent {
+        private long raw;
+        private long decoded;
+        private long enriched;
+    }
+
+    public static boolean runQueues(ExecutorService threadPool, int capacity, int numProducerThreads, int[] stageWorkers, int numObjects, int timeout) {
+        // queues[i] feeds stage i
+        List<ProducerConsumerQueue<PipelineEvent>> queues = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queues.add(new ProducerConsumerConcurrentQueue<>(capacity));
+        }
+
+        LongAdder persisted = new LongAdder();
+        CountDownLatch done = new CountDownLatch(numObjects);
+        List<Future<?>> futures = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try {
+            submitProducers(threadPool, futures, numProducerThreads, numObjects, value -> {
+                PipelineEvent event = new PipelineEvent();
+                event.raw = value;
+                queues.get(0).enqueue(event);
+            });
+            for (int stage = 0; stage < 3; stage++) {
+                ProducerConsumerQueue<PipelineEvent> input = queues.get(stage);
+                ProducerConsumerQueue<PipelineEvent> output = stage < 2 ? queues.get(stage + 1) : null;
+                int stageIndex = stage;
+                for (int w = 0; w < stageWorkers[stage]; w++) {
+                    int count = numObjects / stageWorkers[stage] + (w < numObjects % stageWorkers[stage] ? 1 : 0);
+                    futures.add(threadPool.submit(() -> {
+                        for (int i = 0; i < count; i++) {
+                            PipelineEvent event = input.dequeue();
+                            runStage(stageIndex, event, persisted, done);
+                            if (output != null) {
+                                output.enqueue(event);
+                            }
+                        }
+                    }));
+                }
+            }
+            return awaitPipeline(startTime, done, persisted, numObjects, timeout);
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+    }
+
+    public static boolean runPipeline(ExecutorService threadPool, int capacity, int numProducerThreads, int[] stageWorkers, int numObjects, int timeout) {
+        LongAdder persisted = new LongAdder();
+        CountDownLatch done = new CountDownLatch(numObjects);
+        ProducerConsumerPipeline<PipelineEvent> pipeline = new ProducerConsumerPipeline<>(capacity, PipelineEvent::new);
+        ProducerConsumerPipeline<PipelineEvent>.Stage decode = pipeline.addStage("decode", stageWorkers[0], event -> runStage(0, event, persisted, done));
+        ProducerConsumerPipeline<PipelineEvent>.Stage enrich = pipeline.addStage("enrich", stageWorkers[1], event -> runStage(1, event, persisted, done), decode);
+        pipeline.addStage("persist", stageWorkers[2], event -> runStage(2, event, persisted, done), enrich);
+
+        List<Future<?>> futures = new ArrayList<>();
+        long startTime = System.nanoTime();
+        pipeline.start(threadPool);
+        try {
+            submitProducers(threadPool, futures, numProducerThreads, numObjects, value -> {
+                long sequence = pipeline.claim();
+                pipeline.get(sequence).raw = value;
+                pipeline.publish(sequence);
+            });
+            return awaitPipeline(startTime, done, persisted, numObjects, timeout);
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+            pipeline.shutdown(timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // (A primitive functional interface, so the harness itself doesn't box anything)
+    private interface MessageSend {
+        void send(long value);
+    }
+
+    // The stages' work - the same for both versions
+    private static void runStage(int stage, PipelineEvent event, LongAdder persisted, CountDownLatch done) {
+        if (stage == 0) {
+            event.decoded = event.raw * 31;
+        } else if (stage == 1) {
+            event.enriched = event.decoded ^ (event.decoded >>> 7);
+        } else {
+            persisted.add(event.enriched);
+            done.countDown();
+        }
+    }
+
+    private static void submitProducers(ExecutorService threadPool, List<Future<?>> futures, int numProducerThreads, int numObjects, MessageSend send) {
+        for (int p = 0; p < numProducerThreads; p++) {
+            int firstValue = p;
+            futures.add(threadPool.submit(() -> {
+                for (long value = firstValue; value < numObjects; value += numProducerThreads) {
+                    send.send(value);
+                }
+            }));
+        }
+    }
+
+    // Waits for persist to see every message, then checks its total and prints the throughput
+    private static boolean awaitPipeline(long startTime, CountDownLatch done, LongAdder persisted, int numObjects, int timeout) {
+        try {
+            if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                PCQueueTestHelpers.printFail("Timed out with " + done.getCount() + " messages not yet persisted");
+                return false;
+            }
+        } catch (InterruptedException iEx) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + iEx);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        long expectedTotal = 0;
+        for (long value = 0; value < numObjects; value++) {
+            long decoded = value * 31;
+            expectedTotal += decoded ^ (decoded >>> 7);
+        }
+        if (persisted.sum() != expectedTotal) {
+            PCQueueTestHelpers.printFail("Expected persist to total " + expectedTotal + "; Observed " + persisted.sum());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess(TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%,.0f msgs/s end to end", numObjects * 1e9 / elapsedNanos));
+        return true;
+    }
+}
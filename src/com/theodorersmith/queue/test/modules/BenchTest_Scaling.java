@@ -0,0 +1,107 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Benchmarked test - measures how a queue's throughput changes as threads are added. For each thread count N, N producers
+// and N consumers move numObjects objects through a fresh queue, and the throughput (thousands of objects per second) for
+// each N is printed on one line - so the lines for several queues, one under the other, make a scaling curve.
+//
+// The threads all wait on a latch before starting, so thread startup isn't counted.
+public class BenchTest_Scaling {
+
+    // Prints the column headings for the thread counts (Call once, before the run lines)
+    public static void printHeader(int[] threadCounts) {
+        StringBuilder header = new StringBuilder(String.format("%-40s", "Queue (K objects/s at N x N threads)"));
+        for (int threadCount : threadCounts) {
+            header.append(String.format("%9s", threadCount + "x" + threadCount));
+        }
+        System.out.println(header);
+    }
+
+    public static boolean run(ExecutorService threadPool, String queueLabel, Supplier<? extends ProducerConsumerQueue<Object>> queueFactory,
+                              int[] threadCounts, int numObjects, int timeout) {
+        System.out.print(String.format("%-40s", queueLabel));
+        for (int threadCount : threadCounts) {
+            long nanos = runOnce(threadPool, queueFactory.get(), threadCount, numObjects, timeout);
+            if (nanos < 0) {
+                System.out.println();
+                return false;
+            }
+            System.out.print(String.format("%9.0f", numObjects / (nanos / 1e9) / 1000));
+        }
+        System.out.println();
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Returns the time taken in nanos, or -1 if the run failed (after printing why)
+    private static long runOnce(ExecutorService threadPool, ProducerConsumerQueue<Object> testQueue, int threadCount, int numObjects, int timeout) {
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                // Spread the remainder over the first few threads, like BenchTest_NThreadContention
+                int threadObjects = numObjects / threadCount + (i < numObjects % threadCount ? 1 : 0);
+                tasks.add(() -> {
+                    Object item = new Object();
+                    startLatch.await();
+                    for (int j = 0; j < threadObjects; j++) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            break;
+                        }
+                        testQueue.enqueue(item);
+                    }
+                    return 0; // (Only the consumers count)
+                });
+                tasks.add(() -> {
+                    startLatch.await();
+                    int count = 0;
+                    for (; count < threadObjects; count++) {
+                        if (testQueue.dequeue() == null) {
+                            break;
+                        }
+                    }
+                    return count;
+                });
+            }
+            for (Callable<Integer> task : tasks) {
+                futures.add(threadPool.submit(task));
+            }
+
+            long startNanos = System.nanoTime();
+            startLatch.countDown();
+            int dequeued = 0;
+            for (Future<Integer> future : futures) {
+                dequeued += future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            long nanos = System.nanoTime() - startNanos;
+
+            if (dequeued != numObjects) {
+                PCQueueTestHelpers.printFail("Expected to dequeue " + numObjects + " objects with " + threadCount + " x " + threadCount + " threads; Observed " + dequeued);
+                return -1;
+            }
+            return nanos;
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered with " + threadCount + " x " + threadCount + " threads: " + ex);
+            return -1;
+        } finally {
+            for (Future<Integer> future : futures) {
+                if (!future.isDone()) future.cancel(true);
+            }
+        }
+    }
+}
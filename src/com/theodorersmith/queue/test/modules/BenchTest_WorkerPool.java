@@ -0,0 +1,153 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ConsumerWorkerPool;
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Benchmarked test - the per item cost on the consumer side. Producers enqueue the numbers 0 to numObjects - 1 (as
+// preallocated Integers, so nothing is boxed while timing), and the consumers add them up. Either each consumer calls
+// dequeue() once per item (like BenchTest_NThreadContention's consumers), or a ConsumerWorkerPool with as many workers
+// drains them in batches. Reports the time, the throughput and the wall clock nanoseconds per item, and for the pool how
+// much of that it saved compared with dequeue() per item.
+public class BenchTest_WorkerPool {
+
+    public static boolean run(ExecutorService threadPool, int capacity, int numProducerThreads, int numConsumerThreads, int[] batchSizes, int numObjects, int timeout) {
+        Integer[] items = new Integer[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            items[i] = i;
+        }
+
+        PCQueueTestHelpers.printClassNamePurple(ProducerConsumerConcurrentQueue.class);
+        System.out.print(" (dequeue per item) - ");
+        long dequeueNanos = runDequeue(threadPool, new ProducerConsumerConcurrentQueue<>(capacity), items, numProducerThreads, numConsumerThreads, timeout);
+        if (dequeueNanos < 0) {
+            return false;
+        }
+        printResult(dequeueNanos, numObjects, "");
+
+        for (int batchSize : batchSizes) {
+            PCQueueTestHelpers.printClassNameBlue(ConsumerWorkerPool.class);
+            System.out.print(" (batch " + batchSize + ") - ");
+            long poolNanos = runPool(threadPool, new ProducerConsumerConcurrentQueue<>(capacity), items, numProducerThreads, numConsumerThreads, batchSize, timeout);
+            if (poolNanos < 0) {
+                return false;
+            }
+            printResult(poolNanos, numObjects, String.format("; %+.1f ns/item vs dequeue", (double)(poolNanos - dequeueNanos) / numObjects));
+        }
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Each returns the elapsed nanos, or -1 if the run failed (after printing why)
+    private static long runDequeue(ExecutorService threadPool, ProducerConsumerQueue<Integer> testQueue, Integer[] items, int numProducerThreads, int numConsumerThreads, int timeout) {
+        int numObjects = items.length;
+        LongAdder sum = new LongAdder();
+        List<Future<?>> futures = new ArrayList<>();
+        long startTime = System.nanoTime();
+        try {
+            submitProducers(threadPool, futures, testQueue, items, numProducerThreads);
+            for (int c = 0; c < numConsumerThreads; c++) {
+                int count = numObjects / numConsumerThreads + (c < numObjects % numConsumerThreads ? 1 : 0);
+                futures.add(threadPool.submit(() -> {
+                    long localSum = 0;
+                    for (int i = 0; i < count; i++) {
+                        localSum += testQueue.dequeue();
+                    }
+                    sum.add(localSum);
+                }));
+            }
+            for (Future<?> fut : futures) {
+                fut.get(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return -1;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        return checkSum(sum, numObjects) ? elapsedNanos : -1;
+    }
+
+    private static long runPool(ExecutorService threadPool, ProducerConsumerQueue<Integer> testQueue, Integer[] items, int numProducerThreads, int numWorkers, int batchSize, int timeout) {
+        LongAdder sum = new LongAdder();
+        // (The clock stops when the last item has been handled - an idle worker can take a few milliseconds to notice a
+        // shutdown, and that isn't a per item cost)
+        AtomicLong handled = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, numWorkers, batchSize, batch -> {
+            long batchSum = 0;
+            for (Integer item : batch) {
+                batchSum += item;
+            }
+            sum.add(batchSum);
+            if (handled.addAndGet(batch.size()) == items.length) {
+                done.countDown();
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        long elapsedNanos;
+        long startTime = System.nanoTime();
+        testPool.start();
+        try {
+            submitProducers(threadPool, futures, testQueue, items, numProducerThreads);
+            for (Future<?> fut : futures) {
+                fut.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+                PCQueueTestHelpers.printFail("Timed out with " + (items.length - handled.get()) + " items not yet handled");
+                return -1;
+            }
+            elapsedNanos = System.nanoTime() - startTime;
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return -1;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+            testPool.shutdown(timeout, TimeUnit.MILLISECONDS);
+        }
+        return checkSum(sum, items.length) ? elapsedNanos : -1;
+    }
+
+    private static void submitProducers(ExecutorService threadPool, List<Future<?>> futures, ProducerConsumerQueue<Integer> testQueue, Integer[] items, int numProducerThreads) {
+        for (int p = 0; p < numProducerThreads; p++) {
+            int firstValue = p;
+            futures.add(threadPool.submit(() -> {
+                for (int value = firstValue; value < items.length; value += numProducerThreads) {
+                    testQueue.enqueue(items[value]);
+                }
+            }));
+        }
+    }
+
+    private static boolean checkSum(LongAdder sum, int numObjects) {
+        long expectedSum = (long)numObjects * (numObjects - 1) / 2;
+        if (sum.sum() != expectedSum) {
+            PCQueueTestHelpers.printFail("Expected the consumers to receive a sum of " + expectedSum + "; Observed " + sum.sum());
+            return false;
+        }
+        return true;
+    }
+
+    private static void printResult(long elapsedNanos, int numObjects, String extra) {
+        PCQueueTestHelpers.printSuccess(TimeUnit.NANOSECONDS.toMillis(elapsedNanos), String.format("%,.0f ops/s; %.1f ns/item%s",
+                numObjects * 1e9 / elapsedNanos, (double)elapsedNanos / numObjects, extra));
+    }
+}
@@ -0,0 +1,245 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerAsyncQueue;
+import com.theodorersmith.queue.ProducerConsumerFlow;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Tests the parts of ProducerConsumerAsyncQueue (and ProducerConsumerFlow) the blocking suite can't reach - pending futures
+// completed by the opposite side, cancelling pending futures, and Flow demand / backpressure.
+public class Test_AsyncQueue {
+
+    public static boolean run(ExecutorService threadPool) {
+        return runCompletedByOppositeSide(threadPool) &&
+                runCancellation() &&
+                runFlowPublisher(threadPool) &&
+                runFlowSubscriber();
+    }
+
+    // A pending dequeue completes on the enqueuing thread, and a pending enqueue completes when a dequeue frees a slot
+    private static boolean runCompletedByOppositeSide(ExecutorService threadPool) {
+        System.out.print("Running test: Pending futures completed by the opposite side... ");
+
+        try {
+            ProducerConsumerAsyncQueue<Object> testQueue = new ProducerConsumerAsyncQueue<>(2);
+            AtomicReference<Thread> completingThread = new AtomicReference<>();
+            CompletableFuture<Object> dequeueFuture = testQueue.dequeueAsync();
+            dequeueFuture.thenRun(() -> completingThread.set(Thread.currentThread()));
+            if (dequeueFuture.isDone()) {
+                PCQueueTestHelpers.printFail("Expected dequeueAsync on an empty queue to be pending");
+                return false;
+            }
+
+            Object item = new Object();
+            Thread producerThread = threadPool.submit(() -> {
+                testQueue.enqueueAsync(item);
+                return Thread.currentThread();
+            }).get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (!dequeueFuture.isDone() || dequeueFuture.getNow(null) != item) {
+                PCQueueTestHelpers.printFail("Expected the enqueue to complete the pending dequeue with its item");
+                return false;
+            }
+            if (completingThread.get() != producerThread) {
+                PCQueueTestHelpers.printFail("Expected the pending dequeue to complete on the enqueuing thread; Observed " + completingThread.get());
+                return false;
+            }
+            if (testQueue.getLength() != 0) {
+                PCQueueTestHelpers.printFail("Expected a handed over item to skip the queue; Observed length " + testQueue.getLength());
+                return false;
+            }
+
+            // Fill the queue, then one more enqueue has to wait for a slot
+            testQueue.enqueueAsync(1);
+            testQueue.enqueueAsync(2);
+            CompletableFuture<Void> enqueueFuture = testQueue.enqueueAsync(3);
+            if (enqueueFuture.isDone()) {
+                PCQueueTestHelpers.printFail("Expected enqueueAsync on a full queue to be pending");
+                return false;
+            }
+            Object first = testQueue.dequeueAsync().getNow(null);
+            if (!Integer.valueOf(1).equals(first) || !enqueueFuture.isDone() || testQueue.getLength() != 2) {
+                PCQueueTestHelpers.printFail("Expected the dequeue to return 1 and accept the pending enqueue; Observed " + first + " (pending enqueue done: " + enqueueFuture.isDone() + "; length " + testQueue.getLength() + ")");
+                return false;
+            }
+            Object second = testQueue.dequeueAsync().getNow(null);
+            Object third = testQueue.dequeueAsync().getNow(null);
+            if (!Integer.valueOf(2).equals(second) || !Integer.valueOf(3).equals(third)) {
+                PCQueueTestHelpers.printFail("Expected the rest of the items in order (2, 3); Observed " + second + ", " + third);
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Cancelled pending futures give up their place - a cancelled dequeue doesn't swallow the next item, and a cancelled
+    // enqueue's item never gets in
+    private static boolean runCancellation() {
+        System.out.print("Running test: Cancelling pending futures... ");
+
+        ProducerConsumerAsyncQueue<Object> testQueue = new ProducerConsumerAsyncQueue<>(2);
+        testQueue.dequeueAsync().cancel(false);
+        testQueue.enqueueAsync(1);
+        if (testQueue.getLength() != 1) {
+            PCQueueTestHelpers.printFail("Expected the item to go in the queue after the dequeue was cancelled; Observed length " + testQueue.getLength());
+            return false;
+        }
+
+        testQueue.enqueueAsync(2);
+        testQueue.enqueueAsync(3).cancel(false);
+        Object first = testQueue.tryDequeue();
+        Object second = testQueue.tryDequeue();
+        Object third = testQueue.tryDequeue();
+        if (!Integer.valueOf(1).equals(first) || !Integer.valueOf(2).equals(second) || third != null) {
+            PCQueueTestHelpers.printFail("Expected 1, 2 and then nothing; Observed " + first + ", " + second + ", " + third);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // The publisher delivers exactly what was requested, waits for items it doesn't have yet, and stops on cancel
+    private static boolean runFlowPublisher(ExecutorService threadPool) {
+        System.out.print("Running test: Flow publisher demand... ");
+
+        try {
+            ProducerConsumerAsyncQueue<Object> testQueue = new ProducerConsumerAsyncQueue<>(10);
+            for (int i = 0; i < 5; i++) {
+                testQueue.enqueue(i);
+            }
+
+            List<Object> received = new ArrayList<>();
+            AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+            ProducerConsumerFlow.publisher(testQueue).subscribe(new Flow.Subscriber<Object>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription.set(s);
+                }
+
+                @Override
+                public void onNext(Object item) {
+                    synchronized (received) {
+                        received.add(item);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+
+            subscription.get().request(3);
+            if (received.size() != 3 || testQueue.getLength() != 2) {
+                PCQueueTestHelpers.printFail("Expected request(3) to deliver 3 items and leave 2; Observed " + received.size() + " delivered, " + testQueue.getLength() + " left");
+                return false;
+            }
+
+            // Ask for more than there is, then supply the rest from another thread
+            subscription.get().request(5);
+            threadPool.submit(() -> {
+                for (int i = 5; i < 8; i++) {
+                    testQueue.enqueue(i);
+                }
+            }).get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            synchronized (received) {
+                for (int i = 0; i < 8; i++) {
+                    if (received.size() != 8 || !Integer.valueOf(i).equals(received.get(i))) {
+                        PCQueueTestHelpers.printFail("Expected items 0 to 7 in order; Observed " + received);
+                        return false;
+                    }
+                }
+            }
+
+            // After a cancel, the publisher leaves new items alone
+            subscription.get().request(1);
+            subscription.get().cancel();
+            testQueue.enqueue(8);
+            if (received.size() != 8 || testQueue.getLength() != 1) {
+                PCQueueTestHelpers.printFail("Expected a cancelled subscription to leave the next item in the queue; Observed " + received.size() + " delivered, " + testQueue.getLength() + " left");
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // The subscriber only requests what the queue has room for - plus one item to wait for a slot once it's full
+    private static boolean runFlowSubscriber() {
+        System.out.print("Running test: Flow subscriber backpressure... ");
+
+        ProducerConsumerAsyncQueue<Object> testQueue = new ProducerConsumerAsyncQueue<>(4);
+        AtomicLong requested = new AtomicLong();
+        Flow.Subscriber<Object> subscriber = ProducerConsumerFlow.subscriber(testQueue);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested.addAndGet(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        if (requested.get() != 4) {
+            PCQueueTestHelpers.printFail("Expected the subscriber to request the queue's capacity (4); Observed " + requested.get());
+            return false;
+        }
+
+        // Four items fill the queue, and then it asks for just one more (to wait for a slot)
+        for (int i = 0; i < 4; i++) {
+            subscriber.onNext(i);
+        }
+        if (requested.get() != 5 || testQueue.getLength() != 4) {
+            PCQueueTestHelpers.printFail("Expected 5 requested and a full queue; Observed " + requested.get() + " requested, length " + testQueue.getLength());
+            return false;
+        }
+
+        // That one waits, without asking for any more - so at most capacity + 1 items are ever held
+        subscriber.onNext(4);
+        if (requested.get() != 5 || testQueue.getLength() != 4) {
+            PCQueueTestHelpers.printFail("Expected still 5 requested with an item waiting; Observed " + requested.get() + " requested, length " + testQueue.getLength());
+            return false;
+        }
+
+        // Freeing a slot lets the waiting item in, which asks for one more to wait in its place
+        testQueue.tryDequeue();
+        if (requested.get() != 6 || testQueue.getLength() != 4) {
+            PCQueueTestHelpers.printFail("Expected 6 requested and a full queue after a dequeue; Observed " + requested.get() + " requested, length " + testQueue.getLength());
+            return false;
+        }
+
+        // Once the consumers have made room, the next item asks for enough to fill it
+        for (int i = 0; i < 3; i++) {
+            testQueue.tryDequeue();
+        }
+        subscriber.onNext(5);
+        if (requested.get() != 8 || testQueue.getLength() != 2) {
+            PCQueueTestHelpers.printFail("Expected 8 requested (filling the 2 free slots) and length 2; Observed " + requested.get() + " requested, length " + testQueue.getLength());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
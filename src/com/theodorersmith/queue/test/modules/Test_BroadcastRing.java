@@ -0,0 +1,250 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerBroadcastRing;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Tests ProducerConsumerBroadcastRing - that every group sees every event (the same preallocated event, in order), that
+// producers are held back by the slowest group only, that a parked producer waits for every group to release, that
+// groups can't be added once publishing has started, and that a ring with no groups never blocks. Then N producers
+// publish numbered events to several groups of M consumers, checking every group sees every number exactly once.
+public class Test_BroadcastRing {
+
+    // The event used by the tests - a mutable holder, filled in place by producers
+    private static final class NumberEvent {
+        private int value;
+    }
+
+    public static boolean run(ExecutorService threadPool) {
+        return runEveryGroupSeesEveryEvent() &&
+                runSlowestGroupGates() &&
+                runBlockedProducerWaitsForEveryGroup(threadPool) &&
+                runLateGroupRejected() &&
+                runNoGroups() &&
+                runContention(threadPool, 1, 1, 1, 1) &&
+                runContention(threadPool, 10, 5, 4, 3) &&
+                runContention(threadPool, 16, 4, 16, 1);
+    }
+
+    // Three groups each take all five events, in sequence order, and get the same event objects
+    private static boolean runEveryGroupSeesEveryEvent() {
+        System.out.print("Running test: Every group sees every event... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(8, NumberEvent::new);
+        List<ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup> groups = new ArrayList<>();
+        for (int g = 0; g < 3; g++) {
+            groups.add(testRing.newConsumerGroup());
+        }
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            testRing.publishEvent(event -> event.value = value);
+        }
+
+        for (int g = 0; g < groups.size(); g++) {
+            ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup group = groups.get(g);
+            if (group.getBacklog() != 5) {
+                PCQueueTestHelpers.printFail("Expected group " + g + " to have a backlog of 5; Observed " + group.getBacklog());
+                return false;
+            }
+            for (int i = 0; i < 5; i++) {
+                long sequence = group.take();
+                NumberEvent event = testRing.get(sequence);
+                if (sequence != i || event.value != i || event != testRing.get(i)) {
+                    PCQueueTestHelpers.printFail("Expected group " + g + " to take sequence and value " + i + "; Observed sequence " + sequence + " and value " + event.value);
+                    return false;
+                }
+                group.release(sequence);
+            }
+        }
+        if (testRing.getLength() != 0) {
+            PCQueueTestHelpers.printFail("Expected an empty ring once every group released; Observed length " + testRing.getLength());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A fast group releasing everything doesn't free any slots while a slow group still holds them
+    private static boolean runSlowestGroupGates() {
+        System.out.print("Running test: Slowest group gates the producers... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(2, NumberEvent::new);
+        ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup fastGroup = testRing.newConsumerGroup();
+        ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup slowGroup = testRing.newConsumerGroup();
+        testRing.publish(testRing.claim());
+        testRing.publish(testRing.claim());
+        fastGroup.release(fastGroup.take());
+        fastGroup.release(fastGroup.take());
+
+        if (testRing.tryClaim() != ProducerConsumerBroadcastRing.NO_SEQUENCE || testRing.getLength() != 2) {
+            PCQueueTestHelpers.printFail("Expected a full ring of 2 while the slow group holds both slots; Observed length " + testRing.getLength());
+            return false;
+        }
+        long startTime = System.currentTimeMillis();
+        long timedClaim = testRing.claim(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+        long timeTaken = System.currentTimeMillis() - startTime;
+        if (timedClaim != ProducerConsumerBroadcastRing.NO_SEQUENCE || timeTaken < PCQueueTestHelpers.CONST_TIMEOUT_SHORT - PCQueueTestHelpers.CONST_TIMEOUT_TOLERANCE) {
+            PCQueueTestHelpers.printFail("Expected the timed claim to time out after " + PCQueueTestHelpers.CONST_TIMEOUT_SHORT + " ms; Observed " + timedClaim + " after " + timeTaken + " ms");
+            return false;
+        }
+
+        // The slow group releasing one frees exactly one slot
+        slowGroup.release(slowGroup.take());
+        if (testRing.tryClaim() != 2 || testRing.tryClaim() != ProducerConsumerBroadcastRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected exactly one slot (sequence 2) to be freed by the slow group's release");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A producer parked on a full ring stays parked when one group releases, and wakes when the last group does
+    private static boolean runBlockedProducerWaitsForEveryGroup(ExecutorService threadPool) {
+        System.out.print("Running test: Blocked producer waits for every group... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(1, NumberEvent::new);
+        ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup firstGroup = testRing.newConsumerGroup();
+        ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup secondGroup = testRing.newConsumerGroup();
+        Future<Long> claimFuture = null;
+        try {
+            testRing.publish(testRing.claim());
+            claimFuture = threadPool.submit(() -> testRing.claim());
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+
+            firstGroup.release(firstGroup.take());
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            if (claimFuture.isDone()) {
+                PCQueueTestHelpers.printFail("Expected the claim to stay blocked until the second group released");
+                return false;
+            }
+
+            secondGroup.release(secondGroup.take());
+            long claimed = claimFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (claimed != 1) {
+                PCQueueTestHelpers.printFail("Expected the parked producer to claim 1; Observed " + claimed);
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            if (claimFuture != null && !claimFuture.isDone()) claimFuture.cancel(true);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A group added after the first claim would have missed events, so it's refused
+    private static boolean runLateGroupRejected() {
+        System.out.print("Running test: Groups can't be added after the first claim... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(4, NumberEvent::new);
+        testRing.newConsumerGroup();
+        testRing.publish(testRing.claim());
+        try {
+            testRing.newConsumerGroup();
+            PCQueueTestHelpers.printFail("Expected an IllegalStateException adding a group after the first claim");
+            return false;
+        } catch (IllegalStateException expected) {
+        }
+        if (testRing.getGroupCount() != 1) {
+            PCQueueTestHelpers.printFail("Expected 1 group; Observed " + testRing.getGroupCount());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // With nobody listening, publishing never blocks (the events are dropped)
+    private static boolean runNoGroups() {
+        System.out.print("Running test: Ring with no groups never blocks... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(1, NumberEvent::new);
+        for (int i = 0; i < 10; i++) {
+            long sequence = testRing.claim(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+            if (sequence != i) {
+                PCQueueTestHelpers.printFail("Expected to claim sequence " + i + " straight away; Observed " + sequence);
+                return false;
+            }
+            testRing.publish(sequence);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Producers publish the numbers 0 to objectCount - 1 between them, and the consumers of every group mark each number
+    // they take in their group's counts. Every group has to see every number exactly once.
+    private static boolean runContention(ExecutorService threadPool, int capacity, int producers, int groupCount, int consumersPerGroup) {
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT;
+        System.out.print("Running test: Contention with " + objectCount + " Events; Capacity " + capacity + "; " + producers + " Producers; " + groupCount + " Groups of " + consumersPerGroup + " Consumers... ");
+
+        ProducerConsumerBroadcastRing<NumberEvent> testRing = new ProducerConsumerBroadcastRing<>(capacity, NumberEvent::new);
+        List<ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup> groups = new ArrayList<>();
+        List<AtomicIntegerArray> seen = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++) {
+            groups.add(testRing.newConsumerGroup());
+            seen.add(new AtomicIntegerArray(objectCount));
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    for (int value = firstValue; value < objectCount; value += producers) {
+                        long sequence = testRing.claim();
+                        testRing.get(sequence).value = value;
+                        testRing.publish(sequence);
+                    }
+                }));
+            }
+            for (int g = 0; g < groupCount; g++) {
+                ProducerConsumerBroadcastRing<NumberEvent>.ConsumerGroup group = groups.get(g);
+                AtomicIntegerArray groupSeen = seen.get(g);
+                for (int c = 0; c < consumersPerGroup; c++) {
+                    int share = objectCount / consumersPerGroup + (c < objectCount % consumersPerGroup ? 1 : 0);
+                    futures.add(threadPool.submit(() -> {
+                        for (int i = 0; i < share; i++) {
+                            long sequence = group.take();
+                            groupSeen.incrementAndGet(testRing.get(sequence).value);
+                            group.release(sequence);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> fut : futures) {
+                fut.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+
+        for (int g = 0; g < groupCount; g++) {
+            for (int i = 0; i < objectCount; i++) {
+                if (seen.get(g).get(i) != 1) {
+                    PCQueueTestHelpers.printFail("Expected group " + g + " to take event " + i + " once; Observed " + seen.get(g).get(i) + " times");
+                    return false;
+                }
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
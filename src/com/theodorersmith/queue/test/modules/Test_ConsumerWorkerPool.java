@@ -0,0 +1,288 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ConsumerWorkerPool;
+import com.theodorersmith.queue.ConsumerWorkerPool.IdleStrategy;
+import com.theodorersmith.queue.ConsumerWorkerPool.WorkerThreads;
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.ProducerConsumerQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Tests ConsumerWorkerPool - that batches are drained up to the batch size, that an idle worker picks up a new item,
+// that a callback that throws doesn't stop its worker, that shutdown empties the queue first while shutdownNow leaves
+// the rest queued, that closing the queue lets the workers finish it and exit on their own, and that with every idle strategy (and on virtual threads, where available) producers x workers
+// deliver every item exactly once.
+public class Test_ConsumerWorkerPool {
+
+    public static boolean run(ExecutorService threadPool) {
+        return runBatchesUpToBatchSize() &&
+                runIdleWorkerWakes() &&
+                runThrowingCallback() &&
+                runShutdownDrains() &&
+                runShutdownNowStops() &&
+                runClosedQueueStops(IdleStrategy.blocking()) &&
+                runClosedQueueStops(IdleStrategy.busySpin()) &&
+                runContention(threadPool, IdleStrategy.blocking(), WorkerThreads.PLATFORM, 10, 5, 4, 16) &&
+                runContention(threadPool, IdleStrategy.blocking(), WorkerThreads.PLATFORM, 1, 2, 2, 1) &&
+                runContention(threadPool, IdleStrategy.yielding(), WorkerThreads.PLATFORM, 100, 4, 2, 32) &&
+                runContention(threadPool, IdleStrategy.backoff(TimeUnit.MILLISECONDS.toNanos(1)), WorkerThreads.PLATFORM, 100, 4, 4, 64) &&
+                runContention(threadPool, IdleStrategy.busySpin(), WorkerThreads.PLATFORM, 100, 2, 1, 64) &&
+                runVirtualContention(threadPool);
+    }
+
+    // A queue already holding 100 items is handed over in full batches of 16 (and one of 4)
+    private static boolean runBatchesUpToBatchSize() {
+        System.out.print("Running test: Batches are drained up to the batch size... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(100);
+        for (int i = 0; i < 100; i++) {
+            testQueue.enqueue(i);
+        }
+        List<Integer> batchSizes = new ArrayList<>();
+        List<Integer> received = new ArrayList<>();
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 1, 16, batch -> {
+            batchSizes.add(batch.size());
+            received.addAll(batch);
+        });
+        testPool.start();
+        if (!testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS)) {
+            PCQueueTestHelpers.printFail("Expected the pool to finish within " + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM + " ms");
+            return false;
+        }
+
+        for (int i = 0; i < received.size(); i++) {
+            if (received.get(i) != i) {
+                PCQueueTestHelpers.printFail("Expected item " + i + " in order; Observed " + received.get(i));
+                return false;
+            }
+        }
+        if (received.size() != 100 || batchSizes.size() != 7 || batchSizes.get(0) != 16 || batchSizes.get(6) != 4) {
+            PCQueueTestHelpers.printFail("Expected 100 items in 6 batches of 16 and 1 of 4; Observed " + received.size() + " items in batches " + batchSizes);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A worker waiting on an empty queue handles an item enqueued later
+    private static boolean runIdleWorkerWakes() {
+        System.out.print("Running test: Idle worker picks up a new item... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(10);
+        CountDownLatch handled = new CountDownLatch(1);
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 2, 8, batch -> handled.countDown());
+        testPool.start();
+        try {
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            testQueue.enqueue(1);
+            if (!handled.await(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS)) {
+                PCQueueTestHelpers.printFail("Expected an idle worker to handle the item within " + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM + " ms");
+                return false;
+            }
+        } catch (InterruptedException iEx) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + iEx);
+            return false;
+        } finally {
+            testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A callback that throws on every other batch is counted, and the worker carries on with the rest
+    private static boolean runThrowingCallback() {
+        System.out.print("Running test: Throwing callback doesn't stop the worker... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(10);
+        for (int i = 0; i < 10; i++) {
+            testQueue.enqueue(i);
+        }
+        AtomicInteger calls = new AtomicInteger();
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 1, 1, batch -> {
+            if (calls.incrementAndGet() % 2 == 0) {
+                throw new IllegalStateException("Can't handle " + batch.get(0));
+            }
+        });
+        testPool.start();
+        boolean finished = testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+
+        if (!finished || testPool.getItemCount() != 10 || testPool.getFailedBatchCount() != 5 || !(testPool.getFirstFailure() instanceof IllegalStateException)) {
+            PCQueueTestHelpers.printFail("Expected 10 items handled and 5 failed batches; Observed finished " + finished + ", " + testPool.getItemCount() + " items and " + testPool.getFailedBatchCount() + " failures");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Shutting down straight after start still hands over everything that was queued
+    private static boolean runShutdownDrains() {
+        System.out.print("Running test: Shutdown empties the queue first... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            testQueue.enqueue(i);
+        }
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 2, 10, batch -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException iEx) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        testPool.start();
+        long startTime = System.currentTimeMillis();
+        boolean finished = testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+        long timeTaken = System.currentTimeMillis() - startTime;
+
+        if (!finished || testPool.getItemCount() != 1000 || testQueue.tryDequeue() != null) {
+            PCQueueTestHelpers.printFail("Expected all 1000 items handled before shutdown returned; Observed finished " + finished + " and " + testPool.getItemCount() + " items");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess(timeTaken);
+        return true;
+    }
+
+    // shutdownNow stops the workers part way through, and whatever they hadn't taken is still in the queue
+    private static boolean runShutdownNowStops() {
+        System.out.print("Running test: ShutdownNow leaves the rest queued... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(100);
+        for (int i = 0; i < 100; i++) {
+            testQueue.enqueue(i);
+        }
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 1, 1, batch -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException iEx) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        testPool.start();
+        try {
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+        } catch (InterruptedException iEx) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + iEx);
+            return false;
+        }
+        testPool.shutdownNow();
+        // (Give the worker a moment to notice)
+        testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+
+        int left = 0;
+        while (testQueue.tryDequeue() != null) {
+            left++;
+        }
+        if (left == 0 || testPool.getItemCount() + left != 100) {
+            PCQueueTestHelpers.printFail("Expected some of the 100 items left in the queue, and none lost; Observed " + testPool.getItemCount() + " handled and " + left + " left");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Closing the queue for producers lets the workers take what's left and then exit, without a shutdown
+    private static boolean runClosedQueueStops(IdleStrategy idleStrategy) {
+        System.out.print("Running test: Closed queue stops the workers (" + idleStrategy + ")... ");
+
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(200);
+        for (int i = 0; i < 200; i++) {
+            testQueue.enqueue(i);
+        }
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, 2, 8, batch -> { }, idleStrategy, WorkerThreads.PLATFORM);
+        testPool.start();
+        try {
+            testQueue.closeForProducers();
+            long deadline = System.currentTimeMillis() + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM;
+            while (!testPool.isTerminated() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            if (!testPool.isTerminated() || testPool.getItemCount() != 200) {
+                PCQueueTestHelpers.printFail("Expected the workers to handle all 200 items and exit; Observed terminated " + testPool.isTerminated() + " and " + testPool.getItemCount() + " items");
+                return false;
+            }
+        } catch (InterruptedException iEx) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + iEx);
+            return false;
+        } finally {
+            testPool.shutdownNow();
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Runs the contention test on virtual thread workers, if this JVM has them
+    private static boolean runVirtualContention(ExecutorService threadPool) {
+        try {
+            return runContention(threadPool, IdleStrategy.blocking(), WorkerThreads.VIRTUAL, 10, 5, 8, 16);
+        } catch (UnsupportedOperationException ex) {
+            System.out.println("Skipping test: Virtual thread workers (Java 21+ only)");
+            return true;
+        }
+    }
+
+    // Producers enqueue the numbers 0 to objectCount - 1 between them, and the pool's workers mark each number they're
+    // handed. Every number has to be marked exactly once.
+    private static boolean runContention(ExecutorService threadPool, IdleStrategy idleStrategy, WorkerThreads workerThreads, int capacity, int producers, int workers, int batchSize) {
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_LARGE_CONTENTIONOBJECTCOUNT;
+        ProducerConsumerQueue<Integer> testQueue = new ProducerConsumerConcurrentQueue<>(capacity);
+        AtomicIntegerArray seen = new AtomicIntegerArray(objectCount);
+        ConsumerWorkerPool<Integer> testPool = new ConsumerWorkerPool<>(testQueue, workers, batchSize, batch -> {
+            for (Integer item : batch) {
+                seen.incrementAndGet(item);
+            }
+        }, idleStrategy, workerThreads);
+        System.out.print("Running test: Contention with " + objectCount + " Objects; Capacity " + capacity + "; " + producers + " Producers; " + workers + " " + workerThreads + " Workers; Batch " + batchSize + "; " + idleStrategy + "... ");
+
+        testPool.start();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    for (int value = firstValue; value < objectCount; value += producers) {
+                        testQueue.enqueue(value);
+                    }
+                }));
+            }
+            for (Future<?> fut : futures) {
+                fut.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            testPool.shutdownNow();
+            return false;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+        if (!testPool.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS)) {
+            PCQueueTestHelpers.printFail("Expected the pool to empty the queue within " + PCQueueTestHelpers.CONST_TIMEOUT_LONG + " ms");
+            return false;
+        }
+
+        for (int i = 0; i < objectCount; i++) {
+            if (seen.get(i) != 1) {
+                PCQueueTestHelpers.printFail("Expected item " + i + " to be handled once; Observed " + seen.get(i) + " times");
+                return false;
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
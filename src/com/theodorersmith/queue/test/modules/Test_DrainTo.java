@@ -0,0 +1,131 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Tests drainTo - it moves every item exactly once (including a run that wraps around the end of a circular array), and a
+// target that throws part way through never leaves an item both in the target and in the queue.
+public class Test_DrainTo {
+    public static boolean run(ExecutorService threadPool, TestableQueue<Object> testQueue) {
+        System.out.print("Running test: Draining the queue with drainTo... ");
+
+        Future<String> testFuture = null;
+        try {
+            // Run everything on a worker so a blocking drainTo shows up as a timeout rather than hanging the test
+            testFuture = threadPool.submit(() ->
+            {
+                // Fill the queue, take half of it, then fill it again - so the items run around the end of the array
+                testQueue.resetQueue();
+                int capacity = testQueue.getCapacity();
+                Set<Object> expected = new HashSet<>();
+                for (int i = 0; i < capacity; i++) {
+                    testQueue.enqueue(i);
+                }
+                for (int i = 0; i < capacity / 2; i++) {
+                    testQueue.dequeue();
+                }
+                for (int i = capacity / 2; i < capacity; i++) {
+                    expected.add(i);
+                }
+                for (int i = capacity; i < capacity + capacity / 2; i++) {
+                    testQueue.enqueue(i);
+                    expected.add(i);
+                }
+
+                // drainTo moves everything (and no more than maxItems)
+                List<Object> target = new ArrayList<>();
+                int moved = testQueue.drainTo(target, capacity + 1);
+                if (moved != capacity || target.size() != capacity || !expected.equals(new HashSet<>(target))) {
+                    return "Expected drainTo to move the " + capacity + " items in the queue; Observed " + moved + " moved, " + new HashSet<>(target).size() + " distinct";
+                }
+                if (testQueue.getLength() != 0 || testQueue.drainTo(target, 1) != 0) {
+                    return "Expected an empty queue after drainTo; Observed length " + testQueue.getLength();
+                }
+
+                // A target that throws after taking half the items - whatever it took must be gone from the queue
+                testQueue.resetQueue();
+                for (int i = 0; i < capacity; i++) {
+                    testQueue.enqueue(i);
+                }
+                List<Object> refusingTarget = new RefusingList(capacity / 2);
+                try {
+                    testQueue.drainTo(refusingTarget, capacity);
+                    return "Expected drainTo to pass on the target's exception; Observed it returned";
+                } catch (RefusedException ex) {
+                    // (Expected)
+                }
+                int left = testQueue.getLength();
+                List<Object> remaining = new ArrayList<>();
+                Object item;
+                while ((item = testQueue.tryDequeue()) != null) {
+                    remaining.add(item);
+                }
+                if (remaining.size() != left) {
+                    return "Expected to dequeue the " + left + " items left after the target threw; Observed " + remaining.size();
+                }
+                for (Object taken : refusingTarget) {
+                    if (remaining.contains(taken)) {
+                        return "Expected items the target took to leave the queue; Observed " + taken + " dequeued again";
+                    }
+                }
+                return null;
+            });
+
+            String failure = testFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_SHORT * 10, TimeUnit.MILLISECONDS);
+            if (failure != null) {
+                PCQueueTestHelpers.printFail(failure);
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+
+        } catch (TimeoutException tEx) {
+            PCQueueTestHelpers.printFail("Expected drainTo to return immediately; Observed blocking");
+            return false;
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex.getMessage());
+            return false;
+        } finally {
+            // Cancel the thread if it is still working
+            if (testFuture != null && !testFuture.isDone()) testFuture.cancel(true);
+        }
+
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // A list that throws instead of taking any more than its limit
+    private static class RefusingList extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+        private final int limit;
+
+        RefusingList(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean add(Object item) {
+            if (size() == limit) {
+                throw new RefusedException();
+            }
+            return super.add(item);
+        }
+    }
+
+    private static class RefusedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
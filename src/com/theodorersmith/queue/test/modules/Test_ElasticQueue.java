@@ -0,0 +1,172 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerElasticQueue;
+import com.theodorersmith.queue.WaitStrategy;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Tests the parts of ProducerConsumerElasticQueue the standard suite can't reach - growing past the soft capacity (and
+// blocking at the hard one), shrinking back once the backlog drains, and not growing at all while under the soft capacity.
+// Then a two thread contention test where the consumer keeps falling behind, so the ring grows and shrinks under it.
+public class Test_ElasticQueue {
+
+    public static boolean run(ExecutorService threadPool) {
+        return runGrowAndShrink() &&
+                runSteadyState() &&
+                runTwoThreadBursts(threadPool);
+    }
+
+    // Soft capacity 4 and hard capacity 16, in chunks of 2. The ring starts at 3 chunks (6 slots), grows to 8 chunks to
+    // hold 16 items, and is back to 3 once those have drained and the producer has moved through the ring again.
+    private static boolean runGrowAndShrink() {
+        System.out.print("Running test: Grow to the hard capacity, then shrink back... ");
+
+        ProducerConsumerElasticQueue<Integer> testQueue = new ProducerConsumerElasticQueue<>(4, 16, 2, WaitStrategy.blocking());
+        if (testQueue.getAllocatedCapacity() != 6) {
+            PCQueueTestHelpers.printFail("Expected 6 allocated slots to start with; Observed " + testQueue.getAllocatedCapacity());
+            return false;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            testQueue.enqueue(i);
+        }
+        if (testQueue.tryEnqueue(16)) {
+            PCQueueTestHelpers.printFail("Expected tryEnqueue at the hard capacity to fail");
+            return false;
+        }
+        if (testQueue.getAllocatedCapacity() != 16) {
+            PCQueueTestHelpers.printFail("Expected 16 allocated slots at the hard capacity; Observed " + testQueue.getAllocatedCapacity());
+            return false;
+        }
+
+        for (int i = 0; i < 16; i++) {
+            Integer item = testQueue.tryDequeue();
+            if (item == null || item != i) {
+                PCQueueTestHelpers.printFail("Expected item " + i + "; Observed " + item);
+                return false;
+            }
+        }
+
+        // One item at a time, so the producer passes over the free chunks
+        for (int i = 0; i < 20; i++) {
+            testQueue.enqueue(i);
+            testQueue.dequeue();
+        }
+        if (testQueue.getAllocatedCapacity() != 6) {
+            PCQueueTestHelpers.printFail("Expected the queue to shrink back to 6 allocated slots; Observed " + testQueue.getAllocatedCapacity());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Going round and round under the soft capacity never links in another chunk
+    private static boolean runSteadyState() {
+        System.out.print("Running test: No growth under the soft capacity... ");
+
+        ProducerConsumerElasticQueue<Integer> testQueue = new ProducerConsumerElasticQueue<>(8, 64, 4, WaitStrategy.blocking());
+        int startSlots = testQueue.getAllocatedCapacity();
+        for (int i = 0; i < 8; i++) {
+            testQueue.enqueue(i);
+        }
+        for (int i = 8; i < 1000; i++) {
+            // (Dequeue first, so the queue never holds more than the soft capacity)
+            Integer item = testQueue.dequeue();
+            testQueue.enqueue(i);
+            if (item != i - 8) {
+                PCQueueTestHelpers.printFail("Expected item " + (i - 8) + "; Observed " + item);
+                return false;
+            }
+            if (testQueue.getAllocatedCapacity() != startSlots) {
+                PCQueueTestHelpers.printFail("Expected " + startSlots + " allocated slots throughout; Observed " + testQueue.getAllocatedCapacity() + " after " + i + " items");
+                return false;
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // The producer enqueues in bursts faster than the consumer (which pauses now and then) can keep up. Every item has to
+    // come out, in order, while the ring grows and shrinks between the two.
+    private static boolean runTwoThreadBursts(ExecutorService threadPool) {
+        System.out.print("Running test: Two Thread Contention with a growing and shrinking ring... ");
+
+        ProducerConsumerElasticQueue<Integer> testQueue = new ProducerConsumerElasticQueue<>(8, 512, 4, WaitStrategy.blocking());
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT;
+        Future<?> testFutureEnqueue = null;
+        Future<String> testFutureDequeue = null;
+        try {
+            // Start enqueue thread
+            testFutureEnqueue = threadPool.submit(() ->
+            {
+                for (int i = 0; i < objectCount; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                        System.out.print("Breaking out of enqueue thread.");
+                        return;
+                    }
+                    testQueue.enqueue(i);
+                }
+            });
+            // Start dequeue thread (Returns a failure message, or null)
+            testFutureDequeue = threadPool.submit(() ->
+            {
+                for (int i = 0; i < objectCount; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                        System.out.print("Breaking out of dequeue thread.");
+                        return "Interrupted after " + i + " items";
+                    }
+
+                    Integer item = testQueue.dequeue();
+                    if (item == null || item != i) {
+                        return "Expected item " + i + "; Observed " + item;
+                    }
+                    if (i % 2000 == 0) {
+                        // Fall behind for a moment, so a backlog builds up
+                        Thread.sleep(1);
+                    }
+                }
+                return null;
+            });
+
+            // Check if either thread timed out
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT * 5);
+            if (!testFutureEnqueue.isDone()) {
+                // If we failed because of timeout, just return false and let finally shut down the threads.
+                PCQueueTestHelpers.printFail("Timeout - Enqueue thread is blocking");
+                return false;
+            }
+            if (!testFutureDequeue.isDone()) {
+                PCQueueTestHelpers.printFail("Timeout - Dequeue thread is blocking");
+                return false;
+            }
+
+            String failure = testFutureDequeue.get();
+            if (failure != null) {
+                PCQueueTestHelpers.printFail(failure);
+                return false;
+            }
+            if (testQueue.getLength() != 0) {
+                PCQueueTestHelpers.printFail("Expected an empty queue at the end; Observed length " + testQueue.getLength());
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex.getMessage());
+            return false;
+        } finally {
+            // Cancel any threads that are still working
+            if (testFutureEnqueue != null && !testFutureEnqueue.isDone()) testFutureEnqueue.cancel(true);
+            if (testFutureDequeue != null && !testFutureDequeue.isDone()) testFutureDequeue.cancel(true);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,290 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerEventRing;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Tests ProducerConsumerEventRing - that the events are the preallocated ones (reused as the ring wraps), that claim and
+// take block (and time out) on a full and an empty ring, that out of order publishes and releases only move the cursors
+// once everything before them is done, and that a lambda that throws still publishes its slot. Then N producers x M
+// consumers move numbered events through a small ring, checking every number arrives exactly once.
+public class Test_EventRing {
+
+    // The event used by the tests - a mutable holder, filled in place by producers
+    private static final class NumberEvent {
+        private int value;
+    }
+
+    public static boolean run(ExecutorService threadPool) {
+        return runPreallocatedEvents() &&
+                runFullAndEmpty() &&
+                runOutOfOrderPublish() &&
+                runOutOfOrderRelease() &&
+                runBlockedWakeups(threadPool) &&
+                runThrowingWriter() &&
+                runContention(threadPool, 1, 1, 1) &&
+                runContention(threadPool, 10, 5, 5) &&
+                runContention(threadPool, 3, 10, 10);
+    }
+
+    // Claim / publish / take / release hands over the event in place, and the same events come around again as the ring
+    // wraps
+    private static boolean runPreallocatedEvents() {
+        System.out.print("Running test: Events are preallocated and reused... ");
+
+        int[] created = new int[1];
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(4, () -> {
+            created[0]++;
+            return new NumberEvent();
+        });
+        List<NumberEvent> firstLap = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            long claimed = testRing.claim();
+            testRing.get(claimed).value = i;
+            testRing.publish(claimed);
+
+            long taken = testRing.take();
+            NumberEvent event = testRing.get(taken);
+            if (taken != i || event.value != i) {
+                PCQueueTestHelpers.printFail("Expected sequence and value " + i + "; Observed sequence " + taken + " and value " + event.value);
+                return false;
+            }
+            if (i < 4) {
+                firstLap.add(event);
+            } else if (event != firstLap.get(i % 4)) {
+                PCQueueTestHelpers.printFail("Expected sequence " + i + " to reuse the event from sequence " + (i % 4));
+                return false;
+            }
+            testRing.release(taken);
+        }
+        if (created[0] != 4) {
+            PCQueueTestHelpers.printFail("Expected the factory to be called once per slot (4); Observed " + created[0]);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A full ring can't be claimed from (the timed claim gives up after its timeout), and an empty one can't be taken from
+    private static boolean runFullAndEmpty() {
+        System.out.print("Running test: Full and empty ring... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(3, NumberEvent::new);
+        if (testRing.tryTake() != ProducerConsumerEventRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected tryTake on an empty ring to fail");
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            testRing.publish(testRing.claim());
+        }
+        if (testRing.tryClaim() != ProducerConsumerEventRing.NO_SEQUENCE || testRing.getLength() != 3) {
+            PCQueueTestHelpers.printFail("Expected a full ring of 3; Observed length " + testRing.getLength());
+            return false;
+        }
+
+        long startTime = System.currentTimeMillis();
+        long timedClaim = testRing.claim(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+        long timeTaken = System.currentTimeMillis() - startTime;
+        if (timedClaim != ProducerConsumerEventRing.NO_SEQUENCE || timeTaken < PCQueueTestHelpers.CONST_TIMEOUT_SHORT - PCQueueTestHelpers.CONST_TIMEOUT_TOLERANCE) {
+            PCQueueTestHelpers.printFail("Expected the timed claim to time out after " + PCQueueTestHelpers.CONST_TIMEOUT_SHORT + " ms; Observed " + timedClaim + " after " + timeTaken + " ms");
+            return false;
+        }
+
+        // Releasing one slot frees it for the next claim
+        testRing.release(testRing.take());
+        if (testRing.tryClaim() != 3) {
+            PCQueueTestHelpers.printFail("Expected to claim sequence 3 once a slot was released");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A later sequence published first isn't visible until the earlier one is published too
+    private static boolean runOutOfOrderPublish() {
+        System.out.print("Running test: Out of order publish... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(4, NumberEvent::new);
+        long first = testRing.claim();
+        long second = testRing.claim();
+        testRing.publish(second);
+        if (testRing.tryTake() != ProducerConsumerEventRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected nothing to take until the first sequence is published");
+            return false;
+        }
+
+        testRing.publish(first);
+        long takenFirst = testRing.tryTake();
+        long takenSecond = testRing.tryTake();
+        if (takenFirst != first || takenSecond != second) {
+            PCQueueTestHelpers.printFail("Expected to take " + first + " then " + second + "; Observed " + takenFirst + " then " + takenSecond);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A later sequence released first doesn't free a slot until the earlier one is released too
+    private static boolean runOutOfOrderRelease() {
+        System.out.print("Running test: Out of order release... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(2, NumberEvent::new);
+        testRing.publish(testRing.claim());
+        testRing.publish(testRing.claim());
+        long first = testRing.take();
+        long second = testRing.take();
+
+        testRing.release(second);
+        if (testRing.tryClaim() != ProducerConsumerEventRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected the ring to stay full until the first sequence is released");
+            return false;
+        }
+
+        testRing.release(first);
+        if (testRing.tryClaim() == ProducerConsumerEventRing.NO_SEQUENCE || testRing.tryClaim() == ProducerConsumerEventRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected both slots to be free once the first sequence was released");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A consumer parked on an empty ring wakes for a publish, and a producer parked on a full ring wakes for a release
+    private static boolean runBlockedWakeups(ExecutorService threadPool) {
+        System.out.print("Running test: Blocked claim and take wake up... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(1, NumberEvent::new);
+        Future<Integer> takeFuture = null;
+        Future<Long> claimFuture = null;
+        try {
+            takeFuture = threadPool.submit(() -> {
+                long sequence = testRing.take();
+                int value = testRing.get(sequence).value;
+                testRing.release(sequence);
+                return value;
+            });
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            testRing.publishEvent(event -> event.value = 42);
+            int taken = takeFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (taken != 42) {
+                PCQueueTestHelpers.printFail("Expected the parked consumer to take 42; Observed " + taken);
+                return false;
+            }
+
+            // Fill the ring, then park a producer on it
+            long held = testRing.claim();
+            testRing.publish(held);
+            claimFuture = threadPool.submit(() -> testRing.claim());
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            if (claimFuture.isDone()) {
+                PCQueueTestHelpers.printFail("Expected the claim to block on a full ring");
+                return false;
+            }
+            testRing.release(testRing.take());
+            long claimed = claimFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (claimed != held + 1) {
+                PCQueueTestHelpers.printFail("Expected the parked producer to claim " + (held + 1) + "; Observed " + claimed);
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            if (takeFuture != null && !takeFuture.isDone()) takeFuture.cancel(true);
+            if (claimFuture != null && !claimFuture.isDone()) claimFuture.cancel(true);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A writer that throws still publishes its slot (so the ring doesn't stall on it), and the exception gets through
+    private static boolean runThrowingWriter() {
+        System.out.print("Running test: Throwing writer still publishes... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(2, NumberEvent::new);
+        try {
+            testRing.publishEvent(event -> {
+                throw new IllegalStateException("Writer failed");
+            });
+            PCQueueTestHelpers.printFail("Expected the writer's exception to be thrown");
+            return false;
+        } catch (IllegalStateException expected) {
+        }
+        testRing.publishEvent(event -> event.value = 7);
+
+        int[] values = new int[2];
+        testRing.consumeEvent(event -> values[0] = 1);
+        testRing.consumeEvent(event -> values[1] = event.value);
+        if (values[0] != 1 || values[1] != 7 || testRing.getLength() != 0) {
+            PCQueueTestHelpers.printFail("Expected both slots to be published and released; Observed length " + testRing.getLength());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Producers publish the numbers 0 to objectCount - 1 between them, and consumers mark each number they take. Every
+    // number has to be marked exactly once.
+    private static boolean runContention(ExecutorService threadPool, int capacity, int producers, int consumers) {
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT;
+        System.out.print("Running test: Contention with " + objectCount + " Events; Capacity " + capacity + "; " + producers + " Producers; " + consumers + " Consumers... ");
+
+        ProducerConsumerEventRing<NumberEvent> testRing = new ProducerConsumerEventRing<>(capacity, NumberEvent::new);
+        AtomicIntegerArray seen = new AtomicIntegerArray(objectCount);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    for (int value = firstValue; value < objectCount; value += producers) {
+                        long sequence = testRing.claim();
+                        testRing.get(sequence).value = value;
+                        testRing.publish(sequence);
+                    }
+                }));
+            }
+            for (int c = 0; c < consumers; c++) {
+                int share = objectCount / consumers + (c < objectCount % consumers ? 1 : 0);
+                futures.add(threadPool.submit(() -> {
+                    for (int i = 0; i < share; i++) {
+                        long sequence = testRing.take();
+                        seen.incrementAndGet(testRing.get(sequence).value);
+                        testRing.release(sequence);
+                    }
+                }));
+            }
+            for (Future<?> fut : futures) {
+                fut.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+
+        for (int i = 0; i < objectCount; i++) {
+            if (seen.get(i) != 1) {
+                PCQueueTestHelpers.printFail("Expected event " + i + " to be taken once; Observed " + seen.get(i) + " times");
+                return false;
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
@@ -0,0 +1,296 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue;
+import com.theodorersmith.queue.ProducerConsumerPersistentQueue.FlushMode;
+import com.theodorersmith.queue.QueueSerializer;
+import com.theodorersmith.queue.WaitStrategy;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Tests the parts of ProducerConsumerPersistentQueue the Object based suite can't reach - reopening a queue directory and
+// getting back the items that were never dequeued (in every flush mode), cutting a torn or corrupt record off the end of
+// the log, deleting segments once they have been read, surviving an interrupted enqueue (an interrupt closes a
+// FileChannel), and recovering the items of several concurrent producers.
+public class Test_PersistentQueue {
+    // Small enough that a handful of items fill a segment, so the tests go through plenty of segments
+    private static final long SEGMENT_BYTES = 64;
+
+    public static boolean run(ExecutorService threadPool, Path directory) {
+        boolean success = true;
+        for (FlushMode flushMode : FlushMode.values()) {
+            success = success && runReopenQueue(directory.resolve("reopen-" + flushMode), flushMode);
+        }
+        return success &&
+                runTornRecord(directory.resolve("torn")) &&
+                runInterruptedEnqueue(directory.resolve("interrupted")) &&
+                runTooManyItems(directory.resolve("capacity")) &&
+                runConcurrentProducers(threadPool, directory.resolve("producers"));
+    }
+
+    // Items that were enqueued but not dequeued come back (in order) when the queue is reopened, and read segments get deleted
+    private static boolean runReopenQueue(Path directory, FlushMode flushMode) {
+        System.out.print("Running test: Reopen a queue with " + flushMode + " flushing... ");
+
+        try {
+            ProducerConsumerPersistentQueue<String> firstQueue = openQueue(directory, 20, flushMode);
+            for (int i = 0; i < 8; i++) {
+                firstQueue.enqueue("item-" + i);
+            }
+            for (int i = 0; i < 3; i++) {
+                firstQueue.dequeue();
+            }
+            firstQueue.close();
+
+            ProducerConsumerPersistentQueue<String> reopenedQueue = openQueue(directory, 20, flushMode);
+            if (!checkItems(reopenedQueue, 3, 8)) {
+                return false;
+            }
+
+            // Go through a few more segments, so the ones from before are completely read (and can be deleted)
+            for (int i = 8; i < 20; i++) {
+                reopenedQueue.enqueue("item-" + i);
+            }
+            reopenedQueue.drainTo(new ArrayList<>(), 12);
+            reopenedQueue.enqueue("item-20");
+            reopenedQueue.enqueue("item-21");
+            reopenedQueue.close();
+
+            if (Files.exists(directory.resolve(String.format("%020d.log", 0)))) {
+                PCQueueTestHelpers.printFail("Expected the first log segment to be deleted once it had been read");
+                return false;
+            }
+
+            ProducerConsumerPersistentQueue<String> lastQueue = openQueue(directory, 20, flushMode);
+            if (!checkItems(lastQueue, 20, 22)) {
+                return false;
+            }
+            lastQueue.close();
+        } catch (IOException ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            PCQueueTestHelpers.deleteDirectory(directory);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Half a record at the end of the log (a write that never finished) is cut off, and so is a record with a bad CRC
+    private static boolean runTornRecord(Path directory) {
+        System.out.print("Running test: Cut torn and corrupt records off the end of the log... ");
+
+        try {
+            ProducerConsumerPersistentQueue<String> firstQueue = openQueue(directory, 10, FlushMode.GROUP_COMMIT);
+            for (int i = 0; i < 3; i++) {
+                firstQueue.enqueue("item-" + i);
+            }
+            firstQueue.close();
+
+            // A header for 100 bytes, and only 10 of them
+            try (FileChannel segment = FileChannel.open(lastSegment(directory), StandardOpenOption.APPEND)) {
+                segment.write(ByteBuffer.allocate(18).putInt(100).putInt(12345).flip());
+            }
+
+            ProducerConsumerPersistentQueue<String> reopenedQueue = openQueue(directory, 10, FlushMode.GROUP_COMMIT);
+            if (reopenedQueue.getLength() != 3) {
+                PCQueueTestHelpers.printFail("Expected the 3 whole records after a torn one; Observed " + reopenedQueue.getLength());
+                return false;
+            }
+            // (The new record has to go where the torn one was, or the next reopen would stop at the torn one again)
+            reopenedQueue.enqueue("item-3");
+            reopenedQueue.close();
+
+            // Flip the last byte of the last record's item
+            Path segmentFile = lastSegment(directory);
+            try (FileChannel segment = FileChannel.open(segmentFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer lastByte = ByteBuffer.allocate(1);
+                segment.read(lastByte, segment.size() - 1);
+                lastByte.put(0, (byte)(lastByte.get(0) ^ 0xFF)).rewind();
+                segment.write(lastByte, segment.size() - 1);
+            }
+
+            ProducerConsumerPersistentQueue<String> corruptQueue = openQueue(directory, 10, FlushMode.GROUP_COMMIT);
+            if (!checkItems(corruptQueue, 0, 3)) {
+                return false;
+            }
+            corruptQueue.close();
+        } catch (IOException ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            PCQueueTestHelpers.deleteDirectory(directory);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A thread that is already interrupted can still tryEnqueue (and keeps its interrupt), and doesn't break the log for anyone else
+    private static boolean runInterruptedEnqueue(Path directory) {
+        System.out.print("Running test: Enqueue from an interrupted thread... ");
+
+        try {
+            ProducerConsumerPersistentQueue<String> firstQueue = openQueue(directory, 10, FlushMode.FSYNC_PER_ITEM);
+            Thread.currentThread().interrupt();
+            boolean enqueued = firstQueue.tryEnqueue("item-0");
+            if (!Thread.interrupted()) {
+                PCQueueTestHelpers.printFail("Expected the thread to still be interrupted after tryEnqueue");
+                return false;
+            }
+            if (!enqueued) {
+                PCQueueTestHelpers.printFail("Expected tryEnqueue to succeed on an interrupted thread");
+                return false;
+            }
+            firstQueue.enqueue("item-1");
+            firstQueue.close();
+
+            ProducerConsumerPersistentQueue<String> reopenedQueue = openQueue(directory, 10, FlushMode.FSYNC_PER_ITEM);
+            if (!checkItems(reopenedQueue, 0, 2)) {
+                return false;
+            }
+            reopenedQueue.close();
+        } catch (IOException ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            Thread.interrupted();
+            PCQueueTestHelpers.deleteDirectory(directory);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A log with more items than the capacity can't be opened - they would have nowhere to go
+    private static boolean runTooManyItems(Path directory) {
+        System.out.print("Running test: Refuse to open a log with more items than the capacity... ");
+
+        try {
+            ProducerConsumerPersistentQueue<String> firstQueue = openQueue(directory, 5, FlushMode.GROUP_COMMIT);
+            for (int i = 0; i < 5; i++) {
+                firstQueue.enqueue("item-" + i);
+            }
+            firstQueue.close();
+
+            try {
+                openQueue(directory, 2, FlushMode.GROUP_COMMIT);
+                PCQueueTestHelpers.printFail("Expected a capacity 2 queue to refuse a log with 5 items");
+                return false;
+            } catch (IOException expected) {
+            }
+
+            ProducerConsumerPersistentQueue<String> reopenedQueue = openQueue(directory, 5, FlushMode.GROUP_COMMIT);
+            if (!checkItems(reopenedQueue, 0, 5)) {
+                return false;
+            }
+            reopenedQueue.close();
+        } catch (IOException ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            PCQueueTestHelpers.deleteDirectory(directory);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Several producers enqueuing at once (sharing group commits) all get every item back, each in its own order
+    private static boolean runConcurrentProducers(ExecutorService threadPool, Path directory) {
+        final int producers = 4;
+        final int itemsPerProducer = 250;
+        System.out.print("Running test: Recover the items of " + producers + " concurrent producers... ");
+
+        List<Future<?>> producerFutures = new ArrayList<>();
+        try {
+            ProducerConsumerPersistentQueue<String> firstQueue = openQueue(directory, producers * itemsPerProducer, FlushMode.GROUP_COMMIT);
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                producerFutures.add(threadPool.submit(() -> {
+                    for (int i = 0; i < itemsPerProducer; i++) {
+                        firstQueue.enqueue(producer + ":" + i);
+                    }
+                }));
+            }
+            for (Future<?> producerFuture : producerFutures) {
+                producerFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            }
+            firstQueue.close();
+
+            ProducerConsumerPersistentQueue<String> reopenedQueue = openQueue(directory, producers * itemsPerProducer, FlushMode.GROUP_COMMIT);
+            int[] nextItem = new int[producers];
+            Set<String> seen = new HashSet<>();
+            String item;
+            while ((item = reopenedQueue.tryDequeue()) != null) {
+                int producer = Integer.parseInt(item.substring(0, item.indexOf(':')));
+                int index = Integer.parseInt(item.substring(item.indexOf(':') + 1));
+                if (index != nextItem[producer]++ || !seen.add(item)) {
+                    PCQueueTestHelpers.printFail("Expected producer " + producer + "'s items in order; Observed " + item);
+                    return false;
+                }
+            }
+            if (seen.size() != producers * itemsPerProducer) {
+                PCQueueTestHelpers.printFail("Expected " + producers * itemsPerProducer + " recovered items; Observed " + seen.size());
+                return false;
+            }
+            reopenedQueue.close();
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> producerFuture : producerFutures) {
+                if (!producerFuture.isDone()) producerFuture.cancel(true);
+            }
+            PCQueueTestHelpers.deleteDirectory(directory);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    private static ProducerConsumerPersistentQueue<String> openQueue(Path directory, int capacity, FlushMode flushMode) throws IOException {
+        return new ProducerConsumerPersistentQueue<>(directory, capacity, QueueSerializer.strings(), flushMode, SEGMENT_BYTES, WaitStrategy.blocking());
+    }
+
+    // Checks the queue holds exactly item-first up to (not including) item-end, in order
+    private static boolean checkItems(ProducerConsumerPersistentQueue<String> testQueue, int first, int end) {
+        if (testQueue.getLength() != end - first) {
+            PCQueueTestHelpers.printFail("Expected " + (end - first) + " items in the reopened queue; Observed " + testQueue.getLength());
+            return false;
+        }
+        for (int i = first; i < end; i++) {
+            String item = testQueue.tryDequeue();
+            if (!("item-" + i).equals(item)) {
+                PCQueueTestHelpers.printFail("Expected item-" + i + " from the reopened queue; Observed " + item);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The newest log segment (The names are zero padded, so they sort by position)
+    private static Path lastSegment(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).max(Path::compareTo).orElseThrow(() -> new IOException("No log segments in " + directory));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerBroadcastRing;
+import com.theodorersmith.queue.ProducerConsumerPipeline;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Tests ProducerConsumerPipeline (and the upstream gating on ProducerConsumerBroadcastRing it's built on) - that a
+// downstream group can't take an event until its upstream groups have released it, that a chain of stages sees each
+// event after the stage before it has written to it, that a diamond's last stage waits for both branches, that a handler
+// that throws doesn't stall the pipeline, that shutdown drains everything published, and that stages can't be added
+// once it has started.
+public class Test_Pipeline {
+
+    // The event used by the tests - each stage fills in the next field from the one before
+    private static final class StagedEvent {
+        private int value;
+        private long decoded;
+        private long enriched;
+        private boolean left;
+        private boolean right;
+    }
+
+    public static boolean run(ExecutorService threadPool) {
+        return runUpstreamGating() &&
+                runDiamondGating() &&
+                runLateStageRejected(threadPool) &&
+                runThrowingHandler(threadPool) &&
+                runShutdownDrains(threadPool) &&
+                runChainedStages(threadPool, 1, 1, 1, 1) &&
+                runChainedStages(threadPool, 10, 2, 4, 1) &&
+                runChainedStages(threadPool, 64, 3, 3, 3) &&
+                runDiamond(threadPool, 16, 2);
+    }
+
+    // A group gated on another only sees an event once that one has released it, and a parked producer waits for the last
+    // group in the chain
+    private static boolean runUpstreamGating() {
+        System.out.print("Running test: Downstream group waits for its upstream group... ");
+
+        ProducerConsumerBroadcastRing<StagedEvent> testRing = new ProducerConsumerBroadcastRing<>(2, StagedEvent::new);
+        ProducerConsumerBroadcastRing<StagedEvent>.ConsumerGroup first = testRing.newConsumerGroup();
+        ProducerConsumerBroadcastRing<StagedEvent>.ConsumerGroup second = testRing.newConsumerGroup(first);
+        testRing.publish(testRing.claim());
+        testRing.publish(testRing.claim());
+
+        if (second.tryTake() != ProducerConsumerBroadcastRing.NO_SEQUENCE || second.getBacklog() != 0) {
+            PCQueueTestHelpers.printFail("Expected nothing for the downstream group before the upstream group released");
+            return false;
+        }
+        long taken = first.take();
+        first.release(taken);
+        if (second.tryTake() != taken || second.tryTake() != ProducerConsumerBroadcastRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected the downstream group to take exactly the released sequence " + taken);
+            return false;
+        }
+        first.release(first.take());
+        if (testRing.tryClaim() != ProducerConsumerBroadcastRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected the ring to stay full until the downstream group released");
+            return false;
+        }
+        second.release(taken);
+        if (testRing.tryClaim() != 2) {
+            PCQueueTestHelpers.printFail("Expected to claim sequence 2 once the downstream group released sequence 0");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A group with two upstream groups waits for the slower of them
+    private static boolean runDiamondGating() {
+        System.out.print("Running test: Group with two upstream groups waits for both... ");
+
+        ProducerConsumerBroadcastRing<StagedEvent> testRing = new ProducerConsumerBroadcastRing<>(4, StagedEvent::new);
+        ProducerConsumerBroadcastRing<StagedEvent>.ConsumerGroup left = testRing.newConsumerGroup();
+        ProducerConsumerBroadcastRing<StagedEvent>.ConsumerGroup right = testRing.newConsumerGroup();
+        ProducerConsumerBroadcastRing<StagedEvent>.ConsumerGroup join = testRing.newConsumerGroup(left, right);
+        testRing.publish(testRing.claim());
+
+        left.release(left.take());
+        if (join.tryTake() != ProducerConsumerBroadcastRing.NO_SEQUENCE) {
+            PCQueueTestHelpers.printFail("Expected the joining group to wait for the right group too");
+            return false;
+        }
+        right.release(right.take());
+        if (join.tryTake() != 0) {
+            PCQueueTestHelpers.printFail("Expected the joining group to take sequence 0 once both released it");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    private static boolean runLateStageRejected(ExecutorService threadPool) {
+        System.out.print("Running test: Stages can't be added after start... ");
+
+        ProducerConsumerPipeline<StagedEvent> testPipeline = new ProducerConsumerPipeline<>(4, StagedEvent::new);
+        testPipeline.addStage("only", 1, event -> { });
+        testPipeline.start(threadPool);
+        try {
+            testPipeline.addStage("late", 1, event -> { });
+            PCQueueTestHelpers.printFail("Expected an IllegalStateException adding a stage after start");
+            return false;
+        } catch (IllegalStateException expected) {
+        } finally {
+            testPipeline.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A handler that throws on some events is counted, and everything still reaches the next stage
+    private static boolean runThrowingHandler(ExecutorService threadPool) {
+        System.out.print("Running test: Throwing handler doesn't stall the pipeline... ");
+
+        ProducerConsumerPipeline<StagedEvent> testPipeline = new ProducerConsumerPipeline<>(4, StagedEvent::new);
+        ProducerConsumerPipeline<StagedEvent>.Stage flaky = testPipeline.addStage("flaky", 1, event -> {
+            if (event.value % 10 == 0) {
+                throw new IllegalStateException("Can't handle " + event.value);
+            }
+        });
+        AtomicLong received = new AtomicLong();
+        testPipeline.addStage("after", 1, event -> received.incrementAndGet(), flaky);
+        testPipeline.start(threadPool);
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            testPipeline.publishEvent(event -> event.value = value);
+        }
+        boolean drained = testPipeline.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+
+        if (!drained || received.get() != 100 || flaky.getFailureCount() != 10 || !(flaky.getFirstFailure() instanceof IllegalStateException)) {
+            PCQueueTestHelpers.printFail("Expected 100 events through and 10 failures; Observed drained " + drained + ", " + received.get() + " events and " + flaky.getFailureCount() + " failures");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Shutting down straight after publishing still runs every event through every stage (and the workers then exit)
+    private static boolean runShutdownDrains(ExecutorService threadPool) {
+        System.out.print("Running test: Shutdown drains the pipeline... ");
+
+        ProducerConsumerPipeline<StagedEvent> testPipeline = new ProducerConsumerPipeline<>(8, StagedEvent::new);
+        AtomicLong received = new AtomicLong();
+        ProducerConsumerPipeline<StagedEvent>.Stage slow = testPipeline.addStage("slow", 1, event -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException iEx) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        testPipeline.addStage("count", 1, event -> received.incrementAndGet(), slow);
+        testPipeline.start(threadPool);
+        int objectCount = 100;
+        for (int i = 0; i < objectCount; i++) {
+            testPipeline.publishEvent(event -> { });
+        }
+
+        long startTime = System.currentTimeMillis();
+        boolean drained = testPipeline.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+        long timeTaken = System.currentTimeMillis() - startTime;
+        if (!drained || received.get() != objectCount || testPipeline.getLength() != 0) {
+            PCQueueTestHelpers.printFail("Expected all " + objectCount + " events through before shutdown returned; Observed drained " + drained + " and " + received.get() + " events");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess(timeTaken);
+        return true;
+    }
+
+    // Producers publish the numbers 0 to objectCount - 1 through decode -> enrich -> persist, each stage computing its field
+    // from the one before. Persist checks both fields and marks the number, and every number has to arrive exactly once.
+    private static boolean runChainedStages(ExecutorService threadPool, int capacity, int decodeWorkers, int enrichWorkers, int persistWorkers) {
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT;
+        int producers = 2;
+        System.out.print("Running test: Pipeline with " + objectCount + " Events; Capacity " + capacity + "; " + producers + " Producers; " + decodeWorkers + " -> " + enrichWorkers + " -> " + persistWorkers + " Workers... ");
+
+        ProducerConsumerPipeline<StagedEvent> testPipeline = new ProducerConsumerPipeline<>(capacity, StagedEvent::new);
+        AtomicIntegerArray seen = new AtomicIntegerArray(objectCount);
+        AtomicLong wrong = new AtomicLong();
+        ProducerConsumerPipeline<StagedEvent>.Stage decode = testPipeline.addStage("decode", decodeWorkers, event -> event.decoded = event.value * 3L);
+        ProducerConsumerPipeline<StagedEvent>.Stage enrich = testPipeline.addStage("enrich", enrichWorkers, event -> event.enriched = event.decoded + 1, decode);
+        testPipeline.addStage("persist", persistWorkers, event -> {
+            if (event.decoded != event.value * 3L || event.enriched != event.decoded + 1) {
+                wrong.incrementAndGet();
+            }
+            seen.incrementAndGet(event.value);
+        }, enrich);
+        testPipeline.start(threadPool);
+
+        if (!publishNumbers(threadPool, testPipeline, producers, objectCount)) {
+            testPipeline.shutdown(0, TimeUnit.MILLISECONDS);
+            return false;
+        }
+        if (!testPipeline.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS)) {
+            PCQueueTestHelpers.printFail("Expected the pipeline to drain within " + PCQueueTestHelpers.CONST_TIMEOUT_LONG + " ms; " + testPipeline.getLength() + " events left");
+            return false;
+        }
+
+        if (wrong.get() != 0) {
+            PCQueueTestHelpers.printFail("Expected every event to reach persist after decode and enrich; Observed " + wrong.get() + " that didn't");
+            return false;
+        }
+        for (int i = 0; i < objectCount; i++) {
+            if (seen.get(i) != 1) {
+                PCQueueTestHelpers.printFail("Expected event " + i + " to be persisted once; Observed " + seen.get(i) + " times");
+                return false;
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Two stages side by side (each setting its own flag), then a stage after both that checks both flags are set
+    private static boolean runDiamond(ExecutorService threadPool, int capacity, int workers) {
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_MEDIUM_CONTENTIONOBJECTCOUNT;
+        System.out.print("Running test: Diamond pipeline with " + objectCount + " Events; Capacity " + capacity + "; " + workers + " Workers per Stage... ");
+
+        ProducerConsumerPipeline<StagedEvent> testPipeline = new ProducerConsumerPipeline<>(capacity, StagedEvent::new);
+        AtomicLong joined = new AtomicLong();
+        AtomicLong wrong = new AtomicLong();
+        ProducerConsumerPipeline<StagedEvent>.Stage left = testPipeline.addStage("left", workers, event -> event.left = true);
+        ProducerConsumerPipeline<StagedEvent>.Stage right = testPipeline.addStage("right", workers, event -> event.right = true);
+        testPipeline.addStage("join", workers, event -> {
+            if (!event.left || !event.right) {
+                wrong.incrementAndGet();
+            }
+            joined.incrementAndGet();
+        }, left, right);
+        testPipeline.start(threadPool);
+
+        // (The producers clear both flags, so a join that runs too early sees one unset)
+        if (!publishNumbers(threadPool, testPipeline, 1, objectCount)) {
+            testPipeline.shutdown(0, TimeUnit.MILLISECONDS);
+            return false;
+        }
+        boolean drained = testPipeline.shutdown(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+        if (!drained || joined.get() != objectCount || wrong.get() != 0) {
+            PCQueueTestHelpers.printFail("Expected all " + objectCount + " events joined after both branches; Observed drained " + drained + ", " + joined.get() + " joined and " + wrong.get() + " too early");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Publishes the numbers 0 to objectCount - 1 from the producer threads (resetting the rest of each event)
+    private static boolean publishNumbers(ExecutorService threadPool, ProducerConsumerPipeline<StagedEvent> testPipeline, int producers, int objectCount) {
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int p = 0; p < producers; p++) {
+                int firstValue = p;
+                futures.add(threadPool.submit(() -> {
+                    for (int value = firstValue; value < objectCount; value += producers) {
+                        long sequence = testPipeline.claim();
+                        StagedEvent event = testPipeline.get(sequence);
+                        event.value = value;
+                        event.decoded = -1;
+                        event.enriched = -1;
+                        event.left = false;
+                        event.right = false;
+                        testPipeline.publish(sequence);
+                    }
+                }));
+            }
+            for (Future<?> fut : futures) {
+                fut.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerDoubleQueue;
+import com.theodorersmith.queue.ProducerConsumerIntQueue;
+import com.theodorersmith.queue.ProducerConsumerLongQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Tests a primitive queue (ProducerConsumerIntQueue, ProducerConsumerLongQueue or ProducerConsumerDoubleQueue). The
+// primitive queues don't implement TestableQueue, so this wraps each one in a small adapter that moves longs in and out
+// (The test values are small whole numbers, so they survive the trip through an int or a double unchanged).
+//
+// Checks that the queue stops at its (logical) capacity, hands items back in order, returns emptyValue from try and timed
+// dequeues that come back empty, and doesn't lose or duplicate anything with several producers and consumers.
+public class Test_PrimitiveQueue {
+
+    /////
+    ///// Queue Adapters
+    /////
+
+    // Just the queue operations this test needs, in terms of longs. The try and timed dequeues return null when the queue
+    // returns its emptyValue.
+    public interface PrimitiveQueueAdapter {
+        String getName();
+        int getCapacity();
+        int getLength();
+        void resetQueue();
+        void enqueue(long item);
+        long dequeue();
+        boolean tryEnqueue(long item);
+        Long tryDequeue();
+        Long dequeue(long timeout, TimeUnit unit);
+    }
+
+    public static PrimitiveQueueAdapter adapt(ProducerConsumerIntQueue queue) {
+        return new PrimitiveQueueAdapter() {
+            public String getName() { return queue.getClass().getSimpleName(); }
+            public int getCapacity() { return queue.getCapacity(); }
+            public int getLength() { return queue.getLength(); }
+            public void resetQueue() { queue.resetQueue(); }
+            public void enqueue(long item) { queue.enqueueInt((int)item); }
+            public long dequeue() { return queue.dequeueInt(); }
+            public boolean tryEnqueue(long item) { return queue.tryEnqueueInt((int)item); }
+            public Long tryDequeue() { return orNull(queue.tryDequeueInt()); }
+            public Long dequeue(long timeout, TimeUnit unit) { return orNull(queue.dequeueInt(timeout, unit)); }
+            private Long orNull(int item) { return item == queue.getEmptyValue() ? null : (long)item; }
+        };
+    }
+
+    public static PrimitiveQueueAdapter adapt(ProducerConsumerLongQueue queue) {
+        return new PrimitiveQueueAdapter() {
+            public String getName() { return queue.getClass().getSimpleName(); }
+            public int getCapacity() { return queue.getCapacity(); }
+            public int getLength() { return queue.getLength(); }
+            public void resetQueue() { queue.resetQueue(); }
+            public void enqueue(long item) { queue.enqueueLong(item); }
+            public long dequeue() { return queue.dequeueLong(); }
+            public boolean tryEnqueue(long item) { return queue.tryEnqueueLong(item); }
+            public Long tryDequeue() { return orNull(queue.tryDequeueLong()); }
+            public Long dequeue(long timeout, TimeUnit unit) { return orNull(queue.dequeueLong(timeout, unit)); }
+            private Long orNull(long item) { return item == queue.getEmptyValue() ? null : item; }
+        };
+    }
+
+    public static PrimitiveQueueAdapter adapt(ProducerConsumerDoubleQueue queue) {
+        return new PrimitiveQueueAdapter() {
+            public String getName() { return queue.getClass().getSimpleName(); }
+            public int getCapacity() { return queue.getCapacity(); }
+            public int getLength() { return queue.getLength(); }
+            public void resetQueue() { queue.resetQueue(); }
+            public void enqueue(long item) { queue.enqueueDouble(item); }
+            public long dequeue() { return (long)queue.dequeueDouble(); }
+            public boolean tryEnqueue(long item) { return queue.tryEnqueueDouble(item); }
+            public Long tryDequeue() { return orNull(queue.tryDequeueDouble()); }
+            public Long dequeue(long timeout, TimeUnit unit) { return orNull(queue.dequeueDouble(timeout, unit)); }
+            private Long orNull(double item) {
+                // (The default emptyValue is NaN, which never == itself)
+                boolean empty = Double.isNaN(queue.getEmptyValue()) ? Double.isNaN(item) : item == queue.getEmptyValue();
+                return empty ? null : (long)item;
+            }
+        };
+    }
+
+    /////
+    ///// Tests
+    /////
+
+    public static boolean run(ExecutorService threadPool, PrimitiveQueueAdapter testQueue, int numProducerThreads, int numConsumerThreads, int numObjects) {
+        return runFillDrain(testQueue) &&
+                runTimedDequeue(threadPool, testQueue) &&
+                runContention(threadPool, testQueue, numProducerThreads, numConsumerThreads, numObjects);
+    }
+
+    // Fills the queue with tryEnqueue, then drains it with tryDequeue, checking the capacity and the order
+    private static boolean runFillDrain(PrimitiveQueueAdapter testQueue) {
+        System.out.print("Running test: Fill and drain (" + testQueue.getName() + ")... ");
+        testQueue.resetQueue();
+
+        int added = 0;
+        while (testQueue.tryEnqueue(added + 1)) {
+            added++;
+            if (added > testQueue.getCapacity()) {
+                PCQueueTestHelpers.printFail("Expected tryEnqueue to fail once the queue held " + testQueue.getCapacity() + " items; Observed more");
+                return false;
+            }
+        }
+        if (added != testQueue.getCapacity() || testQueue.getLength() != added) {
+            PCQueueTestHelpers.printFail("Expected " + testQueue.getCapacity() + " items after filling; Observed " + added + " added, length " + testQueue.getLength());
+            return false;
+        }
+
+        for (int expected = 1; expected <= added; expected++) {
+            Long item = testQueue.tryDequeue();
+            if (item == null || item != expected) {
+                PCQueueTestHelpers.printFail("Expected item " + expected + "; Observed " + item);
+                return false;
+            }
+        }
+        if (testQueue.tryDequeue() != null || testQueue.getLength() != 0) {
+            PCQueueTestHelpers.printFail("Expected tryDequeue on an empty queue to return emptyValue");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A timed dequeue on an empty queue gives up after (about) the timeout, and returns emptyValue
+    private static boolean runTimedDequeue(ExecutorService threadPool, PrimitiveQueueAdapter testQueue) {
+        System.out.print("Running test: Timed dequeue (" + testQueue.getName() + ")... ");
+        testQueue.resetQueue();
+
+        final long timeoutMs = PCQueueTestHelpers.CONST_TIMEOUT_SHORT;
+        final long toleranceMs = PCQueueTestHelpers.CONST_TIMEOUT_TOLERANCE;
+        Future<Long> testFuture = null;
+        try {
+            testFuture = threadPool.submit(() ->
+            {
+                long startNanos = System.nanoTime();
+                boolean empty = testQueue.dequeue(timeoutMs, TimeUnit.MILLISECONDS) == null;
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                return empty ? elapsedMs : -1L;
+            });
+            long elapsedMs = testFuture.get(timeoutMs + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (elapsedMs < 0) {
+                PCQueueTestHelpers.printFail("Expected emptyValue from timed dequeue on an empty queue; Observed an item");
+                return false;
+            }
+            if (elapsedMs < timeoutMs || elapsedMs > timeoutMs + toleranceMs) {
+                PCQueueTestHelpers.printFail("Expected timed dequeue to return after " + timeoutMs + "ms (+" + toleranceMs + "ms); Observed " + elapsedMs + "ms");
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            if (testFuture != null && !testFuture.isDone()) testFuture.cancel(true);
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Producers enqueue 1..numObjects between them (blocking), and consumers dequeue them (blocking). Every value has to
+    // come out exactly once, which we check with the count and the sum.
+    private static boolean runContention(ExecutorService threadPool, PrimitiveQueueAdapter testQueue, int numProducerThreads, int numConsumerThreads, int numObjects) {
+        System.out.print("Running test: Multiple Thread Contention with " + numObjects + " values; " + numProducerThreads + " Producers; " + numConsumerThreads + " Consumers (" + testQueue.getName() + ")... ");
+        testQueue.resetQueue();
+
+        List<Future<?>> producerFutures = new ArrayList<>();
+        List<Future<long[]>> consumerFutures = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (int p = 0; p < numProducerThreads; p++) {
+                final int producer = p;
+                producerFutures.add(threadPool.submit(() ->
+                {
+                    for (long value = producer + 1; value <= numObjects; value += numProducerThreads) {
+                        testQueue.enqueue(value);
+                    }
+                }));
+            }
+            for (int c = 0; c < numConsumerThreads; c++) {
+                final int consumer = c;
+                consumerFutures.add(threadPool.submit(() ->
+                {
+                    // Split the dequeues between the consumers, and return { count, sum }
+                    long[] countAndSum = new long[2];
+                    for (int i = consumer; i < numObjects; i += numConsumerThreads) {
+                        countAndSum[1] += testQueue.dequeue();
+                        countAndSum[0]++;
+                    }
+                    return countAndSum;
+                }));
+            }
+
+            for (Future<?> producerFuture : producerFutures) {
+                producerFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+            }
+            long count = 0;
+            long sum = 0;
+            for (Future<long[]> consumerFuture : consumerFutures) {
+                long[] countAndSum = consumerFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_LONG, TimeUnit.MILLISECONDS);
+                count += countAndSum[0];
+                sum += countAndSum[1];
+            }
+
+            long expectedSum = (long)numObjects * (numObjects + 1) / 2;
+            if (count != numObjects || sum != expectedSum || testQueue.getLength() != 0) {
+                PCQueueTestHelpers.printFail("Expected " + numObjects + " values summing to " + expectedSum + "; Observed " + count + " values summing to " + sum + " (length " + testQueue.getLength() + ")");
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> future : producerFutures) if (!future.isDone()) future.cancel(true);
+            for (Future<long[]> future : consumerFutures) if (!future.isDone()) future.cancel(true);
+        }
+
+        PCQueueTestHelpers.printSuccess(System.currentTimeMillis() - startTime);
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerPriorityQueue;
+import com.theodorersmith.queue.WaitStrategy;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Tests the parts of ProducerConsumerPriorityQueue the FIFO suite can't reach - dequeue order over the levels, the
+// starvation guard, and the capacity being shared by every level. Then a two thread contention test (in the style of
+// Test_TwoThreadContention) with items spread over the levels, checking that nothing is lost and each level stays FIFO.
+public class Test_PriorityQueue {
+    private static final int LEVELS = 4;
+
+    public static boolean run(ExecutorService threadPool) {
+        return runPriorityOrder() &&
+                runStarvationGuard() &&
+                runSharedCapacity() &&
+                runTwoThreadContention(threadPool, 10, 0) &&
+                runTwoThreadContention(threadPool, 10, 3) &&
+                runTwoThreadContention(threadPool, 1, 0);
+    }
+
+    // Items come out most urgent level first, and FIFO within a level
+    private static boolean runPriorityOrder() {
+        System.out.print("Running test: Dequeue in priority order... ");
+
+        // Each item is { level, sequence }, and goes in the level it names
+        ProducerConsumerPriorityQueue<int[]> testQueue = new ProducerConsumerPriorityQueue<>(10, 3, item -> item[0]);
+        int[][] items = { {2, 0}, {0, 1}, {1, 2}, {2, 3}, {0, 4}, {1, 5} };
+        for (int[] item : items) {
+            testQueue.enqueue(item);
+        }
+
+        String observed = dequeueOrder(testQueue, items.length);
+        if (!observed.equals("[0:1, 0:4, 1:2, 1:5, 2:0, 2:3]")) {
+            PCQueueTestHelpers.printFail("Expected [0:1, 0:4, 1:2, 1:5, 2:0, 2:3]; Observed " + observed);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // With a starvation limit of 2, a waiting bulk level gets every third dequeue
+    private static boolean runStarvationGuard() {
+        System.out.print("Running test: Starvation guard... ");
+
+        ProducerConsumerPriorityQueue<int[]> testQueue = new ProducerConsumerPriorityQueue<>(10, 2, item -> item[0], 2, WaitStrategy.blocking());
+        for (int i = 0; i < 6; i++) {
+            testQueue.enqueue(new int[] {0, i});
+        }
+        for (int i = 0; i < 3; i++) {
+            testQueue.enqueue(new int[] {1, i});
+        }
+
+        String observed = dequeueOrder(testQueue, 9);
+        if (!observed.equals("[0:0, 0:1, 1:0, 0:2, 0:3, 1:1, 0:4, 0:5, 1:2]")) {
+            PCQueueTestHelpers.printFail("Expected [0:0, 0:1, 1:0, 0:2, 0:3, 1:1, 0:4, 0:5, 1:2]; Observed " + observed);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Urgent items can't get past the capacity, however the items already queued are spread over the levels
+    private static boolean runSharedCapacity() {
+        System.out.print("Running test: Capacity shared by every level... ");
+
+        ProducerConsumerPriorityQueue<Object> testQueue = new ProducerConsumerPriorityQueue<>(3, LEVELS);
+        for (int i = 0; i < 3; i++) {
+            testQueue.enqueue(new Object(), LEVELS - 1);
+        }
+        if (testQueue.tryEnqueue(new Object(), 0)) {
+            PCQueueTestHelpers.printFail("Expected tryEnqueue on the most urgent level of a full queue to fail");
+            return false;
+        }
+        if (testQueue.getLength() != 3 || testQueue.getLevelLength(LEVELS - 1) != 3 || testQueue.getLevelLength(0) != 0) {
+            PCQueueTestHelpers.printFail("Expected 3 items, all in the least urgent level; Observed length " + testQueue.getLength() + " (" + testQueue.getLevelLength(LEVELS - 1) + " in the least urgent level)");
+            return false;
+        }
+
+        // Once there is a slot, the urgent item goes straight to the front
+        testQueue.tryDequeue();
+        Object urgent = new Object();
+        testQueue.enqueue(urgent, 0);
+        if (testQueue.dequeue() != urgent) {
+            PCQueueTestHelpers.printFail("Expected the urgent item to be dequeued next");
+            return false;
+        }
+
+        try {
+            testQueue.enqueue(new Object(), LEVELS);
+            PCQueueTestHelpers.printFail("Expected an out of range priority to be rejected");
+            return false;
+        } catch (IllegalArgumentException expected) {
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // One producer enqueues items at random levels while one consumer dequeues them. Every item has to come out, and the
+    // items from each level have to come out in the order they went in.
+    private static boolean runTwoThreadContention(ExecutorService threadPool, int capacity, int starvationLimit) {
+        System.out.print("Running test: Two Thread Contention over " + LEVELS + " Levels (Capacity " + capacity + (starvationLimit > 0 ? "; Starvation Limit " + starvationLimit : "") + ")... ");
+
+        ProducerConsumerPriorityQueue<int[]> testQueue = new ProducerConsumerPriorityQueue<>(capacity, LEVELS, item -> item[0], starvationLimit, WaitStrategy.blocking());
+        int objectCount = PCQueueTestHelpers.CONST_DEFAULT_SMALL_CONTENTIONOBJECTCOUNT;
+        Future<?> testFutureEnqueue = null;
+        Future<String> testFutureDequeue = null;
+        try {
+            // Start enqueue thread
+            testFutureEnqueue = threadPool.submit(() ->
+            {
+                int[] nextSequence = new int[LEVELS];
+                for (int i = 0; i < objectCount; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                        System.out.print("Breaking out of enqueue thread.");
+                        return;
+                    }
+
+                    int level = ThreadLocalRandom.current().nextInt(LEVELS);
+                    testQueue.enqueue(new int[] {level, nextSequence[level]++});
+                }
+            });
+            // Start dequeue thread (Returns a failure message, or null)
+            testFutureDequeue = threadPool.submit(() ->
+            {
+                int[] expectedSequence = new int[LEVELS];
+                for (int i = 0; i < objectCount; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // Our queue doesn't throw InterruptedException, so we need to handle interruption.
+                        System.out.print("Breaking out of dequeue thread.");
+                        return "Interrupted after " + i + " items";
+                    }
+
+                    int[] item = testQueue.dequeue();
+                    if (item[1] != expectedSequence[item[0]]++) {
+                        return "Level " + item[0] + " out of order - expected item " + (expectedSequence[item[0]] - 1) + "; Observed " + item[1];
+                    }
+                }
+                return null;
+            });
+
+            // Check if either thread timed out
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT * 5);
+            if (!testFutureEnqueue.isDone()) {
+                // If we failed because of timeout, just return false and let finally shut down the threads.
+                PCQueueTestHelpers.printFail("Timeout - Enqueue thread is blocking");
+                return false;
+            }
+            if (!testFutureDequeue.isDone()) {
+                PCQueueTestHelpers.printFail("Timeout - Dequeue thread is blocking");
+                return false;
+            }
+
+            String failure = testFutureDequeue.get();
+            if (failure != null) {
+                PCQueueTestHelpers.printFail(failure);
+                return false;
+            }
+            if (testQueue.getLength() != 0) {
+                PCQueueTestHelpers.printFail("Expected an empty queue at the end; Observed length " + testQueue.getLength());
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex.getMessage());
+            return false;
+        } finally {
+            // Cancel any threads that are still working
+            if (testFutureEnqueue != null && !testFutureEnqueue.isDone()) testFutureEnqueue.cancel(true);
+            if (testFutureDequeue != null && !testFutureDequeue.isDone()) testFutureDequeue.cancel(true);
+        }
+
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Dequeues count { level, sequence } items, and lists them as level:sequence
+    private static String dequeueOrder(ProducerConsumerPriorityQueue<int[]> testQueue, int count) {
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int[] item = testQueue.tryDequeue();
+            order.add(item == null ? "null" : item[0] + ":" + item[1]);
+        }
+        return Arrays.toString(order.toArray());
+    }
+}
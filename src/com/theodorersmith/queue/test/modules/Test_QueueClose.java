@@ -0,0 +1,148 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.QueueClosedException;
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Tests closeForProducers and close - blocked threads wake up and throw QueueClosedException, enqueues are refused, what's
+// left can still be dequeued after closeForProducers (but not after close), and resetQueue opens the queue again.
+public class Test_QueueClose {
+    public static boolean run(ExecutorService threadPool, TestableQueue<Object> testQueue) {
+        System.out.print("Running test: Close for producers and close... ");
+
+        Future<Object> testFutureDequeueBlock = null;
+        Future<?> testFutureEnqueueBlock = null;
+        try {
+            // Test closeForProducers waking a blocked dequeue (The queue is empty, so it's drained straight away)
+            testQueue.resetQueue();
+            testFutureDequeueBlock = threadPool.submit(() -> testQueue.dequeue());
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            if (testFutureDequeueBlock.isDone()) {
+                PCQueueTestHelpers.printFail("Expected to block after empty dequeue; Observed did not block");
+                return false;
+            }
+            testQueue.closeForProducers();
+            String observed = checkThrewClosed(testFutureDequeueBlock);
+            if (observed != null) {
+                PCQueueTestHelpers.printFail("Expected a blocked dequeue to throw QueueClosedException after closeForProducers; Observed it " + observed);
+                return false;
+            }
+
+            // Test closeForProducers refusing enqueues, but still handing out what's left
+            testQueue.resetQueue();
+            Object leftItem = new Object();
+            testQueue.enqueue(leftItem);
+            testQueue.closeForProducers();
+            if (!testQueue.isClosedForProducers() || testQueue.isClosed()) {
+                PCQueueTestHelpers.printFail("Expected to be closed for producers only; Observed isClosedForProducers " + testQueue.isClosedForProducers() + ", isClosed " + testQueue.isClosed());
+                return false;
+            }
+            if ((observed = checkThrowsClosed(() -> testQueue.enqueue(new Object()))) != null
+                    || (observed = checkThrowsClosed(() -> testQueue.tryEnqueue(new Object()))) != null
+                    || (observed = checkThrowsClosed(() -> testQueue.enqueue(new Object(), 0, TimeUnit.MILLISECONDS))) != null) {
+                PCQueueTestHelpers.printFail("Expected enqueues to throw QueueClosedException after closeForProducers; Observed one " + observed);
+                return false;
+            }
+            Object dequeuedItem = testQueue.dequeue();
+            if (dequeuedItem != leftItem) {
+                PCQueueTestHelpers.printFail("Expected to dequeue the item left in the queue after closeForProducers; Observed " + dequeuedItem);
+                return false;
+            }
+            if ((observed = checkThrowsClosed(() -> testQueue.dequeue())) != null
+                    || (observed = checkThrowsClosed(() -> testQueue.tryDequeue())) != null
+                    || (observed = checkThrowsClosed(() -> testQueue.dequeue(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS))) != null) {
+                PCQueueTestHelpers.printFail("Expected dequeues to throw QueueClosedException once closed and drained; Observed one " + observed);
+                return false;
+            }
+            if (testQueue.drainTo(new ArrayList<>(), 1) != 0) {
+                PCQueueTestHelpers.printFail("Expected drainTo to return 0 once closed and drained; Observed it moved an item");
+                return false;
+            }
+
+            // Test close waking a blocked enqueue, and leaving the items where they are
+            testQueue.resetQueue();
+            PCQueueTestHelpers.enqueueToCapacity(testQueue);
+            testFutureEnqueueBlock = threadPool.submit(() -> testQueue.enqueue(new Object()));
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            if (testFutureEnqueueBlock.isDone()) {
+                PCQueueTestHelpers.printFail("Expected to block after full enqueue; Observed did not block");
+                return false;
+            }
+            testQueue.close();
+            if ((observed = checkThrewClosed(testFutureEnqueueBlock)) != null) {
+                PCQueueTestHelpers.printFail("Expected a blocked enqueue to throw QueueClosedException after close; Observed it " + observed);
+                return false;
+            }
+            if (!testQueue.isClosed()) {
+                PCQueueTestHelpers.printFail("Expected isClosed after close; Observed false");
+                return false;
+            }
+            if ((observed = checkThrowsClosed(() -> testQueue.dequeue())) != null
+                    || (observed = checkThrowsClosed(() -> testQueue.tryDequeue())) != null) {
+                PCQueueTestHelpers.printFail("Expected dequeues to throw QueueClosedException after close, even with items left; Observed one " + observed);
+                return false;
+            }
+            if (testQueue.drainTo(new ArrayList<>(), 1) != 0 || testQueue.getLength() != testQueue.getCapacity()) {
+                PCQueueTestHelpers.printFail("Expected close to leave " + testQueue.getCapacity() + " items in the queue; Observed " + testQueue.getLength());
+                return false;
+            }
+
+            // Test resetQueue opening the queue again
+            testQueue.resetQueue();
+            Object reopenedItem = new Object();
+            testQueue.enqueue(reopenedItem);
+            if (testQueue.isClosedForProducers() || testQueue.dequeue() != reopenedItem) {
+                PCQueueTestHelpers.printFail("Expected resetQueue to open the queue again; Observed it still closed");
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            // Cancel any threads that are still working
+            if (testFutureDequeueBlock != null && !testFutureDequeueBlock.isDone()) testFutureDequeueBlock.cancel(true);
+            if (testFutureEnqueueBlock != null && !testFutureEnqueueBlock.isDone()) testFutureEnqueueBlock.cancel(true);
+            // Leave the queue open for the tests that follow
+            testQueue.resetQueue();
+        }
+
+        return true;
+    }
+
+    /////
+    ///// Helpers
+    /////
+
+    // Returns null if the operation threw QueueClosedException, otherwise what it did instead
+    private static String checkThrowsClosed(Runnable operation) {
+        try {
+            operation.run();
+            return "returned normally";
+        } catch (QueueClosedException ex) {
+            return null;
+        }
+    }
+
+    // Gives a blocked thread a short time to wake up. Returns null if it threw QueueClosedException, otherwise what it did instead
+    private static String checkThrewClosed(Future<?> testFuture) throws InterruptedException {
+        try {
+            testFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+            return "returned normally";
+        } catch (TimeoutException ex) {
+            return "stayed blocked";
+        } catch (ExecutionException ex) {
+            return ex.getCause() instanceof QueueClosedException ? null : "threw " + ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.QueueClosedException;
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tests closing a queue while producers and consumers are hammering it. The producers enqueue until their enqueue throws
+// QueueClosedException, and the consumers dequeue until theirs does. Once the consumers have taken a fair number of items,
+// the queue is closed - with closeForProducers (every item that was enqueued must be dequeued, exactly once) or with close
+// (every item that was enqueued must be dequeued exactly once or still be in the queue). Either way every thread must exit.
+public class Test_QueueCloseContention {
+    public static boolean run(ExecutorService threadPool, TestableQueue<Object> testQueue, int numProducerThreads, int numConsumerThreads, boolean closeConsumers) {
+        String closeMethod = closeConsumers ? "close" : "closeForProducers";
+        System.out.print("Running test: " + closeMethod + " with " + numProducerThreads + " Producers and " + numConsumerThreads + " Consumers... ");
+
+        List<Future<List<Integer>>> producerFutures = new ArrayList<>();
+        List<Future<List<Integer>>> consumerFutures = new ArrayList<>();
+        try {
+            testQueue.resetQueue();
+            AtomicInteger dequeueCount = new AtomicInteger();
+
+            // Each producer enqueues its own run of values (p, p + numProducerThreads, ...) and returns the ones that went in
+            for (int p = 0; p < numProducerThreads; p++) {
+                int firstValue = p;
+                producerFutures.add(threadPool.submit(() -> {
+                    List<Integer> enqueued = new ArrayList<>();
+                    try {
+                        for (int value = firstValue; !Thread.currentThread().isInterrupted(); value += numProducerThreads) {
+                            testQueue.enqueue(value);
+                            enqueued.add(value);
+                        }
+                    } catch (QueueClosedException ex) {
+                        // (Closed - the value we were enqueuing didn't go in)
+                    }
+                    return enqueued;
+                }));
+            }
+            for (int c = 0; c < numConsumerThreads; c++) {
+                consumerFutures.add(threadPool.submit(() -> {
+                    List<Integer> dequeued = new ArrayList<>();
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            dequeued.add((Integer)testQueue.dequeue());
+                            dequeueCount.incrementAndGet();
+                        }
+                    } catch (QueueClosedException ex) {
+                        // (Closed, or closed and drained)
+                    }
+                    return dequeued;
+                }));
+            }
+
+            // Close the queue part way through
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM);
+            while (dequeueCount.get() < PCQueueTestHelpers.CONST_DEFAULT_SMALL_CONTENTIONOBJECTCOUNT && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            if (closeConsumers) {
+                testQueue.close();
+            } else {
+                testQueue.closeForProducers();
+            }
+
+            // Every thread should exit on its own
+            Set<Integer> enqueued = new HashSet<>();
+            for (Future<List<Integer>> fut : producerFutures) {
+                enqueued.addAll(fut.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS));
+            }
+            List<Integer> dequeued = new ArrayList<>();
+            for (Future<List<Integer>> fut : consumerFutures) {
+                dequeued.addAll(fut.get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS));
+            }
+
+            // Verify nothing was lost or duplicated
+            Set<Integer> dequeuedSet = new HashSet<>(dequeued);
+            if (dequeuedSet.size() != dequeued.size()) {
+                PCQueueTestHelpers.printFail("Expected each item to be dequeued once; Observed " + (dequeued.size() - dequeuedSet.size()) + " items dequeued twice");
+                return false;
+            }
+            if (!enqueued.containsAll(dequeuedSet)) {
+                PCQueueTestHelpers.printFail("Expected to dequeue only items that were enqueued; Observed items that never were");
+                return false;
+            }
+            int leftInQueue = closeConsumers ? testQueue.getLength() : 0;
+            if (dequeued.size() + leftInQueue != enqueued.size()) {
+                PCQueueTestHelpers.printFail("Expected " + enqueued.size() + " enqueued items to be dequeued" + (closeConsumers ? " or left in the queue" : "") + "; Observed " + dequeued.size() + " dequeued" + (closeConsumers ? " and " + leftInQueue + " left" : ""));
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            // Cancel any threads that are still working
+            for (Future<?> fut : producerFutures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+            for (Future<?> fut : consumerFutures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+            // Leave the queue open for the tests that follow
+            testQueue.resetQueue();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,223 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.LatencyHistogram;
+import com.theodorersmith.queue.ProducerConsumerConcurrentQueue;
+import com.theodorersmith.queue.QueueMetrics;
+import com.theodorersmith.queue.WaitStrategy;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Tests QueueMetrics on ProducerConsumerConcurrentQueue - the counts, the time spent blocked (and the wakeups) on each
+// side, the sojourn histogram, and the JMX view. Also checks LatencyHistogram's percentiles stay within its precision.
+public class Test_QueueMetrics {
+
+    public static boolean run(ExecutorService threadPool) {
+        return runHistogramPrecision() &&
+                runCounts() &&
+                runBlockedTime(threadPool) &&
+                runSojournTime() &&
+                runSojournSampling() &&
+                runJmx();
+    }
+
+    // Percentiles of 1 to 100000 come out within the histogram's 1 / 64 rounding, and never low
+    private static boolean runHistogramPrecision() {
+        System.out.print("Running test: Latency histogram precision... ");
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+
+        double[] percentiles = { 50, 90, 99, 99.9 };
+        for (double percentile : percentiles) {
+            long expected = (long)(percentile * 1000);
+            long observed = histogram.getValueAtPercentile(percentile);
+            if (observed < expected || observed > expected * (1 + 1.0 / 64)) {
+                PCQueueTestHelpers.printFail("Expected p" + percentile + " between " + expected + " and " + (long)(expected * (1 + 1.0 / 64)) + "; Observed " + observed);
+                return false;
+            }
+        }
+        if (histogram.getCount() != 100000 || histogram.getMax() != 100000 || histogram.getMean() != 50000.5) {
+            PCQueueTestHelpers.printFail("Expected count 100000, max 100000 and mean 50000.5; Observed " + histogram.getCount() + ", " + histogram.getMax() + ", " + histogram.getMean());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // Enqueued and dequeued counts (single and batched), and the length gauge
+    private static boolean runCounts() {
+        System.out.print("Running test: Enqueue and dequeue counts... ");
+
+        QueueMetrics metrics = new QueueMetrics();
+        ProducerConsumerConcurrentQueue<Object> testQueue = new ProducerConsumerConcurrentQueue<>(10, WaitStrategy.blocking(), metrics);
+        for (int i = 0; i < 3; i++) {
+            testQueue.enqueue(new Object());
+        }
+        testQueue.enqueueAll(new Object[] { new Object(), new Object() });
+        testQueue.dequeue();
+        testQueue.drainTo(new ArrayList<>(), 2);
+
+        QueueMetrics.Snapshot snapshot = metrics.snapshot();
+        if (snapshot.getEnqueuedCount() != 5 || snapshot.getDequeuedCount() != 3 || snapshot.getLength() != 2 || snapshot.getCapacity() != 10) {
+            PCQueueTestHelpers.printFail("Expected 5 enqueued, 3 dequeued, length 2/10; Observed " + snapshot);
+            return false;
+        }
+        if (snapshot.getSojournHistogram().getCount() != 3) {
+            PCQueueTestHelpers.printFail("Expected 3 sojourn times; Observed " + snapshot.getSojournHistogram().getCount());
+            return false;
+        }
+
+        metrics.reset();
+        if (metrics.snapshot().getEnqueuedCount() != 0 || metrics.snapshot().getSojournHistogram().getCount() != 0) {
+            PCQueueTestHelpers.printFail("Expected reset to zero the counters; Observed " + metrics.snapshot());
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A dequeue that waits on an empty queue, and an enqueue that waits on a full one, both show up as a wait, time
+    // blocked, and a wakeup
+    private static boolean runBlockedTime(ExecutorService threadPool) {
+        System.out.print("Running test: Time blocked and wakeups... ");
+
+        QueueMetrics metrics = new QueueMetrics();
+        ProducerConsumerConcurrentQueue<Object> testQueue = new ProducerConsumerConcurrentQueue<>(1, WaitStrategy.blocking(), metrics);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            // Empty queue - the dequeue waits until we enqueue
+            futures.add(threadPool.submit(() -> testQueue.dequeue()));
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            testQueue.enqueue(new Object());
+            futures.get(0).get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+
+            // Full queue - the enqueue waits until we dequeue
+            testQueue.enqueue(new Object());
+            futures.add(threadPool.submit(() -> testQueue.enqueue(new Object())));
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            testQueue.dequeue();
+            futures.get(1).get(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            for (Future<?> fut : futures) {
+                if (!fut.isDone()) fut.cancel(true);
+            }
+        }
+
+        QueueMetrics.Snapshot snapshot = metrics.snapshot();
+        long minBlockedNanos = TimeUnit.MILLISECONDS.toNanos(PCQueueTestHelpers.CONST_TIMEOUT_SHORT - PCQueueTestHelpers.CONST_TIMEOUT_TOLERANCE);
+        if (snapshot.getDequeueWaitCount() < 1 || snapshot.getDequeueBlockedNanos() < minBlockedNanos || snapshot.getDequeueWakeupCount() < 1) {
+            PCQueueTestHelpers.printFail("Expected the dequeue to wait at least " + TimeUnit.NANOSECONDS.toMillis(minBlockedNanos) + " ms and be woken; Observed " + snapshot);
+            return false;
+        }
+        if (snapshot.getEnqueueWaitCount() < 1 || snapshot.getEnqueueBlockedNanos() < minBlockedNanos || snapshot.getEnqueueWakeupCount() < 1) {
+            PCQueueTestHelpers.printFail("Expected the enqueue to wait at least " + TimeUnit.NANOSECONDS.toMillis(minBlockedNanos) + " ms and be woken; Observed " + snapshot);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // An item left in the queue for a while has a sojourn time of at least that while
+    private static boolean runSojournTime() {
+        System.out.print("Running test: Sojourn time... ");
+
+        QueueMetrics metrics = new QueueMetrics();
+        ProducerConsumerConcurrentQueue<Object> testQueue = new ProducerConsumerConcurrentQueue<>(1, WaitStrategy.blocking(), metrics);
+        try {
+            testQueue.enqueue(new Object());
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            testQueue.dequeue();
+        } catch (InterruptedException iEx) {
+            PCQueueTestHelpers.printFail("Interrupted");
+            return false;
+        }
+
+        LatencyHistogram sojourn = metrics.snapshot().getSojournHistogram();
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+        if (sojourn.getCount() != 1 || sojourn.getValueAtPercentile(50) < minNanos || sojourn.getMax() < minNanos || sojourn.getMax() > minNanos * 10) {
+            PCQueueTestHelpers.printFail("Expected one sojourn time of about " + PCQueueTestHelpers.CONST_TIMEOUT_SHORT + " ms; Observed " + sojourn.getCount() + " (max " + TimeUnit.NANOSECONDS.toMillis(sojourn.getMax()) + " ms)");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // With a sample interval of 4, one in four items is timed (whether they go through one at a time or in batches) -
+    // but every item is still counted
+    private static boolean runSojournSampling() {
+        System.out.print("Running test: Sojourn sampling... ");
+
+        QueueMetrics metrics = new QueueMetrics(4);
+        ProducerConsumerConcurrentQueue<Object> testQueue = new ProducerConsumerConcurrentQueue<>(10, WaitStrategy.blocking(), metrics);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 5; i++) {
+                testQueue.enqueue(new Object());
+            }
+            testQueue.enqueueAll(new Object[] { new Object(), new Object(), new Object() });
+            testQueue.dequeue();
+            testQueue.dequeue();
+            testQueue.drainTo(new ArrayList<>(), 6);
+        }
+
+        QueueMetrics.Snapshot snapshot = metrics.snapshot();
+        if (snapshot.getEnqueuedCount() != 24 || snapshot.getDequeuedCount() != 24 || snapshot.getSojournHistogram().getCount() != 6) {
+            PCQueueTestHelpers.printFail("Expected 24 enqueued and dequeued, and 6 sojourn times; Observed " + snapshot);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // The counters can be read (live) through the platform MBean server
+    private static boolean runJmx() {
+        System.out.print("Running test: JMX attributes... ");
+
+        QueueMetrics metrics = new QueueMetrics();
+        ProducerConsumerConcurrentQueue<Object> testQueue = new ProducerConsumerConcurrentQueue<>(5, WaitStrategy.blocking(), metrics);
+        try {
+            ObjectName objectName = metrics.register("Test_QueueMetrics");
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                testQueue.enqueue(new Object());
+                testQueue.enqueue(new Object());
+                Object enqueued = server.getAttribute(objectName, "EnqueuedCount");
+                Object length = server.getAttribute(objectName, "Length");
+                if (!Long.valueOf(2).equals(enqueued) || !Integer.valueOf(2).equals(length)) {
+                    PCQueueTestHelpers.printFail("Expected EnqueuedCount 2 and Length 2 over JMX; Observed " + enqueued + " and " + length);
+                    return false;
+                }
+            } finally {
+                metrics.unregister();
+            }
+
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                PCQueueTestHelpers.printFail("Expected unregister to remove " + objectName);
+                return false;
+            }
+        } catch (Exception ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class Test_QueueTimeouts {
+    public static boolean run(ExecutorService threadPool, TestableQueue<Object> testQueue) {
+        System.out.print("Running test: Timed enqueue and dequeue... ");
+
+        final long timeoutMs = PCQueueTestHelpers.CONST_TIMEOUT_SHORT;
+        final long toleranceMs = PCQueueTestHelpers.CONST_TIMEOUT_TOLERANCE;
+
+        Future<Long> testFutureDequeueTimeout = null;
+        Future<Long> testFutureEnqueueTimeout = null;
+        Future<Object> testFutureDequeueUnblock = null;
+        try {
+            // Test timed dequeue on an empty queue gives up after (about) the timeout
+            testFutureDequeueTimeout = threadPool.submit(() ->
+            {
+                testQueue.resetQueue();
+                long startNanos = System.nanoTime();
+                Object item = testQueue.dequeue(timeoutMs, TimeUnit.MILLISECONDS);
+                long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                return item == null ? elapsedMs : -1L;
+            });
+            long elapsedMs = testFutureDequeueTimeout.get(timeoutMs + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (elapsedMs < 0) {
+                PCQueueTestHelpers.printFail("Expected null from timed dequeue on an empty queue; Observed an item");
+                return false;
+            }
+            if (elapsedMs < timeoutMs || elapsedMs > timeoutMs + toleranceMs) {
+                PCQueueTestHelpers.printFail("Expected timed dequeue to return after " + timeoutMs + "ms (+" + toleranceMs + "ms); Observed " + elapsedMs + "ms");
+                return false;
+            }
+
+            // Test timed enqueue on a full queue gives up after (about) the timeout, without adding the item
+            testFutureEnqueueTimeout = threadPool.submit(() ->
+            {
+                PCQueueTestHelpers.enqueueToCapacity(testQueue);
+                long startNanos = System.nanoTime();
+                boolean added = testQueue.enqueue(new Object(), timeoutMs, TimeUnit.MILLISECONDS);
+                long elapsedEnqueueMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                return added ? -1L : elapsedEnqueueMs;
+            });
+            elapsedMs = testFutureEnqueueTimeout.get(timeoutMs + PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            if (elapsedMs < 0) {
+                PCQueueTestHelpers.printFail("Expected timed enqueue to fail on a full queue; Observed success");
+                return false;
+            }
+            if (elapsedMs < timeoutMs || elapsedMs > timeoutMs + toleranceMs) {
+                PCQueueTestHelpers.printFail("Expected timed enqueue to return after " + timeoutMs + "ms (+" + toleranceMs + "ms); Observed " + elapsedMs + "ms");
+                return false;
+            }
+            if (testQueue.getLength() != testQueue.getCapacity()) {
+                PCQueueTestHelpers.printFail("Expected length " + testQueue.getCapacity() + " after a timed out enqueue; Observed " + testQueue.getLength());
+                return false;
+            }
+
+            // Test a long timed dequeue is unblocked as soon as an item shows up (not when the timeout runs out)
+            testQueue.resetQueue();
+            final Object unblockItem = new Object();
+            testFutureDequeueUnblock = threadPool.submit(() ->
+            {
+                return testQueue.dequeue(PCQueueTestHelpers.CONST_TIMEOUT_MEDIUM, TimeUnit.MILLISECONDS);
+            });
+            Thread.sleep(PCQueueTestHelpers.CONST_TIMEOUT_SHORT);
+            if (testFutureDequeueUnblock.isDone()) {
+                PCQueueTestHelpers.printFail("Expected timed dequeue to block on an empty queue; Observed did not block");
+                return false;
+            }
+            testQueue.enqueue(unblockItem);
+            Object item = testFutureDequeueUnblock.get(PCQueueTestHelpers.CONST_TIMEOUT_SHORT, TimeUnit.MILLISECONDS);
+            if (item != unblockItem) {
+                PCQueueTestHelpers.printFail("Expected timed dequeue to return the enqueued item; Observed " + item);
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            // Cancel any threads that are still working
+            if (testFutureDequeueTimeout != null && !testFutureDequeueTimeout.isDone()) testFutureDequeueTimeout.cancel(true);
+            if (testFutureEnqueueTimeout != null && !testFutureEnqueueTimeout.isDone()) testFutureEnqueueTimeout.cancel(true);
+            if (testFutureDequeueUnblock != null && !testFutureDequeueUnblock.isDone()) testFutureDequeueUnblock.cancel(true);
+        }
+
+        return true;
+    }
+}
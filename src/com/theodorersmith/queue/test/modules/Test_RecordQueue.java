@@ -0,0 +1,149 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.ProducerConsumerRecordQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Tests the parts of ProducerConsumerRecordQueue the Object based suite can't reach - writing and reading records in
+// place, the byte[] record length check, and reopening a memory mapped queue file with its records still in it.
+public class Test_RecordQueue {
+    private static final int RECORD_SIZE = 16; // A long and two ints
+
+    public static boolean run(Path queueFile) {
+        return runInPlaceRecords() &&
+                runRecordLength() &&
+                runReopenFile(queueFile);
+    }
+
+    // Records written with a RecordWriter come back intact (and in order) through a RecordReader, around the end of the buffer
+    private static boolean runInPlaceRecords() {
+        System.out.print("Running test: Records written and read in place... ");
+
+        // Capacity 3 is backed by 4 slots, so 10 records go around the buffer a couple of times
+        ProducerConsumerRecordQueue testQueue = new ProducerConsumerRecordQueue(3, RECORD_SIZE);
+        for (int i = 0; i < 10; i++) {
+            final int record = i;
+            testQueue.enqueue(slot -> slot.putLong(1000L + record).putInt(record).putInt(-record));
+            long[] read = testQueue.dequeue(slot -> new long[] { slot.getLong(), slot.getInt(), slot.getInt(), slot.remaining() });
+            if (read[0] != 1000L + i || read[1] != i || read[2] != -i || read[3] != 0) {
+                PCQueueTestHelpers.printFail("Expected record { " + (1000L + i) + ", " + i + ", " + -i + " } with nothing left over; Observed " + Arrays.toString(read));
+                return false;
+            }
+        }
+
+        // A slot's view stops at the end of its record
+        try {
+            testQueue.enqueue(slot -> slot.put(new byte[RECORD_SIZE + 1]));
+            PCQueueTestHelpers.printFail("Expected a write past the end of the record to throw");
+            return false;
+        } catch (RuntimeException expected) {
+            if (testQueue.getLength() != 0) {
+                PCQueueTestHelpers.printFail("Expected a failed write to leave the queue empty; Observed length " + testQueue.getLength());
+                return false;
+            }
+        }
+
+        // The reader only sees a read only view
+        testQueue.enqueue(slot -> slot.putLong(1L));
+        try {
+            testQueue.dequeue(slot -> slot.putLong(2L));
+            PCQueueTestHelpers.printFail("Expected a write through the reader's view to throw");
+            return false;
+        } catch (RuntimeException expected) {
+            // (The record is still at the head)
+            Long value = testQueue.tryDequeue(slot -> slot.getLong());
+            if (value == null || value != 1L) {
+                PCQueueTestHelpers.printFail("Expected the record to stay at the head after a failed read; Observed " + value);
+                return false;
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // byte[] records have to be exactly the record size
+    private static boolean runRecordLength() {
+        System.out.print("Running test: byte[] records must match the record size... ");
+
+        ProducerConsumerRecordQueue testQueue = new ProducerConsumerRecordQueue(2, RECORD_SIZE);
+        try {
+            testQueue.enqueue(new byte[RECORD_SIZE - 1]);
+            PCQueueTestHelpers.printFail("Expected a short record to be rejected");
+            return false;
+        } catch (IllegalArgumentException expected) {
+        }
+
+        byte[] record = new byte[RECORD_SIZE];
+        Arrays.fill(record, (byte)7);
+        testQueue.enqueue(record);
+        byte[] copy = testQueue.dequeue();
+        if (!Arrays.equals(record, copy) || copy == record) {
+            PCQueueTestHelpers.printFail("Expected an equal copy of the record back");
+            return false;
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+
+    // A memory mapped queue reopened on the same file still has its records, and a queue with different settings can't open it
+    private static boolean runReopenFile(Path queueFile) {
+        System.out.print("Running test: Reopen a memory mapped queue file... ");
+
+        try {
+            Files.deleteIfExists(queueFile);
+
+            // Go around the buffer once first, so the reopened head/tail aren't just zero
+            ProducerConsumerRecordQueue firstQueue = new ProducerConsumerRecordQueue(queueFile, 4, RECORD_SIZE);
+            for (int i = 0; i < 6; i++) {
+                final int record = i;
+                firstQueue.enqueue(slot -> slot.putLong(record));
+                if (i == 3) {
+                    // Full - free up some space for the last two
+                    for (int j = 0; j < 3; j++) {
+                        firstQueue.dequeue(slot -> slot.getLong());
+                    }
+                }
+            }
+            firstQueue.force();
+
+            ProducerConsumerRecordQueue reopenedQueue = new ProducerConsumerRecordQueue(queueFile, 4, RECORD_SIZE);
+            if (reopenedQueue.getLength() != 3) {
+                PCQueueTestHelpers.printFail("Expected 3 records in the reopened queue; Observed " + reopenedQueue.getLength());
+                return false;
+            }
+            for (long expected = 3; expected < 6; expected++) {
+                Long value = reopenedQueue.tryDequeue(slot -> slot.getLong());
+                if (value == null || value != expected) {
+                    PCQueueTestHelpers.printFail("Expected record " + expected + " from the reopened queue; Observed " + value);
+                    return false;
+                }
+            }
+
+            try {
+                new ProducerConsumerRecordQueue(queueFile, 8, RECORD_SIZE);
+                PCQueueTestHelpers.printFail("Expected a queue with a different capacity to refuse the file");
+                return false;
+            } catch (IOException expected) {
+            }
+
+        } catch (IOException ex) {
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex);
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(queueFile);
+            } catch (IOException ex) {
+                // Just leave it for the OS to clean up
+            }
+        }
+
+        PCQueueTestHelpers.printSuccess();
+        return true;
+    }
+}
@@ -0,0 +1,77 @@
+package com.theodorersmith.queue.test.modules;
+
+import com.theodorersmith.queue.test.TestableQueue;
+import com.theodorersmith.queue.test.PCQueueTestHelpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class Test_TryOperations {
+    public static boolean run(ExecutorService threadPool, TestableQueue<Object> testQueue) {
+        System.out.print("Running test: Non-blocking tryEnqueue and tryDequeue... ");
+
+        Future<String> testFuture = null;
+        try {
+            // Run everything on a worker so a blocking try* call shows up as a timeout rather than hanging the test
+            testFuture = threadPool.submit(() ->
+            {
+                testQueue.resetQueue();
+
+                // tryDequeue on an empty queue returns right away with nothing
+                if (testQueue.tryDequeue() != null) {
+                    return "Expected null from tryDequeue on an empty queue; Observed an item";
+                }
+
+                // tryEnqueue succeeds until the queue is full
+                for (int i = 0; i < testQueue.getCapacity(); i++) {
+                    if (!testQueue.tryEnqueue(i)) {
+                        return "Expected tryEnqueue to succeed with free space; Observed failure after " + i + " items";
+                    }
+                }
+
+                // ... and then returns right away without adding anything
+                if (testQueue.tryEnqueue(-1)) {
+                    return "Expected tryEnqueue to fail on a full queue; Observed success";
+                }
+                if (testQueue.getLength() != testQueue.getCapacity()) {
+                    return "Expected length " + testQueue.getCapacity() + " after a failed tryEnqueue; Observed " + testQueue.getLength();
+                }
+
+                // tryDequeue takes the items back in order
+                for (int i = 0; i < testQueue.getCapacity(); i++) {
+                    Object item = testQueue.tryDequeue();
+                    if (!Integer.valueOf(i).equals(item)) {
+                        return "Expected tryDequeue to return " + i + "; Observed " + item;
+                    }
+                }
+                if (testQueue.tryDequeue() != null) {
+                    return "Expected null from tryDequeue after draining the queue; Observed an item";
+                }
+                return null;
+            });
+
+            String failure = testFuture.get(PCQueueTestHelpers.CONST_TIMEOUT_SHORT * 10, TimeUnit.MILLISECONDS);
+            if (failure != null) {
+                PCQueueTestHelpers.printFail(failure);
+                return false;
+            }
+
+            PCQueueTestHelpers.printSuccess();
+
+        } catch (TimeoutException tEx) {
+            PCQueueTestHelpers.printFail("Expected try operations to return immediately; Observed blocking");
+            return false;
+        } catch (Exception ex) {
+            // If we encounter an exception, log that we failed the test and let finally shut down threads
+            PCQueueTestHelpers.printFail("Exception Encountered: " + ex.getMessage());
+            return false;
+        } finally {
+            // Cancel the thread if it is still working
+            if (testFuture != null && !testFuture.isDone()) testFuture.cancel(true);
+        }
+
+        return true;
+    }
+}